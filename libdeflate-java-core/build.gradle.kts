@@ -5,6 +5,8 @@ import org.apache.tools.ant.taskdefs.condition.Os
 
 plugins {
     `java-library`
+    // Test data shared with the tests of the other modules.
+    `java-test-fixtures`
 }
 
 dependencies {
@@ -110,6 +112,61 @@ sourceSets {
     }
 }
 
+// The java.lang.foreign backend needs Java 22. It is compiled separately and shipped in the
+// META-INF/versions/22 directory of a multi-release jar, replacing the stub in src/main/java.
+val java22: SourceSet by sourceSets.creating {
+    java.srcDir("src/main/java22")
+    compileClasspath += sourceSets.main.get().output
+}
+
+// Java Flight Recorder events need Java 11. Like the foreign backend, they replace a no-op stub
+// and are shipped in the META-INF/versions/11 directory.
+val java11: SourceSet by sourceSets.creating {
+    java.srcDir("src/main/java11")
+    compileClasspath += sourceSets.main.get().output
+}
+
+tasks.named<JavaCompile>("compileJava11Java") {
+    javaCompiler.set(javaToolchains.compilerFor {
+        languageVersion.set(JavaLanguageVersion.of(11))
+    })
+    options.release.set(11)
+}
+
+// Tests for the Java 11 classes. They run against the class directories rather than the
+// multi-release jar, so the Java 11 classes go ahead of the Java 8 stubs on the classpath.
+val java11Test: SourceSet by sourceSets.creating {
+    java.srcDir("src/test/java11")
+    compileClasspath += java11.output + sourceSets.test.get().compileClasspath
+    runtimeClasspath += java11.output + sourceSets.test.get().runtimeClasspath
+}
+
+tasks.named<JavaCompile>("compileJava11TestJava") {
+    javaCompiler.set(javaToolchains.compilerFor {
+        languageVersion.set(JavaLanguageVersion.of(11))
+    })
+    options.release.set(11)
+}
+
+val testJava11 by tasks.registering(Test::class) {
+    description = "Runs the tests for the Java 11 classes on Java 11."
+    group = "verification"
+    dependsOn(tasks.get("compileNatives"))
+    javaLauncher.set(javaToolchains.launcherFor {
+        languageVersion.set(JavaLanguageVersion.of(11))
+    })
+    testClassesDirs = java11Test.output.classesDirs
+    classpath = java11Test.runtimeClasspath
+    useJUnitPlatform()
+}
+
+tasks.named<JavaCompile>("compileJava22Java") {
+    javaCompiler.set(javaToolchains.compilerFor {
+        languageVersion.set(JavaLanguageVersion.of(22))
+    })
+    options.release.set(22)
+}
+
 tasks.jar {
     val osName = System.getProperty("os.name").lowercase(Locale.ENGLISH)
     val osArch = System.getProperty("os.arch").lowercase(Locale.ENGLISH)
@@ -125,8 +182,60 @@ tasks.named<Test>("test") {
     useJUnitPlatform()
 }
 
+// Runs the whole suite again with metrics enabled, which exercises the instrumented paths and lets
+// LibdeflateMetricsTest check what they record.
+val testMetrics by tasks.registering(Test::class) {
+    description = "Runs the tests with libdeflate_metrics=true."
+    group = "verification"
+    dependsOn(tasks.get("compileNatives"))
+    testClassesDirs = sourceSets.test.get().output.classesDirs
+    classpath = sourceSets.test.get().runtimeClasspath
+    useJUnitPlatform()
+    systemProperty("libdeflate_metrics", "true")
+}
+
+// Runs the whole suite again with every call on heap data copied through direct buffers.
+val testStaged by tasks.registering(Test::class) {
+    description = "Runs the tests with libdeflate_heap_mode=staged."
+    group = "verification"
+    dependsOn(tasks.get("compileNatives"))
+    testClassesDirs = sourceSets.test.get().output.classesDirs
+    classpath = sourceSets.test.get().runtimeClasspath
+    useJUnitPlatform()
+    systemProperty("libdeflate_heap_mode", "staged")
+}
+
+tasks.named("check") {
+    dependsOn(testMetrics, testStaged, testJava11)
+}
+
+// Runs the whole suite on Java 22 with the java.lang.foreign backend. The tests run from class
+// directories rather than the multi-release jar, so the Java 22 classes go first on the classpath.
+val testForeign by tasks.registering(Test::class) {
+    description = "Runs the tests on Java 22 with libdeflate_backend=ffm."
+    group = "verification"
+    dependsOn(tasks.get("compileNatives"))
+    javaLauncher.set(javaToolchains.launcherFor {
+        languageVersion.set(JavaLanguageVersion.of(22))
+    })
+    testClassesDirs = sourceSets.test.get().output.classesDirs
+    classpath = java22.output + sourceSets.test.get().runtimeClasspath
+    useJUnitPlatform()
+    jvmArgs("--enable-native-access=ALL-UNNAMED")
+    systemProperty("libdeflate_backend", "ffm")
+}
+
 tasks.jar {
     dependsOn(tasks.get("compileNatives"))
+    into("META-INF/versions/11") {
+        from(java11.output)
+    }
+    into("META-INF/versions/22") {
+        from(java22.output)
+    }
+    manifest {
+        attributes("Multi-Release" to "true")
+    }
 }
 
 spotless {
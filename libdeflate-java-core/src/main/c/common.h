@@ -20,4 +20,8 @@
 #define COMPRESSION_TYPE_ZLIB 1
 #define COMPRESSION_TYPE_GZIP 2
 
+// Batch calls copy their per-entry positions in and results out in chunks of
+// this many entries.
+#define BATCH_CHUNK_ENTRIES 64
+
 #endif
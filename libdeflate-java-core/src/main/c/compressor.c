@@ -16,26 +16,20 @@
 #include "./common.h"
 #include "./jni_util.h"
 #include "./libdeflate/libdeflate.h"
+#include "./memory.h"
 
 LIBDEFLATEJAVA_PUBLIC JNIEXPORT jlong JNICALL
 Java_me_steinborn_libdeflate_LibdeflateCompressor_allocate(JNIEnv *env,
                                                            jclass klass,
                                                            jint level) {
-  struct libdeflate_compressor *compressor = libdeflate_alloc_compressor(level);
-  if (compressor == NULL) {
-    // Out of memory!
-    throwException(env, "java/lang/OutOfMemoryError",
-                   "libdeflate allocate compressor");
-    return 0;
-  }
-  return (jlong)compressor;
+  return (jlong)allocateCompressor(env, level);
 }
 
 LIBDEFLATEJAVA_PUBLIC JNIEXPORT void JNICALL
 Java_me_steinborn_libdeflate_LibdeflateCompressor_free(JNIEnv *env,
-                                                       jclass klass,
-                                                       jlong ctx) {
-  libdeflate_free_compressor((struct libdeflate_compressor *)ctx);
+                                                       jclass klass, jlong ctx,
+                                                       jint level) {
+  freeCompressor((struct libdeflate_compressor *)ctx, level);
 }
 
 jlong performCompression(jlong ctx, jbyte *inBytes, jint inPos, jint inSize,
@@ -154,6 +148,72 @@ Java_me_steinborn_libdeflate_LibdeflateCompressor_compressOnlyDestinationDirect(
   return result;
 }
 
+LIBDEFLATEJAVA_PUBLIC JNIEXPORT void JNICALL
+Java_me_steinborn_libdeflate_LibdeflateCompressor_compressBatch(
+    JNIEnv *env, jclass klass, jlong ctx, jobjectArray in, jobjectArray out,
+    jintArray positions, jint count, jint type, jintArray results) {
+  // positions holds (inPos, inSize, outPos, outSize) for each entry.
+  jint chunkPositions[BATCH_CHUNK_ENTRIES * 4];
+  jint chunkResults[BATCH_CHUNK_ENTRIES];
+
+  for (jint start = 0; start < count; start += BATCH_CHUNK_ENTRIES) {
+    jint chunk = count - start < BATCH_CHUNK_ENTRIES ? count - start
+                                                      : BATCH_CHUNK_ENTRIES;
+    (*env)->GetIntArrayRegion(env, positions, start * 4, chunk * 4,
+                              chunkPositions);
+
+    for (jint i = 0; i < chunk; i++) {
+      jint *entry = chunkPositions + i * 4;
+      jobject inElement = (*env)->GetObjectArrayElement(env, in, start + i);
+      jobject outElement = (*env)->GetObjectArrayElement(env, out, start + i);
+
+      // Each element is either a direct ByteBuffer or a byte array, and
+      // GetDirectBufferAddress returns NULL for anything that is not a direct
+      // buffer. Both addresses must be resolved before entering a critical
+      // region, since no other JNI functions may be called while one is held.
+      jbyte *inBytes = (*env)->GetDirectBufferAddress(env, inElement);
+      jbyte *outBytes = (*env)->GetDirectBufferAddress(env, outElement);
+      jboolean inIsArray = inBytes == NULL;
+      jboolean outIsArray = outBytes == NULL;
+      if (inIsArray) {
+        inBytes = (*env)->GetPrimitiveArrayCritical(env, inElement, 0);
+      }
+      if (outIsArray && inBytes != NULL) {
+        outBytes = (*env)->GetPrimitiveArrayCritical(env, outElement, 0);
+      }
+      if (inBytes == NULL || outBytes == NULL) {
+        // Out of memory. Fail the whole batch, rather than leave this entry
+        // and every later one looking like an empty result.
+        if (inIsArray && inBytes != NULL) {
+          (*env)->ReleasePrimitiveArrayCritical(env, inElement, inBytes,
+                                                JNI_ABORT);
+        }
+        if (!(*env)->ExceptionCheck(env)) {
+          throwException(env, "java/lang/OutOfMemoryError",
+                         "unable to pin arrays for batch compression");
+        }
+        return;
+      }
+
+      chunkResults[i] =
+          (jint)performCompression(ctx, inBytes, entry[0], entry[1], outBytes,
+                                   entry[2], entry[3], type);
+
+      if (inIsArray) {
+        (*env)->ReleasePrimitiveArrayCritical(env, inElement, inBytes,
+                                              JNI_ABORT);
+      }
+      if (outIsArray) {
+        (*env)->ReleasePrimitiveArrayCritical(env, outElement, outBytes, 0);
+      }
+      (*env)->DeleteLocalRef(env, inElement);
+      (*env)->DeleteLocalRef(env, outElement);
+    }
+
+    (*env)->SetIntArrayRegion(env, results, start, chunk, chunkResults);
+  }
+}
+
 LIBDEFLATEJAVA_PUBLIC JNIEXPORT jlong JNICALL
 Java_me_steinborn_libdeflate_LibdeflateCompressor_getCompressBound(
     JNIEnv *env, jclass klass, jlong ctx, jlong length, jint type) {
@@ -16,48 +16,43 @@
 #include "./common.h"
 #include "./jni_util.h"
 #include "./libdeflate/libdeflate.h"
-
-static jfieldID ctxFieldID;
-static jfieldID availInFieldID;
-
-LIBDEFLATEJAVA_PUBLIC JNIEXPORT void JNICALL
-Java_me_steinborn_libdeflate_LibdeflateDecompressor_initIDs(JNIEnv *env,
-                                                            jclass klass) {
-  ctxFieldID = (*env)->GetFieldID(env, klass, "ctx", "J");
-  availInFieldID = (*env)->GetFieldID(env, klass, "availInBytes", "J");
-}
+#include "./memory.h"
 
 LIBDEFLATEJAVA_PUBLIC JNIEXPORT jlong JNICALL
 Java_me_steinborn_libdeflate_LibdeflateDecompressor_allocate(JNIEnv *env,
                                                              jclass klass) {
-  struct libdeflate_decompressor *decompressor =
-      libdeflate_alloc_decompressor();
-  if (decompressor == NULL) {
-    // Out of memory!
-    throwException(env, "java/lang/OutOfMemoryError",
-                   "libdeflate allocate decompressor");
-    return 0;
-  }
-  return (jlong)decompressor;
+  return (jlong)allocateDecompressor(env);
 }
 
 LIBDEFLATEJAVA_PUBLIC JNIEXPORT void JNICALL
 Java_me_steinborn_libdeflate_LibdeflateDecompressor_free(JNIEnv *env,
                                                          jclass klass,
                                                          jlong ctx) {
-  libdeflate_free_decompressor((struct libdeflate_decompressor *)ctx);
+  freeDecompressor((struct libdeflate_decompressor *)ctx);
 }
 
-jlong performDecompression(JNIEnv *env, jobject this, /* JNI fluff */
-                           jbyte *inBytes, jint inPos,
-                           jint inSize, /* Input buffer */
-                           jbyte *outBytes, jint outPos,
-                           jint outSize, /* Output buffer */
-                           jint type,    /* Compression wrapper */
-                           jint knownSize) {
+// performDecompression returns one of these (negative) status codes when
+// decompression fails. Keep these in sync with LibdeflateDecompressor.
+#define DECOMPRESSION_INSUFFICIENT_SPACE -1
+#define DECOMPRESSION_BAD_DATA -2
+#define DECOMPRESSION_SHORT_OUTPUT -3
+#define DECOMPRESSION_UNKNOWN_ERROR -4
+
+// On success, returns the number of input bytes consumed in the upper 32 bits
+// and the number of output bytes produced in the lower 32 bits. Both always
+// fit, since buffer sizes are jints. Everything is passed in and returned, so
+// no JNI field accesses are needed and no state is kept on the Java object.
+//
+// This function never calls into the JVM, so it is safe to call from inside a
+// critical region. Use checkDecompressionResult once the region is released.
+static jlong performDecompression(jlong ctx, jbyte *inBytes, jint inPos,
+                                  jint inSize, /* Input buffer */
+                                  jbyte *outBytes, jint outPos,
+                                  jint outSize, /* Output buffer */
+                                  jint type,    /* Compression wrapper */
+                                  jint knownSize) {
   // We assume that any input validation has already been done before the method
   // has been called.
-  jlong ctx = (*env)->GetLongField(env, this, ctxFieldID);
   struct libdeflate_decompressor *decompressor =
       (struct libdeflate_decompressor *)ctx;
 
@@ -66,7 +61,7 @@ jlong performDecompression(JNIEnv *env, jobject this, /* JNI fluff */
 
   size_t availableOutBytes = knownSize == -1 ? outSize : knownSize;
   size_t actualInBytes = 0;
-  size_t actualOutBytes = 0; // in case of unknown size
+  size_t actualOutBytes = knownSize; // only updated in case of unknown size
 
   enum libdeflate_result result = 0;
   switch (type) {
@@ -89,19 +84,34 @@ jlong performDecompression(JNIEnv *env, jobject this, /* JNI fluff */
 
   switch (result) {
   case LIBDEFLATE_SUCCESS:
-    (*env)->SetLongField(env, this, availInFieldID, actualInBytes);
-    return actualOutBytes;
+    return (jlong)actualInBytes << 32 | (jlong)actualOutBytes;
   case LIBDEFLATE_BAD_DATA:
+    return DECOMPRESSION_BAD_DATA;
+  case LIBDEFLATE_SHORT_OUTPUT:
+    return DECOMPRESSION_SHORT_OUTPUT;
+  case LIBDEFLATE_INSUFFICIENT_SPACE:
+    return DECOMPRESSION_INSUFFICIENT_SPACE;
+  default:
+    return DECOMPRESSION_UNKNOWN_ERROR;
+  }
+}
+
+// Turns a failed result from performDecompression into an exception. This must
+// not be called while inside a critical region.
+static jlong checkDecompressionResult(JNIEnv *env, jlong result,
+                                      jint knownSize) {
+  switch (result) {
+  case DECOMPRESSION_BAD_DATA:
     throwException(env, "java/util/zip/DataFormatException",
                    "input data is corrupted");
     return 0;
-  case LIBDEFLATE_SHORT_OUTPUT:
+  case DECOMPRESSION_SHORT_OUTPUT:
     // This case only fires when the exact uncompressed size was specified by
     // the user
     throwException(env, "java/util/zip/DataFormatException",
                    "decompressed data is shorter than expected size");
     return 0;
-  case LIBDEFLATE_INSUFFICIENT_SPACE:
+  case DECOMPRESSION_INSUFFICIENT_SPACE:
     // There's two ways we could handle this:
     // - Throw an exception.
     // - Return a sentinel value indicating that the output buffer was not big
@@ -116,17 +126,20 @@ jlong performDecompression(JNIEnv *env, jobject this, /* JNI fluff */
           "decompressed data would be too large for given output buffer");
       return 0;
     }
-  default:
+  case DECOMPRESSION_UNKNOWN_ERROR:
     throwException(env, "java/util/zip/DataFormatException",
                    "unknown libdeflate error");
     return 0;
+  default:
+    return result;
   }
 }
 
 LIBDEFLATEJAVA_PUBLIC JNIEXPORT jlong JNICALL
 Java_me_steinborn_libdeflate_LibdeflateDecompressor_decompressBothHeap(
-    JNIEnv *env, jobject this, jbyteArray in, jint inPos, jint inSize,
-    jbyteArray out, jint outPos, jint outSize, jint type, jint knownSize) {
+    JNIEnv *env, jclass klass, jlong ctx, jbyteArray in, jint inPos,
+    jint inSize, jbyteArray out, jint outPos, jint outSize, jint type,
+    jint knownSize) {
   jbyte *inBytes = (*env)->GetPrimitiveArrayCritical(env, in, 0);
   jbyte *outBytes = (*env)->GetPrimitiveArrayCritical(env, out, 0);
 
@@ -137,21 +150,20 @@ Java_me_steinborn_libdeflate_LibdeflateDecompressor_decompressBothHeap(
     return -1;
   }
 
-  jlong result =
-      performDecompression(env, this, inBytes, inPos, inSize, outBytes, outPos,
-                           outSize, type, knownSize);
+  jlong result = performDecompression(ctx, inBytes, inPos, inSize, outBytes,
+                                      outPos, outSize, type, knownSize);
 
   // We immediately commit the changes to the output array, but the input array
   // is never touched, so use JNI_ABORT to improve performance a bit.
   (*env)->ReleasePrimitiveArrayCritical(env, in, inBytes, JNI_ABORT);
   (*env)->ReleasePrimitiveArrayCritical(env, out, outBytes, 0);
-  return result;
+  return checkDecompressionResult(env, result, knownSize);
 }
 
 LIBDEFLATEJAVA_PUBLIC JNIEXPORT jlong JNICALL
 Java_me_steinborn_libdeflate_LibdeflateDecompressor_decompressBothDirect(
-    JNIEnv *env, jobject this, jobject in, jint inPos, jint inSize, jobject out,
-    jint outPos, jint outSize, jint type, jint knownSize) {
+    JNIEnv *env, jclass klass, jlong ctx, jobject in, jint inPos, jint inSize,
+    jobject out, jint outPos, jint outSize, jint type, jint knownSize) {
   jbyte *inBytes = (*env)->GetDirectBufferAddress(env, in);
   jbyte *outBytes = (*env)->GetDirectBufferAddress(env, out);
 
@@ -161,13 +173,14 @@ Java_me_steinborn_libdeflate_LibdeflateDecompressor_decompressBothDirect(
     return -1;
   }
 
-  return performDecompression(env, this, inBytes, inPos, inSize, outBytes,
-                              outPos, outSize, type, knownSize);
+  jlong result = performDecompression(ctx, inBytes, inPos, inSize, outBytes,
+                                      outPos, outSize, type, knownSize);
+  return checkDecompressionResult(env, result, knownSize);
 }
 
 LIBDEFLATEJAVA_PUBLIC JNIEXPORT jlong JNICALL
 Java_me_steinborn_libdeflate_LibdeflateDecompressor_decompressOnlySourceDirect(
-    JNIEnv *env, jobject this, jobject in, jint inPos, jint inSize,
+    JNIEnv *env, jclass klass, jlong ctx, jobject in, jint inPos, jint inSize,
     jbyteArray out, jint outPos, jint outSize, jint type, jint knownSize) {
   jbyte *inBytes = (*env)->GetDirectBufferAddress(env, in);
   if (inBytes == NULL) {
@@ -182,18 +195,18 @@ Java_me_steinborn_libdeflate_LibdeflateDecompressor_decompressOnlySourceDirect(
     return -1;
   }
 
-  jlong result =
-      performDecompression(env, this, inBytes, inPos, inSize, outBytes, outPos,
-                           outSize, type, knownSize);
+  jlong result = performDecompression(ctx, inBytes, inPos, inSize, outBytes,
+                                      outPos, outSize, type, knownSize);
   // Commit the output array
   (*env)->ReleasePrimitiveArrayCritical(env, out, outBytes, 0);
-  return result;
+  return checkDecompressionResult(env, result, knownSize);
 }
 
 LIBDEFLATEJAVA_PUBLIC JNIEXPORT jlong JNICALL
 Java_me_steinborn_libdeflate_LibdeflateDecompressor_decompressOnlyDestinationDirect(
-    JNIEnv *env, jobject this, jbyteArray in, jint inPos, jint inSize,
-    jobject out, jint outPos, jint outSize, jint type, jint knownSize) {
+    JNIEnv *env, jclass klass, jlong ctx, jbyteArray in, jint inPos,
+    jint inSize, jobject out, jint outPos, jint outSize, jint type,
+    jint knownSize) {
   jbyte *outBytes = (*env)->GetDirectBufferAddress(env, out);
   if (outBytes == NULL) {
     throwException(env, "java/lang/IllegalArgumentException",
@@ -202,14 +215,80 @@ Java_me_steinborn_libdeflate_LibdeflateDecompressor_decompressOnlyDestinationDir
   }
 
   jbyte *inBytes = (*env)->GetPrimitiveArrayCritical(env, in, 0);
-  if (outBytes == NULL) {
+  if (inBytes == NULL) {
     // out of memory
     return -1;
   }
 
-  jlong result =
-      performDecompression(env, this, inBytes, inPos, inSize, outBytes, outPos,
-                           outSize, type, knownSize);
+  jlong result = performDecompression(ctx, inBytes, inPos, inSize, outBytes,
+                                      outPos, outSize, type, knownSize);
   (*env)->ReleasePrimitiveArrayCritical(env, in, inBytes, JNI_ABORT);
-  return result;
+  return checkDecompressionResult(env, result, knownSize);
+}
+
+LIBDEFLATEJAVA_PUBLIC JNIEXPORT void JNICALL
+Java_me_steinborn_libdeflate_LibdeflateDecompressor_decompressBatch(
+    JNIEnv *env, jclass klass, jlong ctx, jobjectArray in, jobjectArray out,
+    jintArray positions, jint count, jint type, jlongArray results) {
+  // positions holds (inPos, inSize, outPos, outSize) for each entry.
+  jint chunkPositions[BATCH_CHUNK_ENTRIES * 4];
+  jlong chunkResults[BATCH_CHUNK_ENTRIES];
+
+  for (jint start = 0; start < count; start += BATCH_CHUNK_ENTRIES) {
+    jint chunk = count - start < BATCH_CHUNK_ENTRIES ? count - start
+                                                      : BATCH_CHUNK_ENTRIES;
+    (*env)->GetIntArrayRegion(env, positions, start * 4, chunk * 4,
+                              chunkPositions);
+
+    for (jint i = 0; i < chunk; i++) {
+      jint *entry = chunkPositions + i * 4;
+      jobject inElement = (*env)->GetObjectArrayElement(env, in, start + i);
+      jobject outElement = (*env)->GetObjectArrayElement(env, out, start + i);
+
+      // See compressBatch in compressor.c for why this is done up front.
+      jbyte *inBytes = (*env)->GetDirectBufferAddress(env, inElement);
+      jbyte *outBytes = (*env)->GetDirectBufferAddress(env, outElement);
+      jboolean inIsArray = inBytes == NULL;
+      jboolean outIsArray = outBytes == NULL;
+      if (inIsArray) {
+        inBytes = (*env)->GetPrimitiveArrayCritical(env, inElement, 0);
+      }
+      if (outIsArray && inBytes != NULL) {
+        outBytes = (*env)->GetPrimitiveArrayCritical(env, outElement, 0);
+      }
+      if (inBytes == NULL || outBytes == NULL) {
+        // Out of memory. Fail the whole batch, rather than leave this entry
+        // and every later one looking like an empty result.
+        if (inIsArray && inBytes != NULL) {
+          (*env)->ReleasePrimitiveArrayCritical(env, inElement, inBytes,
+                                                JNI_ABORT);
+        }
+        if (!(*env)->ExceptionCheck(env)) {
+          throwException(env, "java/lang/OutOfMemoryError",
+                         "unable to pin arrays for batch decompression");
+        }
+        return;
+      }
+
+      // The batch API reports failures as BATCH_INSUFFICIENT_SPACE or
+      // BATCH_BAD_DATA, which match the first two status codes.
+      jlong result =
+          performDecompression(ctx, inBytes, entry[0], entry[1], outBytes,
+                               entry[2], entry[3], type, -1);
+      chunkResults[i] =
+          result < DECOMPRESSION_BAD_DATA ? DECOMPRESSION_BAD_DATA : result;
+
+      if (inIsArray) {
+        (*env)->ReleasePrimitiveArrayCritical(env, inElement, inBytes,
+                                              JNI_ABORT);
+      }
+      if (outIsArray) {
+        (*env)->ReleasePrimitiveArrayCritical(env, outElement, outBytes, 0);
+      }
+      (*env)->DeleteLocalRef(env, inElement);
+      (*env)->DeleteLocalRef(env, outElement);
+    }
+
+    (*env)->SetLongArrayRegion(env, results, start, chunk, chunkResults);
+  }
 }
@@ -0,0 +1,160 @@
+/*
+ * Copyright 2024 Andrew Steinborn
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+#include <stdlib.h>
+
+#include "./jni_util.h"
+#include "./memory.h"
+
+#ifdef _MSC_VER
+#include <windows.h>
+#define THREAD_LOCAL __declspec(thread)
+#define atomicAdd(ptr, delta)                                                  \
+  (InterlockedExchangeAdd64((volatile LONG64 *)(ptr), (delta)) + (delta))
+#define atomicLoad(ptr) InterlockedOr64((volatile LONG64 *)(ptr), 0)
+#define atomicStore(ptr, value)                                                \
+  InterlockedExchange64((volatile LONG64 *)(ptr), (value))
+#else
+#define THREAD_LOCAL __thread
+#define atomicAdd(ptr, delta)                                                  \
+  __atomic_add_fetch((ptr), (delta), __ATOMIC_RELAXED)
+#define atomicLoad(ptr) __atomic_load_n((ptr), __ATOMIC_RELAXED)
+#define atomicStore(ptr, value)                                                \
+  __atomic_store_n((ptr), (value), __ATOMIC_RELAXED)
+#endif
+
+// Each block starts with a header recording its size and slot, so it can be
+// accounted for when it is freed. It is 16 bytes long to keep the alignment
+// that malloc guarantees.
+#define HEADER_SIZE 16
+
+struct blockHeader {
+  jlong size;
+  jint slot;
+};
+
+static jlong liveBytes[MEMORY_SLOTS];
+static jlong liveContexts[MEMORY_SLOTS];
+static jlong totalBytes;
+// Zero means there is no limit.
+static jlong memoryLimit;
+
+// libdeflate's allocation hooks only receive a size, so the slot being
+// allocated for is passed to them on the side.
+static THREAD_LOCAL jint currentSlot;
+static THREAD_LOCAL jint limitExceeded;
+
+static void *countingMalloc(size_t size) {
+  jlong total = (jlong)size + HEADER_SIZE;
+  jlong limit = atomicLoad(&memoryLimit);
+  if (atomicAdd(&totalBytes, total) > limit && limit != 0) {
+    atomicAdd(&totalBytes, -total);
+    limitExceeded = 1;
+    return NULL;
+  }
+
+  unsigned char *block = malloc(size + HEADER_SIZE);
+  if (block == NULL) {
+    atomicAdd(&totalBytes, -total);
+    return NULL;
+  }
+  struct blockHeader *header = (struct blockHeader *)block;
+  header->size = total;
+  header->slot = currentSlot;
+  atomicAdd(&liveBytes[currentSlot], total);
+  return block + HEADER_SIZE;
+}
+
+static void countingFree(void *ptr) {
+  if (ptr == NULL) {
+    return;
+  }
+  unsigned char *block = (unsigned char *)ptr - HEADER_SIZE;
+  struct blockHeader *header = (struct blockHeader *)block;
+  atomicAdd(&liveBytes[header->slot], -header->size);
+  atomicAdd(&totalBytes, -header->size);
+  free(block);
+}
+
+static const struct libdeflate_options countingOptions = {
+    sizeof(struct libdeflate_options), countingMalloc, countingFree};
+
+static void throwAllocationFailure(JNIEnv *env, const char *msg,
+                                   const char *limitMsg) {
+  if (limitExceeded) {
+    limitExceeded = 0;
+    throwException(env, "java/lang/OutOfMemoryError", limitMsg);
+  } else {
+    throwException(env, "java/lang/OutOfMemoryError", msg);
+  }
+}
+
+struct libdeflate_compressor *allocateCompressor(JNIEnv *env, int level) {
+  currentSlot = level;
+  struct libdeflate_compressor *compressor =
+      libdeflate_alloc_compressor_ex(level, &countingOptions);
+  if (compressor == NULL) {
+    throwAllocationFailure(
+        env, "libdeflate allocate compressor",
+        "libdeflate allocate compressor: native memory limit exceeded");
+    return NULL;
+  }
+  atomicAdd(&liveContexts[level], 1);
+  return compressor;
+}
+
+struct libdeflate_decompressor *allocateDecompressor(JNIEnv *env) {
+  currentSlot = MEMORY_DECOMPRESSOR_SLOT;
+  struct libdeflate_decompressor *decompressor =
+      libdeflate_alloc_decompressor_ex(&countingOptions);
+  if (decompressor == NULL) {
+    throwAllocationFailure(
+        env, "libdeflate allocate decompressor",
+        "libdeflate allocate decompressor: native memory limit exceeded");
+    return NULL;
+  }
+  atomicAdd(&liveContexts[MEMORY_DECOMPRESSOR_SLOT], 1);
+  return decompressor;
+}
+
+void freeCompressor(struct libdeflate_compressor *compressor, int level) {
+  libdeflate_free_compressor(compressor);
+  atomicAdd(&liveContexts[level], -1);
+}
+
+void freeDecompressor(struct libdeflate_decompressor *decompressor) {
+  libdeflate_free_decompressor(decompressor);
+  atomicAdd(&liveContexts[MEMORY_DECOMPRESSOR_SLOT], -1);
+}
+
+LIBDEFLATEJAVA_PUBLIC JNIEXPORT void JNICALL
+Java_me_steinborn_libdeflate_LibdeflateMemoryStats_readCounters(
+    JNIEnv *env, jclass klass, jlongArray bytes, jlongArray contexts) {
+  jlong bytesCopy[MEMORY_SLOTS];
+  jlong contextsCopy[MEMORY_SLOTS];
+  for (int i = 0; i < MEMORY_SLOTS; i++) {
+    bytesCopy[i] = atomicLoad(&liveBytes[i]);
+    contextsCopy[i] = atomicLoad(&liveContexts[i]);
+  }
+  (*env)->SetLongArrayRegion(env, bytes, 0, MEMORY_SLOTS, bytesCopy);
+  (*env)->SetLongArrayRegion(env, contexts, 0, MEMORY_SLOTS, contextsCopy);
+}
+
+LIBDEFLATEJAVA_PUBLIC JNIEXPORT void JNICALL
+Java_me_steinborn_libdeflate_LibdeflateMemoryStats_setLimit0(JNIEnv *env,
+                                                             jclass klass,
+                                                             jlong limit) {
+  atomicStore(&memoryLimit, limit);
+}
@@ -0,0 +1,37 @@
+/*
+ * Copyright 2024 Andrew Steinborn
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+#ifndef MEMORY_H
+#define MEMORY_H
+
+#include <jni.h>
+
+#include "./libdeflate/libdeflate.h"
+
+// Native memory is accounted separately for compressors of each level
+// (slots 0 to 12) and for decompressors. Keep these in sync with
+// LibdeflateMemoryStats.
+#define MEMORY_DECOMPRESSOR_SLOT 13
+#define MEMORY_SLOTS 14
+
+// These allocate contexts through counting allocators. On failure, they throw
+// an OutOfMemoryError and return NULL.
+struct libdeflate_compressor *allocateCompressor(JNIEnv *env, int level);
+struct libdeflate_decompressor *allocateDecompressor(JNIEnv *env);
+
+void freeCompressor(struct libdeflate_compressor *compressor, int level);
+void freeDecompressor(struct libdeflate_decompressor *decompressor);
+
+#endif
@@ -0,0 +1,276 @@
+/*
+ * Copyright 2024 Andrew Steinborn
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package me.steinborn.libdeflate;
+
+import java.io.Closeable;
+import java.nio.ByteBuffer;
+
+/**
+ * A compressor that picks its compression level from a range as it goes, to get the best ratio that
+ * can be afforded at the current load. Compression time is budgeted as a fraction of the wall-clock
+ * time of one thread: with a budget of {@code 0.25}, no more than 250 ms of each second should be
+ * spent compressing.
+ *
+ * <p>The compressor measures the time spent compressing and the bytes compressed over windows of
+ * 100 ms, and keeps a moving average of the cost per byte and the compression ratio of each level
+ * it has used. At the end of each window, it estimates what each level would have cost for the data
+ * seen in that window, and switches to the level with the best ratio among those that fit the
+ * budget. If the budget was exceeded and no level is known to fit, it steps down one level; if
+ * there was headroom and the next level up has not been tried yet, it steps up one level to try it.
+ * Since the cost of a level is scaled by the amount of data being compressed, levels that were too
+ * slow under heavy load are picked again once the load drops.
+ *
+ * <p>A separate libdeflate compressor is allocated for each level the first time it is used, and
+ * all of them are freed when this compressor is closed.
+ *
+ * <p><strong>Thread-safety</strong>: this class is not thread-safe. Its budget is that of the one
+ * thread using it.
+ */
+public class AdaptiveLibdeflateCompressor implements Closeable, AutoCloseable {
+  private static final long WINDOW_NANOS = 100_000_000L;
+
+  /** The weight given to the latest window in the moving averages. */
+  private static final double SMOOTHING = 0.25;
+
+  /** Only step up to an untried level if the budget was at most this full. */
+  private static final double PROBE_THRESHOLD = 0.8;
+
+  /** How much better the ratio of a slower level must be for it to be preferred. */
+  private static final double MIN_RATIO_GAIN = 0.005;
+
+  private final LibdeflateCompressor[] compressors =
+      new LibdeflateCompressor[LibdeflateCompressor.MAXIMUM_COMPRESSION_LEVEL + 1];
+  private final double[] nanosPerByte = new double[compressors.length];
+  private final double[] ratio = new double[compressors.length];
+  private final int minLevel;
+  private final int maxLevel;
+  private final double budget;
+
+  private int level;
+  private long windowStart;
+  private long windowIn;
+  private long windowOut;
+  private long windowNanos;
+  private boolean closed = false;
+
+  /**
+   * Creates a new adaptive compressor that picks levels from 1 to 12.
+   *
+   * @param budget the fraction of time that may be spent compressing, greater than 0 and at most 1
+   * @throws IllegalArgumentException if the budget is not within range
+   */
+  public AdaptiveLibdeflateCompressor(double budget) {
+    this(1, LibdeflateCompressor.MAXIMUM_COMPRESSION_LEVEL, budget);
+  }
+
+  /**
+   * Creates a new adaptive compressor. It starts at the default level of 6, or at the closest level
+   * within range.
+   *
+   * @param minLevel the lowest compression level to use, from 0 to 12
+   * @param maxLevel the highest compression level to use, from {@code minLevel} to 12
+   * @param budget the fraction of time that may be spent compressing, greater than 0 and at most 1
+   * @throws IllegalArgumentException if a level or the budget is not within range
+   */
+  public AdaptiveLibdeflateCompressor(int minLevel, int maxLevel, double budget) {
+    this(minLevel, maxLevel, budget, System.nanoTime());
+  }
+
+  AdaptiveLibdeflateCompressor(int minLevel, int maxLevel, double budget, long now) {
+    this.minLevel = LibdeflateCompressor.normalizeLevel(minLevel);
+    this.maxLevel = LibdeflateCompressor.normalizeLevel(maxLevel);
+    if (this.minLevel > this.maxLevel) {
+      throw new IllegalArgumentException("minLevel must not be greater than maxLevel");
+    }
+    if (!(budget > 0 && budget <= 1)) {
+      throw new IllegalArgumentException("budget must be greater than 0 and at most 1");
+    }
+    this.budget = budget;
+    this.level = Math.max(this.minLevel, Math.min(this.maxLevel, 6));
+    this.windowStart = now;
+  }
+
+  /**
+   * Returns the compression level that the next call will use.
+   *
+   * @return the compression level, from 0 to 12
+   */
+  public int getLevel() {
+    return level;
+  }
+
+  /**
+   * Compresses the entirety of {@code in} array into the {@code out} array.
+   *
+   * @param in the source array to compress
+   * @param out the destination which will hold compressed data
+   * @param type the compression container to use
+   * @return a positive, non-zero integer with the size of the compressed output, or zero if the
+   *     given output buffer was too small
+   * @see LibdeflateCompressor#compress(byte[], byte[], CompressionType)
+   */
+  public int compress(byte[] in, byte[] out, CompressionType type) {
+    LibdeflateCompressor compressor = current();
+    long start = System.nanoTime();
+    int result = compressor.compress(in, out, type);
+    finish(in.length, result, start);
+    return result;
+  }
+
+  /**
+   * Compresses the given {@code in} array into the {@code out} array.
+   *
+   * @param in the source array to compress
+   * @param inOff the offset into the source array
+   * @param inLen the length into the source array from the offset
+   * @param out the destination which will hold compressed data
+   * @param outOff the offset into the source array
+   * @param outLen the length into the source array from {@code outOff}
+   * @param type the compression container to use
+   * @return a positive, non-zero integer with the size of the compressed output, or zero if the
+   *     given output buffer was too small
+   * @throws IllegalArgumentException if the given offset and lengths are out of bounds or represent
+   *     a negative range
+   * @see LibdeflateCompressor#compress(byte[], int, int, byte[], int, int, CompressionType)
+   */
+  public int compress(
+      byte[] in, int inOff, int inLen, byte[] out, int outOff, int outLen, CompressionType type) {
+    LibdeflateCompressor compressor = current();
+    long start = System.nanoTime();
+    int result = compressor.compress(in, inOff, inLen, out, outOff, outLen, type);
+    finish(inLen, result, start);
+    return result;
+  }
+
+  /**
+   * Compresses the given {@code in} ByteBuffer into the {@code out} ByteBuffer, advancing the
+   * positions of both buffers.
+   *
+   * @param in the source byte buffer to compress
+   * @param out the destination which will hold compressed data
+   * @param type the compression container to use
+   * @return a positive, non-zero integer with the size of the compressed output, or zero if the
+   *     given output buffer was too small
+   * @see LibdeflateCompressor#compress(ByteBuffer, ByteBuffer, CompressionType)
+   */
+  public int compress(ByteBuffer in, ByteBuffer out, CompressionType type) {
+    LibdeflateCompressor compressor = current();
+    int inAvail = in.remaining();
+    long start = System.nanoTime();
+    int result = compressor.compress(in, out, type);
+    finish(inAvail, result, start);
+    return result;
+  }
+
+  /**
+   * Returns a worst-case upper bound on the number of bytes of compressed data that may be produced
+   * by compressing any buffer of length less than or equal to {@code count} at any level.
+   *
+   * @param count the maximum number of bytes to compute the upper bound for
+   * @param type the compression type to use
+   * @return the upper bound
+   */
+  public long getCompressBound(long count, CompressionType type) {
+    ensureNotClosed();
+    return LibdeflateCompressor.getGenericCompressionBound(count, type);
+  }
+
+  /** Closes the compressor and every libdeflate compressor it allocated. */
+  @Override
+  public void close() {
+    ensureNotClosed();
+    for (LibdeflateCompressor compressor : compressors) {
+      if (compressor != null) {
+        compressor.close();
+      }
+    }
+    this.closed = true;
+  }
+
+  private void ensureNotClosed() {
+    if (this.closed) {
+      throw new IllegalStateException("Compressor already closed.");
+    }
+  }
+
+  private LibdeflateCompressor current() {
+    ensureNotClosed();
+    LibdeflateCompressor compressor = compressors[level];
+    if (compressor == null) {
+      compressor = new LibdeflateCompressor(level);
+      compressors[level] = compressor;
+    }
+    return compressor;
+  }
+
+  private void finish(int inSize, int outSize, long start) {
+    long now = System.nanoTime();
+    // Output that didn't fit says nothing about the ratio.
+    if (outSize != 0) {
+      record(inSize, outSize, now - start, now);
+    }
+  }
+
+  /** Accounts for one call at the current level, and picks a new level if a window has passed. */
+  void record(long inSize, long outSize, long nanos, long now) {
+    windowIn += inSize;
+    windowOut += outSize;
+    windowNanos += nanos;
+    long elapsed = now - windowStart;
+    if (elapsed < WINDOW_NANOS) {
+      return;
+    }
+
+    if (windowIn > 0) {
+      double cost = (double) windowNanos / windowIn;
+      double achieved = (double) windowOut / windowIn;
+      if (ratio[level] == 0) {
+        nanosPerByte[level] = cost;
+        ratio[level] = achieved;
+      } else {
+        nanosPerByte[level] += SMOOTHING * (cost - nanosPerByte[level]);
+        ratio[level] += SMOOTHING * (achieved - ratio[level]);
+      }
+      level = pickLevel((double) windowNanos / elapsed, (double) windowIn / elapsed);
+    }
+
+    windowStart = now;
+    windowIn = 0;
+    windowOut = 0;
+    windowNanos = 0;
+  }
+
+  private int pickLevel(double usage, double bytesPerNano) {
+    if (usage <= budget * PROBE_THRESHOLD && level < maxLevel && ratio[level + 1] == 0) {
+      return level + 1;
+    }
+
+    int best = -1;
+    for (int candidate = minLevel; candidate <= maxLevel; candidate++) {
+      if (ratio[candidate] == 0 || nanosPerByte[candidate] * bytesPerNano > budget) {
+        continue;
+      }
+      if (best == -1 || ratio[candidate] < ratio[best] * (1 - MIN_RATIO_GAIN)) {
+        best = candidate;
+      }
+    }
+    if (best != -1) {
+      return best;
+    }
+    // Levels below the current one that haven't been tried yet are assumed to be faster.
+    return Math.max(minLevel, level - 1);
+  }
+}
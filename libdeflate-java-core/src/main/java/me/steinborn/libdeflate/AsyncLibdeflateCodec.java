@@ -0,0 +1,156 @@
+/*
+ * Copyright 2024 Andrew Steinborn
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package me.steinborn.libdeflate;
+
+import java.io.Closeable;
+import java.nio.ByteBuffer;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+
+/**
+ * Compresses and decompresses buffers on an {@link Executor}, returning a {@link CompletableFuture}
+ * for each call, so that compression can run off an event loop while independent messages are
+ * compressed in parallel. Each task borrows a context from a {@link LibdeflateContextPool} owned by
+ * this instance, which tends to hand each worker thread the context it used last.
+ *
+ * <p>The input buffer is read on the executor, so its contents must not change until the returned
+ * future completes. Its position and limit are not changed. The result is a new buffer, flipped and
+ * ready to be read. It is direct if the input is, in which case it is taken from a pool shared with
+ * other users of this library, may have more capacity than the data needs, and can be given back
+ * with {@link #release(ByteBuffer)}.
+ *
+ * <p>The {@code libdeflate-java-flow} module adds {@code LibdeflateCompressionProcessor}, which
+ * compresses a {@code java.util.concurrent.Flow} of messages with this class.
+ *
+ * <p><strong>Thread-safety</strong>: this class is thread-safe.
+ */
+public final class AsyncLibdeflateCodec implements Closeable, AutoCloseable {
+  private final int level;
+  private final Executor executor;
+  private final LibdeflateContextPool contexts = new LibdeflateContextPool();
+
+  /** Creates a codec with the default compression level, which runs on the common pool. */
+  public AsyncLibdeflateCodec() {
+    this(Deflater.DEFAULT_COMPRESSION, ForkJoinPool.commonPool());
+  }
+
+  /**
+   * Creates a codec.
+   *
+   * @param level the compression level to use, from 0 to 12
+   * @param executor the executor to compress and decompress on
+   * @throws IllegalArgumentException if the level is not within range
+   */
+  public AsyncLibdeflateCodec(int level, Executor executor) {
+    if (executor == null) {
+      throw new NullPointerException("executor");
+    }
+    this.level = LibdeflateCompressor.normalizeLevel(level);
+    this.executor = executor;
+  }
+
+  /**
+   * Returns the compression level of this codec.
+   *
+   * @return the compression level, from 0 to 12
+   */
+  public int getLevel() {
+    return level;
+  }
+
+  /**
+   * Compresses the remaining bytes of {@code in} on the executor.
+   *
+   * @param in the data to compress
+   * @param type the compression container to use
+   * @return a future completed with the compressed data
+   */
+  public CompletableFuture<ByteBuffer> compressAsync(ByteBuffer in, CompressionType type) {
+    ByteBuffer source = in.duplicate();
+    return CompletableFuture.supplyAsync(() -> compress(source, type), executor);
+  }
+
+  /**
+   * Decompresses the remaining bytes of {@code in} on the executor. The size of the output does not
+   * need to be known; see {@link LibdeflateDecompressor#decompressToNew(ByteBuffer,
+   * CompressionType)}.
+   *
+   * @param in the data to decompress
+   * @param type the compression container in use
+   * @return a future completed with the decompressed data, or completed exceptionally with a {@link
+   *     DataFormatException} if the data was corrupt
+   */
+  public CompletableFuture<ByteBuffer> decompressAsync(ByteBuffer in, CompressionType type) {
+    ByteBuffer source = in.duplicate();
+    return CompletableFuture.supplyAsync(() -> decompress(source, type), executor);
+  }
+
+  /**
+   * Gives a buffer produced by this codec back to the pool it was taken from, so that it can be
+   * reused. This is optional: buffers that are not released are left to the garbage collector. Heap
+   * buffers are ignored. The buffer must not be used afterwards.
+   *
+   * @param buffer a buffer returned by {@link #compressAsync(ByteBuffer, CompressionType)} or
+   *     {@link #decompressAsync(ByteBuffer, CompressionType)}
+   */
+  public void release(ByteBuffer buffer) {
+    if (buffer.isDirect()) {
+      DirectBufferPool.SHARED.release(buffer);
+    }
+  }
+
+  /** Frees the contexts held by this instance. The executor is not shut down. */
+  @Override
+  public void close() {
+    contexts.close();
+  }
+
+  private ByteBuffer compress(ByteBuffer in, CompressionType type) {
+    int bound = (int) LibdeflateCompressor.getGenericCompressionBound(in.remaining(), type);
+    ByteBuffer out =
+        in.isDirect() ? DirectBufferPool.SHARED.acquire(bound) : ByteBuffer.allocate(bound);
+    LibdeflateCompressor compressor = contexts.borrowCompressor(level);
+    boolean done = false;
+    try {
+      if (compressor.compress(in, out, type) == 0) {
+        throw new IllegalStateException("compressed data exceeded its bound");
+      }
+      done = true;
+    } finally {
+      contexts.release(compressor);
+      if (!done && out.isDirect()) {
+        DirectBufferPool.SHARED.release(out);
+      }
+    }
+    out.flip();
+    return out;
+  }
+
+  private ByteBuffer decompress(ByteBuffer in, CompressionType type) {
+    LibdeflateDecompressor decompressor = contexts.borrowDecompressor();
+    try {
+      return decompressor.decompressToNew(in, type);
+    } catch (DataFormatException e) {
+      throw new CompletionException(e);
+    } finally {
+      contexts.release(decompressor);
+    }
+  }
+}
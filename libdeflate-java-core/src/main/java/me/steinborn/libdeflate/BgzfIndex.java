@@ -0,0 +1,239 @@
+/*
+ * Copyright 2024 Andrew Steinborn
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package me.steinborn.libdeflate;
+
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.SeekableByteChannel;
+import java.util.Arrays;
+
+/**
+ * An index of the blocks in a BGZF file, mapping uncompressed offsets to the compressed offset of
+ * the block that holds them. It can be saved and loaded in the {@code .gzi} format used by {@code
+ * bgzip}.
+ *
+ * <p>A <em>virtual offset</em>, as used by BGZF, packs the compressed offset of a block into the
+ * upper 48 bits and an offset within that block's uncompressed data into the lower 16 bits.
+ *
+ * @see BgzfOutputStream
+ * @see BgzfReader
+ */
+public final class BgzfIndex {
+  private long[] compressedOffsets;
+  private long[] uncompressedOffsets;
+  private int count;
+
+  BgzfIndex() {
+    this.compressedOffsets = new long[16];
+    this.uncompressedOffsets = new long[16];
+    // The first block always starts at the beginning of both streams.
+    add(0, 0);
+  }
+
+  void add(long compressedOffset, long uncompressedOffset) {
+    if (count == compressedOffsets.length) {
+      compressedOffsets = Arrays.copyOf(compressedOffsets, count * 2);
+      uncompressedOffsets = Arrays.copyOf(uncompressedOffsets, count * 2);
+    }
+    compressedOffsets[count] = compressedOffset;
+    uncompressedOffsets[count] = uncompressedOffset;
+    count++;
+  }
+
+  /**
+   * Returns the number of blocks in the index.
+   *
+   * @return the number of blocks
+   */
+  public int size() {
+    return count;
+  }
+
+  /**
+   * Returns the compressed offset of the given block.
+   *
+   * @param block the index of the block
+   * @return the offset of the block in the BGZF file
+   */
+  public long compressedOffset(int block) {
+    checkBlock(block);
+    return compressedOffsets[block];
+  }
+
+  /**
+   * Returns the offset in the uncompressed data at which the given block starts.
+   *
+   * @param block the index of the block
+   * @return the uncompressed offset of the block
+   */
+  public long uncompressedOffset(int block) {
+    checkBlock(block);
+    return uncompressedOffsets[block];
+  }
+
+  /**
+   * Returns the index of the block holding the given uncompressed offset. An offset at or past the
+   * end of the data maps to the last block.
+   *
+   * @param uncompressedOffset an offset in the uncompressed data
+   * @return the index of the block
+   * @throws IllegalArgumentException if the offset is negative
+   */
+  public int blockFor(long uncompressedOffset) {
+    if (uncompressedOffset < 0) {
+      throw new IllegalArgumentException("uncompressedOffset = " + uncompressedOffset);
+    }
+    // Find the last block starting at or before the offset. Empty blocks share their offset with
+    // the next block, so prefer the last of them.
+    int low = 0;
+    int high = count - 1;
+    while (low < high) {
+      int mid = (low + high + 1) >>> 1;
+      if (uncompressedOffsets[mid] <= uncompressedOffset) {
+        low = mid;
+      } else {
+        high = mid - 1;
+      }
+    }
+    return low;
+  }
+
+  /**
+   * Converts an uncompressed offset into a virtual offset.
+   *
+   * @param uncompressedOffset an offset in the uncompressed data
+   * @return the virtual offset
+   */
+  public long toVirtualOffset(long uncompressedOffset) {
+    int block = blockFor(uncompressedOffset);
+    return compressedOffsets[block] << 16 | (uncompressedOffset - uncompressedOffsets[block]);
+  }
+
+  /**
+   * Converts a virtual offset into an uncompressed offset.
+   *
+   * @param virtualOffset a virtual offset
+   * @return the uncompressed offset
+   * @throws IllegalArgumentException if no block starts at the compressed offset
+   */
+  public long toUncompressedOffset(long virtualOffset) {
+    long compressedOffset = virtualOffset >>> 16;
+    int block = Arrays.binarySearch(compressedOffsets, 0, count, compressedOffset);
+    if (block < 0) {
+      throw new IllegalArgumentException("no block starts at " + compressedOffset);
+    }
+    return uncompressedOffsets[block] + (virtualOffset & 0xffff);
+  }
+
+  /**
+   * Writes the index in the {@code .gzi} format: the number of entries, followed by the compressed
+   * and uncompressed offset of every block but the first, all as unsigned little-endian 64-bit
+   * integers.
+   *
+   * @param out the stream to write to
+   * @throws IOException if writing fails
+   */
+  public void write(OutputStream out) throws IOException {
+    ByteBuffer buf = ByteBuffer.allocate(8 + (count - 1) * 16).order(ByteOrder.LITTLE_ENDIAN);
+    buf.putLong(count - 1);
+    for (int i = 1; i < count; i++) {
+      buf.putLong(compressedOffsets[i]);
+      buf.putLong(uncompressedOffsets[i]);
+    }
+    out.write(buf.array());
+  }
+
+  /**
+   * Reads an index in the {@code .gzi} format.
+   *
+   * @param in the stream to read from
+   * @return the index
+   * @throws IOException if reading fails or the index is malformed
+   */
+  public static BgzfIndex read(InputStream in) throws IOException {
+    DataInputStream data = new DataInputStream(in);
+    long entries = Long.reverseBytes(data.readLong());
+    if (entries < 0 || entries >= Integer.MAX_VALUE) {
+      throw new IOException("invalid number of index entries: " + entries);
+    }
+    BgzfIndex index = new BgzfIndex();
+    for (long i = 0; i < entries; i++) {
+      long compressedOffset = Long.reverseBytes(data.readLong());
+      long uncompressedOffset = Long.reverseBytes(data.readLong());
+      if (compressedOffset <= index.compressedOffsets[index.count - 1]
+          || uncompressedOffset < index.uncompressedOffsets[index.count - 1]) {
+        throw new IOException("index entries are out of order");
+      }
+      index.add(compressedOffset, uncompressedOffset);
+    }
+    return index;
+  }
+
+  /**
+   * Builds an index by walking the block headers of a BGZF file. Only the header and trailer of
+   * each block are read; nothing is decompressed. The position of the channel is not preserved.
+   *
+   * @param channel the BGZF file
+   * @return the index
+   * @throws IOException if reading fails or the file is not valid BGZF
+   */
+  public static BgzfIndex build(SeekableByteChannel channel) throws IOException {
+    BgzfIndex index = new BgzfIndex();
+    ByteBuffer header = ByteBuffer.allocate(BgzfOutputStream.HEADER_SIZE);
+    ByteBuffer isize = ByteBuffer.allocate(4).order(ByteOrder.LITTLE_ENDIAN);
+    long compressedOffset = 0;
+    long uncompressedOffset = 0;
+    long size = channel.size();
+    while (compressedOffset < size) {
+      header.clear();
+      readFully(channel, header, compressedOffset);
+      int blockSize = BgzfOutputStream.blockSize(header);
+
+      isize.clear();
+      readFully(channel, isize, compressedOffset + blockSize - 4);
+      long blockData = isize.getInt(0) & 0xffffffffL;
+      // The empty block at the end of the file is not indexed, just like bgzip does.
+      boolean eofMarker = blockData == 0 && compressedOffset + blockSize == size;
+      if (compressedOffset != 0 && !eofMarker) {
+        index.add(compressedOffset, uncompressedOffset);
+      }
+      compressedOffset += blockSize;
+      uncompressedOffset += blockData;
+    }
+    return index;
+  }
+
+  static void readFully(SeekableByteChannel channel, ByteBuffer dst, long position)
+      throws IOException {
+    channel.position(position);
+    while (dst.hasRemaining()) {
+      if (channel.read(dst) == -1) {
+        throw new EOFException("truncated BGZF block at " + position);
+      }
+    }
+  }
+
+  private void checkBlock(int block) {
+    if (block < 0 || block >= count) {
+      throw new IndexOutOfBoundsException("block = " + block + ", size = " + count);
+    }
+  }
+}
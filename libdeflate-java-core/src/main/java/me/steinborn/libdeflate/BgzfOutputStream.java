@@ -0,0 +1,301 @@
+/*
+ * Copyright 2024 Andrew Steinborn
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package me.steinborn.libdeflate;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.Deflater;
+import java.util.zip.ZipException;
+
+/**
+ * Writes data in the BGZF (blocked gzip) format used by {@code bgzip}, {@code samtools} and {@code
+ * tabix}. The data is split into blocks of at most {@link #MAX_BLOCK_DATA} bytes, each of which is
+ * written as a separate gzip member carrying its own compressed size in a {@code BC} extra field.
+ * Any gzip reader can decompress the result, while {@link BgzfReader} can seek to any offset and
+ * only decompress the blocks it needs.
+ *
+ * <p>Blocks are compressed on the calling thread, or on a {@link ForkJoinPool} if one is given, in
+ * which case up to twice as many blocks as the pool has threads are compressed at once. The stream
+ * records the offsets of the blocks as they are written, which {@link #getIndex()} returns.
+ *
+ * <p><strong>Thread-safety</strong>: this class is not thread-safe.
+ */
+public final class BgzfOutputStream extends OutputStream {
+  /** The largest number of uncompressed bytes written to a single block. */
+  public static final int MAX_BLOCK_DATA = 0xff00;
+
+  static final int HEADER_SIZE = 18;
+  static final int TRAILER_SIZE = 8;
+  static final int MAX_BLOCK_SIZE = 65536;
+
+  /** The empty block {@code bgzip} writes at the end of every file. */
+  private static final byte[] EOF_BLOCK =
+      fromHex("1f8b08040000000000ff0600424302001b0003000000000000000000");
+
+  private final OutputStream out;
+  private final int level;
+  private final ForkJoinPool pool;
+  private final int maxInFlight;
+  private final LibdeflateContextPool contexts;
+  private final ArrayDeque<ForkJoinTask<byte[]>> inFlight = new ArrayDeque<>();
+  private final BgzfIndex index = new BgzfIndex();
+  private byte[] buffer = new byte[MAX_BLOCK_DATA];
+  private int count;
+  private long compressedOffset;
+  private long uncompressedOffset;
+  private boolean closed;
+
+  /**
+   * Creates a BGZF stream with the default compression level, which compresses on the calling
+   * thread.
+   *
+   * @param out the stream to write to
+   */
+  public BgzfOutputStream(OutputStream out) {
+    this(out, Deflater.DEFAULT_COMPRESSION);
+  }
+
+  /**
+   * Creates a BGZF stream with the specified compression level, which compresses on the calling
+   * thread.
+   *
+   * @param out the stream to write to
+   * @param level the compression level to use, from 0 to 12
+   * @throws IllegalArgumentException if the level is not within range
+   */
+  public BgzfOutputStream(OutputStream out, int level) {
+    this(out, level, null);
+  }
+
+  /**
+   * Creates a BGZF stream which compresses blocks in parallel.
+   *
+   * @param out the stream to write to
+   * @param level the compression level to use, from 0 to 12
+   * @param pool the pool to compress blocks on, or {@code null} to compress on the calling thread
+   * @throws IllegalArgumentException if the level is not within range
+   */
+  public BgzfOutputStream(OutputStream out, int level, ForkJoinPool pool) {
+    this.out = out;
+    this.level = LibdeflateCompressor.normalizeLevel(level);
+    this.pool = pool;
+    int parallelism = pool == null ? 1 : pool.getParallelism();
+    this.maxInFlight = parallelism * 2;
+    this.contexts = new LibdeflateContextPool(parallelism, 1, TimeUnit.MINUTES);
+  }
+
+  @Override
+  public void write(int b) throws IOException {
+    ensureNotClosed();
+    if (count == MAX_BLOCK_DATA) {
+      emitBlock();
+    }
+    buffer[count++] = (byte) b;
+  }
+
+  @Override
+  public void write(byte[] b, int off, int len) throws IOException {
+    ensureNotClosed();
+    LibdeflateJavaUtils.checkBounds(b.length, off, len);
+    while (len > 0) {
+      if (count == MAX_BLOCK_DATA) {
+        emitBlock();
+      }
+      int n = Math.min(len, MAX_BLOCK_DATA - count);
+      System.arraycopy(b, off, buffer, count, n);
+      count += n;
+      off += n;
+      len -= n;
+    }
+  }
+
+  /**
+   * Ends the current block, waits for every pending block to be compressed and written, and flushes
+   * the underlying stream.
+   *
+   * @throws IOException if writing fails
+   */
+  @Override
+  public void flush() throws IOException {
+    ensureNotClosed();
+    if (count > 0) {
+      emitBlock();
+    }
+    drain(0);
+    out.flush();
+  }
+
+  /**
+   * Writes any remaining data and the BGZF end-of-file marker, then closes the underlying stream.
+   *
+   * @throws IOException if writing fails
+   */
+  @Override
+  public void close() throws IOException {
+    if (closed) {
+      return;
+    }
+    try {
+      flush();
+      out.write(EOF_BLOCK);
+      compressedOffset += EOF_BLOCK.length;
+    } finally {
+      closed = true;
+      contexts.close();
+      out.close();
+    }
+  }
+
+  /**
+   * Returns the index of the blocks written so far. Once the stream is closed, this is the index of
+   * the whole file and may be saved with {@link BgzfIndex#write(java.io.OutputStream)}.
+   *
+   * @return the index
+   */
+  public BgzfIndex getIndex() {
+    return index;
+  }
+
+  /**
+   * Returns the virtual offset at which the next byte written will be found. Since this ends the
+   * current block, calling it often makes the compressed file larger.
+   *
+   * @return the virtual offset of the next byte
+   * @throws IOException if writing fails
+   */
+  public long getVirtualOffset() throws IOException {
+    flush();
+    return compressedOffset << 16;
+  }
+
+  private void emitBlock() throws IOException {
+    drain(maxInFlight - 1);
+    byte[] data = buffer;
+    int len = count;
+    if (pool == null) {
+      writeBlock(compressBlock(data, len));
+    } else {
+      inFlight.add(pool.submit(() -> compressBlock(data, len)));
+      buffer = new byte[MAX_BLOCK_DATA];
+    }
+    count = 0;
+  }
+
+  private void drain(int keep) throws IOException {
+    while (inFlight.size() > keep) {
+      writeBlock(inFlight.poll().join());
+    }
+  }
+
+  private void writeBlock(byte[] block) throws IOException {
+    if (compressedOffset != 0) {
+      index.add(compressedOffset, uncompressedOffset);
+    }
+    out.write(block);
+    compressedOffset += block.length;
+    uncompressedOffset +=
+        ByteBuffer.wrap(block).order(ByteOrder.LITTLE_ENDIAN).getInt(block.length - 4);
+  }
+
+  private byte[] compressBlock(byte[] data, int len) {
+    byte[] block = new byte[MAX_BLOCK_SIZE];
+    int maxDeflated = MAX_BLOCK_SIZE - HEADER_SIZE - TRAILER_SIZE;
+    LibdeflateCompressor compressor = contexts.borrowCompressor(level);
+    int produced;
+    try {
+      produced =
+          compressor.compress(
+              data, 0, len, block, HEADER_SIZE, maxDeflated, CompressionType.DEFLATE);
+    } finally {
+      contexts.release(compressor);
+    }
+    if (produced == 0) {
+      // Only possible for incompressible data at higher levels. A single stored block always fits.
+      block[HEADER_SIZE] = 1;
+      block[HEADER_SIZE + 1] = (byte) len;
+      block[HEADER_SIZE + 2] = (byte) (len >>> 8);
+      block[HEADER_SIZE + 3] = (byte) ~len;
+      block[HEADER_SIZE + 4] = (byte) (~len >>> 8);
+      System.arraycopy(data, 0, block, HEADER_SIZE + 5, len);
+      produced = len + 5;
+    }
+
+    LibdeflateCRC32 crc = new LibdeflateCRC32();
+    crc.update(data, 0, len);
+
+    int blockSize = HEADER_SIZE + produced + TRAILER_SIZE;
+    ByteBuffer buf = ByteBuffer.wrap(block).order(ByteOrder.LITTLE_ENDIAN);
+    buf.putInt(0x04088b1f) // ID1, ID2, CM = deflate, FLG = FEXTRA
+        .putInt(0) // MTIME
+        .put((byte) 0) // XFL
+        .put((byte) 0xff) // OS = unknown
+        .putShort((short) 6) // XLEN
+        .put((byte) 'B')
+        .put((byte) 'C')
+        .putShort((short) 2)
+        .putShort((short) (blockSize - 1));
+    buf.position(HEADER_SIZE + produced);
+    buf.putInt((int) crc.getValue()).putInt(len);
+    return Arrays.copyOf(block, blockSize);
+  }
+
+  /**
+   * Checks the header of a BGZF block and returns the total size of the block.
+   *
+   * @param header the first {@link #HEADER_SIZE} bytes of the block
+   * @return the size of the block, including its header and trailer
+   * @throws ZipException if the header does not belong to a BGZF block
+   */
+  static int blockSize(ByteBuffer header) throws ZipException {
+    ByteBuffer buf = header.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+    if (buf.get(0) != 0x1f
+        || buf.get(1) != (byte) 0x8b
+        || buf.get(2) != 8
+        || (buf.get(3) & 0x04) == 0
+        || buf.getShort(10) != 6
+        || buf.get(12) != 'B'
+        || buf.get(13) != 'C'
+        || buf.getShort(14) != 2) {
+      throw new ZipException("not a BGZF block");
+    }
+    int blockSize = (buf.getShort(16) & 0xffff) + 1;
+    if (blockSize < HEADER_SIZE + TRAILER_SIZE) {
+      throw new ZipException("invalid BGZF block size: " + blockSize);
+    }
+    return blockSize;
+  }
+
+  private static byte[] fromHex(String hex) {
+    byte[] bytes = new byte[hex.length() / 2];
+    for (int i = 0; i < bytes.length; i++) {
+      bytes[i] = (byte) Integer.parseInt(hex.substring(i * 2, i * 2 + 2), 16);
+    }
+    return bytes;
+  }
+
+  private void ensureNotClosed() throws IOException {
+    if (closed) {
+      throw new IOException("Stream closed");
+    }
+  }
+}
@@ -0,0 +1,259 @@
+/*
+ * Copyright 2024 Andrew Steinborn
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package me.steinborn.libdeflate;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.DataFormatException;
+import java.util.zip.ZipException;
+
+/**
+ * Reads a BGZF file with random access. Seeking, whether to an uncompressed offset or to a virtual
+ * offset, decompresses only the block holding the target, and reading continues from there block by
+ * block. Every block is decompressed by libdeflate in a single call, with the size taken from the
+ * block's trailer, and its CRC32 is checked.
+ *
+ * <p>Seeking to an uncompressed offset needs a {@link BgzfIndex}. One can be passed in, for
+ * instance loaded from a {@code .gzi} file, or it is built on first use by walking the block
+ * headers of the file.
+ *
+ * <p><strong>Thread-safety</strong>: this class is not thread-safe.
+ */
+public final class BgzfReader implements Closeable, AutoCloseable {
+  private final SeekableByteChannel channel;
+  private final LibdeflateDecompressor decompressor = new LibdeflateDecompressor();
+  private final byte[] compressed = new byte[BgzfOutputStream.MAX_BLOCK_SIZE];
+  private final byte[] block = new byte[BgzfOutputStream.MAX_BLOCK_SIZE];
+  private BgzfIndex index;
+  private long blockOffset = -1;
+  private long blockUncompressedOffset;
+  private int blockLength;
+  private int blockPosition;
+  private long nextBlockOffset;
+  private long nextUncompressedOffset;
+
+  /**
+   * Opens a BGZF file for reading.
+   *
+   * @param path the file to read
+   * @throws IOException if the file can't be opened
+   */
+  public BgzfReader(Path path) throws IOException {
+    this(FileChannel.open(path, StandardOpenOption.READ), null);
+  }
+
+  /**
+   * Creates a reader over the given channel, starting from its beginning. The channel is closed
+   * along with the reader.
+   *
+   * @param channel the channel to read from
+   * @param index the index of the file, or {@code null} to build it when it is first needed
+   */
+  public BgzfReader(SeekableByteChannel channel, BgzfIndex index) {
+    this.channel = channel;
+    this.index = index;
+  }
+
+  /**
+   * Returns the index of the file, building it if necessary.
+   *
+   * @return the index
+   * @throws IOException if the file is not valid BGZF
+   */
+  public BgzfIndex getIndex() throws IOException {
+    if (index == null) {
+      index = BgzfIndex.build(channel);
+    }
+    return index;
+  }
+
+  /**
+   * Reads up to {@code len} bytes into the given array. Fewer bytes are read if the end of the
+   * current block is reached first.
+   *
+   * @param b the array to read into
+   * @param off the offset into the array
+   * @param len the maximum number of bytes to read
+   * @return the number of bytes read, or -1 at the end of the file
+   * @throws IOException if reading fails or the data is corrupt
+   */
+  public int read(byte[] b, int off, int len) throws IOException {
+    LibdeflateJavaUtils.checkBounds(b.length, off, len);
+    if (len == 0) {
+      return 0;
+    }
+    if (!ensureData()) {
+      return -1;
+    }
+    int n = Math.min(len, blockLength - blockPosition);
+    System.arraycopy(block, blockPosition, b, off, n);
+    blockPosition += n;
+    return n;
+  }
+
+  /**
+   * Reads as many bytes as fit in {@code dst}, or until the end of the file.
+   *
+   * @param dst the buffer to read into
+   * @return the number of bytes read, or -1 if the end of the file was reached before any byte was
+   *     read
+   * @throws IOException if reading fails or the data is corrupt
+   */
+  public int read(ByteBuffer dst) throws IOException {
+    int total = 0;
+    while (dst.hasRemaining()) {
+      if (!ensureData()) {
+        return total == 0 ? -1 : total;
+      }
+      int n = Math.min(dst.remaining(), blockLength - blockPosition);
+      dst.put(block, blockPosition, n);
+      blockPosition += n;
+      total += n;
+    }
+    return total;
+  }
+
+  /**
+   * Moves to the given offset in the uncompressed data.
+   *
+   * @param uncompressedOffset the offset to move to
+   * @throws EOFException if the offset is past the end of the data
+   * @throws IOException if reading fails or the data is corrupt
+   */
+  public void seek(long uncompressedOffset) throws IOException {
+    BgzfIndex index = getIndex();
+    int target = index.blockFor(uncompressedOffset);
+    loadBlock(index.compressedOffset(target), index.uncompressedOffset(target));
+    long within = uncompressedOffset - blockUncompressedOffset;
+    if (within > blockLength) {
+      throw new EOFException("offset " + uncompressedOffset + " is past the end of the data");
+    }
+    blockPosition = (int) within;
+  }
+
+  /**
+   * Moves to the given virtual offset.
+   *
+   * @param virtualOffset the virtual offset to move to
+   * @throws EOFException if the offset is past the end of its block
+   * @throws IOException if reading fails, the data is corrupt or no block starts at the offset
+   */
+  public void seekVirtual(long virtualOffset) throws IOException {
+    int within = (int) (virtualOffset & 0xffff);
+    // The uncompressed offset of the block is looked up only if position() is called.
+    loadBlock(virtualOffset >>> 16, -1);
+    if (within > blockLength) {
+      throw new EOFException("virtual offset " + virtualOffset + " is past the end of its block");
+    }
+    blockPosition = within;
+  }
+
+  /**
+   * Returns the current offset in the uncompressed data.
+   *
+   * @return the current offset
+   * @throws IOException if the index had to be built and the file is not valid BGZF
+   */
+  public long position() throws IOException {
+    if (blockOffset == -1) {
+      return nextUncompressedOffset;
+    }
+    if (blockUncompressedOffset == -1) {
+      try {
+        blockUncompressedOffset = getIndex().toUncompressedOffset(blockOffset << 16);
+      } catch (IllegalArgumentException e) {
+        // Only the empty block at the end of the file is missing from the index.
+        throw new IOException("block at " + blockOffset + " is not in the index", e);
+      }
+    }
+    return blockUncompressedOffset + blockPosition;
+  }
+
+  /**
+   * Returns the current virtual offset. At the end of a block, this is the start of the next block.
+   *
+   * @return the current virtual offset
+   */
+  public long virtualPosition() {
+    if (blockOffset == -1 || blockPosition == blockLength) {
+      return nextBlockOffset << 16;
+    }
+    return blockOffset << 16 | blockPosition;
+  }
+
+  /** Closes the channel and frees the decompressor. */
+  @Override
+  public void close() throws IOException {
+    decompressor.close();
+    channel.close();
+  }
+
+  private boolean ensureData() throws IOException {
+    while (blockPosition == blockLength) {
+      if (nextBlockOffset >= channel.size()) {
+        return false;
+      }
+      loadBlock(nextBlockOffset, nextUncompressedOffset);
+    }
+    return true;
+  }
+
+  private void loadBlock(long offset, long uncompressedOffset) throws IOException {
+    if (offset == blockOffset) {
+      // Already decompressed.
+      if (uncompressedOffset != -1) {
+        blockUncompressedOffset = uncompressedOffset;
+      }
+      blockPosition = 0;
+      return;
+    }
+    ByteBuffer buf = ByteBuffer.wrap(compressed, 0, BgzfOutputStream.HEADER_SIZE);
+    BgzfIndex.readFully(channel, buf, offset);
+    int blockSize = BgzfOutputStream.blockSize(buf);
+    BgzfIndex.readFully(
+        channel,
+        ByteBuffer.wrap(compressed, buf.position(), blockSize - buf.position()),
+        offset + buf.position());
+
+    int size = ByteBuffer.wrap(compressed).order(ByteOrder.LITTLE_ENDIAN).getInt(blockSize - 4);
+    if (size < 0 || size > block.length) {
+      throw new ZipException("invalid BGZF block length: " + (size & 0xffffffffL));
+    }
+    // Forget the current block first, so a corrupt block is not mistaken for it.
+    blockOffset = -1;
+    blockLength = 0;
+    blockPosition = 0;
+    try {
+      decompressor.decompress(compressed, 0, blockSize, block, 0, size, CompressionType.GZIP, size);
+    } catch (DataFormatException e) {
+      ZipException wrapped = new ZipException("corrupt BGZF block at " + offset);
+      wrapped.initCause(e);
+      throw wrapped;
+    }
+    blockOffset = offset;
+    blockUncompressedOffset = uncompressedOffset;
+    blockLength = size;
+    nextBlockOffset = offset + blockSize;
+    nextUncompressedOffset = uncompressedOffset == -1 ? -1 : uncompressedOffset + size;
+  }
+}
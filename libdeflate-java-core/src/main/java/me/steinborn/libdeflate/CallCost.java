@@ -0,0 +1,46 @@
+/*
+ * Copyright 2024 Andrew Steinborn
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package me.steinborn.libdeflate;
+
+/**
+ * Rough predictions of how long a call into libdeflate takes, used to decide which calls on heap
+ * data are worth staging and which calls on virtual threads are worth offloading. The figures are
+ * for text-like data on a current desktop CPU; they only need to be right to within a factor of a
+ * few.
+ */
+final class CallCost {
+  /** About as long as a call may run before it is worth avoiding a pin, in nanoseconds. */
+  static final long LONG_CALL_NANOS = 1_000_000;
+
+  /** Picoseconds spent on each input byte at each compression level. */
+  private static final long[] COMPRESSION_PICOS_PER_BYTE = {
+    250, // level 0 only copies
+    4_000, 4_000, 4_000, 15_000, 15_000, 15_000, 15_000, 30_000, 30_000, 120_000, 120_000, 120_000
+  };
+
+  /** Picoseconds spent on each output byte when decompressing. */
+  private static final long DECOMPRESSION_PICOS_PER_BYTE = 1_000;
+
+  private CallCost() {}
+
+  static long compressionNanos(long inputSize, int level) {
+    return inputSize * COMPRESSION_PICOS_PER_BYTE[level] / 1000;
+  }
+
+  static long decompressionNanos(long outputSize) {
+    return outputSize * DECOMPRESSION_PICOS_PER_BYTE / 1000;
+  }
+}
@@ -0,0 +1,494 @@
+/*
+ * Copyright 2024 Andrew Steinborn
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package me.steinborn.libdeflate;
+
+import java.io.Closeable;
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Compresses a payload once and hands the compressed result out to everyone who sends the same
+ * payload, such as a packet that a server broadcasts to hundreds of connections.
+ *
+ * <p>A payload is recognized by the identity of the buffer it is in (the backing array for heap
+ * buffers and the {@code ByteBuffer} object itself for direct buffers), the range within that
+ * buffer, a CRC-32 of its contents, and the compression type and level. The CRC-32 is computed by
+ * libdeflate on every lookup, which costs a small fraction of a compression, and tells a payload
+ * apart from whatever a reused buffer held before. Buffers are only referenced weakly, and the
+ * payloads of buffers that have been garbage collected are evicted on the next lookup.
+ *
+ * <p>Compressed payloads are kept off-heap. Payloads of up to 64 KiB are stored in slots carved out
+ * of 256 KiB direct slabs, in power-of-two size classes starting at 64 bytes, so that small packets
+ * don't each cost a direct buffer; larger payloads get a direct buffer of their own. When the total
+ * capacity of the cached slots exceeds the limit, the least recently used payloads are evicted. A
+ * slab whose slots are all free is dropped, so that the garbage collector can free it, unless it is
+ * the last slab of its size class.
+ *
+ * <p>Each {@link Payload} that is handed out is reference-counted, and must be released once it has
+ * been sent. An evicted payload stays valid until every holder has released it.
+ *
+ * <p><strong>Thread-safety</strong>: this class is thread-safe. If several threads miss on the same
+ * payload at once, each of them compresses it, and all but the first result are discarded.
+ */
+public final class CompressedPayloadCache implements Closeable, AutoCloseable {
+  private static final int MIN_SLOT_SHIFT = 6;
+  private static final int MAX_SLOT_SHIFT = 16;
+  private static final int SLAB_SIZE = 256 * 1024;
+
+  private final long maxBytes;
+  private final LibdeflateContextPool contexts;
+  private final LinkedHashMap<Key, Payload> entries = new LinkedHashMap<>(16, 0.75f, true);
+  private final ReferenceQueue<Object> collected = new ReferenceQueue<>();
+  private final ArrayList<Slab>[] slabs;
+  private long size;
+  private long hits;
+  private long misses;
+  private boolean closed = false;
+
+  /**
+   * Creates a cache.
+   *
+   * @param maxBytes the total capacity of the off-heap storage that cached payloads may occupy
+   * @throws IllegalArgumentException if {@code maxBytes} is negative
+   */
+  @SuppressWarnings({"unchecked", "rawtypes"})
+  public CompressedPayloadCache(long maxBytes) {
+    if (maxBytes < 0) {
+      throw new IllegalArgumentException("maxBytes = " + maxBytes);
+    }
+    this.maxBytes = maxBytes;
+    this.contexts = new LibdeflateContextPool(1, 1, TimeUnit.MINUTES);
+    this.slabs = new ArrayList[MAX_SLOT_SHIFT - MIN_SLOT_SHIFT + 1];
+    for (int i = 0; i < slabs.length; i++) {
+      slabs[i] = new ArrayList<>();
+    }
+  }
+
+  /**
+   * Returns the compressed form of the remaining bytes of {@code in}, compressing them only if they
+   * are not already cached. The position of {@code in} is not changed.
+   *
+   * @param in the payload to compress
+   * @param type the compression container to use
+   * @param level the compression level to use, from 0 to 12
+   * @return the compressed payload, which must be released once it is no longer needed
+   * @throws IllegalArgumentException if the level is not within range
+   */
+  public Payload compress(ByteBuffer in, CompressionType type, int level) {
+    int normalized = LibdeflateCompressor.normalizeLevel(level);
+    LibdeflateCRC32 crc = new LibdeflateCRC32();
+    crc.update(in.duplicate());
+    Key key =
+        in.hasArray()
+            ? new Key(
+                in.array(), in.arrayOffset() + in.position(), in.remaining(), crc, type, normalized)
+            : new Key(in, in.position(), in.remaining(), crc, type, normalized);
+    return lookup(key, in.duplicate());
+  }
+
+  /**
+   * Returns the compressed form of the given range of {@code in}, compressing it only if it is not
+   * already cached.
+   *
+   * @param in the array holding the payload to compress
+   * @param off the offset into the array
+   * @param len the length into the array from the offset
+   * @param type the compression container to use
+   * @param level the compression level to use, from 0 to 12
+   * @return the compressed payload, which must be released once it is no longer needed
+   * @throws IllegalArgumentException if the given offset and length are out of bounds or represent
+   *     a negative range, or the level is not within range
+   */
+  public Payload compress(byte[] in, int off, int len, CompressionType type, int level) {
+    LibdeflateJavaUtils.checkBounds(in.length, off, len);
+    int normalized = LibdeflateCompressor.normalizeLevel(level);
+    LibdeflateCRC32 crc = new LibdeflateCRC32();
+    crc.update(in, off, len);
+    return lookup(new Key(in, off, len, crc, type, normalized), ByteBuffer.wrap(in, off, len));
+  }
+
+  private Payload lookup(Key key, ByteBuffer source) {
+    synchronized (this) {
+      ensureNotClosed();
+      expungeCollected();
+      Payload cached = entries.get(key);
+      if (cached != null) {
+        hits++;
+        return cached.retain();
+      }
+      misses++;
+    }
+
+    LibdeflateCompressor compressor = contexts.borrowCompressor(key.level);
+    ByteBuffer compressed =
+        DirectBufferPool.SHARED.acquire(
+            (int) compressor.getCompressBound(source.remaining(), key.type));
+    try {
+      if (compressor.compress(source, compressed, key.type) == 0) {
+        throw new IllegalStateException("compressed data exceeded its bound");
+      }
+      compressed.flip();
+      return store(key, compressed);
+    } finally {
+      contexts.release(compressor);
+      DirectBufferPool.SHARED.release(compressed);
+    }
+  }
+
+  private synchronized Payload store(Key key, ByteBuffer compressed) {
+    ensureNotClosed();
+    expungeCollected();
+    Payload cached = entries.get(key);
+    if (cached != null) {
+      return cached.retain();
+    }
+
+    Payload payload = allocate(compressed.remaining());
+    payload.slot.put(compressed).flip();
+    Key stored = key.register(collected);
+    if (payload.slot.capacity() > maxBytes || stored == null) {
+      // Too large to ever be cached, or its buffer is already gone; the caller holds the only
+      // reference.
+      return payload;
+    }
+    entries.put(stored, payload.retain());
+    size += payload.slot.capacity();
+    Iterator<Payload> eldest = entries.values().iterator();
+    while (size > maxBytes) {
+      Payload evicted = eldest.next();
+      eldest.remove();
+      size -= evicted.slot.capacity();
+      evicted.release();
+    }
+    return payload;
+  }
+
+  /** Evicts the payloads of buffers that have been garbage collected, which can never be hit. */
+  private void expungeCollected() {
+    Reference<?> ref;
+    while ((ref = collected.poll()) != null) {
+      Payload evicted = entries.remove(((StorageRef) ref).key);
+      if (evicted != null) {
+        size -= evicted.slot.capacity();
+        evicted.release();
+      }
+    }
+  }
+
+  private Payload allocate(int length) {
+    int shift = Math.max(MIN_SLOT_SHIFT, 32 - Integer.numberOfLeadingZeros(length - 1));
+    if (shift > MAX_SLOT_SHIFT) {
+      return new Payload(this, DirectBufferPool.SHARED.acquire(length), null);
+    }
+    ArrayList<Slab> sizeClass = slabs[shift - MIN_SLOT_SHIFT];
+    Slab slab = null;
+    for (Slab candidate : sizeClass) {
+      if (!candidate.free.isEmpty()) {
+        slab = candidate;
+        break;
+      }
+    }
+    if (slab == null) {
+      slab = new Slab(shift);
+      sizeClass.add(slab);
+    }
+    ByteBuffer slot = slab.free.pop();
+    slot.clear();
+    return new Payload(this, slot, slab);
+  }
+
+  private synchronized void free(ByteBuffer slot, Slab slab) {
+    if (slab == null) {
+      DirectBufferPool.SHARED.release(slot);
+      return;
+    }
+    if (closed) {
+      return;
+    }
+    slab.free.push(slot);
+    ArrayList<Slab> sizeClass = slabs[slab.shift - MIN_SLOT_SHIFT];
+    if (slab.isUnused() && sizeClass.size() > 1) {
+      sizeClass.remove(slab);
+    }
+  }
+
+  /** Returns the number of slabs held by the cache. */
+  synchronized int slabCount() {
+    int count = 0;
+    for (ArrayList<Slab> sizeClass : slabs) {
+      count += sizeClass.size();
+    }
+    return count;
+  }
+
+  /**
+   * Returns the total capacity of the off-heap storage occupied by cached payloads.
+   *
+   * @return the size of the cache in bytes
+   */
+  public synchronized long size() {
+    expungeCollected();
+    return size;
+  }
+
+  /**
+   * Returns the number of payloads in the cache.
+   *
+   * @return the number of cached payloads
+   */
+  public synchronized int entryCount() {
+    expungeCollected();
+    return entries.size();
+  }
+
+  /**
+   * Returns the number of lookups that found their payload already compressed.
+   *
+   * @return the number of cache hits
+   */
+  public synchronized long hitCount() {
+    return hits;
+  }
+
+  /**
+   * Returns the number of lookups that had to compress their payload.
+   *
+   * @return the number of cache misses
+   */
+  public synchronized long missCount() {
+    return misses;
+  }
+
+  /** Evicts every payload from the cache. Payloads that are still held remain valid. */
+  public synchronized void invalidateAll() {
+    for (Payload payload : entries.values()) {
+      payload.release();
+    }
+    entries.clear();
+    size = 0;
+  }
+
+  /**
+   * Evicts every payload and closes the cache. Payloads that are still held remain valid, but no
+   * more payloads can be compressed.
+   */
+  @Override
+  public synchronized void close() {
+    ensureNotClosed();
+    invalidateAll();
+    closed = true;
+    for (ArrayList<Slab> sizeClass : slabs) {
+      sizeClass.clear();
+    }
+    contexts.close();
+  }
+
+  private void ensureNotClosed() {
+    if (closed) {
+      throw new IllegalStateException("Cache already closed.");
+    }
+  }
+
+  /**
+   * A compressed payload handed out by a {@link CompressedPayloadCache}. Its memory is returned to
+   * the cache once it has been released by every holder and evicted from the cache.
+   *
+   * <p><strong>Thread-safety</strong>: this class is thread-safe, and the same payload may be sent
+   * from many threads at once.
+   */
+  public static final class Payload implements Closeable, AutoCloseable {
+    private final CompressedPayloadCache cache;
+    private final ByteBuffer slot;
+    private final Slab slab;
+    private final AtomicInteger refs = new AtomicInteger(1);
+
+    Payload(CompressedPayloadCache cache, ByteBuffer slot, Slab slab) {
+      this.cache = cache;
+      this.slot = slot;
+      this.slab = slab;
+    }
+
+    /**
+     * Returns a new read-only view of the compressed data, from position zero to its size.
+     *
+     * @return the compressed data
+     * @throws IllegalStateException if the payload has been released
+     */
+    public ByteBuffer buffer() {
+      ensureNotReleased();
+      return slot.asReadOnlyBuffer();
+    }
+
+    /**
+     * Returns the size of the compressed data.
+     *
+     * @return the size in bytes
+     */
+    public int size() {
+      return slot.limit();
+    }
+
+    /**
+     * Takes another reference to this payload, which must be released separately.
+     *
+     * @return this payload
+     * @throws IllegalStateException if the payload has been released
+     */
+    public Payload retain() {
+      int current;
+      do {
+        current = refs.get();
+        if (current == 0) {
+          throw new IllegalStateException("Payload already released.");
+        }
+      } while (!refs.compareAndSet(current, current + 1));
+      return this;
+    }
+
+    /**
+     * Releases a reference to this payload.
+     *
+     * @throws IllegalStateException if the payload has already been released by every holder
+     */
+    public void release() {
+      int remaining = refs.decrementAndGet();
+      if (remaining < 0) {
+        refs.incrementAndGet();
+        throw new IllegalStateException("Payload already released.");
+      }
+      if (remaining == 0) {
+        cache.free(slot, slab);
+      }
+    }
+
+    /** Releases a reference to this payload, like {@link #release()}. */
+    @Override
+    public void close() {
+      release();
+    }
+
+    private void ensureNotReleased() {
+      if (refs.get() == 0) {
+        throw new IllegalStateException("Payload already released.");
+      }
+    }
+  }
+
+  /** A direct buffer carved into slots of one size, of which {@code free} are not in use. */
+  private static final class Slab {
+    private final int shift;
+    private final ArrayDeque<ByteBuffer> free = new ArrayDeque<>();
+
+    Slab(int shift) {
+      this.shift = shift;
+      ByteBuffer memory = ByteBuffer.allocateDirect(SLAB_SIZE);
+      for (int pos = 0; pos < SLAB_SIZE; pos += 1 << shift) {
+        memory.limit(pos + (1 << shift)).position(pos);
+        free.push(memory.slice());
+      }
+    }
+
+    boolean isUnused() {
+      return free.size() == SLAB_SIZE >> shift;
+    }
+  }
+
+  /** A weak reference to the buffer of a cached key, which leads back to the key once enqueued. */
+  private static final class StorageRef extends WeakReference<Object> {
+    private final Key key;
+
+    StorageRef(Object storage, ReferenceQueue<Object> queue, Key key) {
+      super(storage, queue);
+      this.key = key;
+    }
+  }
+
+  private static final class Key {
+    private final StorageRef storage;
+    private final int offset;
+    private final int length;
+    private final int crc;
+    private final CompressionType type;
+    private final int level;
+    private final int hash;
+
+    Key(
+        Object storage,
+        int offset,
+        int length,
+        LibdeflateCRC32 crc,
+        CompressionType type,
+        int level) {
+      this(storage, offset, length, (int) crc.getValue(), type, level, null);
+    }
+
+    private Key(
+        Object storage,
+        int offset,
+        int length,
+        int crc,
+        CompressionType type,
+        int level,
+        ReferenceQueue<Object> queue) {
+      this.storage = new StorageRef(storage, queue, this);
+      this.offset = offset;
+      this.length = length;
+      this.crc = crc;
+      this.type = type;
+      this.level = level;
+      this.hash = 31 * (31 * (31 * System.identityHashCode(storage) + offset) + length) + crc;
+    }
+
+    /**
+     * Returns a copy of this key whose reference is enqueued on {@code queue} once the buffer is
+     * collected, or {@code null} if it already has been. Only keys that go into the cache are
+     * registered, so that lookups don't fill the queue.
+     */
+    Key register(ReferenceQueue<Object> queue) {
+      Object referent = storage.get();
+      return referent == null ? null : new Key(referent, offset, length, crc, type, level, queue);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (!(o instanceof Key)) {
+        return false;
+      }
+      Key other = (Key) o;
+      Object referent = storage.get();
+      return referent != null
+          && referent == other.storage.get()
+          && offset == other.offset
+          && length == other.length
+          && crc == other.crc
+          && type == other.type
+          && level == other.level;
+    }
+
+    @Override
+    public int hashCode() {
+      return hash;
+    }
+  }
+}
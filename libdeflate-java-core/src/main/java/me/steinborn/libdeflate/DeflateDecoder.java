@@ -0,0 +1,482 @@
+/*
+ * Copyright 2024 Andrew Steinborn
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package me.steinborn.libdeflate;
+
+import java.util.Arrays;
+
+/**
+ * A DEFLATE decoder written in Java, which can start decoding at any block boundary and walk a
+ * stream block by block. It is much slower than libdeflate and only exists for what libdeflate
+ * can't do: {@link ParallelDeflateDecompressor} uses it to decode chunks of a stream that start in
+ * the middle, where the preceding 32 KiB of output are not known yet.
+ *
+ * <p>Output is written as {@code char}s. Values below 256 are literal bytes. When decoding starts
+ * with an unknown window, the output begins with {@link #WINDOW_SIZE} placeholders, where
+ * placeholder {@code i} has the value {@code 256 + i}. Back-references into the unknown window copy
+ * these placeholders, so once the window is known every placeholder can be replaced by the byte it
+ * stands for.
+ *
+ * <p>Errors are reported as return values rather than exceptions, since most of the positions tried
+ * when searching for a block boundary are not one.
+ */
+final class DeflateDecoder {
+  static final int WINDOW_SIZE = 32768;
+
+  /** Returned by {@link #decodeBlock()} after a block that was not the final block. */
+  static final int BLOCK_DONE = 0;
+  /** Returned by {@link #decodeBlock()} after the final block. */
+  static final int BLOCK_FINAL = 1;
+  /** Returned by {@link #decodeBlock()} if the data is invalid or truncated. */
+  static final int BLOCK_ERROR = -1;
+
+  private static final int LITLEN_PRIMARY_BITS = 10;
+  private static final int DIST_PRIMARY_BITS = 8;
+  private static final int CODELEN_PRIMARY_BITS = 7;
+  private static final int MAX_CODE_LENGTH = 15;
+  private static final int END_OF_BLOCK = 256;
+
+  private static final int[] LENGTH_BASE = {
+    3, 4, 5, 6, 7, 8, 9, 10, 11, 13, 15, 17, 19, 23, 27, 31, 35, 43, 51, 59, 67, 83, 99, 115, 131,
+    163, 195, 227, 258
+  };
+  private static final int[] LENGTH_EXTRA = {
+    0, 0, 0, 0, 0, 0, 0, 0, 1, 1, 1, 1, 2, 2, 2, 2, 3, 3, 3, 3, 4, 4, 4, 4, 5, 5, 5, 5, 0
+  };
+  private static final int[] DIST_BASE = {
+    1, 2, 3, 4, 5, 7, 9, 13, 17, 25, 33, 49, 65, 97, 129, 193, 257, 385, 513, 769, 1025, 1537, 2049,
+    3073, 4097, 6145, 8193, 12289, 16385, 24577
+  };
+  private static final int[] DIST_EXTRA = {
+    0, 0, 0, 0, 1, 1, 2, 2, 3, 3, 4, 4, 5, 5, 6, 6, 7, 7, 8, 8, 9, 9, 10, 10, 11, 11, 12, 12, 13, 13
+  };
+  private static final int[] CODE_LENGTH_ORDER = {
+    16, 17, 18, 0, 8, 7, 9, 6, 10, 5, 11, 4, 12, 3, 13, 2, 14, 1, 15
+  };
+
+  private static final Huffman FIXED_LITLEN;
+  private static final Huffman FIXED_DIST;
+
+  static {
+    byte[] lengths = new byte[288];
+    Arrays.fill(lengths, 0, 144, (byte) 8);
+    Arrays.fill(lengths, 144, 256, (byte) 9);
+    Arrays.fill(lengths, 256, 280, (byte) 7);
+    Arrays.fill(lengths, 280, 288, (byte) 8);
+    FIXED_LITLEN = new Huffman(288, LITLEN_PRIMARY_BITS);
+    FIXED_LITLEN.build(lengths, 0, 288, false);
+
+    // Distance codes 30 and 31 are part of the fixed code, but never valid in a stream.
+    Arrays.fill(lengths, 0, 32, (byte) 5);
+    FIXED_DIST = new Huffman(32, DIST_PRIMARY_BITS);
+    FIXED_DIST.build(lengths, 0, 32, false);
+  }
+
+  private final byte[] in;
+  private final int inEnd;
+
+  private long bitBuf;
+  private int bitCount;
+  private int nextByte;
+
+  private char[] out = new char[WINDOW_SIZE * 2];
+  private int outPos;
+  private int outStart;
+  private boolean placeholdersWritten;
+
+  private final Huffman litlen = new Huffman(288, LITLEN_PRIMARY_BITS);
+  private final Huffman dist = new Huffman(30, DIST_PRIMARY_BITS);
+  private final Huffman codelen = new Huffman(19, CODELEN_PRIMARY_BITS);
+  private final byte[] lengths = new byte[288 + 32];
+
+  /**
+   * Creates a decoder for the DEFLATE data in {@code in}, which ends at {@code inEnd}. Bit
+   * positions are counted from the start of the array.
+   */
+  DeflateDecoder(byte[] in, int inEnd) {
+    this.in = in;
+    this.inEnd = inEnd;
+  }
+
+  /**
+   * Moves to the given bit position and discards any output. If {@code unknownWindow} is set, the
+   * output starts with placeholders for the preceding window.
+   */
+  void reset(long bit, boolean unknownWindow) {
+    seek(bit);
+    if (unknownWindow) {
+      // Decoding never writes below outStart, so the placeholders only have to be written once.
+      if (!placeholdersWritten) {
+        for (int i = 0; i < WINDOW_SIZE; i++) {
+          out[i] = (char) (256 + i);
+        }
+        placeholdersWritten = true;
+      }
+      outStart = WINDOW_SIZE;
+    } else {
+      outStart = 0;
+      placeholdersWritten = false;
+    }
+    outPos = outStart;
+  }
+
+  /** Returns the position of the next bit to be read. */
+  long bitPosition() {
+    return (long) nextByte * 8 - bitCount;
+  }
+
+  /** Returns the output buffer. Only the range from {@link #outputStart()} is decoded output. */
+  char[] output() {
+    return out;
+  }
+
+  int outputStart() {
+    return outStart;
+  }
+
+  int outputEnd() {
+    return outPos;
+  }
+
+  /**
+   * Decodes the block at the current position.
+   *
+   * @return {@link #BLOCK_DONE}, {@link #BLOCK_FINAL} or {@link #BLOCK_ERROR}
+   */
+  int decodeBlock() {
+    refill();
+    int header = bits(3);
+    boolean isFinal = (header & 1) != 0;
+    boolean ok;
+    switch (header >>> 1) {
+      case 0:
+        ok = decodeStored();
+        break;
+      case 1:
+        ok = decodeHuffman(FIXED_LITLEN, FIXED_DIST);
+        break;
+      case 2:
+        ok = readDynamicTables() && decodeHuffman(litlen, dist);
+        break;
+      default:
+        ok = false;
+        break;
+    }
+    if (!ok || bitPosition() > (long) inEnd * 8) {
+      return BLOCK_ERROR;
+    }
+    return isFinal ? BLOCK_FINAL : BLOCK_DONE;
+  }
+
+  /**
+   * Searches for the first position in {@code [fromBit, toBit)} where a non-final block with
+   * dynamic Huffman codes starts and decodes cleanly, assuming an unknown window. Blocks with
+   * dynamic codes make up nearly all of any compressed stream, and their headers are unlikely to be
+   * valid by accident. On success the decoder is reset to the block that was found.
+   *
+   * @return the position of the block, or -1 if none was found
+   */
+  long findBlock(long fromBit, long toBit) {
+    for (long bit = fromBit; bit < toBit; bit++) {
+      // Cheap checks first: BFINAL = 0, BTYPE = 2, HLIT <= 286 and HDIST <= 30.
+      int b = peekBitsAt(bit, 13);
+      if ((b & 7) != 4 || ((b >>> 3) & 31) > 29 || ((b >>> 8) & 31) > 29) {
+        continue;
+      }
+      reset(bit, true);
+      if (decodeBlock() == BLOCK_DONE) {
+        reset(bit, true);
+        return bit;
+      }
+    }
+    return -1;
+  }
+
+  private int peekBitsAt(long bit, int n) {
+    int pos = (int) (bit >>> 3);
+    int value = 0;
+    for (int i = 0; i < 3; i++) {
+      if (pos + i < inEnd) {
+        value |= (in[pos + i] & 0xff) << (i * 8);
+      }
+    }
+    return (value >>> (int) (bit & 7)) & ((1 << n) - 1);
+  }
+
+  private boolean decodeStored() {
+    // Skip to the next byte boundary, then read LEN and NLEN.
+    consume(bitCount & 7);
+    int len = bits(16);
+    int nlen = bits(16);
+    if (len != (~nlen & 0xffff)) {
+      return false;
+    }
+    long start = bitPosition() >>> 3;
+    if (start + len > inEnd) {
+      return false;
+    }
+    ensureCapacity(len);
+    for (int i = 0; i < len; i++) {
+      out[outPos++] = (char) (in[(int) start + i] & 0xff);
+    }
+    seek((start + len) * 8);
+    return true;
+  }
+
+  private boolean readDynamicTables() {
+    int hlit = bits(5) + 257;
+    int hdist = bits(5) + 1;
+    int hclen = bits(4) + 4;
+    if (hlit > 286 || hdist > 30) {
+      return false;
+    }
+
+    byte[] lengths = this.lengths;
+    Arrays.fill(lengths, 0, 19, (byte) 0);
+    for (int i = 0; i < hclen; i++) {
+      refill();
+      lengths[CODE_LENGTH_ORDER[i]] = (byte) bits(3);
+    }
+    if (!codelen.build(lengths, 0, 19, true)) {
+      return false;
+    }
+
+    int total = hlit + hdist;
+    int i = 0;
+    while (i < total) {
+      refill();
+      int sym = decodeSymbol(codelen);
+      if (sym < 0) {
+        return false;
+      }
+      if (sym < 16) {
+        lengths[i++] = (byte) sym;
+        continue;
+      }
+      int repeat;
+      byte value = 0;
+      if (sym == 16) {
+        if (i == 0) {
+          return false;
+        }
+        value = lengths[i - 1];
+        repeat = 3 + bits(2);
+      } else if (sym == 17) {
+        repeat = 3 + bits(3);
+      } else {
+        repeat = 11 + bits(7);
+      }
+      if (i + repeat > total) {
+        return false;
+      }
+      Arrays.fill(lengths, i, i + repeat, value);
+      i += repeat;
+    }
+
+    if (lengths[END_OF_BLOCK] == 0) {
+      return false;
+    }
+    return litlen.build(lengths, 0, hlit, false) && dist.build(lengths, hlit, hdist, false);
+  }
+
+  private boolean decodeHuffman(Huffman litlen, Huffman dist) {
+    while (true) {
+      if (bitCount < 48) {
+        refill();
+        if (nextByte > inEnd + 8) {
+          return false;
+        }
+      }
+      int sym = decodeSymbol(litlen);
+      if (sym < 256) {
+        if (sym < 0) {
+          return false;
+        }
+        if (outPos == out.length) {
+          ensureCapacity(1);
+        }
+        out[outPos++] = (char) sym;
+      } else if (sym == END_OF_BLOCK) {
+        return true;
+      } else {
+        sym -= 257;
+        if (sym >= 29) {
+          return false;
+        }
+        int length = LENGTH_BASE[sym] + bits(LENGTH_EXTRA[sym]);
+        int dsym = decodeSymbol(dist);
+        if (dsym < 0 || dsym >= 30) {
+          return false;
+        }
+        int distance = DIST_BASE[dsym] + bits(DIST_EXTRA[dsym]);
+        if (distance > outPos) {
+          return false;
+        }
+        ensureCapacity(length);
+        char[] out = this.out;
+        int from = outPos - distance;
+        for (int i = 0; i < length; i++) {
+          out[outPos + i] = out[from + i];
+        }
+        outPos += length;
+      }
+    }
+  }
+
+  private int decodeSymbol(Huffman huffman) {
+    int entry = huffman.table[(int) bitBuf & huffman.mask];
+    if (entry != 0) {
+      consume(entry & 15);
+      return entry >>> 4;
+    }
+    return decodeSlow(huffman);
+  }
+
+  /** Decodes a symbol one bit at a time, for codes longer than the primary table. */
+  private int decodeSlow(Huffman huffman) {
+    int code = 0;
+    int first = 0;
+    int index = 0;
+    long bits = bitBuf;
+    for (int len = 1; len <= MAX_CODE_LENGTH; len++) {
+      code |= (int) (bits & 1);
+      bits >>>= 1;
+      int count = huffman.count[len];
+      if (code - first < count) {
+        consume(len);
+        return huffman.symbols[index + code - first];
+      }
+      index += count;
+      first += count;
+      first <<= 1;
+      code <<= 1;
+    }
+    return -1;
+  }
+
+  private void ensureCapacity(int extra) {
+    if (outPos + extra > out.length) {
+      out = Arrays.copyOf(out, Math.max(out.length * 2, outPos + extra));
+    }
+  }
+
+  private void seek(long bit) {
+    nextByte = (int) (bit >>> 3);
+    bitBuf = 0;
+    bitCount = 0;
+    refill();
+    consume((int) (bit & 7));
+  }
+
+  private void refill() {
+    while (bitCount <= 56) {
+      long b = nextByte < inEnd ? in[nextByte] & 0xff : 0;
+      bitBuf |= b << bitCount;
+      nextByte++;
+      bitCount += 8;
+    }
+  }
+
+  private int bits(int n) {
+    int value = (int) bitBuf & ((1 << n) - 1);
+    consume(n);
+    return value;
+  }
+
+  private void consume(int n) {
+    bitBuf >>>= n;
+    bitCount -= n;
+  }
+
+  /** A canonical Huffman code with a lookup table for the shorter codes. */
+  private static final class Huffman {
+    final int primaryBits;
+    final int mask;
+    /** Indexed by the next {@code primaryBits} bits: {@code symbol << 4 | length}, or 0. */
+    final int[] table;
+    /** The number of codes of each length. */
+    final int[] count = new int[MAX_CODE_LENGTH + 1];
+    /** The symbols, ordered by code. */
+    final int[] symbols;
+
+    private final int[] offsets = new int[MAX_CODE_LENGTH + 2];
+
+    Huffman(int maxSymbols, int primaryBits) {
+      this.primaryBits = primaryBits;
+      this.mask = (1 << primaryBits) - 1;
+      this.table = new int[1 << primaryBits];
+      this.symbols = new int[maxSymbols];
+    }
+
+    /**
+     * Builds the code from {@code n} code lengths starting at {@code off}. Like zlib, incomplete
+     * codes are only accepted if they consist of a single code of length 1 (or no codes at all),
+     * and never for the code length code.
+     *
+     * @return whether the lengths describe a usable code
+     */
+    boolean build(byte[] lengths, int off, int n, boolean codeLengthCode) {
+      Arrays.fill(count, 0);
+      for (int i = 0; i < n; i++) {
+        count[lengths[off + i]]++;
+      }
+      count[0] = 0;
+
+      int left = 1;
+      int maxLength = 0;
+      for (int len = 1; len <= MAX_CODE_LENGTH; len++) {
+        left <<= 1;
+        left -= count[len];
+        if (left < 0) {
+          return false;
+        }
+        if (count[len] != 0) {
+          maxLength = len;
+        }
+      }
+      if (left > 0 && (codeLengthCode || maxLength > 1)) {
+        return false;
+      }
+
+      offsets[1] = 0;
+      for (int len = 1; len <= MAX_CODE_LENGTH; len++) {
+        offsets[len + 1] = offsets[len] + count[len];
+      }
+      for (int i = 0; i < n; i++) {
+        int len = lengths[off + i];
+        if (len != 0) {
+          symbols[offsets[len]++] = i;
+        }
+      }
+
+      // offsets[len] now points past the symbols of each length; walk the codes in order.
+      Arrays.fill(table, 0);
+      int code = 0;
+      int index = 0;
+      for (int len = 1; len <= primaryBits; len++) {
+        for (int i = 0; i < count[len]; i++) {
+          int reversed = Integer.reverse(code) >>> (32 - len);
+          int entry = symbols[index++] << 4 | len;
+          for (int j = reversed; j < table.length; j += 1 << len) {
+            table[j] = entry;
+          }
+          code++;
+        }
+        code <<= 1;
+      }
+      return true;
+    }
+  }
+}
@@ -0,0 +1,100 @@
+/*
+ * Copyright 2024 Andrew Steinborn
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package me.steinborn.libdeflate;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * A pool of direct buffers, bucketed by power-of-two capacities. Direct buffers are expensive to
+ * allocate and are only freed once the garbage collector finds them, so short-lived users like
+ * streams take them from here instead of allocating their own.
+ */
+final class DirectBufferPool {
+  static final DirectBufferPool SHARED = new DirectBufferPool(12, 22, 16);
+
+  private final int minShift;
+  private final int maxShift;
+  private final int maxPerBucket;
+  private final ConcurrentLinkedQueue<ByteBuffer>[] buckets;
+  private final AtomicIntegerArray sizes;
+
+  /**
+   * Creates a pool.
+   *
+   * @param minShift the base 2 logarithm of the smallest capacity handed out
+   * @param maxShift the base 2 logarithm of the largest capacity kept in the pool
+   * @param maxPerBucket the largest number of buffers kept for each capacity
+   */
+  @SuppressWarnings({"unchecked", "rawtypes"})
+  DirectBufferPool(int minShift, int maxShift, int maxPerBucket) {
+    this.minShift = minShift;
+    this.maxShift = maxShift;
+    this.maxPerBucket = maxPerBucket;
+    this.buckets = new ConcurrentLinkedQueue[maxShift - minShift + 1];
+    for (int i = 0; i < buckets.length; i++) {
+      buckets[i] = new ConcurrentLinkedQueue<>();
+    }
+    this.sizes = new AtomicIntegerArray(buckets.length);
+  }
+
+  /**
+   * Returns a cleared direct buffer with at least the given capacity. Capacities above the largest
+   * pooled one are allocated exactly.
+   */
+  ByteBuffer acquire(int minCapacity) {
+    int shift = Math.max(minShift, 32 - Integer.numberOfLeadingZeros(Math.max(minCapacity, 1) - 1));
+    if (shift > maxShift) {
+      return ByteBuffer.allocateDirect(minCapacity);
+    }
+    int bucket = shift - minShift;
+    ByteBuffer buffer = buckets[bucket].poll();
+    if (buffer == null) {
+      return ByteBuffer.allocateDirect(1 << shift);
+    }
+    sizes.decrementAndGet(bucket);
+    buffer.clear();
+    return buffer;
+  }
+
+  /** Returns a buffer obtained from {@link #acquire(int)} to the pool. */
+  void release(ByteBuffer buffer) {
+    int capacity = buffer.capacity();
+    if (Integer.bitCount(capacity) != 1) {
+      return;
+    }
+    int shift = Integer.numberOfTrailingZeros(capacity);
+    if (shift < minShift || shift > maxShift) {
+      return;
+    }
+    int bucket = shift - minShift;
+    if (sizes.incrementAndGet(bucket) > maxPerBucket) {
+      sizes.decrementAndGet(bucket);
+      return;
+    }
+    buckets[bucket].offer(buffer);
+  }
+
+  /** Returns the number of buffers in the pool, for testing. */
+  int size() {
+    int total = 0;
+    for (int i = 0; i < sizes.length(); i++) {
+      total += sizes.get(i);
+    }
+    return total;
+  }
+}
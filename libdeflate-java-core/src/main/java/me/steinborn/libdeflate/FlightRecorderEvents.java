@@ -0,0 +1,80 @@
+/*
+ * Copyright 2024 Andrew Steinborn
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package me.steinborn.libdeflate;
+
+/**
+ * Emits Java Flight Recorder events for calls into libdeflate. JFR's event API is only available on
+ * Java 11 and above, so this version of the class does nothing, and the JIT removes the calls to it
+ * entirely. The multi-release jar contains the real implementation under {@code
+ * META-INF/versions/11}.
+ *
+ * <p>Callers check {@link #ENABLED} before calling a {@code begin} method, as they check {@link
+ * Libdeflate#METRICS}. Each {@code begin} method returns a handle to pass to the matching {@code
+ * end} method, or {@code null} if the event is not being recorded.
+ */
+final class FlightRecorderEvents {
+  /** Whether JFR events can be recorded at all. Always false before Java 11. */
+  static final boolean ENABLED = isAvailable();
+
+  private FlightRecorderEvents() {}
+
+  // Not a constant expression, which javac would copy into the callers, where the Java 11 version
+  // of this class could not change it.
+  private static boolean isAvailable() {
+    return false;
+  }
+
+  static Object beginCompress() {
+    return null;
+  }
+
+  static void endCompress(
+      Object event,
+      CompressionType type,
+      int level,
+      long inputSize,
+      long outputSize,
+      boolean inputDirect,
+      boolean outputDirect,
+      boolean staged) {}
+
+  static Object beginDecompress() {
+    return null;
+  }
+
+  static void endDecompress(
+      Object event,
+      CompressionType type,
+      long inputSize,
+      long outputSize,
+      boolean inputDirect,
+      boolean outputDirect,
+      boolean staged,
+      LibdeflateMetrics.Outcome outcome) {}
+
+  static Object beginChecksum() {
+    return null;
+  }
+
+  static void endChecksum(
+      Object event, LibdeflateMetrics.Operation algorithm, long size, boolean direct) {}
+
+  static Object beginNativeLoad() {
+    return null;
+  }
+
+  static void endNativeLoad(Object event, String path, boolean loaded) {}
+}
@@ -0,0 +1,51 @@
+/*
+ * Copyright 2024 Andrew Steinborn
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package me.steinborn.libdeflate;
+
+import java.nio.ByteBuffer;
+import java.util.zip.DataFormatException;
+
+/**
+ * Calls into libdeflate through {@code java.lang.foreign} instead of JNI. The foreign function API
+ * is only available on Java 22 and above, so this version of the class simply reports that it is
+ * unsupported. The multi-release jar contains the real implementation under {@code
+ * META-INF/versions/22}.
+ */
+final class ForeignBackend {
+  private ForeignBackend() {}
+
+  static boolean isSupported() {
+    return false;
+  }
+
+  static long compress(long ctx, ByteBuffer in, ByteBuffer out, int type) {
+    throw new UnsupportedOperationException();
+  }
+
+  static long decompress(long ctx, ByteBuffer in, ByteBuffer out, int type, int knownSize)
+      throws DataFormatException {
+    throw new UnsupportedOperationException();
+  }
+
+  static int crc32(int crc32, ByteBuffer buf) {
+    throw new UnsupportedOperationException();
+  }
+
+  static int adler32(int adler32, ByteBuffer buf) {
+    throw new UnsupportedOperationException();
+  }
+}
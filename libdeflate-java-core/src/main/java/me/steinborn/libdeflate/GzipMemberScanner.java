@@ -0,0 +1,165 @@
+/*
+ * Copyright 2024 Andrew Steinborn
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package me.steinborn.libdeflate;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Finds the likely boundaries of the members in a stream of concatenated gzip members, without
+ * decompressing anything.
+ *
+ * <p>A boundary is assumed wherever a plausible gzip header starts: the magic bytes, the deflate
+ * method and valid flags, extra flags and OS fields. The trailer right before the header must also
+ * hold an uncompressed size that deflate could have produced from the bytes in between. Since
+ * compressed data can contain anything, the boundaries found are only candidates. A false candidate
+ * splits a member in two, and neither half will decompress to exactly its own bytes, so callers
+ * must check that each member consumed its whole span.
+ */
+final class GzipMemberScanner {
+  /** A header, an empty deflate stream and a trailer. */
+  static final int MIN_MEMBER_SIZE = 10 + 2 + 8;
+
+  private static final int GZIP_ID1 = 0x1f;
+  private static final int GZIP_ID2 = 0x8b;
+  private static final int GZIP_CM_DEFLATE = 8;
+  private static final int GZIP_RESERVED_FLAGS = 0xe0;
+  private static final int GZIP_OS_MAX = 13;
+  private static final int GZIP_OS_UNKNOWN = 255;
+
+  private GzipMemberScanner() {}
+
+  /** The candidate members in a stream. */
+  static final class Members {
+    /** The offset of each member, followed by the end of the last member. */
+    final int[] offsets;
+    /** The uncompressed size of each member, according to its trailer. */
+    final long[] sizes;
+
+    Members(int[] offsets, long[] sizes) {
+      this.offsets = offsets;
+      this.sizes = sizes;
+    }
+
+    int count() {
+      return sizes.length;
+    }
+
+    /** Returns the sum of the uncompressed sizes of all members. */
+    long totalSize() {
+      long total = 0;
+      for (long size : sizes) {
+        total += size;
+      }
+      return total;
+    }
+  }
+
+  /**
+   * Scans the remaining bytes of {@code in} for members. The position of {@code in} is not changed,
+   * and all offsets are relative to it.
+   *
+   * @return the candidate members, or {@code null} if the data does not start with a gzip header
+   */
+  static Members scan(ByteBuffer in) {
+    int base = in.position();
+    int length = in.remaining();
+    if (length < MIN_MEMBER_SIZE || !isHeader(in, base)) {
+      return null;
+    }
+
+    int[] offsets = new int[8];
+    int count = 1;
+    int last = 0;
+    for (int i = MIN_MEMBER_SIZE; i <= length - MIN_MEMBER_SIZE; i++) {
+      if ((in.get(base + i) & 0xff) != GZIP_ID1 || !isHeader(in, base + i)) {
+        continue;
+      }
+      if (readSize(in, base + i) > (i - last) * LibdeflateDecompressor.MAX_DEFLATE_RATIO) {
+        continue;
+      }
+      if (count == offsets.length) {
+        offsets = Arrays.copyOf(offsets, count * 2);
+      }
+      offsets[count++] = i;
+      last = i;
+      i += MIN_MEMBER_SIZE - 1;
+    }
+
+    offsets = Arrays.copyOf(offsets, count + 1);
+    offsets[count] = length;
+    long[] sizes = new long[count];
+    for (int i = 0; i < count; i++) {
+      sizes[i] = readSize(in, base + offsets[i + 1]);
+    }
+    return new Members(offsets, sizes);
+  }
+
+  /**
+   * Finds the next candidate member boundary in the remaining bytes of {@code in}, assuming a
+   * member starts at its position. Unlike {@link #scan(ByteBuffer)}, the data need not end on a
+   * member boundary, which makes this suitable for data that is still being read.
+   *
+   * @param from the offset, relative to the position of {@code in}, to start looking from
+   * @return the offset of the next candidate, relative to the position of {@code in}, or -1 if
+   *     there is none
+   */
+  static int nextMember(ByteBuffer in, int from) {
+    int base = in.position();
+    int length = in.remaining();
+    for (int i = Math.max(from, MIN_MEMBER_SIZE); i <= length - MIN_MEMBER_SIZE; i++) {
+      if ((in.get(base + i) & 0xff) == GZIP_ID1
+          && isHeader(in, base + i)
+          && readSize(in, base + i) <= i * LibdeflateDecompressor.MAX_DEFLATE_RATIO) {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  /**
+   * Returns whether the remaining bytes of {@code in} start with a plausible gzip header. At least
+   * 10 bytes must remain.
+   */
+  static boolean startsWithHeader(ByteBuffer in) {
+    return isHeader(in, in.position());
+  }
+
+  /** Reads the ISIZE field of the trailer that ends {@code end} bytes after the position. */
+  static long memberSize(ByteBuffer in, int end) {
+    return readSize(in, in.position() + end);
+  }
+
+  private static boolean isHeader(ByteBuffer in, int pos) {
+    if ((in.get(pos) & 0xff) != GZIP_ID1
+        || (in.get(pos + 1) & 0xff) != GZIP_ID2
+        || in.get(pos + 2) != GZIP_CM_DEFLATE
+        || (in.get(pos + 3) & GZIP_RESERVED_FLAGS) != 0) {
+      return false;
+    }
+    int xfl = in.get(pos + 8) & 0xff;
+    int os = in.get(pos + 9) & 0xff;
+    return (xfl == 0 || xfl == 2 || xfl == 4) && (os <= GZIP_OS_MAX || os == GZIP_OS_UNKNOWN);
+  }
+
+  /** Reads the ISIZE field of the trailer that ends right before {@code end}. */
+  private static long readSize(ByteBuffer in, int end) {
+    return (in.get(end - 4) & 0xffL)
+        | (in.get(end - 3) & 0xffL) << 8
+        | (in.get(end - 2) & 0xffL) << 16
+        | (in.get(end - 1) & 0xffL) << 24;
+  }
+}
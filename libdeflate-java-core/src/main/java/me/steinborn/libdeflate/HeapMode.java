@@ -0,0 +1,45 @@
+/*
+ * Copyright 2024 Andrew Steinborn
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package me.steinborn.libdeflate;
+
+/**
+ * How calls on heap arrays and heap {@code ByteBuffer}s reach libdeflate, chosen with the {@code
+ * libdeflate_heap_mode} system property before the library is loaded. Calls where both sides are
+ * direct buffers are not affected.
+ *
+ * @see Libdeflate#getHeapMode()
+ */
+public enum HeapMode {
+  /**
+   * Heap arrays are pinned with {@code GetPrimitiveArrayCritical} for the whole call. This copies
+   * nothing, but the garbage collector can't run until the call returns, so a long compression
+   * shows up as a {@code GCLocker Initiated GC} pause in every other thread. This is the default.
+   */
+  CRITICAL,
+  /**
+   * Heap data is copied into a direct buffer kept for each thread, and the output copied back out,
+   * so no array is pinned while libdeflate runs. Copies between the Java heap and direct buffers
+   * are done in chunks of at most 1 MiB, with safepoint checks in between.
+   */
+  STAGED,
+  /**
+   * Calls that are expected to be short are pinned as with {@link #CRITICAL}, and longer ones are
+   * staged as with {@link #STAGED}. The choice is made from the input size and compression level
+   * for compression, and from the output size for decompression, so that a pin is held for about a
+   * millisecond at most.
+   */
+  AUTO
+}
@@ -0,0 +1,104 @@
+/*
+ * Copyright 2024 Andrew Steinborn
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package me.steinborn.libdeflate;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Decides which calls on heap data are staged through direct buffers, according to {@link
+ * Libdeflate#HEAP_MODE} and {@link CallCost}, and keeps the staging buffers. Each thread keeps one
+ * buffer for input and one for output, grown as needed; calls larger than {@link #MAX_RETAINED} get
+ * a buffer of their own.
+ */
+final class HeapStaging {
+  static final int INPUT = 0;
+  static final int OUTPUT = 1;
+
+  /** The largest staging buffer kept by a thread between calls. */
+  private static final int MAX_RETAINED = 16 * 1024 * 1024;
+
+  private static final int MIN_CAPACITY = 64 * 1024;
+
+  private static final ThreadLocal<ByteBuffer[]> BUFFERS =
+      ThreadLocal.withInitial(() -> new ByteBuffer[2]);
+
+  private HeapStaging() {}
+
+  static boolean stageCompression(long inputSize, int level) {
+    return stageCompression(Libdeflate.HEAP_MODE, inputSize, level);
+  }
+
+  static boolean stageCompression(HeapMode mode, long inputSize, int level) {
+    switch (mode) {
+      case STAGED:
+        return true;
+      case AUTO:
+        return CallCost.compressionNanos(inputSize, level) >= CallCost.LONG_CALL_NANOS;
+      default:
+        return false;
+    }
+  }
+
+  static boolean stageDecompression(long outputSize) {
+    return stageDecompression(Libdeflate.HEAP_MODE, outputSize);
+  }
+
+  static boolean stageDecompression(HeapMode mode, long outputSize) {
+    switch (mode) {
+      case STAGED:
+        return true;
+      case AUTO:
+        return CallCost.decompressionNanos(outputSize) >= CallCost.LONG_CALL_NANOS;
+      default:
+        return false;
+    }
+  }
+
+  /**
+   * Returns a direct buffer holding a copy of the remaining bytes of {@code in}, whose position is
+   * not changed.
+   */
+  static ByteBuffer copyIn(ByteBuffer in) {
+    ByteBuffer staged = acquire(INPUT, in.remaining());
+    staged.put(in.duplicate()).flip();
+    return staged;
+  }
+
+  /**
+   * Returns an empty direct buffer with room for {@code size} bytes, limited to that size. The
+   * buffer is only valid until the next call on this thread for the same slot.
+   */
+  static ByteBuffer acquire(int slot, int size) {
+    if (size > MAX_RETAINED) {
+      return ByteBuffer.allocateDirect(size);
+    }
+    ByteBuffer[] buffers = BUFFERS.get();
+    ByteBuffer buffer = buffers[slot];
+    if (buffer == null || buffer.capacity() < size) {
+      int capacity = Math.max(MIN_CAPACITY, Integer.highestOneBit(Math.max(size - 1, 1)) << 1);
+      buffer = ByteBuffer.allocateDirect(Math.min(capacity, MAX_RETAINED));
+      buffers[slot] = buffer;
+    }
+    buffer.clear().limit(size);
+    return buffer;
+  }
+
+  /** Copies the first {@code length} bytes of {@code staged} to {@code out} at its position. */
+  static void copyOut(ByteBuffer staged, int length, ByteBuffer out) {
+    staged.limit(length).position(0);
+    out.duplicate().put(staged);
+  }
+}
@@ -30,8 +30,28 @@ public class Libdeflate {
   private static final String OS;
   private static final String ARCH = System.getProperty("os.arch").toLowerCase(Locale.ENGLISH);
   private static final String NATIVE_LIB_PATH = System.getProperty("libdeflate_jni_path", "");
+  private static final String BACKEND = System.getProperty("libdeflate_backend", "");
   private static Throwable unavailabilityCause;
 
+  /**
+   * Whether calls on direct buffers go through {@code java.lang.foreign} rather than JNI. This is
+   * decided once, when the natives are loaded, so the JIT can fold the check away.
+   */
+  static final boolean FOREIGN_BACKEND;
+
+  /**
+   * Whether calls are counted by {@link LibdeflateMetrics}, set by the {@code libdeflate_metrics}
+   * system property. Like {@link #FOREIGN_BACKEND}, this is a constant so the JIT can remove the
+   * instrumentation when metrics are off.
+   */
+  static final boolean METRICS = Boolean.getBoolean("libdeflate_metrics");
+
+  /**
+   * How calls on heap data reach libdeflate, set by the {@code libdeflate_heap_mode} system
+   * property. This is also a constant, so the JIT drops the staging checks in the default mode.
+   */
+  static final HeapMode HEAP_MODE = parseHeapMode(System.getProperty("libdeflate_heap_mode", ""));
+
   static {
     if (OS_SYSTEM_PROPERTY.startsWith("mac")) {
       OS = "darwin";
@@ -50,9 +70,43 @@ public class Libdeflate {
     } catch (Throwable e) {
       unavailabilityCause = e;
     }
+
+    // The foreign backend looks up libdeflate's functions in the library we just loaded. It needs
+    // native access, which the JVM warns about unless it was granted, so it is only used when
+    // libdeflate_backend=ffm asks for it.
+    FOREIGN_BACKEND =
+        unavailabilityCause == null && BACKEND.equals("ffm") && ForeignBackend.isSupported();
+
+    // libdeflate_memory_limit caps the native memory held by all contexts, in bytes.
+    long memoryLimit = Long.getLong("libdeflate_memory_limit", 0);
+    if (unavailabilityCause == null && memoryLimit > 0) {
+      LibdeflateMemoryStats.setLimit(memoryLimit);
+    }
+  }
+
+  private static HeapMode parseHeapMode(String value) {
+    for (HeapMode mode : HeapMode.values()) {
+      if (mode.name().equalsIgnoreCase(value)) {
+        return mode;
+      }
+    }
+    return HeapMode.CRITICAL;
   }
 
   private static void copyAndLoadNative(String path) {
+    Object event = FlightRecorderEvents.ENABLED ? FlightRecorderEvents.beginNativeLoad() : null;
+    boolean loaded = false;
+    try {
+      copyAndLoad(path);
+      loaded = true;
+    } finally {
+      if (event != null) {
+        FlightRecorderEvents.endNativeLoad(event, path, loaded);
+      }
+    }
+  }
+
+  private static void copyAndLoad(String path) {
     try {
       InputStream nativeLib = Libdeflate.class.getResourceAsStream(path);
       if (nativeLib == null) {
@@ -114,6 +168,28 @@ public class Libdeflate {
     return unavailabilityCause;
   }
 
+  /**
+   * Returns whether libdeflate is called through the {@code java.lang.foreign} API instead of JNI
+   * where possible. This is the case on Java 22 and above when the {@code libdeflate_backend}
+   * system property is set to {@code ffm}.
+   *
+   * @return whether the foreign backend is in use
+   */
+  public static boolean isForeignBackendEnabled() {
+    return FOREIGN_BACKEND;
+  }
+
+  /**
+   * Returns how calls on heap arrays and heap buffers reach libdeflate. This is {@link
+   * HeapMode#CRITICAL} unless the {@code libdeflate_heap_mode} system property is set to {@code
+   * staged} or {@code auto}.
+   *
+   * @return the heap mode in use
+   */
+  public static HeapMode getHeapMode() {
+    return HEAP_MODE;
+  }
+
   public static void ensureAvailable() {
     if (unavailabilityCause != null) {
       throw new RuntimeException("libdeflate JNI library unavailable", unavailabilityCause);
@@ -30,6 +30,9 @@ public class LibdeflateAdler32 implements Checksum {
     Libdeflate.ensureAvailable();
   }
 
+  /** The largest prime smaller than 65536. */
+  private static final long ADLER32_BASE = 65521;
+
   private int adler32 = 1;
 
   @Override
@@ -39,23 +42,37 @@ public class LibdeflateAdler32 implements Checksum {
   }
 
   public void update(byte[] b) {
-    adler32 = adler32Heap(adler32, b, 0, b.length);
+    update(b, 0, b.length);
   }
 
   @Override
   public void update(byte[] b, int off, int len) {
     checkBounds(b.length, off, len);
+    long start = Libdeflate.METRICS ? System.nanoTime() : 0;
+    Object event = FlightRecorderEvents.ENABLED ? FlightRecorderEvents.beginChecksum() : null;
     adler32 = adler32Heap(adler32, b, off, len);
+    if (Libdeflate.METRICS) {
+      LibdeflateMetrics.recordChecksum(LibdeflateMetrics.Operation.ADLER32, len, start);
+    }
+    if (event != null) {
+      FlightRecorderEvents.endChecksum(event, LibdeflateMetrics.Operation.ADLER32, len, false);
+    }
   }
 
   public void update(ByteBuffer buffer) {
     int pos = buffer.position();
     int limit = buffer.limit();
     int remaining = limit - pos;
+    long start = Libdeflate.METRICS ? System.nanoTime() : 0;
+    Object event = FlightRecorderEvents.ENABLED ? FlightRecorderEvents.beginChecksum() : null;
     if (buffer.hasArray()) {
       adler32 = adler32Heap(adler32, buffer.array(), byteBufferArrayPosition(buffer), remaining);
     } else if (buffer.isDirect()) {
-      adler32 = adler32Direct(adler32, buffer, pos, remaining);
+      if (Libdeflate.FOREIGN_BACKEND) {
+        adler32 = ForeignBackend.adler32(adler32, buffer);
+      } else {
+        adler32 = adler32Direct(adler32, buffer, pos, remaining);
+      }
     } else {
       // make a copy of this array
       byte[] data = new byte[remaining];
@@ -63,6 +80,13 @@ public class LibdeflateAdler32 implements Checksum {
       adler32 = adler32Heap(adler32, data, 0, data.length);
     }
     buffer.position(limit);
+    if (Libdeflate.METRICS) {
+      LibdeflateMetrics.recordChecksum(LibdeflateMetrics.Operation.ADLER32, remaining, start);
+    }
+    if (event != null) {
+      FlightRecorderEvents.endChecksum(
+          event, LibdeflateMetrics.Operation.ADLER32, remaining, buffer.isDirect());
+    }
   }
 
   @Override
@@ -75,6 +99,41 @@ public class LibdeflateAdler32 implements Checksum {
     adler32 = 1;
   }
 
+  /**
+   * Combines two Adler-32 checksums into the checksum of the concatenation of their data, without
+   * needing the data itself. This is what lets data be checksummed in independent pieces, for
+   * example by {@link ParallelChecksum}.
+   *
+   * @param adler1 the Adler-32 of the first piece of data
+   * @param adler2 the Adler-32 of the second piece of data
+   * @param len2 the length of the second piece of data
+   * @return the Adler-32 of the first piece followed by the second
+   * @throws IllegalArgumentException if {@code len2} is negative
+   */
+  public static long combine(long adler1, long adler2, long len2) {
+    if (len2 < 0) {
+      throw new IllegalArgumentException("len2 = " + len2);
+    }
+    long rem = len2 % ADLER32_BASE;
+    long sum1 = adler1 & 0xffff;
+    long sum2 = (rem * sum1) % ADLER32_BASE;
+    sum1 += (adler2 & 0xffff) + ADLER32_BASE - 1;
+    sum2 += ((adler1 >>> 16) & 0xffff) + ((adler2 >>> 16) & 0xffff) + ADLER32_BASE - rem;
+    if (sum1 >= ADLER32_BASE) {
+      sum1 -= ADLER32_BASE;
+    }
+    if (sum1 >= ADLER32_BASE) {
+      sum1 -= ADLER32_BASE;
+    }
+    if (sum2 >= ADLER32_BASE << 1) {
+      sum2 -= ADLER32_BASE << 1;
+    }
+    if (sum2 >= ADLER32_BASE) {
+      sum2 -= ADLER32_BASE;
+    }
+    return sum1 | (sum2 << 16);
+  }
+
   private static native int adler32Heap(long adler32, byte[] array, int off, int len);
 
   private static native int adler32Direct(long adler32, ByteBuffer buf, int off, int len);
@@ -30,6 +30,20 @@ public class LibdeflateCRC32 implements Checksum {
     Libdeflate.ensureAvailable();
   }
 
+  /** The CRC32 polynomial, bit-reflected. */
+  private static final int CRC32_POLY = 0xedb88320;
+
+  /** x^(2^n) modulo the polynomial, for n from 0 to 31. */
+  private static final int[] X2N_TABLE = new int[32];
+
+  static {
+    int p = 1 << 30; // x^1
+    X2N_TABLE[0] = p;
+    for (int n = 1; n < 32; n++) {
+      X2N_TABLE[n] = p = multiplyModP(p, p);
+    }
+  }
+
   private int crc32 = 0;
 
   @Override
@@ -39,23 +53,37 @@ public class LibdeflateCRC32 implements Checksum {
   }
 
   public void update(byte[] b) {
-    crc32 = crc32Heap(crc32, b, 0, b.length);
+    update(b, 0, b.length);
   }
 
   @Override
   public void update(byte[] b, int off, int len) {
     checkBounds(b.length, off, len);
+    long start = Libdeflate.METRICS ? System.nanoTime() : 0;
+    Object event = FlightRecorderEvents.ENABLED ? FlightRecorderEvents.beginChecksum() : null;
     crc32 = crc32Heap(crc32, b, off, len);
+    if (Libdeflate.METRICS) {
+      LibdeflateMetrics.recordChecksum(LibdeflateMetrics.Operation.CRC32, len, start);
+    }
+    if (event != null) {
+      FlightRecorderEvents.endChecksum(event, LibdeflateMetrics.Operation.CRC32, len, false);
+    }
   }
 
   public void update(ByteBuffer buffer) {
     int pos = buffer.position();
     int limit = buffer.limit();
     int remaining = limit - pos;
+    long start = Libdeflate.METRICS ? System.nanoTime() : 0;
+    Object event = FlightRecorderEvents.ENABLED ? FlightRecorderEvents.beginChecksum() : null;
     if (buffer.hasArray()) {
       crc32 = crc32Heap(crc32, buffer.array(), byteBufferArrayPosition(buffer), remaining);
     } else if (buffer.isDirect()) {
-      crc32 = crc32Direct(crc32, buffer, pos, remaining);
+      if (Libdeflate.FOREIGN_BACKEND) {
+        crc32 = ForeignBackend.crc32(crc32, buffer);
+      } else {
+        crc32 = crc32Direct(crc32, buffer, pos, remaining);
+      }
     } else {
       // make a copy of this array
       byte[] data = new byte[remaining];
@@ -63,6 +91,13 @@ public class LibdeflateCRC32 implements Checksum {
       crc32 = crc32Heap(crc32, data, 0, data.length);
     }
     buffer.position(limit);
+    if (Libdeflate.METRICS) {
+      LibdeflateMetrics.recordChecksum(LibdeflateMetrics.Operation.CRC32, remaining, start);
+    }
+    if (event != null) {
+      FlightRecorderEvents.endChecksum(
+          event, LibdeflateMetrics.Operation.CRC32, remaining, buffer.isDirect());
+    }
   }
 
   @Override
@@ -75,6 +110,54 @@ public class LibdeflateCRC32 implements Checksum {
     crc32 = 0;
   }
 
+  /**
+   * Combines two CRC32 checksums into the checksum of the concatenation of their data, without
+   * needing the data itself. This is what lets data be checksummed in independent pieces, for
+   * example by {@link ParallelChecksum}.
+   *
+   * @param crc1 the CRC32 of the first piece of data
+   * @param crc2 the CRC32 of the second piece of data
+   * @param len2 the length of the second piece of data
+   * @return the CRC32 of the first piece followed by the second
+   * @throws IllegalArgumentException if {@code len2} is negative
+   */
+  public static long combine(long crc1, long crc2, long len2) {
+    if (len2 < 0) {
+      throw new IllegalArgumentException("len2 = " + len2);
+    }
+    // Appending len2 bytes multiplies the first CRC by x^(8 * len2) modulo the polynomial.
+    return (multiplyModP(powerOfXModP(len2, 3), (int) crc1) ^ (int) crc2) & 0xffffffffL;
+  }
+
+  /** Multiplies {@code a} by {@code b} modulo the polynomial, in bit-reflected form. */
+  private static int multiplyModP(int a, int b) {
+    int m = 1 << 31;
+    int p = 0;
+    while (true) {
+      if ((a & m) != 0) {
+        p ^= b;
+        if ((a & (m - 1)) == 0) {
+          return p;
+        }
+      }
+      m >>>= 1;
+      b = (b & 1) != 0 ? (b >>> 1) ^ CRC32_POLY : b >>> 1;
+    }
+  }
+
+  /** Returns x^(n * 2^k) modulo the polynomial. */
+  private static int powerOfXModP(long n, int k) {
+    int p = 1 << 31; // x^0
+    while (n != 0) {
+      if ((n & 1) != 0) {
+        p = multiplyModP(X2N_TABLE[k & 31], p);
+      }
+      n >>>= 1;
+      k++;
+    }
+    return p;
+  }
+
   private static native int crc32Heap(long crc32, byte[] array, int off, int len);
 
   private static native int crc32Direct(long crc32, ByteBuffer buf, int off, int len);
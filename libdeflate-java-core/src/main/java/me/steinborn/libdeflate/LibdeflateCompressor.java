@@ -17,6 +17,7 @@ package me.steinborn.libdeflate;
 
 import static me.steinborn.libdeflate.LibdeflateJavaUtils.byteBufferArrayPosition;
 import static me.steinborn.libdeflate.LibdeflateJavaUtils.checkBounds;
+import static me.steinborn.libdeflate.LibdeflateJavaUtils.prepareBatch;
 
 import java.io.Closeable;
 import java.nio.ByteBuffer;
@@ -32,15 +33,33 @@ import java.util.zip.Deflater;
  */
 public class LibdeflateCompressor implements Closeable, AutoCloseable {
   private static final int MINIMUM_COMPRESSION_LEVEL = 0;
-  private static final int MAXIMUM_COMPRESSION_LEVEL = 12;
+  static final int MAXIMUM_COMPRESSION_LEVEL = 12;
   private static final int DEFAULT_COMPRESSION_LEVEL = 6;
 
+  /** The estimator samples this many evenly spaced chunks of larger inputs. */
+  private static final int SAMPLE_CHUNKS = 4;
+
+  private static final int SAMPLE_CHUNK_SIZE = 1024;
+  private static final int SAMPLE_SIZE = SAMPLE_CHUNKS * SAMPLE_CHUNK_SIZE;
+
+  /**
+   * Below this many bits per byte of entropy, Huffman coding alone is a good enough estimate and no
+   * trial compression is needed.
+   */
+  private static final double MAX_TRUSTED_ENTROPY = 6.0;
+
+  private static final ThreadLocal<EstimateScratch> ESTIMATE_SCRATCH =
+      ThreadLocal.withInitial(EstimateScratch::new);
+
   static {
     Libdeflate.ensureAvailable();
   }
 
   final long ctx;
+  final int level;
   private boolean closed = false;
+  private LibdeflateCompressor storer;
+  private LibdeflateExecutionPolicy executionPolicy = LibdeflateExecutionPolicy.inline();
 
   /** Creates a new compressor with the default compression level. */
   public LibdeflateCompressor() {
@@ -54,13 +73,26 @@ public class LibdeflateCompressor implements Closeable, AutoCloseable {
    * @throws IllegalArgumentException if the level is not within range
    */
   public LibdeflateCompressor(int level) {
+    this.level = normalizeLevel(level);
+    this.ctx = allocate(this.level);
+  }
+
+  /**
+   * Checks a compression level, resolving {@link Deflater#DEFAULT_COMPRESSION} to the level it
+   * stands for.
+   *
+   * @param level the compression level, from 0 to 12, or {@link Deflater#DEFAULT_COMPRESSION}
+   * @return the compression level, from 0 to 12
+   * @throws IllegalArgumentException if the level is not within range
+   */
+  public static int normalizeLevel(int level) {
     if (level == Deflater.DEFAULT_COMPRESSION) {
-      level = DEFAULT_COMPRESSION_LEVEL;
+      return DEFAULT_COMPRESSION_LEVEL;
     }
     if (level < MINIMUM_COMPRESSION_LEVEL || level > MAXIMUM_COMPRESSION_LEVEL) {
       throw new IllegalArgumentException("invalid compression level, must be between 0 and 12");
     }
-    this.ctx = allocate(level);
+    return level;
   }
 
   void ensureNotClosed() {
@@ -69,6 +101,46 @@ public class LibdeflateCompressor implements Closeable, AutoCloseable {
     }
   }
 
+  boolean isClosed() {
+    return this.closed;
+  }
+
+  /**
+   * Returns the compression level of this compressor.
+   *
+   * @return the compression level, from 0 to 12
+   */
+  public int getLevel() {
+    return level;
+  }
+
+  /**
+   * Sets where the calls of this compressor run. By default every call runs inline on the calling
+   * thread; see {@link LibdeflateExecutionPolicy} for moving long calls off virtual threads.
+   * Batches compressed with {@link #compressBatch(ByteBuffer[], ByteBuffer[], CompressionType)}
+   * always run inline.
+   *
+   * @param executionPolicy the policy to use
+   */
+  public void setExecutionPolicy(LibdeflateExecutionPolicy executionPolicy) {
+    if (executionPolicy == null) {
+      throw new NullPointerException("executionPolicy");
+    }
+    this.executionPolicy = executionPolicy;
+    if (storer != null) {
+      storer.executionPolicy = executionPolicy;
+    }
+  }
+
+  /**
+   * Returns where the calls of this compressor run.
+   *
+   * @return the execution policy
+   */
+  public LibdeflateExecutionPolicy getExecutionPolicy() {
+    return executionPolicy;
+  }
+
   /**
    * Compresses the entirety of {@code in} array into the {@code out} array.
    *
@@ -80,7 +152,29 @@ public class LibdeflateCompressor implements Closeable, AutoCloseable {
    */
   public int compress(byte[] in, byte[] out, CompressionType type) {
     ensureNotClosed();
-    return (int) compressBothHeap(ctx, in, 0, in.length, out, 0, out.length, type.getNativeType());
+    if (executionPolicy.offloadCompression(in.length, level)) {
+      return executionPolicy.compress(() -> compressInline(in, out, type));
+    }
+    return compressInline(in, out, type);
+  }
+
+  private int compressInline(byte[] in, byte[] out, CompressionType type) {
+    long start = Libdeflate.METRICS ? System.nanoTime() : 0;
+    Object event = FlightRecorderEvents.ENABLED ? FlightRecorderEvents.beginCompress() : null;
+    boolean staged = HeapStaging.stageCompression(in.length, level);
+    int result =
+        (int)
+            (staged
+                ? compressStaged(ByteBuffer.wrap(in), ByteBuffer.wrap(out), type)
+                : compressBothHeap(
+                    ctx, in, 0, in.length, out, 0, out.length, type.getNativeType()));
+    if (Libdeflate.METRICS) {
+      LibdeflateMetrics.recordCompression(type, in.length, result, start);
+    }
+    if (event != null) {
+      FlightRecorderEvents.endCompress(event, type, level, in.length, result, false, false, staged);
+    }
+    return result;
   }
 
   /**
@@ -103,7 +197,32 @@ public class LibdeflateCompressor implements Closeable, AutoCloseable {
     ensureNotClosed();
     checkBounds(in.length, inOff, inLen);
     checkBounds(out.length, outOff, outLen);
-    return (int) compressBothHeap(ctx, in, inOff, inLen, out, outOff, outLen, type.getNativeType());
+    if (executionPolicy.offloadCompression(inLen, level)) {
+      return executionPolicy.compress(
+          () -> compressInline(in, inOff, inLen, out, outOff, outLen, type));
+    }
+    return compressInline(in, inOff, inLen, out, outOff, outLen, type);
+  }
+
+  private int compressInline(
+      byte[] in, int inOff, int inLen, byte[] out, int outOff, int outLen, CompressionType type) {
+    long start = Libdeflate.METRICS ? System.nanoTime() : 0;
+    Object event = FlightRecorderEvents.ENABLED ? FlightRecorderEvents.beginCompress() : null;
+    boolean staged = HeapStaging.stageCompression(inLen, level);
+    int result =
+        (int)
+            (staged
+                ? compressStaged(
+                    ByteBuffer.wrap(in, inOff, inLen), ByteBuffer.wrap(out, outOff, outLen), type)
+                : compressBothHeap(
+                    ctx, in, inOff, inLen, out, outOff, outLen, type.getNativeType()));
+    if (Libdeflate.METRICS) {
+      LibdeflateMetrics.recordCompression(type, inLen, result, start);
+    }
+    if (event != null) {
+      FlightRecorderEvents.endCompress(event, type, level, inLen, result, false, false, staged);
+    }
+    return result;
   }
 
   /**
@@ -120,16 +239,40 @@ public class LibdeflateCompressor implements Closeable, AutoCloseable {
    */
   public int compress(ByteBuffer in, ByteBuffer out, CompressionType type) {
     ensureNotClosed();
+    if (executionPolicy.offloadCompression(in.remaining(), level)) {
+      return executionPolicy.compress(() -> compressInline(in, out, type));
+    }
+    return compressInline(in, out, type);
+  }
+
+  private int compressInline(ByteBuffer in, ByteBuffer out, CompressionType type) {
     int nativeType = type.getNativeType();
+    long start = Libdeflate.METRICS ? System.nanoTime() : 0;
+    Object event = FlightRecorderEvents.ENABLED ? FlightRecorderEvents.beginCompress() : null;
 
     // Either ByteBuffer could be direct or heap.
     long result;
     int inAvail = in.remaining();
-    if (in.isDirect()) {
+    boolean staged =
+        !(in.isDirect() && out.isDirect()) && HeapStaging.stageCompression(inAvail, level);
+    if (staged) {
+      result = compressStaged(in, out, type);
+    } else if (in.isDirect()) {
       if (out.isDirect()) {
-        result =
-            compressBothDirect(
-                ctx, in, in.position(), inAvail, out, out.position(), out.remaining(), nativeType);
+        if (Libdeflate.FOREIGN_BACKEND) {
+          result = ForeignBackend.compress(ctx, in, out, nativeType);
+        } else {
+          result =
+              compressBothDirect(
+                  ctx,
+                  in,
+                  in.position(),
+                  inAvail,
+                  out,
+                  out.position(),
+                  out.remaining(),
+                  nativeType);
+        }
       } else {
         result =
             compressOnlySourceDirect(
@@ -164,14 +307,352 @@ public class LibdeflateCompressor implements Closeable, AutoCloseable {
 
     out.position((int) (out.position() + result));
     in.position(in.position() + inAvail);
+    if (Libdeflate.METRICS) {
+      LibdeflateMetrics.recordCompression(type, inAvail, result, start);
+    }
+    if (event != null) {
+      FlightRecorderEvents.endCompress(
+          event, type, level, inAvail, result, in.isDirect(), out.isDirect(), staged);
+    }
     return (int) result;
   }
 
+  /**
+   * Compresses the remaining bytes of {@code in} into {@code out} without pinning any heap array,
+   * by copying whichever of the two is on the heap through a direct staging buffer. The positions
+   * of the buffers are not changed.
+   */
+  private long compressStaged(ByteBuffer in, ByteBuffer out, CompressionType type) {
+    if (Libdeflate.METRICS) {
+      LibdeflateMetrics.recordStaged(LibdeflateMetrics.Operation.COMPRESS, type);
+    }
+    ByteBuffer source = in.isDirect() ? in : HeapStaging.copyIn(in);
+    ByteBuffer target = out;
+    if (!out.isDirect()) {
+      // The output never needs more room than the bound, however large the heap buffer is.
+      long bound = getCompressBound(ctx, source.remaining(), type.getNativeType());
+      target = HeapStaging.acquire(HeapStaging.OUTPUT, (int) Math.min(out.remaining(), bound));
+    }
+    long result =
+        compressBothDirect(
+            ctx,
+            source,
+            source.position(),
+            source.remaining(),
+            target,
+            target.position(),
+            target.remaining(),
+            type.getNativeType());
+    if (target != out && result > 0) {
+      HeapStaging.copyOut(target, (int) result, out);
+    }
+    return result;
+  }
+
+  /**
+   * Compresses each of the {@code in} ByteBuffers into the {@code out} ByteBuffer with the same
+   * index. This behaves like calling {@link #compress(ByteBuffer, ByteBuffer, CompressionType)} for
+   * each pair of buffers, but the whole batch is compressed in a single call into native code, so
+   * the fixed cost of a call is paid once per batch instead of once per buffer. This makes a
+   * difference when compressing many small buffers, such as network packets.
+   *
+   * <p>Buffers may be any mix of direct and heap buffers. As with the single-buffer API, the
+   * positions of the input and output buffers are advanced.
+   *
+   * @param in the source byte buffers to compress
+   * @param out the destinations which will hold compressed data, one for each source buffer
+   * @param type the compression container to use
+   * @return for each entry, a positive, non-zero integer with the size of the compressed output, or
+   *     zero if the output buffer for that entry was too small
+   * @throws IllegalArgumentException if {@code in} and {@code out} have different lengths
+   * @throws OutOfMemoryError if a heap buffer could not be pinned; earlier entries may already have
+   *     been compressed, but no buffer positions are advanced
+   */
+  public int[] compressBatch(ByteBuffer[] in, ByteBuffer[] out, CompressionType type) {
+    ensureNotClosed();
+    int nativeType = type.getNativeType();
+
+    int count = in.length;
+    Object[] inStorage = new Object[count];
+    Object[] outStorage = new Object[count];
+    int[] positions = new int[count * 4];
+    prepareBatch(in, out, inStorage, outStorage, positions);
+
+    int[] results = new int[count];
+    compressBatch(ctx, inStorage, outStorage, positions, count, nativeType, results);
+
+    for (int i = 0; i < count; i++) {
+      out[i].position(out[i].position() + results[i]);
+      in[i].position(in[i].limit());
+    }
+    return results;
+  }
+
+  /**
+   * Estimates how well the remaining bytes of {@code in} would compress, without changing its
+   * position. This is much cheaper than compressing the whole buffer: at most 4 KiB, taken as
+   * evenly spaced chunks, are looked at. If the entropy of the bytes in the sample is low, the
+   * estimate is taken from the entropy; otherwise the sample is compressed at the level of this
+   * compressor.
+   *
+   * <p>The estimate is conservative for data whose repetitions are farther apart than the sampled
+   * chunks, since matches between chunks are not found.
+   *
+   * @param in the data to estimate the compressibility of
+   * @return the estimated size of the compressed data as a fraction of its uncompressed size, which
+   *     may be slightly above {@code 1} for incompressible data
+   */
+  public double estimateRatio(ByteBuffer in) {
+    ensureNotClosed();
+    int len = in.remaining();
+    byte[] sample = ESTIMATE_SCRATCH.get().sample;
+    ByteBuffer source = in.duplicate();
+    if (len <= SAMPLE_SIZE) {
+      source.get(sample, 0, len);
+    } else {
+      for (int i = 0; i < SAMPLE_CHUNKS; i++) {
+        source.position(in.position() + sampleChunkOffset(i, len));
+        source.get(sample, i * SAMPLE_CHUNK_SIZE, SAMPLE_CHUNK_SIZE);
+      }
+    }
+    return estimateSampleRatio(sample, 0, Math.min(len, SAMPLE_SIZE));
+  }
+
+  /**
+   * Estimates how well the given range of {@code in} would compress.
+   *
+   * @param in the array holding the data to estimate the compressibility of
+   * @param off the offset into the array
+   * @param len the length into the array from the offset
+   * @return the estimated size of the compressed data as a fraction of its uncompressed size
+   * @throws IllegalArgumentException if the given offset and length are out of bounds or represent
+   *     a negative range
+   * @see #estimateRatio(ByteBuffer)
+   */
+  public double estimateRatio(byte[] in, int off, int len) {
+    ensureNotClosed();
+    checkBounds(in.length, off, len);
+    if (len <= SAMPLE_SIZE) {
+      return estimateSampleRatio(in, off, len);
+    }
+    byte[] sample = ESTIMATE_SCRATCH.get().sample;
+    for (int i = 0; i < SAMPLE_CHUNKS; i++) {
+      System.arraycopy(
+          in, off + sampleChunkOffset(i, len), sample, i * SAMPLE_CHUNK_SIZE, SAMPLE_CHUNK_SIZE);
+    }
+    return estimateSampleRatio(sample, 0, SAMPLE_SIZE);
+  }
+
+  private static int sampleChunkOffset(int chunk, int len) {
+    return (int) ((long) (len - SAMPLE_CHUNK_SIZE) * chunk / (SAMPLE_CHUNKS - 1));
+  }
+
+  private double estimateSampleRatio(byte[] sample, int off, int len) {
+    if (len == 0) {
+      return 1;
+    }
+    int[] histogram = new int[256];
+    for (int i = off; i < off + len; i++) {
+      histogram[sample[i] & 0xff]++;
+    }
+    double entropy = 0;
+    for (int count : histogram) {
+      if (count != 0) {
+        double p = (double) count / len;
+        entropy -= p * Math.log(p);
+      }
+    }
+    entropy /= Math.log(2);
+    if (entropy <= MAX_TRUSTED_ENTROPY) {
+      return entropy / 8;
+    }
+
+    // High-entropy data can still compress well through repetition, which only a trial run finds.
+    byte[] trial = ESTIMATE_SCRATCH.get().trial;
+    int produced =
+        compressInline(sample, off, len, trial, 0, trial.length, CompressionType.DEFLATE);
+    return (double) produced / len;
+  }
+
+  /**
+   * Scratch space for {@link #estimateRatio(ByteBuffer)}, reused by every compressor on a thread.
+   */
+  private static final class EstimateScratch {
+    final byte[] sample = new byte[SAMPLE_SIZE];
+    final byte[] trial =
+        new byte[(int) getGenericCompressionBound(SAMPLE_SIZE, CompressionType.DEFLATE)];
+  }
+
+  /**
+   * Compresses the given {@code in} ByteBuffer into the {@code out} ByteBuffer, unless doing so
+   * would not save at least the fraction {@code minSaving} of its size. For inputs larger than 4
+   * KiB, this is decided up front with {@link #estimateRatio(ByteBuffer)}, so that little time is
+   * spent on data that is already compressed or encrypted. Smaller inputs are compressed, and the
+   * result is discarded if it is not small enough.
+   *
+   * <p>If the data is not worth compressing, the positions of both buffers are left unchanged,
+   * although the contents of {@code out} past its position may have been overwritten.
+   *
+   * @param in the source byte buffer to compress
+   * @param out the destination which will hold compressed data
+   * @param type the compression container to use
+   * @param minSaving the smallest fraction of the input size that compression must save, from 0
+   *     (inclusive) to 1 (exclusive)
+   * @return a positive, non-zero integer with the size of the compressed output, zero if the given
+   *     output buffer was too small, or {@code -1} if the data is not worth compressing
+   * @throws IllegalArgumentException if {@code minSaving} is not within range
+   */
+  public int compressIfWorthwhile(
+      ByteBuffer in, ByteBuffer out, CompressionType type, double minSaving) {
+    double maxRatio = maxRatio(minSaving);
+    int inAvail = in.remaining();
+    if (inAvail > SAMPLE_SIZE && estimateRatio(in) > maxRatio) {
+      return -1;
+    }
+
+    int inPos = in.position();
+    int outPos = out.position();
+    int produced = compress(in, out, type);
+    if (produced != 0 && produced > inAvail * maxRatio) {
+      in.position(inPos);
+      out.position(outPos);
+      return -1;
+    }
+    return produced;
+  }
+
+  /**
+   * Compresses the given range of {@code in} into the given range of {@code out}, unless doing so
+   * would not save at least the fraction {@code minSaving} of its size.
+   *
+   * <p>If the data is not worth compressing, the given range of {@code out} may still have been
+   * overwritten.
+   *
+   * @param in the source array to compress
+   * @param inOff the offset into the source array
+   * @param inLen the length into the source array from the offset
+   * @param out the destination which will hold compressed data
+   * @param outOff the offset into the destination array
+   * @param outLen the length into the destination array from {@code outOff}
+   * @param type the compression container to use
+   * @param minSaving the smallest fraction of the input size that compression must save, from 0
+   *     (inclusive) to 1 (exclusive)
+   * @return a positive, non-zero integer with the size of the compressed output, zero if the given
+   *     output buffer was too small, or {@code -1} if the data is not worth compressing
+   * @throws IndexOutOfBoundsException if the given offsets and lengths are out of bounds or
+   *     represent a negative range
+   * @throws IllegalArgumentException if {@code minSaving} is not within range
+   * @see #compressIfWorthwhile(ByteBuffer, ByteBuffer, CompressionType, double)
+   */
+  public int compressIfWorthwhile(
+      byte[] in,
+      int inOff,
+      int inLen,
+      byte[] out,
+      int outOff,
+      int outLen,
+      CompressionType type,
+      double minSaving) {
+    double maxRatio = maxRatio(minSaving);
+    if (inLen > SAMPLE_SIZE && estimateRatio(in, inOff, inLen) > maxRatio) {
+      return -1;
+    }
+
+    int produced = compress(in, inOff, inLen, out, outOff, outLen, type);
+    if (produced != 0 && produced > inLen * maxRatio) {
+      return -1;
+    }
+    return produced;
+  }
+
+  private static double maxRatio(double minSaving) {
+    if (!(minSaving >= 0 && minSaving < 1)) {
+      throw new IllegalArgumentException("minSaving must be at least 0 and less than 1");
+    }
+    return 1 - minSaving;
+  }
+
+  /**
+   * Compresses the given {@code in} ByteBuffer into the {@code out} ByteBuffer like {@link
+   * #compressIfWorthwhile(ByteBuffer, ByteBuffer, CompressionType, double)}, but writes the data as
+   * stored (level 0) blocks in the given container if it is not worth compressing. Either way, the
+   * output is valid data for {@code type}, and is at most a few bytes larger than the input.
+   *
+   * @param in the source byte buffer to compress
+   * @param out the destination which will hold compressed data
+   * @param type the compression container to use
+   * @param minSaving the smallest fraction of the input size that compression must save, from 0
+   *     (inclusive) to 1 (exclusive)
+   * @return a positive, non-zero integer with the size of the output, or zero if the given output
+   *     buffer was too small
+   * @throws IllegalArgumentException if {@code minSaving} is not within range
+   */
+  public int compressOrStore(
+      ByteBuffer in, ByteBuffer out, CompressionType type, double minSaving) {
+    int produced = compressIfWorthwhile(in, out, type, minSaving);
+    if (produced != -1) {
+      return produced;
+    }
+    return storer().compress(in, out, type);
+  }
+
+  /**
+   * Compresses the given range of {@code in} into the given range of {@code out} like {@link
+   * #compressIfWorthwhile(byte[], int, int, byte[], int, int, CompressionType, double)}, but writes
+   * the data as stored (level 0) blocks in the given container if it is not worth compressing.
+   *
+   * @param in the source array to compress
+   * @param inOff the offset into the source array
+   * @param inLen the length into the source array from the offset
+   * @param out the destination which will hold compressed data
+   * @param outOff the offset into the destination array
+   * @param outLen the length into the destination array from {@code outOff}
+   * @param type the compression container to use
+   * @param minSaving the smallest fraction of the input size that compression must save, from 0
+   *     (inclusive) to 1 (exclusive)
+   * @return a positive, non-zero integer with the size of the output, or zero if the given output
+   *     buffer was too small
+   * @throws IndexOutOfBoundsException if the given offsets and lengths are out of bounds or
+   *     represent a negative range
+   * @throws IllegalArgumentException if {@code minSaving} is not within range
+   * @see #compressOrStore(ByteBuffer, ByteBuffer, CompressionType, double)
+   */
+  public int compressOrStore(
+      byte[] in,
+      int inOff,
+      int inLen,
+      byte[] out,
+      int outOff,
+      int outLen,
+      CompressionType type,
+      double minSaving) {
+    int produced = compressIfWorthwhile(in, inOff, inLen, out, outOff, outLen, type, minSaving);
+    if (produced != -1) {
+      return produced;
+    }
+    return storer().compress(in, inOff, inLen, out, outOff, outLen, type);
+  }
+
+  /** Returns a compressor that writes stored blocks, which may be this one. */
+  private LibdeflateCompressor storer() {
+    if (level == MINIMUM_COMPRESSION_LEVEL) {
+      return this;
+    }
+    if (storer == null) {
+      storer = new LibdeflateCompressor(MINIMUM_COMPRESSION_LEVEL);
+      storer.executionPolicy = executionPolicy;
+    }
+    return storer;
+  }
+
   /** Closes the compressor. Any further operations on the compressor will fail. */
   @Override
   public void close() {
     ensureNotClosed();
-    free(this.ctx);
+    free(this.ctx, this.level);
+    if (storer != null) {
+      storer.close();
+    }
     this.closed = true;
   }
 
@@ -216,7 +697,7 @@ public class LibdeflateCompressor implements Closeable, AutoCloseable {
   /* Native function declarations. */
   private static native long allocate(int level);
 
-  private static native void free(long ctx);
+  private static native void free(long ctx, int level);
 
   static native long compressBothHeap(
       long ctx, byte[] in, int inPos, int inSize, byte[] out, int outPos, int outSize, int type);
@@ -251,5 +732,8 @@ public class LibdeflateCompressor implements Closeable, AutoCloseable {
       int outSize,
       int type);
 
+  private static native void compressBatch(
+      long ctx, Object[] in, Object[] out, int[] positions, int count, int type, int[] results);
+
   private static native long getCompressBound(long ctx, long count, int type);
 }
@@ -0,0 +1,440 @@
+/*
+ * Copyright 2024 Andrew Steinborn
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package me.steinborn.libdeflate;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+
+/**
+ * A pool of libdeflate compressors and decompressors that may be shared by many threads. Contexts
+ * are kept separately for each compression level and for decompression, and are handed out without
+ * taking any locks.
+ *
+ * <p>Each thread has a home stripe, chosen from its thread ID. A context is returned to the home
+ * stripe of the thread that returns it, so a thread that repeatedly borrows and returns a context
+ * usually gets the same one back. If the home stripe is empty, the other stripes are searched
+ * before a new context is allocated.
+ *
+ * <p>At most {@code maxIdle} contexts are kept idle for each compression level and for
+ * decompression; any context returned beyond that is freed immediately. Contexts that stay idle for
+ * longer than the idle timeout are freed as the pool is used, or when {@link #evictIdle()} is
+ * called.
+ *
+ * <p><strong>Thread-safety</strong>: this class is thread-safe. The contexts it hands out are not,
+ * and must only be used by one thread at a time until they are returned.
+ */
+public final class LibdeflateContextPool implements Closeable, AutoCloseable {
+  private static final int MAX_STRIPES = 64;
+  private static final int DECOMPRESSOR_SHELF = LibdeflateCompressor.MAXIMUM_COMPRESSION_LEVEL + 1;
+
+  private final Shelf<LibdeflateCompressor>[] compressors;
+  private final Shelf<LibdeflateDecompressor> decompressors;
+  private final int stripeMask;
+  private final int maxIdle;
+  private final long idleTimeoutNanos;
+  private final AtomicLong nextEviction;
+  private volatile boolean closed = false;
+
+  /**
+   * Creates a pool that keeps up to one idle context per available processor for each compression
+   * level and for decompression, and frees contexts after one minute of inactivity.
+   */
+  public LibdeflateContextPool() {
+    this(Runtime.getRuntime().availableProcessors(), 1, TimeUnit.MINUTES);
+  }
+
+  /**
+   * Creates a pool with the given idle limits.
+   *
+   * @param maxIdle the maximum number of idle contexts kept for each compression level and for
+   *     decompression
+   * @param idleTimeout how long a context may stay idle before it is freed
+   * @param unit the unit of {@code idleTimeout}
+   * @throws IllegalArgumentException if {@code maxIdle} or {@code idleTimeout} is negative
+   */
+  @SuppressWarnings({"unchecked", "rawtypes"})
+  public LibdeflateContextPool(int maxIdle, long idleTimeout, TimeUnit unit) {
+    if (maxIdle < 0) {
+      throw new IllegalArgumentException("maxIdle = " + maxIdle);
+    }
+    if (idleTimeout < 0) {
+      throw new IllegalArgumentException("idleTimeout = " + idleTimeout);
+    }
+    this.maxIdle = maxIdle;
+    this.idleTimeoutNanos = unit.toNanos(idleTimeout);
+    this.nextEviction = new AtomicLong(System.nanoTime() + idleTimeoutNanos);
+
+    int stripes = 1;
+    int wanted = Math.min(MAX_STRIPES, Runtime.getRuntime().availableProcessors() * 2);
+    while (stripes < wanted) {
+      stripes <<= 1;
+    }
+    this.stripeMask = stripes - 1;
+
+    this.compressors = new Shelf[DECOMPRESSOR_SHELF];
+    for (int i = 0; i < compressors.length; i++) {
+      compressors[i] = new Shelf<>(stripes);
+    }
+    this.decompressors = new Shelf<>(stripes);
+  }
+
+  /**
+   * Borrows a compressor with the default compression level. It must be returned with {@link
+   * #release(LibdeflateCompressor)} once it is no longer in use.
+   *
+   * @return a compressor
+   */
+  public LibdeflateCompressor borrowCompressor() {
+    return borrowCompressor(Deflater.DEFAULT_COMPRESSION);
+  }
+
+  /**
+   * Borrows a compressor with the specified compression level. It must be returned with {@link
+   * #release(LibdeflateCompressor)} once it is no longer in use.
+   *
+   * @param level the compression level to use, from 0 to 12
+   * @return a compressor
+   * @throws IllegalArgumentException if the level is not within range
+   */
+  public LibdeflateCompressor borrowCompressor(int level) {
+    int normalized = LibdeflateCompressor.normalizeLevel(level);
+    ensureNotClosed();
+    LibdeflateCompressor compressor = compressors[normalized].take(homeStripe());
+    return compressor != null ? compressor : new LibdeflateCompressor(normalized);
+  }
+
+  /**
+   * Borrows a decompressor. It must be returned with {@link #release(LibdeflateDecompressor)} once
+   * it is no longer in use.
+   *
+   * @return a decompressor
+   */
+  public LibdeflateDecompressor borrowDecompressor() {
+    ensureNotClosed();
+    LibdeflateDecompressor decompressor = decompressors.take(homeStripe());
+    return decompressor != null ? decompressor : new LibdeflateDecompressor();
+  }
+
+  /**
+   * Returns a compressor to the pool. If the pool already holds enough idle compressors for its
+   * level, or the pool has been closed, the compressor is closed instead. Compressors that have
+   * already been closed are ignored.
+   *
+   * @param compressor the compressor to return
+   */
+  public void release(LibdeflateCompressor compressor) {
+    if (compressor.isClosed()) {
+      return;
+    }
+    if (!compressors[compressor.level].put(homeStripe(), compressor)) {
+      compressor.close();
+    }
+    afterRelease();
+  }
+
+  /**
+   * Returns a decompressor to the pool. If the pool already holds enough idle decompressors, or the
+   * pool has been closed, the decompressor is closed instead. Decompressors that have already been
+   * closed are ignored.
+   *
+   * @param decompressor the decompressor to return
+   */
+  public void release(LibdeflateDecompressor decompressor) {
+    if (decompressor.isClosed()) {
+      return;
+    }
+    if (!decompressors.put(homeStripe(), decompressor)) {
+      decompressor.close();
+    }
+    afterRelease();
+  }
+
+  /**
+   * Compresses the entirety of {@code in} array into the {@code out} array using a pooled
+   * compressor.
+   *
+   * @param in the source array to compress
+   * @param out the destination which will hold compressed data
+   * @param type the compression container to use
+   * @param level the compression level to use, from 0 to 12
+   * @return a positive, non-zero integer with the size of the compressed output, or zero if the
+   *     given output buffer was too small
+   * @see LibdeflateCompressor#compress(byte[], byte[], CompressionType)
+   */
+  public int compress(byte[] in, byte[] out, CompressionType type, int level) {
+    LibdeflateCompressor compressor = borrowCompressor(level);
+    try {
+      return compressor.compress(in, out, type);
+    } finally {
+      release(compressor);
+    }
+  }
+
+  /**
+   * Compresses the given {@code in} ByteBuffer into the {@code out} ByteBuffer using a pooled
+   * compressor.
+   *
+   * @param in the source byte buffer to compress
+   * @param out the destination which will hold compressed data
+   * @param type the compression container to use
+   * @param level the compression level to use, from 0 to 12
+   * @return a positive, non-zero integer with the size of the compressed output, or zero if the
+   *     given output buffer was too small
+   * @see LibdeflateCompressor#compress(ByteBuffer, ByteBuffer, CompressionType)
+   */
+  public int compress(ByteBuffer in, ByteBuffer out, CompressionType type, int level) {
+    LibdeflateCompressor compressor = borrowCompressor(level);
+    try {
+      return compressor.compress(in, out, type);
+    } finally {
+      release(compressor);
+    }
+  }
+
+  /**
+   * Decompresses the given {@code in} array into the {@code out} array using a pooled decompressor.
+   * This method assumes that the length of {@code out} is the size of the uncompressed output.
+   *
+   * @param in the source array with compressed
+   * @param out the destination which will hold decompressed data
+   * @param type the compression container to use
+   * @throws DataFormatException if the provided data was corrupt, or the data decompressed
+   *     successfully but it is less than the size of the output buffer
+   * @see LibdeflateDecompressor#decompress(byte[], byte[], CompressionType)
+   */
+  public void decompress(byte[] in, byte[] out, CompressionType type) throws DataFormatException {
+    LibdeflateDecompressor decompressor = borrowDecompressor();
+    try {
+      decompressor.decompress(in, out, type);
+    } finally {
+      release(decompressor);
+    }
+  }
+
+  /**
+   * Decompresses the given {@code in} ByteBuffer into the {@code out} ByteBuffer using a pooled
+   * decompressor. This method assumes the size of the uncompressed data is the amount of bytes
+   * remaining in the output buffer.
+   *
+   * @param in the source byte buffer to decompress
+   * @param out the destination which will hold decompressed data
+   * @param type the compression container in use
+   * @throws DataFormatException if the provided data was corrupt, or the data decompresses to an
+   *     invalid size
+   * @see LibdeflateDecompressor#decompress(ByteBuffer, ByteBuffer, CompressionType)
+   */
+  public void decompress(ByteBuffer in, ByteBuffer out, CompressionType type)
+      throws DataFormatException {
+    LibdeflateDecompressor decompressor = borrowDecompressor();
+    try {
+      decompressor.decompress(in, out, type);
+    } finally {
+      release(decompressor);
+    }
+  }
+
+  /**
+   * Decompresses the given {@code in} ByteBuffer into the {@code out} ByteBuffer using a pooled
+   * decompressor, where the uncompressed size of the data is not known.
+   *
+   * @param in the source byte buffer to decompress
+   * @param out the destination which will hold decompressed data
+   * @param type the compression container in use
+   * @return a positive, non-zero integer with the size of the uncompressed output, or -1 if the
+   *     given output buffer was too small
+   * @throws DataFormatException if the provided data was corrupt
+   * @see LibdeflateDecompressor#decompressUnknownSize(ByteBuffer, ByteBuffer, CompressionType)
+   */
+  public long decompressUnknownSize(ByteBuffer in, ByteBuffer out, CompressionType type)
+      throws DataFormatException {
+    LibdeflateDecompressor decompressor = borrowDecompressor();
+    try {
+      return decompressor.decompressUnknownSize(in, out, type);
+    } finally {
+      release(decompressor);
+    }
+  }
+
+  /**
+   * Frees every context that has been idle for longer than the idle timeout. This also happens
+   * periodically as contexts are returned, so calling this is only needed to release memory from a
+   * pool that is no longer in active use.
+   */
+  public void evictIdle() {
+    long deadline = System.nanoTime() - idleTimeoutNanos;
+    for (Shelf<LibdeflateCompressor> shelf : compressors) {
+      shelf.evict(deadline, false);
+    }
+    decompressors.evict(deadline, false);
+  }
+
+  /** Returns the number of idle contexts held by the pool. */
+  int idleCount() {
+    int count = decompressors.idle.get();
+    for (Shelf<LibdeflateCompressor> shelf : compressors) {
+      count += shelf.idle.get();
+    }
+    return count;
+  }
+
+  /**
+   * Closes the pool and frees all idle contexts. Contexts that are borrowed at the time are freed
+   * when they are returned.
+   */
+  @Override
+  public void close() {
+    this.closed = true;
+    drain();
+  }
+
+  private void ensureNotClosed() {
+    if (this.closed) {
+      throw new IllegalStateException("Pool already closed.");
+    }
+  }
+
+  private void afterRelease() {
+    if (closed) {
+      // A context may have been returned while the pool was being closed.
+      drain();
+      return;
+    }
+    long now = System.nanoTime();
+    long next = nextEviction.get();
+    if (now - next >= 0 && nextEviction.compareAndSet(next, now + idleTimeoutNanos)) {
+      evictIdle();
+    }
+  }
+
+  private void drain() {
+    for (Shelf<LibdeflateCompressor> shelf : compressors) {
+      shelf.evict(0, true);
+    }
+    decompressors.evict(0, true);
+  }
+
+  private int homeStripe() {
+    // Spread sequential thread IDs across the stripes.
+    long id = Thread.currentThread().getId();
+    return (int) ((id * 0x9E3779B97F4A7C15L) >>> 40) & stripeMask;
+  }
+
+  /** An idle context along with the time it was returned to the pool. */
+  private static final class Idle<T extends Closeable> {
+    final T context;
+    final long since;
+
+    Idle(T context, long since) {
+      this.context = context;
+      this.since = since;
+    }
+  }
+
+  /**
+   * The idle contexts for one compression level, or for decompression. Each stripe has a single
+   * slot, which holds the most recently returned context and is taken first, and a queue for any
+   * further contexts.
+   */
+  private final class Shelf<T extends Closeable> {
+    final AtomicReferenceArray<Idle<T>> slots;
+    final ConcurrentLinkedQueue<Idle<T>>[] queues;
+    final AtomicInteger idle = new AtomicInteger();
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    Shelf(int stripes) {
+      this.slots = new AtomicReferenceArray<>(stripes);
+      this.queues = new ConcurrentLinkedQueue[stripes];
+      for (int i = 0; i < stripes; i++) {
+        queues[i] = new ConcurrentLinkedQueue<>();
+      }
+    }
+
+    T take(int home) {
+      if (idle.get() == 0) {
+        return null;
+      }
+      Idle<T> found = takeFrom(home);
+      for (int i = 1; found == null && i <= stripeMask; i++) {
+        found = takeFrom((home + i) & stripeMask);
+      }
+      if (found == null) {
+        return null;
+      }
+      idle.decrementAndGet();
+      return found.context;
+    }
+
+    private Idle<T> takeFrom(int stripe) {
+      Idle<T> slot = slots.get(stripe);
+      if (slot != null && slots.compareAndSet(stripe, slot, null)) {
+        return slot;
+      }
+      return queues[stripe].poll();
+    }
+
+    boolean put(int home, T context) {
+      if (closed) {
+        return false;
+      }
+      if (idle.incrementAndGet() > maxIdle) {
+        idle.decrementAndGet();
+        return false;
+      }
+      Idle<T> entry = new Idle<>(context, System.nanoTime());
+      if (!slots.compareAndSet(home, null, entry)) {
+        queues[home].offer(entry);
+      }
+      return true;
+    }
+
+    void evict(long deadline, boolean all) {
+      for (int i = 0; i <= stripeMask; i++) {
+        Idle<T> slot = slots.get(i);
+        if (slot != null
+            && (all || slot.since - deadline < 0)
+            && slots.compareAndSet(i, slot, null)) {
+          free(slot);
+        }
+        for (Iterator<Idle<T>> it = queues[i].iterator(); it.hasNext(); ) {
+          Idle<T> entry = it.next();
+          // remove() only succeeds for one thread, so an entry can't be taken and freed at once.
+          if ((all || entry.since - deadline < 0) && queues[i].remove(entry)) {
+            free(entry);
+          }
+        }
+      }
+    }
+
+    private void free(Idle<T> entry) {
+      idle.decrementAndGet();
+      try {
+        entry.context.close();
+      } catch (IOException e) {
+        // Neither compressors nor decompressors throw when closed.
+        throw new AssertionError(e);
+      }
+    }
+  }
+}
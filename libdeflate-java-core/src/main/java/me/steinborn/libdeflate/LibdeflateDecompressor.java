@@ -17,9 +17,11 @@ package me.steinborn.libdeflate;
 
 import static me.steinborn.libdeflate.LibdeflateJavaUtils.byteBufferArrayPosition;
 import static me.steinborn.libdeflate.LibdeflateJavaUtils.checkBounds;
+import static me.steinborn.libdeflate.LibdeflateJavaUtils.prepareBatch;
 
 import java.io.Closeable;
 import java.nio.ByteBuffer;
+import java.util.Arrays;
 import java.util.zip.DataFormatException;
 
 /**
@@ -30,26 +32,81 @@ import java.util.zip.DataFormatException;
  * multiple decompressors per thread is permissible.
  */
 public class LibdeflateDecompressor implements Closeable, AutoCloseable {
+  /**
+   * Returned by {@link #decompressBatch(ByteBuffer[], ByteBuffer[], CompressionType)} for an entry
+   * whose output buffer was too small.
+   */
+  public static final long BATCH_INSUFFICIENT_SPACE = -1;
+
+  /**
+   * Returned by {@link #decompressBatch(ByteBuffer[], ByteBuffer[], CompressionType)} for an entry
+   * whose input was corrupt.
+   */
+  public static final long BATCH_BAD_DATA = -2;
+
   static {
     Libdeflate.ensureAvailable();
-    initIDs();
   }
 
-  private final long ctx;
-  private long availInBytes = -1;
+  /** The largest array most JVMs are able to allocate. */
+  static final int MAX_ARRAY_SIZE = Integer.MAX_VALUE - 8;
+
+  /** Deflate can't encode more than 258 bytes in fewer than two bits. */
+  static final long MAX_DEFLATE_RATIO = 1032;
+
+  private static final int MIN_OUTPUT_SIZE = 64;
+
+  /** How much weight the latest call gets in {@link #ratioEstimate}. */
+  private static final double RATIO_SMOOTHING = 0.25;
+
+  /** How much larger than the estimate the first output buffer is. */
+  private static final double RATIO_HEADROOM = 1.25;
+
+  final long ctx;
+  long availInBytes = -1;
   private boolean closed = false;
+  private double ratioEstimate = 4;
+  private LibdeflateExecutionPolicy executionPolicy = LibdeflateExecutionPolicy.inline();
 
   /** Creates a new libdeflate decompressor. */
   public LibdeflateDecompressor() {
     this.ctx = allocate();
   }
 
-  private void ensureNotClosed() {
+  void ensureNotClosed() {
     if (this.closed) {
       throw new IllegalStateException("Decompressor already closed.");
     }
   }
 
+  boolean isClosed() {
+    return this.closed;
+  }
+
+  /**
+   * Sets where the calls of this decompressor run. By default every call runs inline on the calling
+   * thread; see {@link LibdeflateExecutionPolicy} for moving long calls off virtual threads.
+   * Batches decompressed with {@link #decompressBatch(ByteBuffer[], ByteBuffer[], CompressionType)}
+   * always run inline.
+   *
+   * @param executionPolicy the policy to use
+   */
+  public void setExecutionPolicy(LibdeflateExecutionPolicy executionPolicy) {
+    if (executionPolicy == null) {
+      throw new NullPointerException("executionPolicy");
+    }
+    this.executionPolicy = executionPolicy;
+  }
+
+  /**
+   * Returns where the calls of this decompressor run.
+   *
+   * @return the execution policy
+   */
+  public LibdeflateExecutionPolicy getExecutionPolicy() {
+    return executionPolicy;
+  }
+
   /**
    * Retrieves and clears the number of read-in bytes representing the end of a zlib stream, for use
    * with byte array-based decompression APIs.
@@ -99,8 +156,7 @@ public class LibdeflateDecompressor implements Closeable, AutoCloseable {
       throw new IndexOutOfBoundsException(
           "uncompressedSize(" + uncompressedSize + ") > out(" + out.length + ")");
     }
-    decompressBothHeap(
-        in, 0, in.length, out, 0, out.length, type.getNativeType(), uncompressedSize);
+    decompressHeap(in, 0, in.length, out, 0, out.length, type, uncompressedSize);
   }
 
   /**
@@ -132,8 +188,7 @@ public class LibdeflateDecompressor implements Closeable, AutoCloseable {
 
     checkBounds(in.length, inOff, inLen);
     checkBounds(out.length, outOff, outLen);
-    decompressBothHeap(
-        in, inOff, inLen, out, outOff, outLen, type.getNativeType(), uncompressedSize);
+    decompressHeap(in, inOff, inLen, out, outOff, outLen, type, uncompressedSize);
   }
 
   /**
@@ -153,7 +208,7 @@ public class LibdeflateDecompressor implements Closeable, AutoCloseable {
   public long decompressUnknownSize(byte[] in, byte[] out, CompressionType type)
       throws DataFormatException {
     ensureNotClosed();
-    return decompressBothHeap(in, 0, in.length, out, 0, out.length, type.getNativeType(), -1);
+    return decompressHeap(in, 0, in.length, out, 0, out.length, type, -1);
   }
 
   /**
@@ -181,12 +236,221 @@ public class LibdeflateDecompressor implements Closeable, AutoCloseable {
 
     checkBounds(in.length, inOff, inLen);
     checkBounds(out.length, outOff, outLen);
-    return decompressBothHeap(in, inOff, inLen, out, outOff, outLen, type.getNativeType(), -1);
+    return decompressHeap(in, inOff, inLen, out, outOff, outLen, type, -1);
+  }
+
+  /**
+   * Decompresses the given {@code in} array into a newly allocated array of the exact size of the
+   * uncompressed data. See {@link #decompressToNew(ByteBuffer, CompressionType)} for how the output
+   * is sized.
+   *
+   * @param in the source array with compressed data
+   * @param type the compression container to use
+   * @return the uncompressed data
+   * @throws DataFormatException if the provided data was corrupt, or it decompresses to more than
+   *     the largest possible array
+   */
+  public byte[] decompressToNew(byte[] in, CompressionType type) throws DataFormatException {
+    ensureNotClosed();
+    long isize = type == CompressionType.GZIP ? readGzipSize(ByteBuffer.wrap(in)) : -1;
+    int capacity = initialOutputSize(in.length, isize);
+    long limit = maxOutputSize(in.length);
+    while (true) {
+      byte[] out = new byte[capacity];
+      long produced = decompressUnknownSize(in, out, type);
+      if (produced != -1) {
+        updateRatioEstimate(availInBytes, produced);
+        return produced == out.length ? out : Arrays.copyOf(out, (int) produced);
+      }
+      capacity = growOutputSize(capacity, limit);
+    }
+  }
+
+  /**
+   * Decompresses the remaining data in {@code in} into a newly allocated buffer, which is returned
+   * flipped, ready to be read. The position of {@code in} is advanced by the number of bytes read.
+   * The output buffer is direct if {@code in} is, in which case it is taken from a pool shared with
+   * other users of this library, and may have more capacity than the data needs.
+   *
+   * <p>The size of the output does not need to be known. For gzip data, the output is sized from
+   * the uncompressed size in the trailer. For zlib and raw DEFLATE data, it is sized from the
+   * compression ratio of the data previously decompressed by this instance, so that repeated calls
+   * on similar data almost always need only a single attempt. If the output doesn't fit, a buffer
+   * twice as large is tried.
+   *
+   * @param in the source byte buffer to decompress
+   * @param type the compression container in use
+   * @return a buffer holding the uncompressed data
+   * @throws DataFormatException if the provided data was corrupt, or it decompresses to more than
+   *     the largest possible buffer
+   */
+  public ByteBuffer decompressToNew(ByteBuffer in, CompressionType type)
+      throws DataFormatException {
+    ensureNotClosed();
+    if (in.isDirect()) {
+      return decompressToNew(
+          in,
+          type,
+          new OutputAllocator<RuntimeException>() {
+            @Override
+            public ByteBuffer allocate(int capacity) {
+              return DirectBufferPool.SHARED.acquire(capacity);
+            }
+
+            @Override
+            public void release(ByteBuffer buffer) {
+              DirectBufferPool.SHARED.release(buffer);
+            }
+          });
+    }
+    return decompressToNew(
+        in,
+        type,
+        new OutputAllocator<RuntimeException>() {
+          @Override
+          public ByteBuffer allocate(int capacity) {
+            return ByteBuffer.allocate(capacity);
+          }
+
+          @Override
+          public void release(ByteBuffer buffer) {}
+        });
+  }
+
+  /**
+   * Allocates the output buffers tried by {@link #decompressToNew(ByteBuffer, CompressionType)}.
+   */
+  interface OutputAllocator<E extends Exception> {
+    /** Returns a cleared buffer with at least the given capacity. */
+    ByteBuffer allocate(int capacity) throws E;
+
+    /** Takes back a buffer the data didn't fit in. */
+    void release(ByteBuffer buffer);
+  }
+
+  /**
+   * Like {@link #decompressToNew(ByteBuffer, CompressionType)}, but takes its output buffers from
+   * {@code allocator}.
+   */
+  <E extends Exception> ByteBuffer decompressToNew(
+      ByteBuffer in, CompressionType type, OutputAllocator<E> allocator)
+      throws DataFormatException, E {
+    int inAvail = in.remaining();
+    long isize = type == CompressionType.GZIP ? readGzipSize(in) : -1;
+    int capacity = initialOutputSize(inAvail, isize);
+    long limit = maxOutputSize(inAvail);
+    while (true) {
+      ByteBuffer out = allocator.allocate(capacity);
+      int start = in.position();
+      long produced = -1;
+      try {
+        produced = decompress0(in, out, type, -1);
+      } finally {
+        if (produced == -1) {
+          allocator.release(out);
+        }
+      }
+      if (produced != -1) {
+        updateRatioEstimate(in.position() - start, produced);
+        out.flip();
+        return out;
+      }
+      capacity = growOutputSize(out.capacity(), limit);
+    }
+  }
+
+  /** Returns the current estimate of the compression ratio, for testing. */
+  double ratioEstimate() {
+    return ratioEstimate;
+  }
+
+  private static long readGzipSize(ByteBuffer in) {
+    if (in.remaining() < GzipMemberScanner.MIN_MEMBER_SIZE) {
+      return -1;
+    }
+    int end = in.limit();
+    return (in.get(end - 4) & 0xffL)
+        | (in.get(end - 3) & 0xffL) << 8
+        | (in.get(end - 2) & 0xffL) << 16
+        | (in.get(end - 1) & 0xffL) << 24;
+  }
+
+  private static long maxOutputSize(int inLen) {
+    return Math.min(MAX_ARRAY_SIZE, getDecompressionBound(inLen));
+  }
+
+  /**
+   * Returns an upper bound on the number of bytes that {@code count} bytes of DEFLATE, zlib or gzip
+   * data can decompress to. This is useful to reject implausible sizes, such as the size recorded
+   * in a gzip trailer or a length prefix, before allocating an output buffer; for most data it is
+   * far too large to size the output with.
+   *
+   * @param count the number of compressed bytes
+   * @return the upper bound
+   */
+  public static long getDecompressionBound(long count) {
+    return count * MAX_DEFLATE_RATIO + MIN_OUTPUT_SIZE;
+  }
+
+  private int initialOutputSize(int inLen, long isize) {
+    // ISIZE is only a hint: it is the size modulo 2^32, and the data may not end with the trailer.
+    long estimate = isize >= 0 ? isize : (long) (inLen * ratioEstimate * RATIO_HEADROOM);
+    return (int) Math.min(Math.max(estimate, MIN_OUTPUT_SIZE), maxOutputSize(inLen));
+  }
+
+  private static int growOutputSize(int capacity, long limit) throws DataFormatException {
+    if (capacity >= limit) {
+      throw new DataFormatException("decompressed data exceeds " + limit + " bytes");
+    }
+    return (int) Math.min(capacity * 2L, limit);
+  }
+
+  private void updateRatioEstimate(long consumed, long produced) {
+    double ratio = (double) produced / Math.max(consumed, 1);
+    ratioEstimate += (ratio - ratioEstimate) * RATIO_SMOOTHING;
   }
 
   private long decompress0(
       ByteBuffer in, ByteBuffer out, CompressionType type, int uncompressedSize)
       throws DataFormatException {
+    if (executionPolicy.offloadDecompression(out.remaining())) {
+      return executionPolicy.decompress(() -> decompressInline(in, out, type, uncompressedSize));
+    }
+    return decompressInline(in, out, type, uncompressedSize);
+  }
+
+  private long decompressInline(
+      ByteBuffer in, ByteBuffer out, CompressionType type, int uncompressedSize)
+      throws DataFormatException {
+    long start = Libdeflate.METRICS ? System.nanoTime() : 0;
+    Object event = FlightRecorderEvents.ENABLED ? FlightRecorderEvents.beginDecompress() : null;
+    int inPos = in.position();
+    int inAvail = in.remaining();
+    boolean staged =
+        !(in.isDirect() && out.isDirect()) && HeapStaging.stageDecompression(out.remaining());
+    long produced;
+    try {
+      produced = decompressBuffers(in, out, type, uncompressedSize, staged);
+    } catch (DataFormatException e) {
+      decompressionFailed(type, inAvail, start, event, in.isDirect(), out.isDirect(), staged);
+      throw e;
+    }
+    decompressionFinished(
+        type,
+        inAvail,
+        in.position() - inPos,
+        produced,
+        start,
+        event,
+        in.isDirect(),
+        out.isDirect(),
+        staged);
+    return produced;
+  }
+
+  private long decompressBuffers(
+      ByteBuffer in, ByteBuffer out, CompressionType type, int uncompressedSize, boolean staged)
+      throws DataFormatException {
     ensureNotClosed();
     int nativeType = type.getNativeType();
 
@@ -202,22 +466,30 @@ public class LibdeflateDecompressor implements Closeable, AutoCloseable {
     }
 
     // Either ByteBuffer could be direct or heap.
-    long outRealSize;
-    if (in.isDirect()) {
+    long result;
+    if (staged) {
+      result = decompressStaged(in, out, type, uncompressedSize);
+    } else if (in.isDirect()) {
       if (out.isDirect()) {
-        outRealSize =
-            decompressBothDirect(
-                in,
-                in.position(),
-                inAvail,
-                out,
-                out.position(),
-                outAvail,
-                nativeType,
-                uncompressedSize);
+        if (Libdeflate.FOREIGN_BACKEND) {
+          result = ForeignBackend.decompress(ctx, in, out, nativeType, uncompressedSize);
+        } else {
+          result =
+              decompressBothDirect(
+                  ctx,
+                  in,
+                  in.position(),
+                  inAvail,
+                  out,
+                  out.position(),
+                  outAvail,
+                  nativeType,
+                  uncompressedSize);
+        }
       } else {
-        outRealSize =
+        result =
             decompressOnlySourceDirect(
+                ctx,
                 in,
                 in.position(),
                 inAvail,
@@ -230,8 +502,9 @@ public class LibdeflateDecompressor implements Closeable, AutoCloseable {
     } else {
       int inPos = byteBufferArrayPosition(in);
       if (out.isDirect()) {
-        outRealSize =
+        result =
             decompressOnlyDestinationDirect(
+                ctx,
                 in.array(),
                 inPos,
                 inAvail,
@@ -241,8 +514,9 @@ public class LibdeflateDecompressor implements Closeable, AutoCloseable {
                 nativeType,
                 uncompressedSize);
       } else {
-        outRealSize =
+        result =
             decompressBothHeap(
+                ctx,
                 in.array(),
                 inPos,
                 inAvail,
@@ -254,12 +528,172 @@ public class LibdeflateDecompressor implements Closeable, AutoCloseable {
       }
     }
 
-    if (uncompressedSize != -1) {
-      outRealSize = uncompressedSize;
+    if (result == -1) {
+      // The output buffer was too small, so nothing was consumed or produced.
+      return -1;
+    }
+    int consumed = (int) (result >>> 32);
+    int produced = (int) result;
+    in.position(in.position() + consumed);
+    out.position(out.position() + produced);
+    return produced;
+  }
+
+  private long decompressHeap(
+      byte[] in,
+      int inOff,
+      int inLen,
+      byte[] out,
+      int outOff,
+      int outLen,
+      CompressionType type,
+      int uncompressedSize)
+      throws DataFormatException {
+    if (executionPolicy.offloadDecompression(outLen)) {
+      return executionPolicy.decompress(
+          () -> decompressInline(in, inOff, inLen, out, outOff, outLen, type, uncompressedSize));
+    }
+    return decompressInline(in, inOff, inLen, out, outOff, outLen, type, uncompressedSize);
+  }
+
+  private long decompressInline(
+      byte[] in,
+      int inOff,
+      int inLen,
+      byte[] out,
+      int outOff,
+      int outLen,
+      CompressionType type,
+      int uncompressedSize)
+      throws DataFormatException {
+    long start = Libdeflate.METRICS ? System.nanoTime() : 0;
+    Object event = FlightRecorderEvents.ENABLED ? FlightRecorderEvents.beginDecompress() : null;
+    boolean staged = HeapStaging.stageDecompression(outLen);
+    long produced;
+    try {
+      produced =
+          unpackResult(
+              staged
+                  ? decompressStaged(
+                      ByteBuffer.wrap(in, inOff, inLen),
+                      ByteBuffer.wrap(out, outOff, outLen),
+                      type,
+                      uncompressedSize)
+                  : decompressBothHeap(
+                      ctx,
+                      in,
+                      inOff,
+                      inLen,
+                      out,
+                      outOff,
+                      outLen,
+                      type.getNativeType(),
+                      uncompressedSize));
+    } catch (DataFormatException e) {
+      decompressionFailed(type, inLen, start, event, false, false, staged);
+      throw e;
     }
-    out.position((int) (out.position() + outRealSize));
-    in.position((int) (in.position() + this.readStreamBytes()));
-    return outRealSize;
+    decompressionFinished(type, inLen, availInBytes, produced, start, event, false, false, staged);
+    return produced;
+  }
+
+  /**
+   * Decompresses the remaining bytes of {@code in} into {@code out} without pinning any heap array,
+   * by copying whichever of the two is on the heap through a direct staging buffer. The positions
+   * of the buffers are not changed, and the result is packed as by the native methods.
+   */
+  private long decompressStaged(
+      ByteBuffer in, ByteBuffer out, CompressionType type, int uncompressedSize)
+      throws DataFormatException {
+    if (Libdeflate.METRICS) {
+      LibdeflateMetrics.recordStaged(LibdeflateMetrics.Operation.DECOMPRESS, type);
+    }
+    ByteBuffer source = in.isDirect() ? in : HeapStaging.copyIn(in);
+    ByteBuffer target = out;
+    if (!out.isDirect()) {
+      // Stage only as much output as the data can produce, however large the heap buffer is.
+      long needed =
+          uncompressedSize != -1 ? uncompressedSize : getDecompressionBound(source.remaining());
+      target = HeapStaging.acquire(HeapStaging.OUTPUT, (int) Math.min(out.remaining(), needed));
+    }
+    long result =
+        decompressBothDirect(
+            ctx,
+            source,
+            source.position(),
+            source.remaining(),
+            target,
+            target.position(),
+            target.remaining(),
+            type.getNativeType(),
+            uncompressedSize);
+    if (target != out && result != -1) {
+      HeapStaging.copyOut(target, (int) result, out);
+    }
+    return result;
+  }
+
+  /** Reports a decompression that completed or ran out of space to metrics and JFR. */
+  private static void decompressionFinished(
+      CompressionType type,
+      long inAvail,
+      long consumed,
+      long produced,
+      long start,
+      Object event,
+      boolean inDirect,
+      boolean outDirect,
+      boolean staged) {
+    LibdeflateMetrics.Outcome outcome =
+        produced == -1
+            ? LibdeflateMetrics.Outcome.INSUFFICIENT_SPACE
+            : LibdeflateMetrics.Outcome.SUCCESS;
+    long bytesOut = Math.max(produced, 0);
+    if (Libdeflate.METRICS) {
+      LibdeflateMetrics.record(
+          LibdeflateMetrics.Operation.DECOMPRESS,
+          type,
+          produced == -1 ? 0 : consumed,
+          bytesOut,
+          start,
+          outcome);
+    }
+    if (event != null) {
+      FlightRecorderEvents.endDecompress(
+          event, type, inAvail, bytesOut, inDirect, outDirect, staged, outcome);
+    }
+  }
+
+  /** Reports a decompression of corrupt data to metrics and JFR. */
+  private static void decompressionFailed(
+      CompressionType type,
+      long inAvail,
+      long start,
+      Object event,
+      boolean inDirect,
+      boolean outDirect,
+      boolean staged) {
+    LibdeflateMetrics.Outcome outcome = LibdeflateMetrics.Outcome.BAD_DATA;
+    if (Libdeflate.METRICS) {
+      LibdeflateMetrics.record(LibdeflateMetrics.Operation.DECOMPRESS, type, 0, 0, start, outcome);
+    }
+    if (event != null) {
+      FlightRecorderEvents.endDecompress(
+          event, type, inAvail, 0, inDirect, outDirect, staged, outcome);
+    }
+  }
+
+  /**
+   * Unpacks the result of a native decompression call, which holds the number of bytes consumed in
+   * the upper 32 bits and the number of bytes produced in the lower 32 bits. The consumed count is
+   * recorded for {@link #readStreamBytes()}.
+   */
+  private long unpackResult(long result) {
+    if (result == -1) {
+      return -1;
+    }
+    this.availInBytes = result >>> 32;
+    return result & 0xffffffffL;
   }
 
   /**
@@ -321,6 +755,55 @@ public class LibdeflateDecompressor implements Closeable, AutoCloseable {
     return decompress0(in, out, type, -1);
   }
 
+  /**
+   * Decompresses each of the {@code in} ByteBuffers into the {@code out} ByteBuffer with the same
+   * index, where the uncompressed size of each entry is not known but must fit in the remaining
+   * space of its output buffer. The whole batch is decompressed in a single call into native code,
+   * so the fixed cost of a call is paid once per batch instead of once per buffer.
+   *
+   * <p>Rather than throwing an exception for the first corrupt entry, the status of each entry is
+   * reported individually. For each entry that was decompressed successfully, the {@code position}
+   * of the output buffer is incremented by the number of bytes produced and the input {@code
+   * position} is incremented by the number of bytes read. The buffers of entries that failed are
+   * left untouched.
+   *
+   * @param in the source byte buffers to decompress
+   * @param out the destinations which will hold decompressed data, one for each source buffer
+   * @param type the compression container in use
+   * @return for each entry, the size of the uncompressed output, {@link #BATCH_INSUFFICIENT_SPACE}
+   *     if the output buffer was too small, or {@link #BATCH_BAD_DATA} if the input was corrupt
+   * @throws IllegalArgumentException if {@code in} and {@code out} have different lengths
+   * @throws OutOfMemoryError if a heap buffer could not be pinned; earlier entries may already have
+   *     been decompressed, but no buffer positions are advanced
+   */
+  public long[] decompressBatch(ByteBuffer[] in, ByteBuffer[] out, CompressionType type) {
+    ensureNotClosed();
+    int nativeType = type.getNativeType();
+
+    int count = in.length;
+    Object[] inStorage = new Object[count];
+    Object[] outStorage = new Object[count];
+    int[] positions = new int[count * 4];
+    prepareBatch(in, out, inStorage, outStorage, positions);
+
+    // Successful entries hold the bytes consumed in the upper 32 bits and the bytes produced in the
+    // lower 32 bits, failed entries hold a negative status code.
+    long[] results = new long[count];
+    decompressBatch(ctx, inStorage, outStorage, positions, count, nativeType, results);
+
+    for (int i = 0; i < count; i++) {
+      long result = results[i];
+      if (result >= 0) {
+        int consumed = (int) (result >>> 32);
+        int produced = (int) result;
+        in[i].position(in[i].position() + consumed);
+        out[i].position(out[i].position() + produced);
+        results[i] = produced;
+      }
+    }
+    return results;
+  }
+
   @Override
   public void close() {
     ensureNotClosed();
@@ -329,13 +812,15 @@ public class LibdeflateDecompressor implements Closeable, AutoCloseable {
   }
 
   /* Native function declarations. */
-  private static native void initIDs();
-
   private static native long allocate();
 
   private static native void free(long ctx);
 
-  private native long decompressBothHeap(
+  private static native void decompressBatch(
+      long ctx, Object[] in, Object[] out, int[] positions, int count, int type, long[] results);
+
+  private static native long decompressBothHeap(
+      long ctx,
       byte[] in,
       int inPos,
       int inSize,
@@ -346,7 +831,8 @@ public class LibdeflateDecompressor implements Closeable, AutoCloseable {
       int knownSize)
       throws DataFormatException;
 
-  private native long decompressOnlyDestinationDirect(
+  private static native long decompressOnlyDestinationDirect(
+      long ctx,
       byte[] in,
       int inPos,
       int inSize,
@@ -357,7 +843,8 @@ public class LibdeflateDecompressor implements Closeable, AutoCloseable {
       int knownSize)
       throws DataFormatException;
 
-  private native long decompressOnlySourceDirect(
+  private static native long decompressOnlySourceDirect(
+      long ctx,
       ByteBuffer in,
       int inPos,
       int inSize,
@@ -368,7 +855,8 @@ public class LibdeflateDecompressor implements Closeable, AutoCloseable {
       int knownSize)
       throws DataFormatException;
 
-  private native long decompressBothDirect(
+  private static native long decompressBothDirect(
+      long ctx,
       ByteBuffer in,
       int inPos,
       int inSize,
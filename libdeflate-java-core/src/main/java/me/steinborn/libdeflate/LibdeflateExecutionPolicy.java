@@ -0,0 +1,221 @@
+/*
+ * Copyright 2024 Andrew Steinborn
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package me.steinborn.libdeflate;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.IntSupplier;
+import java.util.zip.DataFormatException;
+
+/**
+ * Decides where the calls of a {@link LibdeflateCompressor} or {@link LibdeflateDecompressor} run.
+ *
+ * <p>A call into native code pins a virtual thread to its carrier thread until it returns, so a
+ * long compression on a virtual thread keeps a carrier from running any other virtual thread, and a
+ * few of them at once can starve the scheduler. With an {@linkplain #offloading() offloading}
+ * policy, calls made from a virtual thread that are predicted to take at least a threshold, from
+ * the input size and compression level (or the output size, for decompression), are handed to a
+ * bounded pool of platform threads, and the virtual thread parks until the call completes. Shorter
+ * calls, and all calls made from platform threads, run inline as usual.
+ *
+ * <p>Virtual threads exist from Java 21 on. On earlier versions every call runs inline.
+ *
+ * <p>While a call runs on the pool, the compressor or decompressor and the buffers passed to it are
+ * still in use, exactly as if the call had run inline. If the waiting thread is interrupted, it
+ * keeps waiting for the call to complete, and its interrupt status is restored afterwards.
+ *
+ * <p><strong>Thread-safety</strong>: this class is thread-safe, and one policy can be shared by any
+ * number of compressors and decompressors.
+ */
+public final class LibdeflateExecutionPolicy {
+  private static final LibdeflateExecutionPolicy INLINE = new LibdeflateExecutionPolicy(null, 0);
+
+  private static final MethodHandle IS_VIRTUAL = findIsVirtual();
+
+  private final ExecutorService executor;
+  private final long thresholdNanos;
+
+  private LibdeflateExecutionPolicy(ExecutorService executor, long thresholdNanos) {
+    this.executor = executor;
+    this.thresholdNanos = thresholdNanos;
+  }
+
+  /**
+   * Returns the policy that runs every call inline on the calling thread. This is the default.
+   *
+   * @return the inline policy
+   */
+  public static LibdeflateExecutionPolicy inline() {
+    return INLINE;
+  }
+
+  /**
+   * Returns a policy that offloads calls from virtual threads that are predicted to take more than
+   * a millisecond to a shared pool of daemon platform threads, one for each available processor.
+   *
+   * @return the shared offloading policy
+   */
+  public static LibdeflateExecutionPolicy offloading() {
+    return SharedPool.POLICY;
+  }
+
+  /**
+   * Returns a policy that offloads calls from virtual threads that are predicted to take more than
+   * {@code threshold} to the given executor, which should run them on a bounded number of platform
+   * threads. The executor is not shut down by the policy.
+   *
+   * @param executor the executor to run long calls on
+   * @param threshold the predicted duration above which a call is offloaded
+   * @param unit the unit of {@code threshold}
+   * @return the offloading policy
+   * @throws IllegalArgumentException if {@code threshold} is negative
+   */
+  public static LibdeflateExecutionPolicy offloading(
+      ExecutorService executor, long threshold, TimeUnit unit) {
+    if (executor == null) {
+      throw new NullPointerException("executor");
+    }
+    if (threshold < 0) {
+      throw new IllegalArgumentException("threshold = " + threshold);
+    }
+    return new LibdeflateExecutionPolicy(executor, unit.toNanos(threshold));
+  }
+
+  private static MethodHandle findIsVirtual() {
+    try {
+      return MethodHandles.publicLookup()
+          .findVirtual(Thread.class, "isVirtual", MethodType.methodType(boolean.class));
+    } catch (ReflectiveOperationException e) {
+      // Before Java 21, there are no virtual threads to worry about.
+      return null;
+    }
+  }
+
+  static boolean isVirtualThread() {
+    if (IS_VIRTUAL == null) {
+      return false;
+    }
+    try {
+      return (boolean) IS_VIRTUAL.invokeExact(Thread.currentThread());
+    } catch (Throwable t) {
+      throw new AssertionError(t);
+    }
+  }
+
+  boolean offloadCompression(long inputSize, int level) {
+    return executor != null && offloadCompression(isVirtualThread(), inputSize, level);
+  }
+
+  boolean offloadCompression(boolean virtual, long inputSize, int level) {
+    return virtual
+        && executor != null
+        && CallCost.compressionNanos(inputSize, level) >= thresholdNanos;
+  }
+
+  boolean offloadDecompression(long outputSize) {
+    return executor != null && offloadDecompression(isVirtualThread(), outputSize);
+  }
+
+  boolean offloadDecompression(boolean virtual, long outputSize) {
+    return virtual && executor != null && CallCost.decompressionNanos(outputSize) >= thresholdNanos;
+  }
+
+  /** A decompression call, which returns a native result and may find the data to be corrupt. */
+  interface DecompressionCall {
+    long run() throws DataFormatException;
+  }
+
+  int compress(IntSupplier call) {
+    try {
+      return await(executor.submit(call::getAsInt));
+    } catch (ExecutionException e) {
+      throw rethrow(e.getCause());
+    }
+  }
+
+  long decompress(DecompressionCall call) throws DataFormatException {
+    try {
+      return await(executor.submit(call::run));
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof DataFormatException) {
+        throw (DataFormatException) e.getCause();
+      }
+      throw rethrow(e.getCause());
+    }
+  }
+
+  /**
+   * Waits for an offloaded call. The call is using the caller's context and buffers, so it must
+   * complete before the caller can go on, even if the caller is interrupted.
+   */
+  private static <T> T await(Future<T> future) throws ExecutionException {
+    boolean interrupted = false;
+    try {
+      while (true) {
+        try {
+          return future.get();
+        } catch (InterruptedException e) {
+          interrupted = true;
+        }
+      }
+    } finally {
+      if (interrupted) {
+        Thread.currentThread().interrupt();
+      }
+    }
+  }
+
+  private static RuntimeException rethrow(Throwable cause) {
+    if (cause instanceof RuntimeException) {
+      throw (RuntimeException) cause;
+    }
+    if (cause instanceof Error) {
+      throw (Error) cause;
+    }
+    throw new IllegalStateException(cause);
+  }
+
+  private static final class SharedPool {
+    static final LibdeflateExecutionPolicy POLICY;
+
+    static {
+      int threads = Runtime.getRuntime().availableProcessors();
+      AtomicInteger counter = new AtomicInteger();
+      ThreadPoolExecutor executor =
+          new ThreadPoolExecutor(
+              threads,
+              threads,
+              1,
+              TimeUnit.MINUTES,
+              new LinkedBlockingQueue<>(),
+              task -> {
+                Thread thread = new Thread(task, "libdeflate-offload-" + counter.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+              });
+      executor.allowCoreThreadTimeOut(true);
+      POLICY = new LibdeflateExecutionPolicy(executor, CallCost.LONG_CALL_NANOS);
+    }
+  }
+}
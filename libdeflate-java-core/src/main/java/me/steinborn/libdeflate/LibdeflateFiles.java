@@ -0,0 +1,166 @@
+/*
+ * Copyright 2024 Andrew Steinborn
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package me.steinborn.libdeflate;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Locale;
+import java.util.zip.DataFormatException;
+
+/**
+ * Compresses and decompresses whole files without copying them through the Java heap. The source
+ * file is memory-mapped and handed to libdeflate directly, and the output is written straight into
+ * a memory-mapped destination file, which is sized up front and then truncated to the size of the
+ * output.
+ *
+ * <p>On Windows, a file can't be truncated while it is mapped, so the output is written to a direct
+ * buffer and from there to the destination file instead.
+ */
+public final class LibdeflateFiles {
+  /** The largest region that can be mapped at once. */
+  private static final long MAX_MAPPING_SIZE = Integer.MAX_VALUE;
+
+  private static final boolean MAP_DESTINATION =
+      !System.getProperty("os.name", "").toLowerCase(Locale.ROOT).startsWith("windows");
+
+  private LibdeflateFiles() {}
+
+  /**
+   * Compresses the contents of {@code src} into {@code dst}, replacing {@code dst} if it exists.
+   *
+   * @param src the file to compress
+   * @param dst the file to write the compressed data to
+   * @param type the compression container to use
+   * @param level the compression level to use, from 0 to 12
+   * @return the size of the compressed file
+   * @throws IOException if a file can't be read or written, or {@code src} is larger than 2 GiB
+   * @throws IllegalArgumentException if the level is not within range
+   */
+  public static long compress(Path src, Path dst, CompressionType type, int level)
+      throws IOException {
+    try (FileChannel in = FileChannel.open(src, StandardOpenOption.READ);
+        FileChannel out = openDestination(dst);
+        LibdeflateCompressor compressor = new LibdeflateCompressor(level)) {
+      ByteBuffer source = mapSource(in, src);
+      long bound = compressor.getCompressBound(source.remaining(), type);
+      if (bound > MAX_MAPPING_SIZE) {
+        throw new IOException(src + " is too large to compress in one call");
+      }
+
+      ByteBuffer destination = mapDestination(out, (int) bound);
+      int produced = compressor.compress(source, destination, type);
+      if (produced == 0) {
+        throw new IllegalStateException("compressed data exceeded its bound");
+      }
+      destination.flip();
+      finishDestination(out, destination);
+      return produced;
+    }
+  }
+
+  /**
+   * Decompresses the contents of {@code src} into {@code dst}, replacing {@code dst} if it exists.
+   *
+   * <p>The destination is sized like the output of {@link
+   * LibdeflateDecompressor#decompressToNew(ByteBuffer, CompressionType)}: from the uncompressed
+   * size in the trailer for gzip data, and from an estimated compression ratio for zlib and raw
+   * DEFLATE data, doubling it and starting the decompression over until the data fits.
+   *
+   * @param src the file to decompress
+   * @param dst the file to write the decompressed data to
+   * @param type the compression container in use
+   * @return the size of the decompressed file
+   * @throws DataFormatException if the data is corrupt, or it decompresses to more than 2 GiB
+   * @throws IOException if a file can't be read or written, or {@code src} is larger than 2 GiB
+   */
+  public static long decompress(Path src, Path dst, CompressionType type)
+      throws IOException, DataFormatException {
+    try (FileChannel in = FileChannel.open(src, StandardOpenOption.READ);
+        FileChannel out = openDestination(dst);
+        LibdeflateDecompressor decompressor = new LibdeflateDecompressor()) {
+      ByteBuffer destination =
+          decompressor.decompressToNew(
+              mapSource(in, src),
+              type,
+              new LibdeflateDecompressor.OutputAllocator<IOException>() {
+                @Override
+                public ByteBuffer allocate(int capacity) throws IOException {
+                  return mapDestination(out, capacity);
+                }
+
+                @Override
+                public void release(ByteBuffer buffer) {
+                  releaseDestination(buffer);
+                }
+              });
+      long produced = destination.remaining();
+      finishDestination(out, destination);
+      return produced;
+    }
+  }
+
+  private static ByteBuffer mapSource(FileChannel in, Path src) throws IOException {
+    long size = in.size();
+    if (size > MAX_MAPPING_SIZE) {
+      throw new IOException(src + " is larger than 2 GiB");
+    }
+    if (size == 0) {
+      // An empty mapping has no address to hand to libdeflate.
+      return ByteBuffer.allocateDirect(0);
+    }
+    return in.map(FileChannel.MapMode.READ_ONLY, 0, size);
+  }
+
+  private static FileChannel openDestination(Path dst) throws IOException {
+    return FileChannel.open(
+        dst,
+        StandardOpenOption.CREATE,
+        StandardOpenOption.TRUNCATE_EXISTING,
+        StandardOpenOption.READ,
+        StandardOpenOption.WRITE);
+  }
+
+  private static ByteBuffer mapDestination(FileChannel out, int size) throws IOException {
+    if (MAP_DESTINATION) {
+      return out.map(FileChannel.MapMode.READ_WRITE, 0, size);
+    }
+    ByteBuffer buffer = DirectBufferPool.SHARED.acquire(size);
+    buffer.limit(size);
+    return buffer;
+  }
+
+  /** Writes out the data between the position and the limit of {@code destination}. */
+  private static void finishDestination(FileChannel out, ByteBuffer destination)
+      throws IOException {
+    if (MAP_DESTINATION) {
+      out.truncate(destination.remaining());
+      return;
+    }
+    while (destination.hasRemaining()) {
+      out.write(destination);
+    }
+    releaseDestination(destination);
+  }
+
+  private static void releaseDestination(ByteBuffer destination) {
+    if (!MAP_DESTINATION) {
+      DirectBufferPool.SHARED.release(destination);
+    }
+  }
+}
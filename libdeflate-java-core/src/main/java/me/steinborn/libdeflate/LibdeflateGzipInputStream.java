@@ -0,0 +1,314 @@
+/*
+ * Copyright 2024 Andrew Steinborn
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package me.steinborn.libdeflate;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.util.zip.DataFormatException;
+import java.util.zip.ZipException;
+
+/**
+ * A drop-in replacement for {@link java.util.zip.GZIPInputStream} that decompresses with
+ * libdeflate. Every member of the stream is read in full and decompressed in a single call, with
+ * the output sized from the uncompressed size in the member's trailer. Reads are then served from
+ * that output until the next member is needed. Streams made of several members, such as those
+ * written by {@link LibdeflateGzipOutputStream} or {@link ParallelGzipCompressor}, are read to the
+ * end, and any trailing data after the last member that is not a gzip header is ignored, like
+ * {@code GZIPInputStream} does.
+ *
+ * <p>Since libdeflate can't decompress part of a member, both the compressed and the uncompressed
+ * data of a whole member are held in memory. This is a good fit for streams made of many small
+ * members, and for single-member streams of moderate size. The buffers are direct buffers shared
+ * with other streams through a pool, so opening many short-lived streams doesn't allocate.
+ *
+ * <p><strong>Thread-safety</strong>: this class is not thread-safe.
+ */
+public class LibdeflateGzipInputStream extends InputStream {
+  private static final int INITIAL_BUFFER_SIZE = 64 * 1024;
+  private static final int GZIP_HEADER_SIZE = 10;
+  private static final int MAX_MEMBER_SIZE = 1 << 30;
+
+  private final ReadableByteChannel source;
+  private final int maxMemberSize;
+  private final LibdeflateDecompressor decompressor;
+  private final DirectBufferPool buffers = DirectBufferPool.SHARED;
+  private ByteBuffer input;
+  private ByteBuffer output;
+  private boolean sourceEof;
+  private boolean finished;
+  private boolean closed;
+
+  /**
+   * Creates a stream that reads gzip data from {@code in}.
+   *
+   * @param in the stream to read compressed data from
+   * @throws EOFException if {@code in} is empty
+   * @throws ZipException if {@code in} does not start with a gzip header
+   * @throws IOException if reading fails
+   */
+  public LibdeflateGzipInputStream(InputStream in) throws IOException {
+    this(Channels.newChannel(in));
+  }
+
+  /**
+   * Creates a stream that reads gzip data from {@code source}.
+   *
+   * @param source the channel to read compressed data from
+   * @throws EOFException if {@code source} is empty
+   * @throws ZipException if {@code source} does not start with a gzip header
+   * @throws IOException if reading fails
+   */
+  public LibdeflateGzipInputStream(ReadableByteChannel source) throws IOException {
+    this(source, MAX_MEMBER_SIZE);
+  }
+
+  /** Creates a stream with a lower limit on the size of a member, for testing. */
+  LibdeflateGzipInputStream(ReadableByteChannel source, int maxMemberSize) throws IOException {
+    this.source = source;
+    this.maxMemberSize = maxMemberSize;
+    this.decompressor = new LibdeflateDecompressor();
+    this.input = buffers.acquire(INITIAL_BUFFER_SIZE);
+    this.input.flip();
+    this.output = buffers.acquire(INITIAL_BUFFER_SIZE);
+    this.output.flip();
+
+    // Like GZIPInputStream, check the header right away.
+    try {
+      while (input.remaining() < GZIP_HEADER_SIZE && readMore()) {}
+      if (!input.hasRemaining()) {
+        throw new EOFException();
+      }
+      if (input.remaining() < GZIP_HEADER_SIZE || !GzipMemberScanner.startsWithHeader(input)) {
+        throw new ZipException("Not in GZIP format");
+      }
+    } catch (IOException e) {
+      freeResources();
+      throw e;
+    }
+  }
+
+  @Override
+  public int read() throws IOException {
+    if (!ensureOutput()) {
+      return -1;
+    }
+    return output.get() & 0xff;
+  }
+
+  @Override
+  public int read(byte[] b, int off, int len) throws IOException {
+    LibdeflateJavaUtils.checkBounds(b.length, off, len);
+    if (len == 0) {
+      return 0;
+    }
+    if (!ensureOutput()) {
+      return -1;
+    }
+    int n = Math.min(len, output.remaining());
+    output.get(b, off, n);
+    return n;
+  }
+
+  @Override
+  public long skip(long n) throws IOException {
+    long skipped = 0;
+    while (skipped < n && ensureOutput()) {
+      int step = (int) Math.min(n - skipped, output.remaining());
+      output.position(output.position() + step);
+      skipped += step;
+    }
+    return skipped;
+  }
+
+  /**
+   * Returns the number of bytes that can be read without decompressing another member, or 1 if that
+   * is none but the end of the stream has not been reached yet.
+   *
+   * @return an estimate of the number of bytes that can be read without blocking
+   * @throws IOException if the stream is closed
+   */
+  @Override
+  public int available() throws IOException {
+    ensureNotClosed();
+    if (output.hasRemaining()) {
+      return output.remaining();
+    }
+    return finished ? 0 : 1;
+  }
+
+  @Override
+  public void close() throws IOException {
+    if (closed) {
+      return;
+    }
+    closed = true;
+    try {
+      source.close();
+    } finally {
+      freeResources();
+    }
+  }
+
+  private void freeResources() {
+    decompressor.close();
+    buffers.release(input);
+    buffers.release(output);
+  }
+
+  private boolean ensureOutput() throws IOException {
+    ensureNotClosed();
+    while (!output.hasRemaining()) {
+      if (finished || !decodeMember()) {
+        finished = true;
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Decompresses the next member into {@link #output}.
+   *
+   * @return {@code false} if there are no more members
+   */
+  private boolean decodeMember() throws IOException {
+    while (input.remaining() < GZIP_HEADER_SIZE && readMore()) {}
+    if (input.remaining() < GZIP_HEADER_SIZE || !GzipMemberScanner.startsWithHeader(input)) {
+      // Trailing data after the last member is ignored.
+      return false;
+    }
+
+    // Try every plausible header after the start as the end of the member, reading more data until
+    // one works out. Candidates that were already tried are not scanned again.
+    int scanned = 0;
+    do {
+      int candidate;
+      while ((candidate = GzipMemberScanner.nextMember(input, scanned)) != -1) {
+        scanned = candidate + 1;
+        if (tryDecodeMember(candidate)) {
+          return true;
+        }
+      }
+      scanned = Math.max(scanned, input.remaining() - GzipMemberScanner.MIN_MEMBER_SIZE + 1);
+    } while (readMore());
+
+    // This is the last member. It normally ends with the data, but may be followed by garbage or be
+    // too large for its trailer to hold its size.
+    return tryDecodeMember(input.remaining()) || decodeMemberUnknownSize();
+  }
+
+  private boolean tryDecodeMember(int end) throws IOException {
+    long size = GzipMemberScanner.memberSize(input, end);
+    if (size > maxMemberSize) {
+      return false;
+    }
+    ensureOutputCapacity((int) size);
+    ByteBuffer member = input.duplicate();
+    member.limit(input.position() + end);
+    try {
+      decompressor.decompress(member, output, CompressionType.GZIP, (int) size);
+    } catch (DataFormatException e) {
+      output.clear().flip();
+      return false;
+    }
+    input.position(member.position());
+    output.flip();
+    return true;
+  }
+
+  private boolean decodeMemberUnknownSize() throws IOException {
+    ensureOutputCapacity(
+        Math.min(maxMemberSize, Math.max(output.capacity(), input.remaining() * 4)));
+    while (true) {
+      ByteBuffer member = input.duplicate();
+      long produced;
+      try {
+        produced = decompressor.decompressUnknownSize(member, output, CompressionType.GZIP);
+      } catch (DataFormatException e) {
+        ZipException wrapped = new ZipException("Corrupt GZIP member");
+        wrapped.initCause(e);
+        throw wrapped;
+      }
+      if (produced != -1) {
+        input.position(member.position());
+        output.flip();
+        return true;
+      }
+      if (output.capacity() >= maxMemberSize) {
+        throw new ZipException("GZIP member is too large");
+      }
+      ensureOutputCapacity(output.capacity() * 2);
+    }
+  }
+
+  /** Clears the output buffer, making sure it can hold at least {@code size} bytes. */
+  private void ensureOutputCapacity(int size) {
+    if (output.capacity() < size) {
+      buffers.release(output);
+      output = buffers.acquire(size);
+    }
+    output.clear();
+  }
+
+  /**
+   * Reads more compressed data into {@link #input}, growing it if it is full.
+   *
+   * @return {@code false} if the end of the source was reached
+   */
+  private boolean readMore() throws IOException {
+    if (sourceEof) {
+      return false;
+    }
+    if (input.limit() == input.capacity()) {
+      if (input.position() > 0) {
+        input.compact().flip();
+      } else {
+        // A member this large couldn't be decompressed anyway, and doubling again would overflow.
+        if (input.capacity() >= maxMemberSize) {
+          throw new ZipException("GZIP member is too large");
+        }
+        ByteBuffer grown = buffers.acquire(Math.min(input.capacity() * 2, maxMemberSize));
+        grown.put(input).flip();
+        buffers.release(input);
+        input = grown;
+      }
+    }
+
+    int start = input.position();
+    input.position(input.limit()).limit(input.capacity());
+    int read;
+    try {
+      read = source.read(input);
+    } finally {
+      input.limit(input.position()).position(start);
+    }
+    if (read == -1) {
+      sourceEof = true;
+      return false;
+    }
+    return true;
+  }
+
+  private void ensureNotClosed() throws IOException {
+    if (closed) {
+      throw new IOException("Stream closed");
+    }
+  }
+}
@@ -0,0 +1,63 @@
+/*
+ * Copyright 2024 Andrew Steinborn
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package me.steinborn.libdeflate;
+
+import java.io.OutputStream;
+import java.util.zip.Deflater;
+
+/**
+ * A drop-in replacement for {@link java.util.zip.GZIPOutputStream} that compresses with libdeflate.
+ * The data is compressed in blocks of {@link #DEFAULT_BLOCK_SIZE} bytes by default, each of which
+ * is written as a separate gzip member. See {@link LibdeflateOutputStream} for details.
+ *
+ * <p><strong>Thread-safety</strong>: this class is not thread-safe.
+ */
+public class LibdeflateGzipOutputStream extends LibdeflateOutputStream {
+  /**
+   * Creates a gzip stream with the default compression level and block size.
+   *
+   * @param out the stream to write compressed data to
+   */
+  public LibdeflateGzipOutputStream(OutputStream out) {
+    this(out, false);
+  }
+
+  /**
+   * Creates a gzip stream with the default compression level and block size.
+   *
+   * @param out the stream to write compressed data to
+   * @param syncFlush if {@code true}, {@link #flush()} ends the current member before flushing
+   *     {@code out}
+   */
+  public LibdeflateGzipOutputStream(OutputStream out, boolean syncFlush) {
+    this(out, Deflater.DEFAULT_COMPRESSION, DEFAULT_BLOCK_SIZE, syncFlush);
+  }
+
+  /**
+   * Creates a gzip stream.
+   *
+   * @param out the stream to write compressed data to
+   * @param level the compression level to use, from 0 to 12
+   * @param blockSize the number of uncompressed bytes in each member
+   * @param syncFlush if {@code true}, {@link #flush()} ends the current member before flushing
+   *     {@code out}
+   * @throws IllegalArgumentException if the level is not within range or the block size is not
+   *     positive
+   */
+  public LibdeflateGzipOutputStream(OutputStream out, int level, int blockSize, boolean syncFlush) {
+    super(out, CompressionType.GZIP, level, blockSize, syncFlush);
+  }
+}
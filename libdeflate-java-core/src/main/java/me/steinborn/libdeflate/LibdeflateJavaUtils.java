@@ -37,4 +37,38 @@ class LibdeflateJavaUtils {
   static int byteBufferArrayPosition(ByteBuffer buffer) {
     return buffer.arrayOffset() + buffer.position();
   }
+
+  /**
+   * Prepares the arguments for a native batch call. Each element of {@code inStorage} and {@code
+   * outStorage} is set to either the direct buffer itself or the array backing a heap buffer, and
+   * {@code positions} receives the input position, input length, output position and output length
+   * of each entry, relative to that storage.
+   */
+  static void prepareBatch(
+      ByteBuffer[] in, ByteBuffer[] out, Object[] inStorage, Object[] outStorage, int[] positions) {
+    if (in.length != out.length) {
+      throw new IllegalArgumentException(
+          "in.length(" + in.length + ") != out.length(" + out.length + ")");
+    }
+    for (int i = 0; i < in.length; i++) {
+      ByteBuffer inBuf = in[i];
+      ByteBuffer outBuf = out[i];
+      if (inBuf.isDirect()) {
+        inStorage[i] = inBuf;
+        positions[i * 4] = inBuf.position();
+      } else {
+        inStorage[i] = inBuf.array();
+        positions[i * 4] = byteBufferArrayPosition(inBuf);
+      }
+      positions[i * 4 + 1] = inBuf.remaining();
+      if (outBuf.isDirect()) {
+        outStorage[i] = outBuf;
+        positions[i * 4 + 2] = outBuf.position();
+      } else {
+        outStorage[i] = outBuf.array();
+        positions[i * 4 + 2] = byteBufferArrayPosition(outBuf);
+      }
+      positions[i * 4 + 3] = outBuf.remaining();
+    }
+  }
 }
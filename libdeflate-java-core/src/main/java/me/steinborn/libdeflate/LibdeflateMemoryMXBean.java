@@ -0,0 +1,79 @@
+/*
+ * Copyright 2024 Andrew Steinborn
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package me.steinborn.libdeflate;
+
+/**
+ * A JMX view of {@link LibdeflateMemoryStats}, registered with {@link
+ * LibdeflateMemoryStats#registerMXBean()}.
+ */
+public interface LibdeflateMemoryMXBean {
+  /**
+   * Returns the number of bytes of native memory held by all compressors and decompressors.
+   *
+   * @return the number of bytes
+   */
+  long getLiveBytes();
+
+  /**
+   * Returns the number of compressors and decompressors that have not been closed.
+   *
+   * @return the number of contexts
+   */
+  long getLiveContexts();
+
+  /**
+   * Returns the number of bytes held by compressors of each level, indexed by level.
+   *
+   * @return the number of bytes for levels 0 to 12
+   */
+  long[] getCompressorBytesByLevel();
+
+  /**
+   * Returns the number of compressors of each level that have not been closed, indexed by level.
+   *
+   * @return the number of compressors for levels 0 to 12
+   */
+  long[] getCompressorCountsByLevel();
+
+  /**
+   * Returns the number of bytes held by decompressors.
+   *
+   * @return the number of bytes
+   */
+  long getDecompressorBytes();
+
+  /**
+   * Returns the number of decompressors that have not been closed.
+   *
+   * @return the number of decompressors
+   */
+  long getDecompressorCount();
+
+  /**
+   * Returns the limit on the native memory held by all contexts.
+   *
+   * @return the limit in bytes, or zero if there is none
+   */
+  long getLimit();
+
+  /**
+   * Sets the limit on the native memory held by all contexts.
+   *
+   * @param bytes the limit in bytes, or zero to remove it
+   * @see LibdeflateMemoryStats#setLimit(long)
+   */
+  void setLimit(long bytes);
+}
@@ -0,0 +1,257 @@
+/*
+ * Copyright 2024 Andrew Steinborn
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package me.steinborn.libdeflate;
+
+import java.lang.management.ManagementFactory;
+import javax.management.InstanceAlreadyExistsException;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * A snapshot of the native memory held by libdeflate compressors and decompressors. This memory is
+ * allocated outside the Java heap, so it shows up neither in heap dumps nor in the JVM's Native
+ * Memory Tracking. Every context is allocated through counting allocation hooks, so the figures
+ * here are exact: they include every byte obtained from {@code malloc} that has not yet been freed.
+ *
+ * <p>A limit on the total can be set with {@link #setLimit(long)} or the {@code
+ * libdeflate_memory_limit} system property. Once it is reached, creating another compressor or
+ * decompressor throws an {@link OutOfMemoryError} rather than growing the process until it is
+ * killed.
+ *
+ * <p>The same figures are available over JMX once {@link #registerMXBean()} has been called.
+ *
+ * <p><strong>Thread-safety</strong>: this class is thread-safe. Each counter in a snapshot is read
+ * atomically, but contexts created or freed while the snapshot is taken may be reflected in some
+ * counters and not others.
+ */
+public final class LibdeflateMemoryStats {
+  private static final int DECOMPRESSOR_SLOT = LibdeflateCompressor.MAXIMUM_COMPRESSION_LEVEL + 1;
+  private static final int SLOTS = DECOMPRESSOR_SLOT + 1;
+
+  /** The name the MXBean is registered under. */
+  public static final String OBJECT_NAME = "me.steinborn.libdeflate:type=Memory";
+
+  static {
+    Libdeflate.ensureAvailable();
+  }
+
+  private static volatile long limit = 0;
+
+  private final long[] bytes;
+  private final long[] contexts;
+
+  private LibdeflateMemoryStats(long[] bytes, long[] contexts) {
+    this.bytes = bytes;
+    this.contexts = contexts;
+  }
+
+  /**
+   * Takes a snapshot of the native memory currently in use.
+   *
+   * @return the snapshot
+   */
+  public static LibdeflateMemoryStats snapshot() {
+    long[] bytes = new long[SLOTS];
+    long[] contexts = new long[SLOTS];
+    readCounters(bytes, contexts);
+    return new LibdeflateMemoryStats(bytes, contexts);
+  }
+
+  /**
+   * Returns the number of bytes held by all compressors and decompressors.
+   *
+   * @return the number of bytes
+   */
+  public long getLiveBytes() {
+    long total = 0;
+    for (long slot : bytes) {
+      total += slot;
+    }
+    return total;
+  }
+
+  /**
+   * Returns the number of compressors and decompressors that have not been closed.
+   *
+   * @return the number of contexts
+   */
+  public long getLiveContexts() {
+    long total = 0;
+    for (long slot : contexts) {
+      total += slot;
+    }
+    return total;
+  }
+
+  /**
+   * Returns the number of bytes held by compressors of the given level.
+   *
+   * @param level the compression level, from 0 to 12
+   * @return the number of bytes
+   * @throws IllegalArgumentException if the level is not within range
+   */
+  public long getCompressorBytes(int level) {
+    return bytes[checkLevel(level)];
+  }
+
+  /**
+   * Returns the number of compressors of the given level that have not been closed.
+   *
+   * @param level the compression level, from 0 to 12
+   * @return the number of compressors
+   * @throws IllegalArgumentException if the level is not within range
+   */
+  public long getCompressorCount(int level) {
+    return contexts[checkLevel(level)];
+  }
+
+  /**
+   * Returns the number of bytes held by decompressors.
+   *
+   * @return the number of bytes
+   */
+  public long getDecompressorBytes() {
+    return bytes[DECOMPRESSOR_SLOT];
+  }
+
+  /**
+   * Returns the number of decompressors that have not been closed.
+   *
+   * @return the number of decompressors
+   */
+  public long getDecompressorCount() {
+    return contexts[DECOMPRESSOR_SLOT];
+  }
+
+  private static int checkLevel(int level) {
+    if (level < 0 || level >= DECOMPRESSOR_SLOT) {
+      throw new IllegalArgumentException("invalid compression level, must be between 0 and 12");
+    }
+    return level;
+  }
+
+  /**
+   * Returns the limit on the native memory held by all contexts.
+   *
+   * @return the limit in bytes, or zero if there is none
+   */
+  public static long getLimit() {
+    return limit;
+  }
+
+  /**
+   * Limits the native memory held by all compressors and decompressors. Creating a context that
+   * would take the total over the limit throws an {@link OutOfMemoryError}. Lowering the limit
+   * below the memory already in use does not free anything.
+   *
+   * @param bytes the limit in bytes, or zero to remove it
+   * @throws IllegalArgumentException if {@code bytes} is negative
+   */
+  public static void setLimit(long bytes) {
+    if (bytes < 0) {
+      throw new IllegalArgumentException("limit = " + bytes);
+    }
+    limit = bytes;
+    setLimit0(bytes);
+  }
+
+  /**
+   * Registers a {@link LibdeflateMemoryMXBean} with the platform MBean server under {@link
+   * #OBJECT_NAME}, unless one is already registered.
+   *
+   * @return the name of the MXBean
+   * @throws IllegalStateException if the MXBean can't be registered
+   */
+  public static ObjectName registerMXBean() {
+    try {
+      ObjectName name = new ObjectName(OBJECT_NAME);
+      MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+      try {
+        server.registerMBean(new MXBean(), name);
+      } catch (InstanceAlreadyExistsException ignored) {
+        // Somebody else got there first, which is just as good.
+      }
+      return name;
+    } catch (JMException e) {
+      throw new IllegalStateException("Unable to register the libdeflate memory MXBean", e);
+    }
+  }
+
+  @Override
+  public String toString() {
+    return "LibdeflateMemoryStats{liveBytes="
+        + getLiveBytes()
+        + ", liveContexts="
+        + getLiveContexts()
+        + ", limit="
+        + limit
+        + "}";
+  }
+
+  private static final class MXBean implements LibdeflateMemoryMXBean {
+    @Override
+    public long getLiveBytes() {
+      return snapshot().getLiveBytes();
+    }
+
+    @Override
+    public long getLiveContexts() {
+      return snapshot().getLiveContexts();
+    }
+
+    @Override
+    public long[] getCompressorBytesByLevel() {
+      LibdeflateMemoryStats stats = snapshot();
+      long[] levels = new long[DECOMPRESSOR_SLOT];
+      System.arraycopy(stats.bytes, 0, levels, 0, levels.length);
+      return levels;
+    }
+
+    @Override
+    public long[] getCompressorCountsByLevel() {
+      LibdeflateMemoryStats stats = snapshot();
+      long[] levels = new long[DECOMPRESSOR_SLOT];
+      System.arraycopy(stats.contexts, 0, levels, 0, levels.length);
+      return levels;
+    }
+
+    @Override
+    public long getDecompressorBytes() {
+      return snapshot().getDecompressorBytes();
+    }
+
+    @Override
+    public long getDecompressorCount() {
+      return snapshot().getDecompressorCount();
+    }
+
+    @Override
+    public long getLimit() {
+      return LibdeflateMemoryStats.getLimit();
+    }
+
+    @Override
+    public void setLimit(long bytes) {
+      LibdeflateMemoryStats.setLimit(bytes);
+    }
+  }
+
+  /* Native function declarations. */
+  private static native void readCounters(long[] bytes, long[] contexts);
+
+  private static native void setLimit0(long limit);
+}
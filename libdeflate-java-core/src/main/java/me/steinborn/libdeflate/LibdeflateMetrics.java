@@ -0,0 +1,412 @@
+/*
+ * Copyright 2024 Andrew Steinborn
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package me.steinborn.libdeflate;
+
+import java.lang.management.ManagementFactory;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.InstanceAlreadyExistsException;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Counts the calls made to libdeflate, the bytes they consume and produce, how they fail and how
+ * long they take. Compression and decompression are counted separately for each {@link
+ * CompressionType}; CRC32 and Adler-32 are counted on their own.
+ *
+ * <p>Metrics are off unless the {@code libdeflate_metrics} system property is set to {@code true}
+ * before the library is loaded. The check is a constant, so when metrics are off the JIT removes
+ * the instrumentation entirely. When they are on, every call is timed and added to counters built
+ * on {@link LongAdder}, which stay cheap when many threads update them at once, and passed to any
+ * registered {@link LibdeflateMetricsListener}.
+ *
+ * <p>The counters are available from {@link #get(Operation, CompressionType)} and, once {@link
+ * #registerMXBean()} has been called, over JMX.
+ *
+ * <p><strong>Thread-safety</strong>: this class is thread-safe.
+ */
+public final class LibdeflateMetrics {
+  /** The name the MXBean is registered under. */
+  public static final String OBJECT_NAME = "me.steinborn.libdeflate:type=Metrics";
+
+  /**
+   * The number of latency histogram buckets. Bucket 0 counts calls that took less than 1024
+   * nanoseconds, and each following bucket covers twice the range of the one before it, up to the
+   * last bucket, which counts every call of 2<sup>33</sup> nanoseconds (about 8.6 seconds) or more.
+   */
+  public static final int HISTOGRAM_BUCKETS = 25;
+
+  private static final int FIRST_BUCKET_SHIFT = 10;
+
+  /** A kind of call into libdeflate. */
+  public enum Operation {
+    COMPRESS,
+    DECOMPRESS,
+    CRC32,
+    ADLER32
+  }
+
+  /** How a call into libdeflate ended. */
+  public enum Outcome {
+    SUCCESS,
+    /** The output buffer was too small. */
+    INSUFFICIENT_SPACE,
+    /** The compressed data was corrupt, or did not decompress to the expected size. */
+    BAD_DATA
+  }
+
+  private static final CompressionType[] TYPES = CompressionType.values();
+  private static final Counters[] COUNTERS = new Counters[TYPES.length * 2 + 2];
+  private static final CopyOnWriteArrayList<LibdeflateMetricsListener> LISTENERS =
+      new CopyOnWriteArrayList<>();
+
+  static {
+    for (int i = 0; i < COUNTERS.length; i++) {
+      COUNTERS[i] = new Counters();
+    }
+  }
+
+  private LibdeflateMetrics() {}
+
+  /**
+   * Returns whether metrics are being collected.
+   *
+   * @return whether the {@code libdeflate_metrics} system property was set
+   */
+  public static boolean isEnabled() {
+    return Libdeflate.METRICS;
+  }
+
+  /**
+   * Returns the counters for an operation.
+   *
+   * @param operation the operation
+   * @param type the compression container, for compression and decompression; ignored for checksums
+   * @return the counters
+   */
+  public static Counters get(Operation operation, CompressionType type) {
+    return COUNTERS[index(operation, type)];
+  }
+
+  /**
+   * Adds a listener, which is called after every call into libdeflate while metrics are enabled.
+   *
+   * @param listener the listener to add
+   */
+  public static void addListener(LibdeflateMetricsListener listener) {
+    LISTENERS.add(listener);
+  }
+
+  /**
+   * Removes a listener added with {@link #addListener(LibdeflateMetricsListener)}.
+   *
+   * @param listener the listener to remove
+   */
+  public static void removeListener(LibdeflateMetricsListener listener) {
+    LISTENERS.remove(listener);
+  }
+
+  /** Resets all counters to zero. */
+  public static void reset() {
+    for (Counters counters : COUNTERS) {
+      counters.reset();
+    }
+  }
+
+  /**
+   * Registers a {@link LibdeflateMetricsMXBean} with the platform MBean server under {@link
+   * #OBJECT_NAME}, unless one is already registered.
+   *
+   * @return the name of the MXBean
+   * @throws IllegalStateException if the MXBean can't be registered
+   */
+  public static ObjectName registerMXBean() {
+    try {
+      ObjectName name = new ObjectName(OBJECT_NAME);
+      MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+      try {
+        server.registerMBean(new MXBean(), name);
+      } catch (InstanceAlreadyExistsException ignored) {
+        // Somebody else got there first, which is just as good.
+      }
+      return name;
+    } catch (JMException e) {
+      throw new IllegalStateException("Unable to register the libdeflate metrics MXBean", e);
+    }
+  }
+
+  static void recordCompression(CompressionType type, long bytesIn, long produced, long start) {
+    record(
+        Operation.COMPRESS,
+        type,
+        bytesIn,
+        produced,
+        start,
+        produced == 0 ? Outcome.INSUFFICIENT_SPACE : Outcome.SUCCESS);
+  }
+
+  static void recordStaged(Operation operation, CompressionType type) {
+    COUNTERS[index(operation, type)].staged.increment();
+  }
+
+  static void recordChecksum(Operation operation, long bytesIn, long start) {
+    record(operation, null, bytesIn, 0, start, Outcome.SUCCESS);
+  }
+
+  static void record(
+      Operation operation,
+      CompressionType type,
+      long bytesIn,
+      long bytesOut,
+      long start,
+      Outcome outcome) {
+    long nanos = System.nanoTime() - start;
+    COUNTERS[index(operation, type)].add(bytesIn, bytesOut, nanos, outcome);
+    for (LibdeflateMetricsListener listener : LISTENERS) {
+      listener.onOperation(operation, type, bytesIn, bytesOut, nanos, outcome);
+    }
+  }
+
+  private static int index(Operation operation, CompressionType type) {
+    switch (operation) {
+      case COMPRESS:
+        return type.ordinal();
+      case DECOMPRESS:
+        return TYPES.length + type.ordinal();
+      case CRC32:
+        return TYPES.length * 2;
+      default:
+        return TYPES.length * 2 + 1;
+    }
+  }
+
+  private static String key(Operation operation, CompressionType type) {
+    String name = operation.name().toLowerCase(Locale.ROOT);
+    if (operation == Operation.COMPRESS || operation == Operation.DECOMPRESS) {
+      return name + "." + type.name().toLowerCase(Locale.ROOT);
+    }
+    return name;
+  }
+
+  static int bucket(long nanos) {
+    int bits = 64 - Long.numberOfLeadingZeros(nanos);
+    return Math.min(Math.max(bits - FIRST_BUCKET_SHIFT, 0), HISTOGRAM_BUCKETS - 1);
+  }
+
+  /** The counters for one operation. All byte counts only include successful calls. */
+  public static final class Counters {
+    private final LongAdder calls = new LongAdder();
+    private final LongAdder bytesIn = new LongAdder();
+    private final LongAdder bytesOut = new LongAdder();
+    private final LongAdder insufficientSpace = new LongAdder();
+    private final LongAdder badData = new LongAdder();
+    private final LongAdder nanos = new LongAdder();
+    private final LongAdder staged = new LongAdder();
+    private final LongAdder[] histogram = new LongAdder[HISTOGRAM_BUCKETS];
+
+    Counters() {
+      for (int i = 0; i < histogram.length; i++) {
+        histogram[i] = new LongAdder();
+      }
+    }
+
+    void add(long bytesIn, long bytesOut, long nanos, Outcome outcome) {
+      calls.increment();
+      this.nanos.add(nanos);
+      histogram[bucket(nanos)].increment();
+      if (outcome == Outcome.SUCCESS) {
+        this.bytesIn.add(bytesIn);
+        this.bytesOut.add(bytesOut);
+      } else if (outcome == Outcome.INSUFFICIENT_SPACE) {
+        insufficientSpace.increment();
+      } else {
+        badData.increment();
+      }
+    }
+
+    void reset() {
+      calls.reset();
+      bytesIn.reset();
+      bytesOut.reset();
+      insufficientSpace.reset();
+      badData.reset();
+      nanos.reset();
+      staged.reset();
+      for (LongAdder bucket : histogram) {
+        bucket.reset();
+      }
+    }
+
+    /**
+     * Returns the number of calls, whether they succeeded or not.
+     *
+     * @return the number of calls
+     */
+    public long getCalls() {
+      return calls.sum();
+    }
+
+    /**
+     * Returns the number of bytes read by successful calls.
+     *
+     * @return the number of bytes
+     */
+    public long getBytesIn() {
+      return bytesIn.sum();
+    }
+
+    /**
+     * Returns the number of bytes written by successful calls. Checksums write nothing.
+     *
+     * @return the number of bytes
+     */
+    public long getBytesOut() {
+      return bytesOut.sum();
+    }
+
+    /**
+     * Returns the number of calls that failed because the output buffer was too small.
+     *
+     * @return the number of calls
+     */
+    public long getInsufficientSpace() {
+      return insufficientSpace.sum();
+    }
+
+    /**
+     * Returns the number of calls that failed with a {@link java.util.zip.DataFormatException}.
+     *
+     * @return the number of calls
+     */
+    public long getBadData() {
+      return badData.sum();
+    }
+
+    /**
+     * Returns the time spent in all calls.
+     *
+     * @return the time in nanoseconds
+     */
+    public long getTotalNanos() {
+      return nanos.sum();
+    }
+
+    /**
+     * Returns the number of calls on heap data that were staged through direct buffers rather than
+     * pinning the heap arrays. See {@link HeapMode}.
+     *
+     * @return the number of calls
+     */
+    public long getStagedCalls() {
+      return staged.sum();
+    }
+
+    /**
+     * Returns the number of calls that fell into each latency bucket. See {@link
+     * #HISTOGRAM_BUCKETS} for the ranges of the buckets.
+     *
+     * @return the number of calls in each bucket
+     */
+    public long[] getLatencyHistogram() {
+      long[] counts = new long[HISTOGRAM_BUCKETS];
+      for (int i = 0; i < counts.length; i++) {
+        counts[i] = histogram[i].sum();
+      }
+      return counts;
+    }
+  }
+
+  private static final class MXBean implements LibdeflateMetricsMXBean {
+    private interface Counter {
+      long read(Counters counters);
+    }
+
+    private static Map<String, Long> collect(Counter counter) {
+      Map<String, Long> values = new LinkedHashMap<>();
+      for (Operation operation : Operation.values()) {
+        if (operation == Operation.COMPRESS || operation == Operation.DECOMPRESS) {
+          for (CompressionType type : TYPES) {
+            values.put(key(operation, type), counter.read(get(operation, type)));
+          }
+        } else {
+          values.put(key(operation, null), counter.read(get(operation, null)));
+        }
+      }
+      return values;
+    }
+
+    @Override
+    public boolean isEnabled() {
+      return LibdeflateMetrics.isEnabled();
+    }
+
+    @Override
+    public Map<String, Long> getCalls() {
+      return collect(Counters::getCalls);
+    }
+
+    @Override
+    public Map<String, Long> getBytesIn() {
+      return collect(Counters::getBytesIn);
+    }
+
+    @Override
+    public Map<String, Long> getBytesOut() {
+      return collect(Counters::getBytesOut);
+    }
+
+    @Override
+    public Map<String, Long> getInsufficientSpace() {
+      return collect(Counters::getInsufficientSpace);
+    }
+
+    @Override
+    public Map<String, Long> getBadData() {
+      return collect(Counters::getBadData);
+    }
+
+    @Override
+    public Map<String, Long> getTotalNanos() {
+      return collect(Counters::getTotalNanos);
+    }
+
+    @Override
+    public Map<String, Long> getStagedCalls() {
+      return collect(Counters::getStagedCalls);
+    }
+
+    @Override
+    public long[] getLatencyHistogram(String operation) {
+      for (Operation candidate : Operation.values()) {
+        for (CompressionType type : TYPES) {
+          if (key(candidate, type).equals(operation)) {
+            return get(candidate, type).getLatencyHistogram();
+          }
+        }
+      }
+      throw new IllegalArgumentException("unknown operation " + operation);
+    }
+
+    @Override
+    public void reset() {
+      LibdeflateMetrics.reset();
+    }
+  }
+}
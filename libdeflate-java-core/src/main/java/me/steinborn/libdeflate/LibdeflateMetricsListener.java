@@ -0,0 +1,44 @@
+/*
+ * Copyright 2024 Andrew Steinborn
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package me.steinborn.libdeflate;
+
+/**
+ * Receives every call into libdeflate while metrics are enabled. See {@link LibdeflateMetrics}.
+ *
+ * <p>Listeners are called on the thread that made the call, straight after it returns, so they
+ * should be quick and must not throw.
+ */
+@FunctionalInterface
+public interface LibdeflateMetricsListener {
+  /**
+   * Called after a call into libdeflate.
+   *
+   * @param operation the kind of call
+   * @param type the compression container for compression and decompression, or {@code null} for
+   *     checksums
+   * @param bytesIn the number of bytes read, or zero if the call failed
+   * @param bytesOut the number of bytes written, or zero if the call failed or was a checksum
+   * @param nanos how long the call took
+   * @param outcome how the call ended
+   */
+  void onOperation(
+      LibdeflateMetrics.Operation operation,
+      CompressionType type,
+      long bytesIn,
+      long bytesOut,
+      long nanos,
+      LibdeflateMetrics.Outcome outcome);
+}
@@ -0,0 +1,96 @@
+/*
+ * Copyright 2024 Andrew Steinborn
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package me.steinborn.libdeflate;
+
+import java.util.Map;
+
+/**
+ * A JMX view of {@link LibdeflateMetrics}, registered with {@link
+ * LibdeflateMetrics#registerMXBean()}. Each map is keyed by operation: {@code compress.gzip},
+ * {@code decompress.zlib} and so on for each compression container, and {@code crc32} and {@code
+ * adler32} for checksums.
+ */
+public interface LibdeflateMetricsMXBean {
+  /**
+   * Returns whether metrics are being collected.
+   *
+   * @return whether the {@code libdeflate_metrics} system property was set
+   */
+  boolean isEnabled();
+
+  /**
+   * Returns the number of calls for each operation.
+   *
+   * @return the number of calls
+   */
+  Map<String, Long> getCalls();
+
+  /**
+   * Returns the number of bytes read by successful calls for each operation.
+   *
+   * @return the number of bytes
+   */
+  Map<String, Long> getBytesIn();
+
+  /**
+   * Returns the number of bytes written by successful calls for each operation.
+   *
+   * @return the number of bytes
+   */
+  Map<String, Long> getBytesOut();
+
+  /**
+   * Returns the number of calls that failed because the output buffer was too small.
+   *
+   * @return the number of calls
+   */
+  Map<String, Long> getInsufficientSpace();
+
+  /**
+   * Returns the number of calls that failed because the data was corrupt.
+   *
+   * @return the number of calls
+   */
+  Map<String, Long> getBadData();
+
+  /**
+   * Returns the time spent in all calls for each operation.
+   *
+   * @return the time in nanoseconds
+   */
+  Map<String, Long> getTotalNanos();
+
+  /**
+   * Returns the number of calls on heap data that were staged through direct buffers for each
+   * operation.
+   *
+   * @return the number of calls
+   */
+  Map<String, Long> getStagedCalls();
+
+  /**
+   * Returns the latency histogram of an operation. See {@link LibdeflateMetrics#HISTOGRAM_BUCKETS}
+   * for the ranges of the buckets.
+   *
+   * @param operation the operation, such as {@code compress.gzip} or {@code crc32}
+   * @return the number of calls in each bucket
+   * @throws IllegalArgumentException if the operation is not known
+   */
+  long[] getLatencyHistogram(String operation);
+
+  /** Resets all counters to zero. */
+  void reset();
+}
@@ -0,0 +1,211 @@
+/*
+ * Copyright 2024 Andrew Steinborn
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package me.steinborn.libdeflate;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.zip.Deflater;
+
+/**
+ * An output stream that compresses data in blocks using libdeflate. Writes are collected into a
+ * direct buffer, and every time it fills up, the block is compressed in a single call and written
+ * out as a complete, self-contained segment in the chosen format. Memory use is bounded by the
+ * block size rather than by the size of the data. A running CRC32 of the data is kept, see {@link
+ * #getCrc32()}.
+ *
+ * <p>libdeflate has no way to continue a DEFLATE stream across calls, so the output is a sequence
+ * of segments rather than a single stream:
+ *
+ * <ul>
+ *   <li>for {@link CompressionType#GZIP}, each segment is a gzip member. Concatenated members form
+ *       a valid gzip file, which {@code gunzip}, {@link java.util.zip.GZIPInputStream} and {@link
+ *       ParallelGzipDecompressor} read in full. {@link LibdeflateGzipOutputStream} is a drop-in
+ *       replacement for {@link java.util.zip.GZIPOutputStream} built on this class.
+ *   <li>for {@link CompressionType#ZLIB} and {@link CompressionType#DEFLATE}, each segment is a
+ *       complete zlib or raw DEFLATE stream. A reader has to start over after the end of each
+ *       segment, for example by resetting its {@link java.util.zip.Inflater} once it is finished.
+ *       Output that fits in a single block is an ordinary stream.
+ * </ul>
+ *
+ * <p><strong>Thread-safety</strong>: this class is not thread-safe.
+ */
+public class LibdeflateOutputStream extends FilterOutputStream {
+  /** The default block size, 128 KiB. */
+  public static final int DEFAULT_BLOCK_SIZE = 128 * 1024;
+
+  private final CompressionType type;
+  private final boolean syncFlush;
+  private final LibdeflateCompressor compressor;
+  private final ByteBuffer block;
+  private final ByteBuffer compressed;
+  private final byte[] transfer = new byte[8192];
+  private final LibdeflateCRC32 crc = new LibdeflateCRC32();
+  private boolean wroteSegment;
+  private boolean finished;
+  private boolean closed;
+
+  /**
+   * Creates a stream with the default compression level and block size.
+   *
+   * @param out the stream to write compressed data to
+   * @param type the format to write
+   */
+  public LibdeflateOutputStream(OutputStream out, CompressionType type) {
+    this(out, type, Deflater.DEFAULT_COMPRESSION, DEFAULT_BLOCK_SIZE, false);
+  }
+
+  /**
+   * Creates a stream.
+   *
+   * @param out the stream to write compressed data to
+   * @param type the format to write
+   * @param level the compression level to use, from 0 to 12
+   * @param blockSize the number of uncompressed bytes in each segment
+   * @param syncFlush if {@code true}, {@link #flush()} ends the current segment before flushing
+   *     {@code out}, so everything written so far can be decompressed; otherwise it only flushes
+   *     {@code out}
+   * @throws IllegalArgumentException if the level is not within range or the block size is not
+   *     positive
+   */
+  public LibdeflateOutputStream(
+      OutputStream out, CompressionType type, int level, int blockSize, boolean syncFlush) {
+    super(out);
+    if (blockSize <= 0) {
+      throw new IllegalArgumentException("blockSize = " + blockSize);
+    }
+    this.type = type;
+    this.syncFlush = syncFlush;
+    this.compressor = new LibdeflateCompressor(level);
+    this.block = ByteBuffer.allocateDirect(blockSize);
+    this.compressed = ByteBuffer.allocateDirect((int) compressor.getCompressBound(blockSize, type));
+  }
+
+  @Override
+  public void write(int b) throws IOException {
+    ensureWritable();
+    if (!block.hasRemaining()) {
+      writeSegment();
+    }
+    block.put((byte) b);
+  }
+
+  @Override
+  public void write(byte[] b, int off, int len) throws IOException {
+    ensureWritable();
+    LibdeflateJavaUtils.checkBounds(b.length, off, len);
+    while (len > 0) {
+      if (!block.hasRemaining()) {
+        writeSegment();
+      }
+      int n = Math.min(len, block.remaining());
+      block.put(b, off, n);
+      off += n;
+      len -= n;
+    }
+  }
+
+  /**
+   * Flushes the stream. If the stream was created with {@code syncFlush}, any buffered data is
+   * compressed and written out as a segment first.
+   *
+   * @throws IOException if writing fails
+   */
+  @Override
+  public void flush() throws IOException {
+    if (syncFlush && !finished && !closed && block.position() > 0) {
+      writeSegment();
+    }
+    out.flush();
+  }
+
+  /**
+   * Compresses and writes any buffered data without closing the underlying stream. No more data may
+   * be written afterwards.
+   *
+   * @throws IOException if writing fails
+   */
+  public void finish() throws IOException {
+    if (finished) {
+      return;
+    }
+    if (closed) {
+      throw new IOException("Stream closed");
+    }
+    // An empty stream still needs one (empty) segment to be valid.
+    if (block.position() > 0 || !wroteSegment) {
+      writeSegment();
+    }
+    finished = true;
+  }
+
+  /**
+   * Finishes the stream, closes the underlying stream and frees the compressor.
+   *
+   * @throws IOException if writing fails
+   */
+  @Override
+  public void close() throws IOException {
+    if (closed) {
+      return;
+    }
+    try {
+      finish();
+    } finally {
+      closed = true;
+      compressor.close();
+      out.close();
+    }
+  }
+
+  /**
+   * Returns the CRC32 of all uncompressed data compressed so far. Data still buffered is not
+   * included until it is flushed with {@code syncFlush}, or the stream is finished.
+   *
+   * @return the CRC32 of the data
+   */
+  public long getCrc32() {
+    return crc.getValue();
+  }
+
+  private void writeSegment() throws IOException {
+    block.flip();
+    crc.update(block.duplicate());
+    compressed.clear();
+    if (compressor.compress(block, compressed, type) == 0) {
+      throw new IllegalStateException("compressed block exceeded its bound");
+    }
+    block.clear();
+
+    compressed.flip();
+    while (compressed.hasRemaining()) {
+      int n = Math.min(compressed.remaining(), transfer.length);
+      compressed.get(transfer, 0, n);
+      out.write(transfer, 0, n);
+    }
+    wroteSegment = true;
+  }
+
+  private void ensureWritable() throws IOException {
+    if (closed) {
+      throw new IOException("Stream closed");
+    }
+    if (finished) {
+      throw new IOException("write beyond end of stream");
+    }
+  }
+}
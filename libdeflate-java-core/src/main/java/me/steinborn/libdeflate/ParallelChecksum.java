@@ -0,0 +1,194 @@
+/*
+ * Copyright 2024 Andrew Steinborn
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package me.steinborn.libdeflate;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+/**
+ * Computes CRC32 and Adler-32 checksums of large buffers and files using several threads. The data
+ * is split into segments, which are checksummed independently on a {@link ForkJoinPool} by
+ * libdeflate, and the results are merged with {@link LibdeflateCRC32#combine(long, long, long)} or
+ * {@link LibdeflateAdler32#combine(long, long, long)}. The result is the same as checksumming the
+ * data in one go.
+ *
+ * <p>Files are memory-mapped a gigabyte at a time rather than read, so they don't need to fit in
+ * memory and are not copied.
+ *
+ * <p><strong>Thread-safety</strong>: this class is thread-safe.
+ */
+public final class ParallelChecksum {
+  /** The default segment size, 4 MiB. */
+  public static final int DEFAULT_SEGMENT_SIZE = 4 * 1024 * 1024;
+
+  private static final long MAX_MAPPING_SIZE = 1L << 30;
+
+  private final ForkJoinPool pool;
+  private final int segmentSize;
+
+  /** Creates a parallel checksum with the default segment size, which runs on the common pool. */
+  public ParallelChecksum() {
+    this(ForkJoinPool.commonPool(), DEFAULT_SEGMENT_SIZE);
+  }
+
+  /**
+   * Creates a parallel checksum.
+   *
+   * @param pool the pool to checksum segments on
+   * @param segmentSize the number of bytes in each segment
+   * @throws IllegalArgumentException if the segment size is not positive
+   */
+  public ParallelChecksum(ForkJoinPool pool, int segmentSize) {
+    if (segmentSize <= 0) {
+      throw new IllegalArgumentException("segmentSize = " + segmentSize);
+    }
+    this.pool = pool;
+    this.segmentSize = segmentSize;
+  }
+
+  /**
+   * Computes the CRC32 of the remaining bytes of {@code buffer}, which may be a heap, direct or
+   * mapped buffer. The position of the buffer is advanced to its limit.
+   *
+   * @param buffer the data to checksum
+   * @return the CRC32 of the data
+   */
+  public long crc32(ByteBuffer buffer) {
+    return checksum(buffer, Algorithm.CRC32);
+  }
+
+  /**
+   * Computes the Adler-32 of the remaining bytes of {@code buffer}, which may be a heap, direct or
+   * mapped buffer. The position of the buffer is advanced to its limit.
+   *
+   * @param buffer the data to checksum
+   * @return the Adler-32 of the data
+   */
+  public long adler32(ByteBuffer buffer) {
+    return checksum(buffer, Algorithm.ADLER32);
+  }
+
+  /**
+   * Computes the CRC32 of a file.
+   *
+   * @param path the file to checksum
+   * @return the CRC32 of the contents of the file
+   * @throws IOException if the file can't be read
+   */
+  public long crc32(Path path) throws IOException {
+    return checksum(path, Algorithm.CRC32);
+  }
+
+  /**
+   * Computes the Adler-32 of a file.
+   *
+   * @param path the file to checksum
+   * @return the Adler-32 of the contents of the file
+   * @throws IOException if the file can't be read
+   */
+  public long adler32(Path path) throws IOException {
+    return checksum(path, Algorithm.ADLER32);
+  }
+
+  private long checksum(Path path, Algorithm algorithm) throws IOException {
+    try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+      long size = channel.size();
+      long value = algorithm.initialValue();
+      for (long offset = 0; offset < size; offset += MAX_MAPPING_SIZE) {
+        long length = Math.min(MAX_MAPPING_SIZE, size - offset);
+        ByteBuffer mapping = channel.map(FileChannel.MapMode.READ_ONLY, offset, length);
+        value = algorithm.combine(value, checksum(mapping, algorithm), length);
+      }
+      return value;
+    }
+  }
+
+  private long checksum(ByteBuffer buffer, Algorithm algorithm) {
+    int start = buffer.position();
+    int end = buffer.limit();
+    if (end - start <= segmentSize) {
+      return algorithm.checksum(buffer);
+    }
+
+    List<ForkJoinTask<Long>> segments = new ArrayList<>();
+    // Offsets are longs, since adding segmentSize may overflow near Integer.MAX_VALUE.
+    for (long offset = start; offset < end; offset += segmentSize) {
+      ByteBuffer segment = buffer.duplicate();
+      segment.position((int) offset).limit((int) Math.min(end, offset + segmentSize));
+      segments.add(pool.submit(() -> algorithm.checksum(segment)));
+    }
+
+    long value = algorithm.initialValue();
+    for (int i = 0; i < segments.size(); i++) {
+      long length = Math.min(segmentSize, end - start - (long) i * segmentSize);
+      value = algorithm.combine(value, segments.get(i).join(), length);
+    }
+    buffer.position(end);
+    return value;
+  }
+
+  private enum Algorithm {
+    CRC32 {
+      @Override
+      long initialValue() {
+        return 0;
+      }
+
+      @Override
+      long checksum(ByteBuffer buffer) {
+        LibdeflateCRC32 crc32 = new LibdeflateCRC32();
+        crc32.update(buffer);
+        return crc32.getValue();
+      }
+
+      @Override
+      long combine(long value1, long value2, long len2) {
+        return LibdeflateCRC32.combine(value1, value2, len2);
+      }
+    },
+    ADLER32 {
+      @Override
+      long initialValue() {
+        return 1;
+      }
+
+      @Override
+      long checksum(ByteBuffer buffer) {
+        LibdeflateAdler32 adler32 = new LibdeflateAdler32();
+        adler32.update(buffer);
+        return adler32.getValue();
+      }
+
+      @Override
+      long combine(long value1, long value2, long len2) {
+        return LibdeflateAdler32.combine(value1, value2, len2);
+      }
+    };
+
+    abstract long initialValue();
+
+    abstract long checksum(ByteBuffer buffer);
+
+    abstract long combine(long value1, long value2, long len2);
+  }
+}
@@ -0,0 +1,357 @@
+/*
+ * Copyright 2024 Andrew Steinborn
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package me.steinborn.libdeflate;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.Checksum;
+import java.util.zip.DataFormatException;
+
+/**
+ * Decompresses a single large DEFLATE, zlib or gzip stream using several threads, in the style of
+ * {@code pugz}.
+ *
+ * <p>A DEFLATE stream can't normally be split, because block boundaries are not byte-aligned and
+ * each block may refer back to the 32 KiB of output before it. This class splits the compressed
+ * input into chunks anyway, and for every chunk but the first searches for the first position where
+ * a block plausibly starts. All chunks are then decoded in parallel. Back-references into the
+ * unknown 32 KiB before a chunk are recorded as placeholders, which are replaced in a second pass
+ * once the output of the previous chunk is known.
+ *
+ * <p>The result is only used if every chunk ended exactly where the next chunk's block was found,
+ * which means the chunks decoded the very same blocks that a sequential decoder would. The zlib and
+ * gzip checksums are verified as well. If anything doesn't match, the stream is decompressed
+ * sequentially with libdeflate instead, so the output is always identical to that of {@link
+ * LibdeflateDecompressor}. As with {@link LibdeflateDecompressor}, only the first member of a gzip
+ * stream is decompressed; use {@link ParallelGzipDecompressor} for streams with several members.
+ *
+ * <p>The chunks are decoded by a decoder written in Java, which is up to an order of magnitude
+ * slower than libdeflate, so this only pays off on machines with many idle cores.
+ *
+ * <p>Both the compressed input and the decompressed output are byte arrays, so neither can be
+ * larger than the largest array the JVM can allocate, just under 2 GiB. Streams that decompress to
+ * more than that are rejected with a {@link DataFormatException}. While the chunks are decoded,
+ * each output byte takes two bytes of heap, so decompressing a stream needs about three times its
+ * decompressed size in free heap.
+ *
+ * <p><strong>Thread-safety</strong>: this class is thread-safe.
+ */
+public final class ParallelDeflateDecompressor implements Closeable, AutoCloseable {
+  /** The default chunk size, 4 MiB of compressed data. */
+  public static final int DEFAULT_CHUNK_SIZE = 4 * 1024 * 1024;
+
+  private static final int WINDOW_SIZE = DeflateDecoder.WINDOW_SIZE;
+
+  private final ForkJoinPool pool;
+  private final int chunkSize;
+  private final LibdeflateContextPool contexts;
+
+  /**
+   * Creates a parallel decompressor with the default chunk size, which runs on the common {@link
+   * ForkJoinPool}.
+   */
+  public ParallelDeflateDecompressor() {
+    this(ForkJoinPool.commonPool(), DEFAULT_CHUNK_SIZE);
+  }
+
+  /**
+   * Creates a parallel decompressor.
+   *
+   * @param pool the pool to decompress chunks on
+   * @param chunkSize the number of compressed bytes in each chunk
+   * @throws IllegalArgumentException if the chunk size is not positive
+   */
+  public ParallelDeflateDecompressor(ForkJoinPool pool, int chunkSize) {
+    if (chunkSize <= 0) {
+      throw new IllegalArgumentException("chunkSize = " + chunkSize);
+    }
+    this.pool = pool;
+    this.chunkSize = chunkSize;
+    this.contexts = new LibdeflateContextPool(1, 1, TimeUnit.MINUTES);
+  }
+
+  /**
+   * Decompresses the given {@code in} array.
+   *
+   * @param in the compressed data
+   * @param type the compression container in use
+   * @return the decompressed data
+   * @throws DataFormatException if the provided data was corrupt, or it decompresses to more than
+   *     the largest possible array
+   */
+  public byte[] decompress(byte[] in, CompressionType type) throws DataFormatException {
+    byte[] out = decompressSpeculatively(in, type);
+    return out != null ? out : decompressSequentially(in, type);
+  }
+
+  /** Frees the decompressors held by this instance. The pool is not shut down. */
+  @Override
+  public void close() {
+    contexts.close();
+  }
+
+  /**
+   * Returns the decompressed data, or {@code null} if the stream has to be decoded sequentially.
+   */
+  byte[] decompressSpeculatively(byte[] in, CompressionType type) {
+    int start = streamStart(in, type);
+    if (start < 0 || in.length - start < chunkSize * 2L) {
+      return null;
+    }
+
+    // Find a block in every chunk but the first. Chunks without one are merged into the previous.
+    List<ForkJoinTask<Long>> searches = new ArrayList<>();
+    for (long from = start + (long) chunkSize; from < in.length; from += chunkSize) {
+      long fromBit = from * 8;
+      long toBit = Math.min(from + chunkSize, in.length) * 8;
+      searches.add(pool.submit(() -> new DeflateDecoder(in, in.length).findBlock(fromBit, toBit)));
+    }
+    long[] starts = new long[searches.size() + 1];
+    int count = 0;
+    starts[count++] = (long) start * 8;
+    for (ForkJoinTask<Long> search : searches) {
+      long bit = search.join();
+      if (bit != -1) {
+        starts[count++] = bit;
+      }
+    }
+
+    List<ForkJoinTask<Chunk>> decodes = new ArrayList<>(count);
+    for (int i = 0; i < count; i++) {
+      long from = starts[i];
+      long stop = i + 1 < count ? starts[i + 1] : -1;
+      boolean first = i == 0;
+      decodes.add(pool.submit(() -> decodeChunk(in, from, stop, first)));
+    }
+    Chunk[] chunks = new Chunk[count];
+    boolean failed = false;
+    for (int i = 0; i < count; i++) {
+      chunks[i] = decodes.get(i).join();
+      failed |= chunks[i] == null;
+    }
+    if (failed) {
+      return null;
+    }
+
+    long total = 0;
+    for (Chunk chunk : chunks) {
+      total += chunk.length();
+    }
+    if (total > LibdeflateDecompressor.MAX_ARRAY_SIZE) {
+      return null;
+    }
+
+    // Each chunk's window is the last 32 KiB of output before it. Only the tail of each chunk is
+    // needed for the next window, so this pass is cheap even though it is sequential.
+    byte[] history = new byte[WINDOW_SIZE];
+    int historyLength = 0;
+    for (Chunk chunk : chunks) {
+      chunk.window = history.clone();
+      chunk.windowLength = historyLength;
+
+      int tail = Math.min(WINDOW_SIZE, chunk.length());
+      byte[] resolved = new byte[tail];
+      if (!chunk.resolve(chunk.end - tail, chunk.end, resolved, 0)) {
+        return null;
+      }
+      System.arraycopy(history, tail, history, 0, WINDOW_SIZE - tail);
+      System.arraycopy(resolved, 0, history, WINDOW_SIZE - tail, tail);
+      historyLength = Math.min(WINDOW_SIZE, historyLength + tail);
+    }
+
+    byte[] out = new byte[(int) total];
+    List<ForkJoinTask<Boolean>> resolves = new ArrayList<>(count);
+    int offset = 0;
+    for (Chunk chunk : chunks) {
+      int at = offset;
+      resolves.add(pool.submit(() -> chunk.resolve(chunk.start, chunk.end, out, at)));
+      offset += chunk.length();
+    }
+    for (ForkJoinTask<Boolean> resolve : resolves) {
+      failed |= !resolve.join();
+    }
+    if (failed) {
+      return null;
+    }
+
+    int trailer = (int) ((chunks[count - 1].endBit + 7) >>> 3);
+    return checkTrailer(in, trailer, out, type) ? out : null;
+  }
+
+  private static Chunk decodeChunk(byte[] in, long from, long stop, boolean first) {
+    DeflateDecoder decoder = new DeflateDecoder(in, in.length);
+    decoder.reset(from, !first);
+    while (true) {
+      long position = decoder.bitPosition();
+      if (stop != -1 && position >= stop) {
+        // The previous block must end exactly where the next chunk's block was found.
+        return position == stop ? new Chunk(decoder, position) : null;
+      }
+      int result = decoder.decodeBlock();
+      if (result == DeflateDecoder.BLOCK_ERROR) {
+        return null;
+      } else if (result == DeflateDecoder.BLOCK_FINAL) {
+        return stop == -1 ? new Chunk(decoder, decoder.bitPosition()) : null;
+      }
+    }
+  }
+
+  private byte[] decompressSequentially(byte[] in, CompressionType type)
+      throws DataFormatException {
+    LibdeflateDecompressor decompressor = contexts.borrowDecompressor();
+    try {
+      return decompressor.decompressToNew(in, type);
+    } finally {
+      contexts.release(decompressor);
+    }
+  }
+
+  /** Returns the offset of the DEFLATE data, or -1 if the header is not valid. */
+  private static int streamStart(byte[] in, CompressionType type) {
+    switch (type) {
+      case DEFLATE:
+        return 0;
+      case ZLIB:
+        {
+          if (in.length < 6) {
+            return -1;
+          }
+          int cmf = in[0] & 0xff;
+          int flg = in[1] & 0xff;
+          boolean valid =
+              (cmf & 0x0f) == 8
+                  && (cmf >>> 4) <= 7
+                  && (cmf << 8 | flg) % 31 == 0
+                  && (flg & 0x20) == 0;
+          return valid ? 2 : -1;
+        }
+      case GZIP:
+        {
+          if (in.length < 18
+              || (in[0] & 0xff) != 0x1f
+              || (in[1] & 0xff) != 0x8b
+              || in[2] != 8
+              || (in[3] & 0xe0) != 0) {
+            return -1;
+          }
+          int flg = in[3];
+          int pos = 10;
+          if ((flg & 0x04) != 0) {
+            if (pos + 2 > in.length) {
+              return -1;
+            }
+            pos += 2 + ((in[pos] & 0xff) | (in[pos + 1] & 0xff) << 8);
+          }
+          if ((flg & 0x08) != 0) {
+            pos = skipZeroTerminated(in, pos);
+          }
+          if ((flg & 0x10) != 0) {
+            pos = skipZeroTerminated(in, pos);
+          }
+          if ((flg & 0x02) != 0) {
+            pos += 2;
+          }
+          return pos < in.length ? pos : -1;
+        }
+      default:
+        return -1;
+    }
+  }
+
+  private static int skipZeroTerminated(byte[] in, int pos) {
+    while (pos < in.length && in[pos] != 0) {
+      pos++;
+    }
+    return pos + 1;
+  }
+
+  private static boolean checkTrailer(byte[] in, int trailer, byte[] out, CompressionType type) {
+    Checksum checksum;
+    long expected;
+    switch (type) {
+      case ZLIB:
+        if (trailer + 4 > in.length) {
+          return false;
+        }
+        checksum = new LibdeflateAdler32();
+        expected = Integer.reverseBytes(readLittleEndianInt(in, trailer)) & 0xffffffffL;
+        break;
+      case GZIP:
+        if (trailer + 8 > in.length || readLittleEndianInt(in, trailer + 4) != out.length) {
+          return false;
+        }
+        checksum = new LibdeflateCRC32();
+        expected = readLittleEndianInt(in, trailer) & 0xffffffffL;
+        break;
+      default:
+        return true;
+    }
+    checksum.update(out, 0, out.length);
+    return checksum.getValue() == expected;
+  }
+
+  private static int readLittleEndianInt(byte[] in, int pos) {
+    return (in[pos] & 0xff)
+        | (in[pos + 1] & 0xff) << 8
+        | (in[pos + 2] & 0xff) << 16
+        | (in[pos + 3] & 0xff) << 24;
+  }
+
+  /** The decoded output of one chunk, which may still contain placeholders. */
+  private static final class Chunk {
+    final char[] output;
+    final int start;
+    final int end;
+    final long endBit;
+    byte[] window;
+    int windowLength;
+
+    Chunk(DeflateDecoder decoder, long endBit) {
+      this.output = decoder.output();
+      this.start = decoder.outputStart();
+      this.end = decoder.outputEnd();
+      this.endBit = endBit;
+    }
+
+    int length() {
+      return end - start;
+    }
+
+    /**
+     * Writes {@code output[from, to)} to {@code dst}, replacing placeholders with bytes from the
+     * window. Returns false if a placeholder refers to data before the start of the stream.
+     */
+    boolean resolve(int from, int to, byte[] dst, int dstOff) {
+      int firstValid = WINDOW_SIZE - windowLength;
+      for (int i = from; i < to; i++) {
+        int c = output[i];
+        if (c >= 256) {
+          int index = c - 256;
+          if (index < firstValid) {
+            return false;
+          }
+          c = window[index];
+        }
+        dst[dstOff++] = (byte) c;
+      }
+      return true;
+    }
+  }
+}
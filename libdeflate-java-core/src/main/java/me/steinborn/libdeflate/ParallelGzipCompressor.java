@@ -0,0 +1,211 @@
+/*
+ * Copyright 2024 Andrew Steinborn
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package me.steinborn.libdeflate;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.Deflater;
+
+/**
+ * Compresses large inputs to gzip using several threads, in the style of {@code pigz}. The input is
+ * split into chunks, which are compressed independently on a {@link ForkJoinPool}, and each chunk
+ * is written out as its own gzip member. The gzip format allows any number of members to be
+ * concatenated, and {@code gunzip}, {@link java.util.zip.GZIPInputStream} and other conforming
+ * readers decompress such a stream to the concatenation of the members.
+ *
+ * <p>Since chunks are compressed independently, matches can't refer back across a chunk boundary,
+ * so the output is slightly larger than compressing the whole input at once. With the default chunk
+ * size of 1 MiB the difference is negligible. Note that libdeflate's own gzip decompressor only
+ * reads the first member of a stream.
+ *
+ * <p><strong>Thread-safety</strong>: this class is thread-safe.
+ */
+public final class ParallelGzipCompressor implements Closeable, AutoCloseable {
+  /** The default chunk size, 1 MiB. */
+  public static final int DEFAULT_CHUNK_SIZE = 1024 * 1024;
+
+  private final int level;
+  private final int chunkSize;
+  private final ForkJoinPool pool;
+  private final int maxInFlight;
+  private final LibdeflateContextPool contexts;
+
+  /**
+   * Creates a parallel compressor with the default compression level and chunk size, which runs on
+   * the common {@link ForkJoinPool}.
+   */
+  public ParallelGzipCompressor() {
+    this(Deflater.DEFAULT_COMPRESSION);
+  }
+
+  /**
+   * Creates a parallel compressor with the specified compression level and the default chunk size,
+   * which runs on the common {@link ForkJoinPool}.
+   *
+   * @param level the compression level to use, from 0 to 12
+   * @throws IllegalArgumentException if the level is not within range
+   */
+  public ParallelGzipCompressor(int level) {
+    this(level, DEFAULT_CHUNK_SIZE, ForkJoinPool.commonPool());
+  }
+
+  /**
+   * Creates a parallel compressor.
+   *
+   * @param level the compression level to use, from 0 to 12
+   * @param chunkSize the number of uncompressed bytes in each gzip member
+   * @param pool the pool to compress chunks on
+   * @throws IllegalArgumentException if the level is not within range or the chunk size is not
+   *     positive
+   */
+  public ParallelGzipCompressor(int level, int chunkSize, ForkJoinPool pool) {
+    if (chunkSize <= 0) {
+      throw new IllegalArgumentException("chunkSize = " + chunkSize);
+    }
+    this.level = LibdeflateCompressor.normalizeLevel(level);
+    this.chunkSize = chunkSize;
+    this.pool = pool;
+    // Keep every worker busy while the writer catches up, without buffering the whole input.
+    this.maxInFlight = pool.getParallelism() * 2;
+    this.contexts = new LibdeflateContextPool(pool.getParallelism(), 1, TimeUnit.MINUTES);
+  }
+
+  /**
+   * Compresses the entirety of {@code in} into a gzip stream.
+   *
+   * @param in the data to compress
+   * @return the gzip stream
+   */
+  public byte[] compress(byte[] in) {
+    ByteArrayOutputStream out = new ByteArrayOutputStream(in.length / 2 + 64);
+    ArrayDeque<ForkJoinTask<Chunk>> inFlight = new ArrayDeque<>();
+    int off = 0;
+    do {
+      if (inFlight.size() >= maxInFlight) {
+        inFlight.poll().join().appendTo(out);
+      }
+      int len = Math.min(chunkSize, in.length - off);
+      inFlight.add(submit(in, off, len));
+      off += len;
+    } while (off < in.length);
+
+    while (!inFlight.isEmpty()) {
+      inFlight.poll().join().appendTo(out);
+    }
+    return out.toByteArray();
+  }
+
+  /**
+   * Reads {@code in} until the end of the stream and writes it as a gzip stream to {@code out}. At
+   * most twice as many chunks as the pool has threads are buffered at any time. Neither stream is
+   * closed.
+   *
+   * @param in the stream to compress
+   * @param out the stream to write the gzip stream to
+   * @return the number of compressed bytes written
+   * @throws IOException if reading or writing fails
+   */
+  public long compress(InputStream in, OutputStream out) throws IOException {
+    ArrayDeque<ForkJoinTask<Chunk>> inFlight = new ArrayDeque<>();
+    long written = 0;
+    boolean first = true;
+    while (true) {
+      byte[] chunk = new byte[chunkSize];
+      int len = readFully(in, chunk);
+      if (len == 0 && !first) {
+        break;
+      }
+      first = false;
+
+      if (inFlight.size() >= maxInFlight) {
+        written += inFlight.poll().join().writeTo(out);
+      }
+      inFlight.add(submit(chunk, 0, len));
+      if (len < chunkSize) {
+        break;
+      }
+    }
+
+    while (!inFlight.isEmpty()) {
+      written += inFlight.poll().join().writeTo(out);
+    }
+    return written;
+  }
+
+  /** Frees the compressors held by this instance. The pool is not shut down. */
+  @Override
+  public void close() {
+    contexts.close();
+  }
+
+  private ForkJoinTask<Chunk> submit(byte[] in, int off, int len) {
+    return pool.submit(() -> compressChunk(in, off, len));
+  }
+
+  private Chunk compressChunk(byte[] in, int off, int len) {
+    byte[] out =
+        new byte[(int) LibdeflateCompressor.getGenericCompressionBound(len, CompressionType.GZIP)];
+    LibdeflateCompressor compressor = contexts.borrowCompressor(level);
+    try {
+      int produced = compressor.compress(in, off, len, out, 0, out.length, CompressionType.GZIP);
+      if (produced == 0) {
+        throw new IllegalStateException("compressed chunk exceeded its bound");
+      }
+      return new Chunk(out, produced);
+    } finally {
+      contexts.release(compressor);
+    }
+  }
+
+  private static int readFully(InputStream in, byte[] buf) throws IOException {
+    int total = 0;
+    while (total < buf.length) {
+      int read = in.read(buf, total, buf.length - total);
+      if (read == -1) {
+        break;
+      }
+      total += read;
+    }
+    return total;
+  }
+
+  /** A compressed gzip member. */
+  private static final class Chunk {
+    final byte[] data;
+    final int length;
+
+    Chunk(byte[] data, int length) {
+      this.data = data;
+      this.length = length;
+    }
+
+    int writeTo(OutputStream out) throws IOException {
+      out.write(data, 0, length);
+      return length;
+    }
+
+    void appendTo(ByteArrayOutputStream out) {
+      out.write(data, 0, length);
+    }
+  }
+}
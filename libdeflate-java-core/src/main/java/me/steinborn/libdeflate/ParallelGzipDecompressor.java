@@ -0,0 +1,232 @@
+/*
+ * Copyright 2024 Andrew Steinborn
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package me.steinborn.libdeflate;
+
+import java.io.Closeable;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.DataFormatException;
+
+/**
+ * Decompresses streams made of several concatenated gzip members, such as the output of {@code
+ * pigz}, {@link ParallelGzipCompressor} or rotated log files, using several threads.
+ *
+ * <p>The input is first scanned for member boundaries, and the size of each member is taken from
+ * its trailer. This gives the offset of every member in the output, so members are decompressed in
+ * parallel straight into their place. Every member is checked to decompress to exactly the size in
+ * its trailer, to match its CRC-32 and to end exactly where the next one begins. If any of these
+ * checks fails, for instance because a boundary was found inside compressed data, everything from
+ * that member onwards is decompressed sequentially instead. Either way, the output is identical to
+ * that of decompressing the members one after the other.
+ *
+ * <p>Unlike {@code gunzip}, the input must consist of gzip members only; trailing garbage is
+ * treated as corrupt data.
+ *
+ * <p><strong>Thread-safety</strong>: this class is thread-safe.
+ */
+public final class ParallelGzipDecompressor implements Closeable, AutoCloseable {
+  /** Members are grouped into tasks of at least this many compressed bytes. */
+  private static final int MIN_TASK_BYTES = 128 * 1024;
+
+  private final ForkJoinPool pool;
+  private final LibdeflateContextPool contexts;
+
+  /** Creates a parallel decompressor which runs on the common {@link ForkJoinPool}. */
+  public ParallelGzipDecompressor() {
+    this(ForkJoinPool.commonPool());
+  }
+
+  /**
+   * Creates a parallel decompressor.
+   *
+   * @param pool the pool to decompress members on
+   */
+  public ParallelGzipDecompressor(ForkJoinPool pool) {
+    this.pool = pool;
+    this.contexts = new LibdeflateContextPool(pool.getParallelism(), 1, TimeUnit.MINUTES);
+  }
+
+  /**
+   * Decompresses all members in {@code in}.
+   *
+   * @param in the gzip stream to decompress
+   * @return the concatenated contents of all members
+   * @throws DataFormatException if the provided data was corrupt
+   */
+  public byte[] decompress(byte[] in) throws DataFormatException {
+    GzipMemberScanner.Members members = GzipMemberScanner.scan(ByteBuffer.wrap(in));
+    if (members == null) {
+      throw new DataFormatException("input is not a gzip stream");
+    }
+
+    long estimate = Math.min(members.totalSize(), LibdeflateDecompressor.MAX_ARRAY_SIZE);
+    while (true) {
+      byte[] out = new byte[(int) estimate];
+      long produced = decompress0(ByteBuffer.wrap(in), ByteBuffer.wrap(out), members);
+      if (produced == out.length) {
+        return out;
+      } else if (produced != -1) {
+        byte[] trimmed = new byte[(int) produced];
+        System.arraycopy(out, 0, trimmed, 0, trimmed.length);
+        return trimmed;
+      }
+
+      // The trailers understated the size of the output, which can only happen if the scanner
+      // found a false boundary or a member is larger than 4 GiB.
+      if (estimate == LibdeflateDecompressor.MAX_ARRAY_SIZE) {
+        throw new DataFormatException("decompressed data is too large for a byte array");
+      }
+      estimate = Math.min(Math.max(estimate * 2, 4096), LibdeflateDecompressor.MAX_ARRAY_SIZE);
+    }
+  }
+
+  /**
+   * Decompresses all members in the remaining bytes of {@code in} into {@code out}, which may be a
+   * heap, direct or mapped buffer. If the output fits, the position of {@code out} is advanced by
+   * the number of bytes produced and {@code in} is fully consumed.
+   *
+   * @param in the gzip stream to decompress
+   * @param out the destination which will hold decompressed data
+   * @return the number of bytes produced, or -1 if {@code out} was too small, in which case the
+   *     positions of both buffers are unchanged but the contents of {@code out} are not
+   * @throws DataFormatException if the provided data was corrupt
+   */
+  public long decompress(ByteBuffer in, ByteBuffer out) throws DataFormatException {
+    GzipMemberScanner.Members members = GzipMemberScanner.scan(in);
+    if (members == null) {
+      throw new DataFormatException("input is not a gzip stream");
+    }
+    long produced = decompress0(in, out, members);
+    if (produced != -1) {
+      in.position(in.limit());
+      out.position((int) (out.position() + produced));
+    }
+    return produced;
+  }
+
+  /** Frees the decompressors held by this instance. The pool is not shut down. */
+  @Override
+  public void close() {
+    contexts.close();
+  }
+
+  private long decompress0(ByteBuffer in, ByteBuffer out, GzipMemberScanner.Members members)
+      throws DataFormatException {
+    int count = members.count();
+    long[] outOffsets = new long[count + 1];
+    for (int i = 0; i < count; i++) {
+      outOffsets[i + 1] = outOffsets[i] + members.sizes[i];
+    }
+
+    // Only decompress in parallel if everything should fit. If it doesn't, either the output really
+    // is too small, or the trailers are misleading, and the sequential path can tell the two apart.
+    int verified = 0;
+    if (count > 1 && outOffsets[count] <= out.remaining()) {
+      List<ForkJoinTask<Integer>> tasks = new ArrayList<>();
+      List<Integer> taskEnds = new ArrayList<>();
+      int first = 0;
+      for (int i = 0; i < count; i++) {
+        if (i == count - 1 || members.offsets[i + 1] - members.offsets[first] >= MIN_TASK_BYTES) {
+          int from = first;
+          int to = i + 1;
+          tasks.add(pool.submit(() -> decompressMembers(in, out, members, outOffsets, from, to)));
+          taskEnds.add(to);
+          first = i + 1;
+        }
+      }
+
+      // Every task must finish before any sequential decoding starts, since a task that follows a
+      // failed one still writes to the output. Everything before the first failure is in place.
+      boolean failed = false;
+      for (int i = 0; i < tasks.size(); i++) {
+        int done = tasks.get(i).join();
+        if (!failed) {
+          verified = done;
+          failed = done != taskEnds.get(i);
+        }
+      }
+    }
+
+    if (verified == count) {
+      return outOffsets[count];
+    }
+    return decompressSequentially(in, out, members.offsets[verified], outOffsets[verified]);
+  }
+
+  /**
+   * Decompresses members {@code from} (inclusive) to {@code to} (exclusive) into their place in the
+   * output, and returns the index of the first member that failed, or {@code to} if all succeeded.
+   */
+  private int decompressMembers(
+      ByteBuffer in,
+      ByteBuffer out,
+      GzipMemberScanner.Members members,
+      long[] outOffsets,
+      int from,
+      int to) {
+    LibdeflateDecompressor decompressor = contexts.borrowDecompressor();
+    try {
+      for (int i = from; i < to; i++) {
+        ByteBuffer memberIn = in.duplicate();
+        memberIn.position(in.position() + members.offsets[i]);
+        memberIn.limit(in.position() + members.offsets[i + 1]);
+        ByteBuffer memberOut = out.duplicate();
+        memberOut.position((int) (out.position() + outOffsets[i]));
+        memberOut.limit((int) (out.position() + outOffsets[i + 1]));
+        try {
+          decompressor.decompress(memberIn, memberOut, CompressionType.GZIP);
+        } catch (DataFormatException e) {
+          return i;
+        }
+        if (memberIn.hasRemaining()) {
+          return i;
+        }
+      }
+      return to;
+    } finally {
+      contexts.release(decompressor);
+    }
+  }
+
+  private long decompressSequentially(ByteBuffer in, ByteBuffer out, int inOffset, long outOffset)
+      throws DataFormatException {
+    ByteBuffer remainingIn = in.duplicate();
+    remainingIn.position(in.position() + inOffset);
+    ByteBuffer remainingOut = out.duplicate();
+    if (outOffset > out.remaining()) {
+      return -1;
+    }
+    remainingOut.position((int) (out.position() + outOffset));
+
+    LibdeflateDecompressor decompressor = contexts.borrowDecompressor();
+    try {
+      while (remainingIn.hasRemaining()) {
+        long produced =
+            decompressor.decompressUnknownSize(remainingIn, remainingOut, CompressionType.GZIP);
+        if (produced == -1) {
+          return -1;
+        }
+      }
+    } finally {
+      contexts.release(decompressor);
+    }
+    return remainingOut.position() - out.position();
+  }
+}
@@ -0,0 +1,44 @@
+/*
+ * Copyright 2024 Andrew Steinborn
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package me.steinborn.libdeflate;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Threshold;
+
+@Name("me.steinborn.libdeflate.Checksum")
+@Label("libdeflate Checksum")
+@Description("A call to compute a CRC32 or Adler-32 checksum with libdeflate")
+@Category("libdeflate")
+@Threshold("1 ms")
+@StackTrace(true)
+final class ChecksumEvent extends Event {
+  @Label("Algorithm")
+  String algorithm;
+
+  @Label("Size")
+  @DataAmount
+  long size;
+
+  @Label("Buffer")
+  @Description("Whether the data was in a heap or a direct buffer")
+  String buffer;
+}
@@ -0,0 +1,59 @@
+/*
+ * Copyright 2024 Andrew Steinborn
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package me.steinborn.libdeflate;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Threshold;
+
+@Name("me.steinborn.libdeflate.Compress")
+@Label("libdeflate Compress")
+@Description("A call to compress data with libdeflate")
+@Category("libdeflate")
+@Threshold("1 ms")
+@StackTrace(true)
+final class CompressEvent extends Event {
+  @Label("Compression Type")
+  String type;
+
+  @Label("Level")
+  int level;
+
+  @Label("Input Size")
+  @DataAmount
+  long inputSize;
+
+  @Label("Output Size")
+  @Description("The size of the compressed data, or zero if it didn't fit in the output buffer")
+  @DataAmount
+  long outputSize;
+
+  @Label("Input Buffer")
+  @Description("direct, heap (pinned for the call) or staged (copied through a direct buffer)")
+  String inputBuffer;
+
+  @Label("Output Buffer")
+  @Description("direct, heap (pinned for the call) or staged (copied through a direct buffer)")
+  String outputBuffer;
+
+  @Label("Outcome")
+  String outcome;
+}
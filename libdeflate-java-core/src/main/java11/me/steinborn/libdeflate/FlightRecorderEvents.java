@@ -0,0 +1,169 @@
+/*
+ * Copyright 2024 Andrew Steinborn
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package me.steinborn.libdeflate;
+
+import jdk.jfr.FlightRecorder;
+
+/**
+ * Emits Java Flight Recorder events for calls into libdeflate. This is the Java 11 version of the
+ * class, shipped in the multi-release jar under {@code META-INF/versions/11}.
+ *
+ * <p>Callers skip the events entirely when {@link #ENABLED} is false, which is the case when the
+ * JVM was built without JFR. Otherwise, when an event type is disabled, the event created by its
+ * {@code begin} method never escapes, so the JIT can remove it along with the rest of the call.
+ */
+final class FlightRecorderEvents {
+  /** Whether JFR events can be recorded at all. */
+  static final boolean ENABLED = isAvailable();
+
+  private FlightRecorderEvents() {}
+
+  private static boolean isAvailable() {
+    try {
+      return FlightRecorder.isAvailable();
+    } catch (LinkageError e) {
+      // The jdk.jfr module is not part of this runtime image.
+      return false;
+    }
+  }
+
+  private static String kind(boolean direct) {
+    return direct ? "direct" : "heap";
+  }
+
+  private static String kind(boolean direct, boolean staged) {
+    return direct ? "direct" : staged ? "staged" : "heap";
+  }
+
+  static Object beginCompress() {
+    CompressEvent event = new CompressEvent();
+    if (!event.isEnabled()) {
+      return null;
+    }
+    event.begin();
+    return event;
+  }
+
+  static void endCompress(
+      Object handle,
+      CompressionType type,
+      int level,
+      long inputSize,
+      long outputSize,
+      boolean inputDirect,
+      boolean outputDirect,
+      boolean staged) {
+    if (handle == null) {
+      return;
+    }
+    CompressEvent event = (CompressEvent) handle;
+    event.end();
+    if (event.shouldCommit()) {
+      event.type = type.name();
+      event.level = level;
+      event.inputSize = inputSize;
+      event.outputSize = outputSize;
+      event.inputBuffer = kind(inputDirect, staged);
+      event.outputBuffer = kind(outputDirect, staged);
+      event.outcome =
+          (outputSize == 0
+                  ? LibdeflateMetrics.Outcome.INSUFFICIENT_SPACE
+                  : LibdeflateMetrics.Outcome.SUCCESS)
+              .name();
+      event.commit();
+    }
+  }
+
+  static Object beginDecompress() {
+    DecompressEvent event = new DecompressEvent();
+    if (!event.isEnabled()) {
+      return null;
+    }
+    event.begin();
+    return event;
+  }
+
+  static void endDecompress(
+      Object handle,
+      CompressionType type,
+      long inputSize,
+      long outputSize,
+      boolean inputDirect,
+      boolean outputDirect,
+      boolean staged,
+      LibdeflateMetrics.Outcome outcome) {
+    if (handle == null) {
+      return;
+    }
+    DecompressEvent event = (DecompressEvent) handle;
+    event.end();
+    if (event.shouldCommit()) {
+      event.type = type.name();
+      event.inputSize = inputSize;
+      event.outputSize = outputSize;
+      event.inputBuffer = kind(inputDirect, staged);
+      event.outputBuffer = kind(outputDirect, staged);
+      event.outcome = outcome.name();
+      event.commit();
+    }
+  }
+
+  static Object beginChecksum() {
+    ChecksumEvent event = new ChecksumEvent();
+    if (!event.isEnabled()) {
+      return null;
+    }
+    event.begin();
+    return event;
+  }
+
+  static void endChecksum(
+      Object handle, LibdeflateMetrics.Operation algorithm, long size, boolean direct) {
+    if (handle == null) {
+      return;
+    }
+    ChecksumEvent event = (ChecksumEvent) handle;
+    event.end();
+    if (event.shouldCommit()) {
+      event.algorithm = algorithm.name();
+      event.size = size;
+      event.buffer = kind(direct);
+      event.commit();
+    }
+  }
+
+  static Object beginNativeLoad() {
+    NativeLoadEvent event = new NativeLoadEvent();
+    if (!event.isEnabled()) {
+      return null;
+    }
+    event.begin();
+    return event;
+  }
+
+  static void endNativeLoad(Object handle, String path, boolean loaded) {
+    if (handle == null) {
+      return;
+    }
+    NativeLoadEvent event = (NativeLoadEvent) handle;
+    event.end();
+    if (event.shouldCommit()) {
+      event.path = path;
+      event.loaded = loaded;
+      event.commit();
+    }
+  }
+}
@@ -0,0 +1,37 @@
+/*
+ * Copyright 2024 Andrew Steinborn
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package me.steinborn.libdeflate;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+@Name("me.steinborn.libdeflate.NativeLoad")
+@Label("libdeflate Native Load")
+@Description("Extracting and loading the libdeflate JNI library")
+@Category("libdeflate")
+@StackTrace(false)
+final class NativeLoadEvent extends Event {
+  @Label("Path")
+  @Description("The resource or file the library was loaded from")
+  String path;
+
+  @Label("Loaded")
+  boolean loaded;
+}
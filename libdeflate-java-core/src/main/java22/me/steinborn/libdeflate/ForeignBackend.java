@@ -0,0 +1,243 @@
+/*
+ * Copyright 2024 Andrew Steinborn
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package me.steinborn.libdeflate;
+
+import static java.lang.foreign.ValueLayout.ADDRESS;
+import static java.lang.foreign.ValueLayout.JAVA_INT;
+import static java.lang.foreign.ValueLayout.JAVA_LONG;
+
+import java.lang.foreign.Arena;
+import java.lang.foreign.FunctionDescriptor;
+import java.lang.foreign.Linker;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.SymbolLookup;
+import java.lang.invoke.MethodHandle;
+import java.nio.ByteBuffer;
+import java.util.zip.DataFormatException;
+
+/**
+ * Calls into libdeflate through {@code java.lang.foreign} instead of JNI. libdeflate exports its
+ * public functions from the JNI library we already load in {@link Libdeflate}, so we look them up
+ * there rather than shipping a second native library.
+ *
+ * <p>Every function is bound twice: once as a regular downcall, which is used for native memory and
+ * lets the garbage collector run during long calls, and once as a critical downcall that may be
+ * passed heap memory. The critical variant behaves like {@code GetPrimitiveArrayCritical}, so it is
+ * only used when the caller hands us a heap segment.
+ */
+final class ForeignBackend {
+  // Keep these in sync with enum libdeflate_result.
+  private static final int LIBDEFLATE_SUCCESS = 0;
+  private static final int LIBDEFLATE_BAD_DATA = 1;
+  private static final int LIBDEFLATE_SHORT_OUTPUT = 2;
+  private static final int LIBDEFLATE_INSUFFICIENT_SPACE = 3;
+
+  private static final FunctionDescriptor COMPRESS =
+      FunctionDescriptor.of(JAVA_LONG, ADDRESS, ADDRESS, JAVA_LONG, ADDRESS, JAVA_LONG);
+  private static final FunctionDescriptor DECOMPRESS_EX =
+      FunctionDescriptor.of(
+          JAVA_INT, ADDRESS, ADDRESS, JAVA_LONG, ADDRESS, JAVA_LONG, ADDRESS, ADDRESS);
+  private static final FunctionDescriptor CHECKSUM =
+      FunctionDescriptor.of(JAVA_INT, JAVA_INT, ADDRESS, JAVA_LONG);
+
+  // Indexed by native compression type, see CompressionType.
+  private static final MethodHandle[] COMPRESS_HANDLES = new MethodHandle[3];
+  private static final MethodHandle[] COMPRESS_HEAP_HANDLES = new MethodHandle[3];
+  private static final MethodHandle[] DECOMPRESS_HANDLES = new MethodHandle[3];
+  private static final MethodHandle[] DECOMPRESS_HEAP_HANDLES = new MethodHandle[3];
+  private static final MethodHandle CRC32;
+  private static final MethodHandle CRC32_HEAP;
+  private static final MethodHandle ADLER32;
+  private static final MethodHandle ADLER32_HEAP;
+  private static final boolean SUPPORTED;
+
+  // Out-parameters for libdeflate_*_decompress_ex(): the actual input and output byte counts.
+  private static final ThreadLocal<MemorySegment> DECOMPRESS_RESULTS =
+      ThreadLocal.withInitial(() -> Arena.ofAuto().allocate(2 * JAVA_LONG.byteSize(), 8));
+
+  static {
+    MethodHandle crc32 = null;
+    MethodHandle crc32Heap = null;
+    MethodHandle adler32 = null;
+    MethodHandle adler32Heap = null;
+    boolean supported;
+    try {
+      // size_t is bound as a Java long below.
+      if (ADDRESS.byteSize() != JAVA_LONG.byteSize()) {
+        throw new UnsupportedOperationException("only 64-bit platforms are supported");
+      }
+
+      Linker linker = Linker.nativeLinker();
+      SymbolLookup lookup = SymbolLookup.loaderLookup();
+      String[] formats = {"deflate", "zlib", "gzip"};
+      for (int type = 0; type < formats.length; type++) {
+        MemorySegment compress = find(lookup, "libdeflate_" + formats[type] + "_compress");
+        COMPRESS_HANDLES[type] = linker.downcallHandle(compress, COMPRESS);
+        COMPRESS_HEAP_HANDLES[type] =
+            linker.downcallHandle(compress, COMPRESS, Linker.Option.critical(true));
+
+        MemorySegment decompress = find(lookup, "libdeflate_" + formats[type] + "_decompress_ex");
+        DECOMPRESS_HANDLES[type] = linker.downcallHandle(decompress, DECOMPRESS_EX);
+        DECOMPRESS_HEAP_HANDLES[type] =
+            linker.downcallHandle(decompress, DECOMPRESS_EX, Linker.Option.critical(true));
+      }
+
+      MemorySegment crc32Symbol = find(lookup, "libdeflate_crc32");
+      crc32 = linker.downcallHandle(crc32Symbol, CHECKSUM);
+      crc32Heap = linker.downcallHandle(crc32Symbol, CHECKSUM, Linker.Option.critical(true));
+      MemorySegment adler32Symbol = find(lookup, "libdeflate_adler32");
+      adler32 = linker.downcallHandle(adler32Symbol, CHECKSUM);
+      adler32Heap = linker.downcallHandle(adler32Symbol, CHECKSUM, Linker.Option.critical(true));
+      supported = true;
+    } catch (Throwable e) {
+      // Native access might be disabled, or the library might be too old. Either way, JNI works.
+      supported = false;
+    }
+    CRC32 = crc32;
+    CRC32_HEAP = crc32Heap;
+    ADLER32 = adler32;
+    ADLER32_HEAP = adler32Heap;
+    SUPPORTED = supported;
+  }
+
+  private ForeignBackend() {}
+
+  private static MemorySegment find(SymbolLookup lookup, String name) {
+    return lookup
+        .find(name)
+        .orElseThrow(() -> new UnsatisfiedLinkError("libdeflate symbol " + name + " not found"));
+  }
+
+  static boolean isSupported() {
+    return SUPPORTED;
+  }
+
+  static long compress(long ctx, ByteBuffer in, ByteBuffer out, int type) {
+    return compress(
+        MemorySegment.ofAddress(ctx),
+        MemorySegment.ofBuffer(in),
+        MemorySegment.ofBuffer(out),
+        type);
+  }
+
+  /**
+   * Compresses the entirety of {@code in} into {@code out}.
+   *
+   * @return the size of the compressed output, or zero if {@code out} was too small
+   */
+  static long compress(MemorySegment ctx, MemorySegment in, MemorySegment out, int type) {
+    MethodHandle handle =
+        in.isNative() && out.isNative() ? COMPRESS_HANDLES[type] : COMPRESS_HEAP_HANDLES[type];
+    try {
+      return (long) handle.invokeExact(ctx, in, in.byteSize(), out, out.byteSize());
+    } catch (Throwable e) {
+      throw rethrow(e);
+    }
+  }
+
+  static long decompress(long ctx, ByteBuffer in, ByteBuffer out, int type, int knownSize)
+      throws DataFormatException {
+    return decompress(
+        MemorySegment.ofAddress(ctx),
+        MemorySegment.ofBuffer(in),
+        MemorySegment.ofBuffer(out),
+        type,
+        knownSize);
+  }
+
+  /**
+   * Decompresses {@code in} into {@code out}, mirroring {@code performDecompression} in {@code
+   * decompressor.c}.
+   *
+   * @param knownSize the exact size of the uncompressed data, or -1 if it is not known
+   * @return the number of input bytes consumed in the upper 32 bits and the number of output bytes
+   *     produced in the lower 32 bits, or -1 if the size was not known and {@code out} was too
+   *     small
+   * @throws DataFormatException if the data is corrupt or does not decompress to {@code knownSize}
+   */
+  static long decompress(
+      MemorySegment ctx, MemorySegment in, MemorySegment out, int type, int knownSize)
+      throws DataFormatException {
+    MethodHandle handle =
+        in.isNative() && out.isNative() ? DECOMPRESS_HANDLES[type] : DECOMPRESS_HEAP_HANDLES[type];
+    MemorySegment results = DECOMPRESS_RESULTS.get();
+    MemorySegment actualOut = knownSize == -1 ? results.asSlice(8) : MemorySegment.NULL;
+    long availableOut = knownSize == -1 ? out.byteSize() : knownSize;
+
+    int result;
+    try {
+      result =
+          (int) handle.invokeExact(ctx, in, in.byteSize(), out, availableOut, results, actualOut);
+    } catch (Throwable e) {
+      throw rethrow(e);
+    }
+
+    switch (result) {
+      case LIBDEFLATE_SUCCESS:
+        long consumed = results.get(JAVA_LONG, 0);
+        long produced = knownSize == -1 ? results.get(JAVA_LONG, 8) : knownSize;
+        return consumed << 32 | produced;
+      case LIBDEFLATE_BAD_DATA:
+        throw new DataFormatException("input data is corrupted");
+      case LIBDEFLATE_SHORT_OUTPUT:
+        throw new DataFormatException("decompressed data is shorter than expected size");
+      case LIBDEFLATE_INSUFFICIENT_SPACE:
+        if (knownSize == -1) {
+          return -1;
+        }
+        throw new DataFormatException(
+            "decompressed data would be too large for given output buffer");
+      default:
+        throw new DataFormatException("unknown libdeflate error");
+    }
+  }
+
+  static int crc32(int crc32, ByteBuffer buf) {
+    return crc32(crc32, MemorySegment.ofBuffer(buf));
+  }
+
+  static int crc32(int crc32, MemorySegment data) {
+    try {
+      return (int) (data.isNative() ? CRC32 : CRC32_HEAP).invokeExact(crc32, data, data.byteSize());
+    } catch (Throwable e) {
+      throw rethrow(e);
+    }
+  }
+
+  static int adler32(int adler32, ByteBuffer buf) {
+    return adler32(adler32, MemorySegment.ofBuffer(buf));
+  }
+
+  static int adler32(int adler32, MemorySegment data) {
+    try {
+      return (int)
+          (data.isNative() ? ADLER32 : ADLER32_HEAP).invokeExact(adler32, data, data.byteSize());
+    } catch (Throwable e) {
+      throw rethrow(e);
+    }
+  }
+
+  private static RuntimeException rethrow(Throwable e) {
+    if (e instanceof RuntimeException) {
+      return (RuntimeException) e;
+    }
+    if (e instanceof Error) {
+      throw (Error) e;
+    }
+    return new IllegalStateException("unexpected exception from libdeflate downcall", e);
+  }
+}
@@ -0,0 +1,112 @@
+/*
+ * Copyright 2024 Andrew Steinborn
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package me.steinborn.libdeflate;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.DataFormatException;
+import org.junit.jupiter.api.Test;
+
+public class AdaptiveLibdeflateCompressorTest {
+  private static final long MS = 1_000_000L;
+
+  @Test
+  void roundTrip() throws DataFormatException {
+    StringBuilder text = new StringBuilder();
+    for (int i = 0; i < 200; i++) {
+      text.append("The quick brown fox jumps over the lazy dog. ");
+    }
+    byte[] original = text.toString().getBytes(StandardCharsets.UTF_8);
+    try (AdaptiveLibdeflateCompressor compressor = new AdaptiveLibdeflateCompressor(0.5);
+        LibdeflateDecompressor decompressor = new LibdeflateDecompressor()) {
+      byte[] out =
+          new byte[(int) compressor.getCompressBound(original.length, CompressionType.GZIP)];
+      for (int i = 0; i < 50; i++) {
+        int size = compressor.compress(original, out, CompressionType.GZIP);
+        byte[] result = new byte[original.length];
+        decompressor.decompress(
+            out, 0, size, result, 0, result.length, CompressionType.GZIP, original.length);
+        assertArrayEquals(original, result);
+      }
+
+      ByteBuffer in = ByteBuffer.allocateDirect(original.length);
+      in.put(original).flip();
+      ByteBuffer compressed = ByteBuffer.allocateDirect(out.length);
+      int size = compressor.compress(in, compressed, CompressionType.ZLIB);
+      assertEquals(size, compressed.position());
+      assertEquals(0, in.remaining());
+    }
+  }
+
+  @Test
+  void fallsBackAndRecovers() {
+    try (AdaptiveLibdeflateCompressor compressor =
+        new AdaptiveLibdeflateCompressor(1, 12, 0.5, 0)) {
+      assertEquals(6, compressor.getLevel());
+
+      // 80% of the time spent compressing is over budget.
+      compressor.record(500_000, 150_000, 40 * MS, 50 * MS);
+      assertEquals(6, compressor.getLevel());
+      compressor.record(500_000, 150_000, 40 * MS, 100 * MS);
+      assertEquals(5, compressor.getLevel());
+
+      // Level 5 fits, and level 6 is known not to.
+      compressor.record(1_000_000, 320_000, 40 * MS, 200 * MS);
+      assertEquals(5, compressor.getLevel());
+
+      // Once the load drops, level 6 fits again, and has the better ratio.
+      compressor.record(100_000, 32_000, 4 * MS, 300 * MS);
+      assertEquals(6, compressor.getLevel());
+
+      // With plenty of headroom, the next level up is tried.
+      compressor.record(100_000, 30_000, 8 * MS, 400 * MS);
+      assertEquals(7, compressor.getLevel());
+    }
+  }
+
+  @Test
+  void staysWithinLevels() {
+    try (AdaptiveLibdeflateCompressor compressor = new AdaptiveLibdeflateCompressor(4, 5, 0.5, 0)) {
+      assertEquals(5, compressor.getLevel());
+      compressor.record(1_000_000, 300_000, 90 * MS, 100 * MS);
+      assertEquals(4, compressor.getLevel());
+      compressor.record(1_000_000, 300_000, 90 * MS, 200 * MS);
+      assertEquals(4, compressor.getLevel());
+    }
+  }
+
+  @Test
+  void rejectsInvalidArguments() {
+    assertThrows(IllegalArgumentException.class, () -> new AdaptiveLibdeflateCompressor(0));
+    assertThrows(IllegalArgumentException.class, () -> new AdaptiveLibdeflateCompressor(1.5));
+    assertThrows(IllegalArgumentException.class, () -> new AdaptiveLibdeflateCompressor(9, 3, 0.5));
+    assertThrows(
+        IllegalArgumentException.class, () -> new AdaptiveLibdeflateCompressor(1, 13, 0.5));
+  }
+
+  @Test
+  void rejectsUseAfterClose() {
+    AdaptiveLibdeflateCompressor compressor = new AdaptiveLibdeflateCompressor(0.5);
+    compressor.close();
+    assertThrows(
+        IllegalStateException.class,
+        () -> compressor.compress(new byte[1], new byte[64], CompressionType.DEFLATE));
+  }
+}
@@ -0,0 +1,85 @@
+/*
+ * Copyright 2024 Andrew Steinborn
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package me.steinborn.libdeflate;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.zip.DataFormatException;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+public class AsyncLibdeflateCodecTest {
+  private static ByteBuffer sample(int size, boolean direct) {
+    ByteBuffer data = direct ? ByteBuffer.allocateDirect(size) : ByteBuffer.allocate(size);
+    data.put(TestData.sample(size)).flip();
+    return data;
+  }
+
+  @ParameterizedTest
+  @ValueSource(booleans = {false, true})
+  void roundTripsInParallel(boolean direct) {
+    ExecutorService executor = Executors.newFixedThreadPool(4);
+    try (AsyncLibdeflateCodec codec = new AsyncLibdeflateCodec(6, executor)) {
+      List<ByteBuffer> originals = new ArrayList<>();
+      List<CompletableFuture<ByteBuffer>> results = new ArrayList<>();
+      for (int size = 0; size < 200_000; size = size * 2 + 1) {
+        ByteBuffer original = sample(size, direct);
+        originals.add(original);
+        results.add(
+            codec
+                .compressAsync(original, CompressionType.GZIP)
+                .thenCompose(
+                    compressed -> codec.decompressAsync(compressed, CompressionType.GZIP)));
+      }
+
+      for (int i = 0; i < originals.size(); i++) {
+        ByteBuffer original = originals.get(i);
+        ByteBuffer result = results.get(i).join();
+        assertEquals(direct, result.isDirect());
+        assertEquals(original, result);
+        // The input is left as it was.
+        assertEquals(0, original.position());
+      }
+    } finally {
+      executor.shutdown();
+    }
+  }
+
+  @ParameterizedTest
+  @ValueSource(booleans = {false, true})
+  void failsFutureOnCorruptData(boolean direct) {
+    ExecutorService executor = Executors.newSingleThreadExecutor();
+    try (AsyncLibdeflateCodec codec = new AsyncLibdeflateCodec(6, executor)) {
+      ByteBuffer corrupt = sample(64, direct);
+      CompletionException e =
+          assertThrows(
+              CompletionException.class,
+              () -> codec.decompressAsync(corrupt, CompressionType.ZLIB).join());
+      assertTrue(e.getCause() instanceof DataFormatException);
+    } finally {
+      executor.shutdown();
+    }
+  }
+}
@@ -0,0 +1,202 @@
+/*
+ * Copyright 2024 Andrew Steinborn
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package me.steinborn.libdeflate;
+
+import static me.steinborn.libdeflate.TestData.gunzip;
+import static me.steinborn.libdeflate.TestData.sample;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.zip.ZipException;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+public class BgzfTest {
+  private static ForkJoinPool pool;
+
+  @BeforeAll
+  static void createPool() {
+    pool = new ForkJoinPool(4);
+  }
+
+  @AfterAll
+  static void shutdownPool() {
+    pool.shutdown();
+  }
+
+  private static BgzfIndex write(
+      byte[] data, int level, ForkJoinPool pool, ByteArrayOutputStream out) throws IOException {
+    BgzfOutputStream bgzf = new BgzfOutputStream(out, level, pool);
+    // Write in uneven pieces so blocks are filled from several calls.
+    for (int off = 0; off < data.length; off += 10_007) {
+      bgzf.write(data, off, Math.min(10_007, data.length - off));
+    }
+    bgzf.close();
+    return bgzf.getIndex();
+  }
+
+  private static Path save(Path dir, byte[] data) throws IOException {
+    return Files.write(Files.createTempFile(dir, "bgzf", ".gz"), data);
+  }
+
+  private static byte[] readAll(BgzfReader reader, int size) throws IOException {
+    byte[] result = new byte[size];
+    ByteBuffer buf = ByteBuffer.wrap(result);
+    while (buf.hasRemaining() && reader.read(buf) != -1) {}
+    return Arrays.copyOf(result, buf.position());
+  }
+
+  @ParameterizedTest
+  @ValueSource(ints = {0, 6, 12})
+  void writesValidGzip(int level) throws Exception {
+    byte[] original = sample(500_000);
+    ByteArrayOutputStream sequential = new ByteArrayOutputStream();
+    ByteArrayOutputStream parallel = new ByteArrayOutputStream();
+    BgzfIndex index = write(original, level, null, sequential);
+    write(original, level, pool, parallel);
+
+    assertArrayEquals(sequential.toByteArray(), parallel.toByteArray());
+    assertArrayEquals(original, gunzip(sequential.toByteArray()));
+    assertEquals(
+        (original.length + BgzfOutputStream.MAX_BLOCK_DATA - 1) / BgzfOutputStream.MAX_BLOCK_DATA,
+        index.size());
+
+    // Every file ends with the standard empty block.
+    byte[] compressed = sequential.toByteArray();
+    byte[] eof = Arrays.copyOfRange(compressed, compressed.length - 28, compressed.length);
+    assertEquals(27, eof[16] & 0xff);
+    assertEquals(0, ByteBuffer.wrap(eof, 24, 4).getInt());
+  }
+
+  @Test
+  void storesIncompressibleBlocks() throws Exception {
+    byte[] original = new byte[200_000];
+    new Random(1).nextBytes(original);
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    write(original, 12, pool, out);
+    assertArrayEquals(original, gunzip(out.toByteArray()));
+  }
+
+  @Test
+  void seeksToAnyOffset(@TempDir Path dir) throws Exception {
+    byte[] original = sample(1_000_000);
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    BgzfIndex written = write(original, 6, pool, out);
+    try (BgzfReader reader = new BgzfReader(save(dir, out.toByteArray()))) {
+      BgzfIndex built = reader.getIndex();
+      assertEquals(written.size(), built.size());
+      for (int i = 0; i < written.size(); i++) {
+        assertEquals(written.compressedOffset(i), built.compressedOffset(i));
+        assertEquals(written.uncompressedOffset(i), built.uncompressedOffset(i));
+      }
+
+      Random random = new Random(2);
+      byte[] buf = new byte[1_000];
+      for (int i = 0; i < 200; i++) {
+        int offset = random.nextInt(original.length - buf.length);
+        reader.seek(offset);
+        assertEquals(offset, reader.position());
+        long virtual = reader.virtualPosition();
+        assertEquals(written.toVirtualOffset(offset), virtual);
+
+        ByteBuffer dst = ByteBuffer.wrap(buf);
+        assertEquals(buf.length, reader.read(dst));
+        assertArrayEquals(Arrays.copyOfRange(original, offset, offset + buf.length), buf);
+
+        reader.seekVirtual(virtual);
+        assertEquals(offset, reader.position());
+        assertEquals(original[offset], readAll(reader, 1)[0]);
+      }
+
+      reader.seek(original.length);
+      assertEquals(-1, reader.read(buf, 0, buf.length));
+      assertThrows(EOFException.class, () -> reader.seek(original.length + 1));
+
+      reader.seek(0);
+      assertArrayEquals(original, readAll(reader, original.length + 1));
+    }
+  }
+
+  @Test
+  void indexRoundTrip() throws Exception {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    BgzfIndex index = write(sample(300_000), 1, null, out);
+
+    ByteArrayOutputStream gzi = new ByteArrayOutputStream();
+    index.write(gzi);
+    assertEquals(8 + (index.size() - 1) * 16, gzi.size());
+    BgzfIndex read = BgzfIndex.read(new ByteArrayInputStream(gzi.toByteArray()));
+    assertEquals(index.size(), read.size());
+    for (int i = 0; i < index.size(); i++) {
+      assertEquals(index.compressedOffset(i), read.compressedOffset(i));
+      assertEquals(index.uncompressedOffset(i), read.uncompressedOffset(i));
+    }
+    assertEquals(1, read.blockFor(BgzfOutputStream.MAX_BLOCK_DATA));
+    assertEquals(0, read.blockFor(BgzfOutputStream.MAX_BLOCK_DATA - 1));
+    assertEquals(
+        read.compressedOffset(1) << 16 | 5,
+        read.toVirtualOffset(BgzfOutputStream.MAX_BLOCK_DATA + 5));
+  }
+
+  @Test
+  void emptyFile(@TempDir Path dir) throws Exception {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    BgzfIndex index = write(new byte[0], 6, null, out);
+    assertEquals(1, index.size());
+    assertEquals(28, out.size());
+
+    try (BgzfReader reader = new BgzfReader(save(dir, out.toByteArray()))) {
+      assertEquals(-1, reader.read(new byte[10], 0, 10));
+      assertEquals(1, reader.getIndex().size());
+    }
+  }
+
+  @Test
+  void rejectsCorruptBlocks(@TempDir Path dir) throws Exception {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    BgzfIndex index = write(sample(200_000), 6, null, out);
+    byte[] compressed = out.toByteArray();
+    compressed[(int) index.compressedOffset(1) + 100] ^= 0x20;
+
+    try (BgzfReader reader =
+        new BgzfReader(FileChannel.open(save(dir, compressed), StandardOpenOption.READ), index)) {
+      reader.seek(10);
+      assertThrows(ZipException.class, () -> reader.seek(BgzfOutputStream.MAX_BLOCK_DATA + 10));
+    }
+    byte[] notBgzf = Arrays.copyOf(compressed, compressed.length);
+    notBgzf[12] = 'X';
+    try (BgzfReader reader = new BgzfReader(save(dir, notBgzf))) {
+      assertThrows(ZipException.class, () -> reader.read(new byte[10], 0, 10));
+    }
+  }
+}
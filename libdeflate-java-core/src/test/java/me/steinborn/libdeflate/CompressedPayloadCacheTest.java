@@ -0,0 +1,176 @@
+/*
+ * Copyright 2024 Andrew Steinborn
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package me.steinborn.libdeflate;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+import java.util.zip.DataFormatException;
+import org.junit.jupiter.api.Test;
+
+public class CompressedPayloadCacheTest {
+  private static byte[] sample(int size, int seed) {
+    Random random = new Random(seed);
+    byte[] data = new byte[size];
+    for (int i = 0; i < size; i++) {
+      data[i] = (byte) ('a' + random.nextInt(4));
+    }
+    return data;
+  }
+
+  private static byte[] decompress(CompressedPayloadCache.Payload payload, int size)
+      throws DataFormatException {
+    byte[] out = new byte[size];
+    try (LibdeflateDecompressor decompressor = new LibdeflateDecompressor()) {
+      decompressor.decompress(payload.buffer(), ByteBuffer.wrap(out), CompressionType.ZLIB, size);
+    }
+    return out;
+  }
+
+  @Test
+  void compressesIdenticalPayloadsOnce() throws DataFormatException {
+    byte[] packet = sample(1000, 1);
+    try (CompressedPayloadCache cache = new CompressedPayloadCache(1 << 20)) {
+      CompressedPayloadCache.Payload first =
+          cache.compress(packet, 0, 1000, CompressionType.ZLIB, 6);
+      CompressedPayloadCache.Payload second =
+          cache.compress(ByteBuffer.wrap(packet), CompressionType.ZLIB, 6);
+      assertSame(first, second);
+      assertEquals(1, cache.missCount());
+      assertEquals(1, cache.hitCount());
+      assertArrayEquals(packet, decompress(first, 1000));
+      first.release();
+      second.release();
+
+      // Other levels, containers and ranges are cached separately.
+      cache.compress(packet, 0, 1000, CompressionType.ZLIB, 9).release();
+      cache.compress(packet, 0, 1000, CompressionType.GZIP, 6).release();
+      cache.compress(packet, 0, 999, CompressionType.ZLIB, 6).release();
+      assertEquals(4, cache.entryCount());
+    }
+  }
+
+  @Test
+  void detectsReusedBuffers() throws DataFormatException {
+    ByteBuffer buffer = ByteBuffer.allocateDirect(1000);
+    buffer.put(sample(1000, 1)).flip();
+    try (CompressedPayloadCache cache = new CompressedPayloadCache(1 << 20)) {
+      CompressedPayloadCache.Payload first = cache.compress(buffer, CompressionType.ZLIB, 6);
+      assertEquals(0, buffer.position());
+
+      byte[] next = sample(1000, 2);
+      buffer.put(next).flip();
+      CompressedPayloadCache.Payload second = cache.compress(buffer, CompressionType.ZLIB, 6);
+      assertNotSame(first, second);
+      assertArrayEquals(next, decompress(second, 1000));
+      first.release();
+      second.release();
+    }
+  }
+
+  @Test
+  void evictsLeastRecentlyUsed() throws DataFormatException {
+    byte[][] packets = new byte[10][];
+    try (CompressedPayloadCache cache = new CompressedPayloadCache(4096)) {
+      CompressedPayloadCache.Payload held = null;
+      for (int i = 0; i < packets.length; i++) {
+        packets[i] = sample(3000, i);
+        CompressedPayloadCache.Payload payload =
+            cache.compress(packets[i], 0, 3000, CompressionType.ZLIB, 6);
+        if (i == 0) {
+          held = payload;
+        } else {
+          payload.release();
+        }
+      }
+      assertEquals(4096, cache.size());
+      assertEquals(4, cache.entryCount());
+
+      // An evicted payload stays valid while it is held.
+      assertArrayEquals(packets[0], decompress(held, 3000));
+      held.release();
+      assertThrows(IllegalStateException.class, held::release);
+      assertThrows(IllegalStateException.class, held::buffer);
+
+      // The most recently used payloads are still cached.
+      cache.compress(packets[9], 0, 3000, CompressionType.ZLIB, 6).release();
+      assertEquals(1, cache.hitCount());
+    }
+  }
+
+  @Test
+  void evictsPayloadsOfCollectedBuffers() throws InterruptedException {
+    try (CompressedPayloadCache cache = new CompressedPayloadCache(1 << 20)) {
+      cache.compress(sample(1000, 1), 0, 1000, CompressionType.ZLIB, 6).release();
+      assertEquals(1, cache.entryCount());
+
+      // The packet is no longer referenced, so its payload can never be hit again.
+      for (int i = 0; i < 100 && cache.entryCount() != 0; i++) {
+        System.gc();
+        Thread.sleep(10);
+      }
+      assertEquals(0, cache.entryCount());
+      assertEquals(0, cache.size());
+    }
+  }
+
+  @Test
+  void dropsEmptySlabs() {
+    // Random bytes don't compress, so each payload takes a 64 KiB slot, four to a slab.
+    byte[][] packets = new byte[5][];
+    CompressedPayloadCache cache = new CompressedPayloadCache(1 << 20);
+    for (int i = 0; i < packets.length; i++) {
+      packets[i] = new byte[40_000];
+      new Random(i).nextBytes(packets[i]);
+      cache.compress(packets[i], 0, packets[i].length, CompressionType.ZLIB, 6).release();
+    }
+    assertEquals(2, cache.slabCount());
+
+    cache.invalidateAll();
+    assertEquals(1, cache.slabCount());
+    cache.close();
+    assertEquals(0, cache.slabCount());
+  }
+
+  @Test
+  void doesNotCachePayloadsLargerThanTheLimit() throws DataFormatException {
+    byte[] packet = sample(100_000, 1);
+    try (CompressedPayloadCache cache = new CompressedPayloadCache(1024)) {
+      CompressedPayloadCache.Payload payload =
+          cache.compress(packet, 0, packet.length, CompressionType.ZLIB, 6);
+      assertEquals(0, cache.entryCount());
+      assertArrayEquals(packet, decompress(payload, packet.length));
+      payload.release();
+    }
+  }
+
+  @Test
+  void rejectsUseAfterClose() {
+    CompressedPayloadCache cache = new CompressedPayloadCache(1024);
+    CompressedPayloadCache.Payload payload =
+        cache.compress(new byte[100], 0, 100, CompressionType.ZLIB, 6);
+    cache.close();
+    payload.release();
+    assertThrows(
+        IllegalStateException.class,
+        () -> cache.compress(new byte[100], 0, 100, CompressionType.ZLIB, 6));
+  }
+}
@@ -0,0 +1,110 @@
+/*
+ * Copyright 2024 Andrew Steinborn
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package me.steinborn.libdeflate;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import org.junit.jupiter.api.Test;
+
+public class HeapStagingTest {
+  @Test
+  void choosesPathByMode() {
+    assertFalse(HeapStaging.stageCompression(HeapMode.CRITICAL, 1 << 30, 12));
+    assertTrue(HeapStaging.stageCompression(HeapMode.STAGED, 1, 1));
+    assertFalse(HeapStaging.stageDecompression(HeapMode.CRITICAL, 1 << 30));
+    assertTrue(HeapStaging.stageDecompression(HeapMode.STAGED, 1));
+
+    // Slower levels are staged at smaller sizes.
+    assertFalse(HeapStaging.stageCompression(HeapMode.AUTO, 100_000, 1));
+    assertTrue(HeapStaging.stageCompression(HeapMode.AUTO, 100_000, 6));
+    assertTrue(HeapStaging.stageCompression(HeapMode.AUTO, 10_000, 12));
+    assertFalse(HeapStaging.stageCompression(HeapMode.AUTO, 10_000, 6));
+    assertFalse(HeapStaging.stageDecompression(HeapMode.AUTO, 100_000));
+    assertTrue(HeapStaging.stageDecompression(HeapMode.AUTO, 4 << 20));
+  }
+
+  @Test
+  void reusesBuffersPerThread() {
+    ByteBuffer first = HeapStaging.acquire(HeapStaging.OUTPUT, 100);
+    assertTrue(first.isDirect());
+    assertEquals(0, first.position());
+    assertEquals(100, first.limit());
+    assertSame(first, HeapStaging.acquire(HeapStaging.OUTPUT, 1000));
+
+    ByteBuffer grown = HeapStaging.acquire(HeapStaging.OUTPUT, 1 << 20);
+    assertEquals(1 << 20, grown.capacity());
+    assertSame(grown, HeapStaging.acquire(HeapStaging.OUTPUT, 10));
+  }
+
+  @Test
+  void stagesOnlyTheOutputNeeded() throws Exception {
+    assumeTrue(Libdeflate.getHeapMode() == HeapMode.STAGED, "libdeflate_heap_mode is not staged");
+    byte[] data = new byte[1000];
+    ByteBuffer compressed = ByteBuffer.allocate(2000);
+    ByteBuffer large = ByteBuffer.allocate(8 << 20);
+
+    // A fresh thread starts without staging buffers, so the one left behind shows the largest size.
+    ExecutorService executor = Executors.newSingleThreadExecutor();
+    try {
+      int capacity =
+          executor
+              .submit(
+                  () -> {
+                    try (LibdeflateCompressor compressor = new LibdeflateCompressor();
+                        LibdeflateDecompressor decompressor = new LibdeflateDecompressor()) {
+                      compressor.compress(ByteBuffer.wrap(data), compressed, CompressionType.ZLIB);
+                      compressed.flip();
+                      assertEquals(
+                          data.length,
+                          decompressor.decompressUnknownSize(
+                              compressed.duplicate(), large, CompressionType.ZLIB));
+                      large.clear();
+                      decompressor.decompress(compressed, large, CompressionType.ZLIB, 1000);
+                      large.clear();
+                      compressor.compress(ByteBuffer.wrap(data), large, CompressionType.ZLIB);
+                    }
+                    return HeapStaging.acquire(HeapStaging.OUTPUT, 1).capacity();
+                  })
+              .get();
+      assertTrue(capacity < 1 << 20, "staged output buffer of " + capacity + " bytes");
+    } finally {
+      executor.shutdown();
+    }
+  }
+
+  @Test
+  void copiesWithoutMovingPositions() {
+    byte[] data = {1, 2, 3, 4, 5, 6};
+    ByteBuffer in = ByteBuffer.wrap(data, 1, 4);
+    ByteBuffer staged = HeapStaging.copyIn(in);
+    assertEquals(1, in.position());
+    assertEquals(4, staged.remaining());
+    assertEquals(2, staged.get(0));
+
+    ByteBuffer out = ByteBuffer.allocate(8);
+    out.position(2);
+    HeapStaging.copyOut(staged, 3, out);
+    assertEquals(2, out.position());
+    assertEquals(ByteBuffer.wrap(new byte[] {0, 0, 2, 3, 4, 0, 0, 0}), out.duplicate().clear());
+  }
+}
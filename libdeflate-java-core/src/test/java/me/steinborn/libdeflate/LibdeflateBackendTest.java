@@ -0,0 +1,35 @@
+/*
+ * Copyright 2024 Andrew Steinborn
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package me.steinborn.libdeflate;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * The {@code testForeign} task runs the suite on Java 22 with {@code libdeflate_backend=ffm}, which
+ * is the only way the foreign backend is selected.
+ */
+public class LibdeflateBackendTest {
+  @Test
+  void foreignBackendIsOptIn() {
+    boolean requested = "ffm".equals(System.getProperty("libdeflate_backend"));
+    boolean java22 =
+        !System.getProperty("java.specification.version").startsWith("1.")
+            && Integer.parseInt(System.getProperty("java.specification.version")) >= 22;
+    assertEquals(requested && java22, Libdeflate.isForeignBackendEnabled());
+  }
+}
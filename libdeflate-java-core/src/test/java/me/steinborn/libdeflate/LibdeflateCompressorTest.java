@@ -15,19 +15,23 @@
  */
 package me.steinborn.libdeflate;
 
+import static java.nio.charset.StandardCharsets.US_ASCII;
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.junit.jupiter.params.provider.Arguments.arguments;
 
 import java.io.ByteArrayInputStream;
 import java.nio.ByteBuffer;
 import java.util.Arrays;
+import java.util.Random;
 import java.util.stream.Stream;
 import java.util.zip.GZIPInputStream;
 import java.util.zip.Inflater;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.params.ParameterizedTest;
 import org.junit.jupiter.params.provider.Arguments;
+import org.junit.jupiter.params.provider.EnumSource;
 import org.junit.jupiter.params.provider.MethodSource;
 
 public class LibdeflateCompressorTest {
@@ -45,6 +49,15 @@ public class LibdeflateCompressorTest {
                                         arguments(bufferMatrix, compressionType, decompressor))));
   }
 
+  private static Stream<Arguments> byteBufferBatchCombos() {
+    // a product set of ByteBufferMatrix with CompressionTypes
+    return Arrays.stream(ByteBufferMatrix.values())
+        .flatMap(
+            bufferMatrix ->
+                Arrays.stream(CompressionType.values())
+                    .map(compressionType -> arguments(bufferMatrix, compressionType)));
+  }
+
   private static Stream<Arguments> byteArraySanityCombos() {
     // a product set of ByteBufferMatrix with UseDecompressors
     return Arrays.stream(CompressionType.values())
@@ -249,6 +262,178 @@ public class LibdeflateCompressorTest {
     }
   }
 
+  @ParameterizedTest
+  @MethodSource("byteBufferBatchCombos")
+  void compressorBatchSanity(ByteBufferMatrix matrix, CompressionType compressionType)
+      throws Exception {
+    // Use more entries than the native code processes at once.
+    int count = 150;
+    ByteBuffer[] sources = new ByteBuffer[count];
+    ByteBuffer[] destinations = new ByteBuffer[count];
+    for (int i = 0; i < count; i++) {
+      sources[i] = matrix.allocateSource(100);
+      for (int j = 0; j < 25; j++) {
+        sources[i].putInt(i);
+      }
+      sources[i].flip();
+      destinations[i] = matrix.allocateDestination(200);
+    }
+    // A destination that is too small must only affect its own entry.
+    destinations[7] = matrix.allocateDestination(1);
+
+    try (LibdeflateCompressor compressor = new LibdeflateCompressor()) {
+      int[] produced = compressor.compressBatch(sources, destinations, compressionType);
+
+      for (int i = 0; i < count; i++) {
+        if (i == 7) {
+          assertEquals(0, produced[i]);
+          continue;
+        }
+        assertEquals(produced[i], destinations[i].position());
+        assertEquals(0, sources[i].remaining());
+        destinations[i].flip();
+        sources[i].position(0);
+        verifyWrittenData(sources[i], destinations[i], compressionType, UseDecompressor.JAVA);
+      }
+    }
+  }
+
+  @Test
+  void compressorBatchRejectsMismatchedLengths() {
+    try (LibdeflateCompressor compressor = new LibdeflateCompressor()) {
+      assertThrows(
+          IllegalArgumentException.class,
+          () ->
+              compressor.compressBatch(
+                  new ByteBuffer[1], new ByteBuffer[2], CompressionType.DEFLATE));
+    }
+  }
+
+  private static byte[] randomBytes(int size) {
+    byte[] data = new byte[size];
+    new Random(size).nextBytes(data);
+    return data;
+  }
+
+  private static byte[] text(int size) {
+    byte[] sentence =
+        "The quick brown fox jumps over the lazy dog, 0123456789 times. ".getBytes(US_ASCII);
+    byte[] data = new byte[size];
+    for (int i = 0; i < size; i++) {
+      data[i] = sentence[i % sentence.length];
+    }
+    return data;
+  }
+
+  @Test
+  void estimatesCompressibility() {
+    byte[] repeated = new byte[1 << 20];
+    byte[] block = randomBytes(1000);
+    for (int i = 0; i < repeated.length; i++) {
+      repeated[i] = block[i % block.length];
+    }
+
+    try (LibdeflateCompressor compressor = new LibdeflateCompressor()) {
+      assertTrue(compressor.estimateRatio(ByteBuffer.wrap(randomBytes(1 << 20))) > 0.95);
+      assertTrue(compressor.estimateRatio(text(1 << 20), 0, 1 << 20) < 0.7);
+      // High entropy, but the trial compression finds the repetitions.
+      assertTrue(compressor.estimateRatio(ByteBuffer.wrap(repeated)) < 0.5);
+      assertTrue(compressor.estimateRatio(randomBytes(100), 0, 100) > 0.95);
+      assertEquals(1, compressor.estimateRatio(new byte[0], 0, 0));
+
+      ByteBuffer direct = ByteBuffer.allocateDirect(100_000);
+      direct.put(text(100_000)).position(50_000);
+      assertTrue(compressor.estimateRatio(direct) < 0.7);
+      assertEquals(50_000, direct.position());
+    }
+  }
+
+  @Test
+  void compressIfWorthwhileSkipsIncompressibleData() {
+    for (int size : new int[] {100, 1 << 20}) {
+      ByteBuffer source = ByteBuffer.wrap(randomBytes(size));
+      ByteBuffer destination = ByteBuffer.allocate(size * 2 + 64);
+      try (LibdeflateCompressor compressor = new LibdeflateCompressor()) {
+        assertEquals(
+            -1, compressor.compressIfWorthwhile(source, destination, CompressionType.ZLIB, 0.1));
+        assertEquals(size, source.remaining());
+        assertEquals(0, destination.position());
+
+        source = ByteBuffer.wrap(text(size));
+        int produced =
+            compressor.compressIfWorthwhile(source, destination, CompressionType.ZLIB, 0.1);
+        assertTrue(produced > 0 && produced < size * 0.9);
+        assertEquals(produced, destination.position());
+        assertEquals(0, source.remaining());
+
+        assertThrows(
+            IllegalArgumentException.class,
+            () ->
+                compressor.compressIfWorthwhile(
+                    ByteBuffer.allocate(1), destination, CompressionType.ZLIB, 1));
+      }
+    }
+  }
+
+  @Test
+  void compressIfWorthwhileWorksOnArrays() {
+    for (int size : new int[] {100, 1 << 20}) {
+      byte[] destination = new byte[size * 2 + 64];
+      try (LibdeflateCompressor compressor = new LibdeflateCompressor()) {
+        byte[] random = randomBytes(size);
+        assertEquals(
+            -1,
+            compressor.compressIfWorthwhile(
+                random, 0, size, destination, 0, destination.length, CompressionType.ZLIB, 0.1));
+
+        byte[] text = text(size + 10);
+        int produced =
+            compressor.compressIfWorthwhile(
+                text, 10, size, destination, 5, destination.length - 5, CompressionType.ZLIB, 0.1);
+        assertTrue(produced > 0 && produced < size * 0.9);
+
+        assertThrows(
+            IndexOutOfBoundsException.class,
+            () ->
+                compressor.compressIfWorthwhile(
+                    text, 0, size + 11, destination, 0, 10, CompressionType.ZLIB, 0.1));
+      }
+    }
+  }
+
+  @ParameterizedTest
+  @EnumSource(CompressionType.class)
+  void compressOrStoreWorksOnArrays(CompressionType type) throws Exception {
+    for (byte[] data : new byte[][] {randomBytes(200_000), text(200_000)}) {
+      byte[] destination = new byte[210_000];
+      try (LibdeflateCompressor compressor = new LibdeflateCompressor(9)) {
+        int produced =
+            compressor.compressOrStore(
+                data, 0, data.length, destination, 0, destination.length, type, 0.05);
+        assertTrue(produced > 0);
+        verifyWrittenData(
+            ByteBuffer.wrap(data),
+            ByteBuffer.wrap(destination, 0, produced),
+            type,
+            UseDecompressor.LIBDEFLATE);
+      }
+    }
+  }
+
+  @ParameterizedTest
+  @EnumSource(CompressionType.class)
+  void compressOrStoreStoresIncompressibleData(CompressionType type) throws Exception {
+    for (byte[] data : new byte[][] {randomBytes(200_000), text(200_000)}) {
+      ByteBuffer destination = ByteBuffer.allocate(210_000);
+      try (LibdeflateCompressor compressor = new LibdeflateCompressor(9)) {
+        int produced = compressor.compressOrStore(ByteBuffer.wrap(data), destination, type, 0.05);
+        assertTrue(produced > 0);
+        destination.flip();
+        verifyWrittenData(ByteBuffer.wrap(data), destination, type, UseDecompressor.LIBDEFLATE);
+      }
+    }
+  }
+
   private void verifyWrittenData(
       ByteBuffer source,
       ByteBuffer destination,
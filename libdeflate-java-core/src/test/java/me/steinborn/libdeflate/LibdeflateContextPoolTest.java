@@ -0,0 +1,145 @@
+/*
+ * Copyright 2024 Andrew Steinborn
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package me.steinborn.libdeflate;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.Test;
+
+public class LibdeflateContextPoolTest {
+  @Test
+  void reusesContextOnSameThread() {
+    try (LibdeflateContextPool pool = new LibdeflateContextPool()) {
+      LibdeflateCompressor compressor = pool.borrowCompressor(9);
+      assertEquals(9, compressor.getLevel());
+      pool.release(compressor);
+      assertSame(compressor, pool.borrowCompressor(9));
+
+      LibdeflateDecompressor decompressor = pool.borrowDecompressor();
+      pool.release(decompressor);
+      assertSame(decompressor, pool.borrowDecompressor());
+    }
+  }
+
+  @Test
+  void keepsLevelsApart() {
+    try (LibdeflateContextPool pool = new LibdeflateContextPool()) {
+      LibdeflateCompressor compressor = pool.borrowCompressor(1);
+      pool.release(compressor);
+      assertEquals(12, pool.borrowCompressor(12).getLevel());
+      assertEquals(6, pool.borrowCompressor().getLevel());
+      assertSame(compressor, pool.borrowCompressor(1));
+    }
+  }
+
+  @Test
+  void capsIdleContexts() {
+    try (LibdeflateContextPool pool = new LibdeflateContextPool(4, 1, TimeUnit.MINUTES)) {
+      List<LibdeflateCompressor> borrowed = new ArrayList<>();
+      for (int i = 0; i < 10; i++) {
+        borrowed.add(pool.borrowCompressor(6));
+      }
+      for (LibdeflateCompressor compressor : borrowed) {
+        pool.release(compressor);
+      }
+      assertEquals(4, pool.idleCount());
+
+      int closed = 0;
+      for (LibdeflateCompressor compressor : borrowed) {
+        if (compressor.isClosed()) {
+          closed++;
+        }
+      }
+      assertEquals(6, closed);
+    }
+  }
+
+  @Test
+  void evictsIdleContexts() {
+    try (LibdeflateContextPool pool = new LibdeflateContextPool(4, 0, TimeUnit.NANOSECONDS)) {
+      LibdeflateCompressor compressor = pool.borrowCompressor();
+      LibdeflateDecompressor decompressor = pool.borrowDecompressor();
+      pool.release(compressor);
+      pool.release(decompressor);
+      pool.evictIdle();
+
+      assertEquals(0, pool.idleCount());
+      assertTrue(compressor.isClosed());
+      assertTrue(decompressor.isClosed());
+    }
+  }
+
+  @Test
+  void closeFreesContexts() {
+    LibdeflateContextPool pool = new LibdeflateContextPool();
+    LibdeflateCompressor idle = pool.borrowCompressor();
+    LibdeflateCompressor borrowed = pool.borrowCompressor();
+    pool.release(idle);
+    pool.close();
+
+    assertTrue(idle.isClosed());
+    pool.release(borrowed);
+    assertTrue(borrowed.isClosed());
+    assertEquals(0, pool.idleCount());
+    assertThrows(IllegalStateException.class, pool::borrowCompressor);
+    assertThrows(IllegalStateException.class, pool::borrowDecompressor);
+  }
+
+  @Test
+  void concurrentRoundTrip() throws Exception {
+    byte[] original =
+        "libdeflate is a library for fast, whole-buffer DEFLATE-based compression"
+            .getBytes(StandardCharsets.UTF_8);
+    ExecutorService executor = Executors.newFixedThreadPool(8);
+    try (LibdeflateContextPool pool = new LibdeflateContextPool()) {
+      List<Future<?>> futures = new ArrayList<>();
+      for (int t = 0; t < 8; t++) {
+        int level = t + 1;
+        futures.add(
+            executor.submit(
+                () -> {
+                  for (int i = 0; i < 1000; i++) {
+                    byte[] compressed = new byte[256];
+                    int size = pool.compress(original, compressed, CompressionType.GZIP, level);
+                    byte[] trimmed = new byte[size];
+                    System.arraycopy(compressed, 0, trimmed, 0, size);
+
+                    byte[] decompressed = new byte[original.length];
+                    pool.decompress(trimmed, decompressed, CompressionType.GZIP);
+                    assertArrayEquals(original, decompressed);
+                  }
+                  return null;
+                }));
+      }
+      for (Future<?> future : futures) {
+        future.get();
+      }
+    } finally {
+      executor.shutdown();
+    }
+  }
+}
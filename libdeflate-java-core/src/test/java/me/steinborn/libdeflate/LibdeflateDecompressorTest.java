@@ -15,14 +15,21 @@
  */
 package me.steinborn.libdeflate;
 
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.junit.jupiter.params.provider.Arguments.arguments;
 
 import java.nio.ByteBuffer;
 import java.util.Arrays;
+import java.util.Random;
 import java.util.stream.Stream;
+import java.util.zip.DataFormatException;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
 import org.junit.jupiter.params.provider.Arguments;
+import org.junit.jupiter.params.provider.MethodSource;
 
 public class LibdeflateDecompressorTest {
   private static Stream<Arguments> byteBufferCompressionCombos() {
@@ -39,6 +46,15 @@ public class LibdeflateDecompressorTest {
                                         arguments(bufferMatrix, compressionType, decompressor))));
   }
 
+  private static Stream<Arguments> byteBufferBatchCombos() {
+    // a product set of ByteBufferMatrix with CompressionTypes
+    return Arrays.stream(ByteBufferMatrix.values())
+        .flatMap(
+            bufferMatrix ->
+                Arrays.stream(CompressionType.values())
+                    .map(compressionType -> arguments(bufferMatrix, compressionType)));
+  }
+
   private static Stream<Arguments> byteArraySanityCombos() {
     // a product set of ByteBufferMatrix with UseDecompressors
     return Arrays.stream(CompressionType.values())
@@ -147,4 +163,135 @@ public class LibdeflateDecompressorTest {
             decompressor.decompressUnknownSize(
                 ByteBuffer.allocate(1), ByteBuffer.allocate(1), CompressionType.DEFLATE));
   }
+
+  @ParameterizedTest
+  @MethodSource("byteBufferBatchCombos")
+  void decompressUnknownSizeReportsInsufficientSpace(
+      ByteBufferMatrix matrix, CompressionType compressionType) throws Exception {
+    byte[] original = new byte[1000];
+    Arrays.fill(original, (byte) 'a');
+    byte[] compressed = new byte[1100];
+    int produced;
+    try (LibdeflateCompressor compressor = new LibdeflateCompressor()) {
+      produced = compressor.compress(original, compressed, compressionType);
+    }
+
+    ByteBuffer source = matrix.allocateSource(produced);
+    source.put(compressed, 0, produced);
+    source.flip();
+    ByteBuffer destination = matrix.allocateDestination(original.length / 2);
+
+    try (LibdeflateDecompressor decompressor = new LibdeflateDecompressor()) {
+      assertEquals(-1, decompressor.decompressUnknownSize(source, destination, compressionType));
+      assertEquals(0, source.position());
+      assertEquals(0, destination.position());
+
+      destination = matrix.allocateDestination(original.length);
+      assertEquals(
+          original.length,
+          decompressor.decompressUnknownSize(source, destination, compressionType));
+      assertEquals(produced, source.position());
+      assertEquals(original.length, destination.position());
+    }
+  }
+
+  @ParameterizedTest
+  @MethodSource("byteBufferBatchCombos")
+  void decompressorBatchSanity(ByteBufferMatrix matrix, CompressionType compressionType)
+      throws Exception {
+    int count = 100;
+    byte[][] originals = new byte[count][];
+    ByteBuffer[] sources = new ByteBuffer[count];
+    ByteBuffer[] destinations = new ByteBuffer[count];
+    try (LibdeflateCompressor compressor = new LibdeflateCompressor()) {
+      for (int i = 0; i < count; i++) {
+        originals[i] = new byte[100 + i];
+        Arrays.fill(originals[i], (byte) i);
+        byte[] compressed = new byte[300];
+        int produced = compressor.compress(originals[i], compressed, compressionType);
+
+        sources[i] = matrix.allocateSource(produced);
+        sources[i].put(compressed, 0, produced);
+        sources[i].flip();
+        destinations[i] = matrix.allocateDestination(originals[i].length);
+      }
+    }
+
+    // Corrupt one entry and leave too little room for another.
+    sources[3].put(0, (byte) 0xff);
+    sources[3].put(1, (byte) 0xff);
+    destinations[5] = matrix.allocateDestination(10);
+
+    try (LibdeflateDecompressor decompressor = new LibdeflateDecompressor()) {
+      long[] results = decompressor.decompressBatch(sources, destinations, compressionType);
+
+      assertEquals(LibdeflateDecompressor.BATCH_BAD_DATA, results[3]);
+      assertEquals(0, destinations[3].position());
+      assertEquals(LibdeflateDecompressor.BATCH_INSUFFICIENT_SPACE, results[5]);
+      assertEquals(0, destinations[5].position());
+      for (int i = 0; i < count; i++) {
+        if (i == 3 || i == 5) {
+          continue;
+        }
+        assertEquals(originals[i].length, results[i]);
+        assertEquals(0, sources[i].remaining());
+        destinations[i].flip();
+        byte[] decompressed = new byte[destinations[i].remaining()];
+        destinations[i].get(decompressed);
+        assertArrayEquals(originals[i], decompressed);
+      }
+    }
+  }
+
+  @ParameterizedTest
+  @MethodSource("byteBufferBatchCombos")
+  void decompressToNewSizesOutput(ByteBufferMatrix matrix, CompressionType compressionType)
+      throws Exception {
+    Random random = new Random(1);
+    try (LibdeflateCompressor compressor = new LibdeflateCompressor();
+        LibdeflateDecompressor decompressor = new LibdeflateDecompressor()) {
+      for (int i = 0; i < 20; i++) {
+        // Highly compressible data, far beyond the initial ratio estimate.
+        byte[] original = new byte[50_000 + random.nextInt(50_000)];
+        for (int j = 0; j < original.length; j++) {
+          original[j] = (byte) (random.nextInt(40) == 0 ? 'b' : 'a');
+        }
+        byte[] compressed = new byte[original.length];
+        int produced = compressor.compress(original, compressed, compressionType);
+
+        ByteBuffer source = matrix.allocateSource(produced);
+        source.put(compressed, 0, produced);
+        source.flip();
+        ByteBuffer result = decompressor.decompressToNew(source, compressionType);
+        assertEquals(produced, source.position());
+        assertEquals(source.isDirect(), result.isDirect());
+        byte[] decompressed = new byte[result.remaining()];
+        result.get(decompressed);
+        assertArrayEquals(original, decompressed);
+
+        assertArrayEquals(
+            original,
+            decompressor.decompressToNew(Arrays.copyOf(compressed, produced), compressionType));
+      }
+
+      if (compressionType != CompressionType.GZIP) {
+        // By now the estimate should be close to the actual ratio of the data.
+        assertTrue(decompressor.ratioEstimate() > 10);
+      }
+    }
+  }
+
+  @Test
+  void decompressToNewRejectsCorruptData() throws Exception {
+    try (LibdeflateDecompressor decompressor = new LibdeflateDecompressor()) {
+      byte[] garbage = new byte[100];
+      Arrays.fill(garbage, (byte) 0xff);
+      assertThrows(
+          DataFormatException.class,
+          () -> decompressor.decompressToNew(garbage, CompressionType.ZLIB));
+      assertThrows(
+          DataFormatException.class,
+          () -> decompressor.decompressToNew(ByteBuffer.wrap(garbage), CompressionType.GZIP));
+    }
+  }
 }
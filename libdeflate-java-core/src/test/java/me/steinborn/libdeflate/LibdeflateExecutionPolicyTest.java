@@ -0,0 +1,168 @@
+/*
+ * Copyright 2024 Andrew Steinborn
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package me.steinborn.libdeflate;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.DataFormatException;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+public class LibdeflateExecutionPolicyTest {
+  private ExecutorService executor;
+
+  @BeforeEach
+  void createExecutor() {
+    executor = Executors.newSingleThreadExecutor();
+  }
+
+  @AfterEach
+  void shutdownExecutor() {
+    executor.shutdownNow();
+  }
+
+  @Test
+  void offloadsOnlyLongCallsFromVirtualThreads() {
+    LibdeflateExecutionPolicy policy =
+        LibdeflateExecutionPolicy.offloading(executor, 1, TimeUnit.MILLISECONDS);
+
+    assertFalse(policy.offloadCompression(false, 1 << 30, 12));
+    assertFalse(policy.offloadDecompression(false, 1 << 30));
+
+    // Slower levels are offloaded at smaller sizes.
+    assertFalse(policy.offloadCompression(true, 100_000, 1));
+    assertTrue(policy.offloadCompression(true, 100_000, 6));
+    assertTrue(policy.offloadCompression(true, 10_000, 12));
+    assertFalse(policy.offloadCompression(true, 10_000, 6));
+    assertFalse(policy.offloadDecompression(true, 100_000));
+    assertTrue(policy.offloadDecompression(true, 4 << 20));
+
+    LibdeflateExecutionPolicy inline = LibdeflateExecutionPolicy.inline();
+    assertFalse(inline.offloadCompression(true, 1 << 30, 12));
+    assertFalse(inline.offloadDecompression(true, 1 << 30));
+  }
+
+  @Test
+  void platformThreadsRunInline() {
+    // Only virtual threads are offloaded, and the tests run on platform threads.
+    assertFalse(LibdeflateExecutionPolicy.isVirtualThread());
+    assertFalse(LibdeflateExecutionPolicy.offloading().offloadCompression(1 << 30, 12));
+  }
+
+  @Test
+  void runsCallsOnExecutor() throws Exception {
+    LibdeflateExecutionPolicy policy =
+        LibdeflateExecutionPolicy.offloading(executor, 0, TimeUnit.NANOSECONDS);
+    byte[] data = "Hello, world! Hello, world! Hello, world!".getBytes(StandardCharsets.UTF_8);
+    byte[] compressed = new byte[128];
+    byte[] decompressed = new byte[data.length];
+    Thread caller = Thread.currentThread();
+
+    try (LibdeflateCompressor compressor = new LibdeflateCompressor();
+        LibdeflateDecompressor decompressor = new LibdeflateDecompressor()) {
+      int size =
+          policy.compress(
+              () -> {
+                assertFalse(Thread.currentThread() == caller);
+                return compressor.compress(data, compressed, CompressionType.DEFLATE);
+              });
+      long produced =
+          policy.decompress(
+              () ->
+                  decompressor.decompressUnknownSize(
+                      compressed,
+                      0,
+                      size,
+                      decompressed,
+                      0,
+                      decompressed.length,
+                      CompressionType.DEFLATE));
+      assertEquals(data.length, produced);
+      assertArrayEquals(data, decompressed);
+    }
+  }
+
+  @Test
+  void rethrowsFailures() {
+    LibdeflateExecutionPolicy policy =
+        LibdeflateExecutionPolicy.offloading(executor, 0, TimeUnit.NANOSECONDS);
+    DataFormatException corrupt = new DataFormatException("corrupt");
+    assertSame(
+        corrupt,
+        assertThrows(
+            DataFormatException.class,
+            () ->
+                policy.decompress(
+                    () -> {
+                      throw corrupt;
+                    })));
+
+    IllegalStateException closed = new IllegalStateException("closed");
+    assertSame(
+        closed,
+        assertThrows(
+            IllegalStateException.class,
+            () ->
+                policy.compress(
+                    () -> {
+                      throw closed;
+                    })));
+  }
+
+  @Test
+  void keepsWaitingWhenInterrupted() {
+    LibdeflateExecutionPolicy policy =
+        LibdeflateExecutionPolicy.offloading(executor, 0, TimeUnit.NANOSECONDS);
+    Thread.currentThread().interrupt();
+    try {
+      int result =
+          policy.compress(
+              () -> {
+                try {
+                  Thread.sleep(50);
+                } catch (InterruptedException e) {
+                  throw new AssertionError(e);
+                }
+                return 42;
+              });
+      assertEquals(42, result);
+      assertTrue(Thread.currentThread().isInterrupted());
+    } finally {
+      Thread.interrupted();
+    }
+  }
+
+  @Test
+  void rejectsBadArguments() {
+    assertThrows(
+        IllegalArgumentException.class,
+        () -> LibdeflateExecutionPolicy.offloading(executor, -1, TimeUnit.MILLISECONDS));
+    try (LibdeflateCompressor compressor = new LibdeflateCompressor()) {
+      assertSame(LibdeflateExecutionPolicy.inline(), compressor.getExecutionPolicy());
+      assertThrows(NullPointerException.class, () -> compressor.setExecutionPolicy(null));
+    }
+  }
+}
@@ -0,0 +1,80 @@
+/*
+ * Copyright 2024 Andrew Steinborn
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package me.steinborn.libdeflate;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.zip.DataFormatException;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.EnumSource;
+
+public class LibdeflateFilesTest {
+  @TempDir Path dir;
+
+  private static byte[] sample(int size, int alphabet) {
+    Random random = new Random(size);
+    byte[] data = new byte[size];
+    for (int i = 0; i < size; i++) {
+      data[i] = (byte) ('a' + random.nextInt(alphabet));
+    }
+    return data;
+  }
+
+  @ParameterizedTest
+  @EnumSource(CompressionType.class)
+  void roundTrip(CompressionType type) throws Exception {
+    // A single letter compresses far better than the initial guess for zlib and raw DEFLATE.
+    for (byte[] original : new byte[][] {sample(2_000_000, 8), sample(500_000, 1), new byte[0]}) {
+      Path src = Files.write(dir.resolve("original"), original);
+      Path compressed = dir.resolve("compressed");
+      Path decompressed = dir.resolve("decompressed");
+      // Existing destinations are replaced.
+      Files.write(decompressed, new byte[3_000_000]);
+
+      long compressedSize = LibdeflateFiles.compress(src, compressed, type, 6);
+      assertEquals(compressedSize, Files.size(compressed));
+      assertEquals(original.length, LibdeflateFiles.decompress(compressed, decompressed, type));
+      assertArrayEquals(original, Files.readAllBytes(decompressed));
+    }
+  }
+
+  @Test
+  void rejectsCorruptData() throws Exception {
+    Path src = Files.write(dir.resolve("original"), sample(100_000, 8));
+    Path compressed = dir.resolve("compressed");
+    LibdeflateFiles.compress(src, compressed, CompressionType.GZIP, 6);
+
+    byte[] corrupt = Files.readAllBytes(compressed);
+    corrupt[corrupt.length / 2] ^= 0x20;
+    Files.write(compressed, corrupt);
+    assertThrows(
+        DataFormatException.class,
+        () -> LibdeflateFiles.decompress(compressed, dir.resolve("out"), CompressionType.GZIP));
+
+    Files.write(compressed, Arrays.copyOf(corrupt, 10));
+    assertThrows(
+        DataFormatException.class,
+        () -> LibdeflateFiles.decompress(compressed, dir.resolve("out"), CompressionType.ZLIB));
+  }
+}
@@ -0,0 +1,198 @@
+/*
+ * Copyright 2024 Andrew Steinborn
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package me.steinborn.libdeflate;
+
+import static me.steinborn.libdeflate.TestData.sample;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.ZipException;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+public class LibdeflateGzipInputStreamTest {
+  private static byte[] gzip(byte[] data, int level, int blockSize) throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    try (LibdeflateGzipOutputStream gzip =
+        new LibdeflateGzipOutputStream(out, level, blockSize, false)) {
+      gzip.write(data);
+    }
+    return out.toByteArray();
+  }
+
+  private static byte[] readAll(InputStream in) throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    byte[] buf = new byte[7_000];
+    int read;
+    while ((read = in.read(buf)) != -1) {
+      out.write(buf, 0, read);
+    }
+    return out.toByteArray();
+  }
+
+  /** An input stream that returns few bytes at a time, like a socket. */
+  private static InputStream trickle(byte[] data) {
+    Random random = new Random(data.length);
+    return new ByteArrayInputStream(data) {
+      @Override
+      public synchronized int read(byte[] b, int off, int len) {
+        return super.read(b, off, Math.min(len, 1 + random.nextInt(3_000)));
+      }
+    };
+  }
+
+  @ParameterizedTest
+  @ValueSource(ints = {100, 10_000, LibdeflateOutputStream.DEFAULT_BLOCK_SIZE, 1_000_000})
+  void readsMembers(int blockSize) throws Exception {
+    byte[] original = sample(700_000);
+    byte[] compressed = gzip(original, 6, blockSize);
+
+    try (LibdeflateGzipInputStream in = new LibdeflateGzipInputStream(trickle(compressed))) {
+      assertArrayEquals(original, readAll(in));
+      assertEquals(-1, in.read());
+      assertEquals(0, in.available());
+    }
+  }
+
+  @Test
+  void readsJdkOutput() throws Exception {
+    byte[] original = sample(300_000);
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    try (GZIPOutputStream gzip = new GZIPOutputStream(out)) {
+      gzip.write(original);
+    }
+    // Trailing bytes that are not a gzip header are ignored.
+    out.write(new byte[] {1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11, 12});
+
+    try (LibdeflateGzipInputStream in =
+        new LibdeflateGzipInputStream(new ByteArrayInputStream(out.toByteArray()))) {
+      assertEquals(original[0], (byte) in.read());
+      assertEquals(1_000, in.skip(1_000));
+      byte[] rest = readAll(in);
+      assertArrayEquals(Arrays.copyOfRange(original, 1_001, original.length), rest);
+    }
+  }
+
+  @Test
+  void handlesFalseBoundaries() throws Exception {
+    // A stored member containing another gzip member, preceded by what looks like the trailer of an
+    // empty member, looks as if it ended in the middle.
+    byte[] inner = gzip(sample(5_000), 6, 100_000);
+    byte[] payload = sample(20_000);
+    Arrays.fill(payload, 6_992, 7_000, (byte) 0);
+    System.arraycopy(inner, 0, payload, 7_000, inner.length);
+
+    ByteArrayOutputStream stream = new ByteArrayOutputStream();
+    ByteArrayOutputStream expected = new ByteArrayOutputStream();
+    for (int i = 0; i < 3; i++) {
+      stream.write(gzip(payload, 0, 100_000));
+      expected.write(payload);
+    }
+
+    try (LibdeflateGzipInputStream in =
+        new LibdeflateGzipInputStream(trickle(stream.toByteArray()))) {
+      assertArrayEquals(expected.toByteArray(), readAll(in));
+    }
+  }
+
+  @Test
+  void rejectsInvalidData() throws Exception {
+    assertThrows(
+        EOFException.class,
+        () -> new LibdeflateGzipInputStream(new ByteArrayInputStream(new byte[0])));
+    assertThrows(
+        ZipException.class,
+        () -> new LibdeflateGzipInputStream(new ByteArrayInputStream(new byte[100])));
+
+    byte[] corrupt = gzip(sample(100_000), 6, 1_000_000);
+    corrupt[corrupt.length / 2] ^= 0x40;
+    try (LibdeflateGzipInputStream in =
+        new LibdeflateGzipInputStream(new ByteArrayInputStream(corrupt))) {
+      assertThrows(ZipException.class, () -> readAll(in));
+    }
+
+    byte[] truncated = Arrays.copyOf(gzip(sample(100_000), 6, 1_000_000), 1_000);
+    try (LibdeflateGzipInputStream in =
+        new LibdeflateGzipInputStream(new ByteArrayInputStream(truncated))) {
+      assertThrows(ZipException.class, () -> readAll(in));
+    }
+  }
+
+  @Test
+  void rejectsOversizedMembers() throws Exception {
+    // A gzip header followed by an endless run of zeros, which never completes a member.
+    long[] read = new long[1];
+    ReadableByteChannel endless =
+        new ReadableByteChannel() {
+          @Override
+          public int read(ByteBuffer dst) {
+            int n = dst.remaining();
+            if (read[0] == 0) {
+              dst.put(new byte[] {0x1f, (byte) 0x8b, 8, 0, 0, 0, 0, 0, 0, (byte) 0xff});
+            }
+            while (dst.hasRemaining()) {
+              dst.put((byte) 0);
+            }
+            read[0] += n;
+            return n;
+          }
+
+          @Override
+          public boolean isOpen() {
+            return true;
+          }
+
+          @Override
+          public void close() {}
+        };
+    try (LibdeflateGzipInputStream in = new LibdeflateGzipInputStream(endless, 1 << 20)) {
+      ZipException e = assertThrows(ZipException.class, () -> readAll(in));
+      assertEquals("GZIP member is too large", e.getMessage());
+    }
+    assertTrue(read[0] <= 1 << 20);
+  }
+
+  @Test
+  void poolReusesBuffers() {
+    DirectBufferPool pool = new DirectBufferPool(12, 16, 2);
+    ByteBuffer buffer = pool.acquire(5_000);
+    assertEquals(8192, buffer.capacity());
+    pool.release(buffer);
+    assertEquals(1, pool.size());
+    assertSame(buffer, pool.acquire(8192));
+    assertEquals(0, pool.size());
+
+    // Oversized buffers are allocated exactly and never pooled.
+    ByteBuffer large = pool.acquire(100_000);
+    assertEquals(100_000, large.capacity());
+    pool.release(large);
+    assertEquals(0, pool.size());
+  }
+}
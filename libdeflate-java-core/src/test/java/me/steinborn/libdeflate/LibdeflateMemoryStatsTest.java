@@ -0,0 +1,87 @@
+/*
+ * Copyright 2024 Andrew Steinborn
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package me.steinborn.libdeflate;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.lang.management.ManagementFactory;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import org.junit.jupiter.api.Test;
+
+public class LibdeflateMemoryStatsTest {
+  @Test
+  void countsContexts() {
+    LibdeflateMemoryStats before = LibdeflateMemoryStats.snapshot();
+    LibdeflateCompressor compressor = new LibdeflateCompressor(12);
+    LibdeflateDecompressor decompressor = new LibdeflateDecompressor();
+    try {
+      LibdeflateMemoryStats during = LibdeflateMemoryStats.snapshot();
+      assertEquals(before.getCompressorCount(12) + 1, during.getCompressorCount(12));
+      assertEquals(before.getDecompressorCount() + 1, during.getDecompressorCount());
+      assertEquals(before.getLiveContexts() + 2, during.getLiveContexts());
+      // A level 12 compressor needs far more memory than a decompressor.
+      long compressorBytes = during.getCompressorBytes(12) - before.getCompressorBytes(12);
+      long decompressorBytes = during.getDecompressorBytes() - before.getDecompressorBytes();
+      assertTrue(compressorBytes > decompressorBytes, compressorBytes + " " + decompressorBytes);
+      assertTrue(decompressorBytes > 0);
+      assertEquals(
+          before.getLiveBytes() + compressorBytes + decompressorBytes, during.getLiveBytes());
+    } finally {
+      compressor.close();
+      decompressor.close();
+    }
+
+    LibdeflateMemoryStats after = LibdeflateMemoryStats.snapshot();
+    assertEquals(before.getCompressorCount(12), after.getCompressorCount(12));
+    assertEquals(before.getCompressorBytes(12), after.getCompressorBytes(12));
+    assertEquals(before.getDecompressorBytes(), after.getDecompressorBytes());
+    assertThrows(IllegalArgumentException.class, () -> after.getCompressorBytes(13));
+  }
+
+  @Test
+  void enforcesLimit() {
+    long inUse = LibdeflateMemoryStats.snapshot().getLiveBytes();
+    LibdeflateMemoryStats.setLimit(inUse + 1024);
+    try {
+      OutOfMemoryError error =
+          assertThrows(OutOfMemoryError.class, () -> new LibdeflateCompressor(12));
+      assertTrue(error.getMessage().contains("limit"), error.getMessage());
+      assertEquals(inUse, LibdeflateMemoryStats.snapshot().getLiveBytes());
+    } finally {
+      LibdeflateMemoryStats.setLimit(0);
+    }
+    new LibdeflateCompressor(12).close();
+    assertThrows(IllegalArgumentException.class, () -> LibdeflateMemoryStats.setLimit(-1));
+  }
+
+  @Test
+  void exposesMXBean() throws Exception {
+    ObjectName name = LibdeflateMemoryStats.registerMXBean();
+    assertEquals(name, LibdeflateMemoryStats.registerMXBean());
+
+    MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+    try (LibdeflateCompressor compressor = new LibdeflateCompressor(3)) {
+      long[] counts = (long[]) server.getAttribute(name, "CompressorCountsByLevel");
+      assertEquals(13, counts.length);
+      assertTrue(counts[compressor.getLevel()] >= 1);
+      assertTrue((Long) server.getAttribute(name, "LiveBytes") > 0);
+      assertEquals(0L, server.getAttribute(name, "Limit"));
+    }
+  }
+}
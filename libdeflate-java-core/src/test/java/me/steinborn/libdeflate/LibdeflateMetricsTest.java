@@ -0,0 +1,190 @@
+/*
+ * Copyright 2024 Andrew Steinborn
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package me.steinborn.libdeflate;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.DataFormatException;
+import javax.management.JMX;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import me.steinborn.libdeflate.LibdeflateMetrics.Counters;
+import me.steinborn.libdeflate.LibdeflateMetrics.Operation;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Metrics are off by default. The {@code testMetrics} task runs the suite with the {@code
+ * libdeflate_metrics} system property set, which these tests need.
+ */
+public class LibdeflateMetricsTest {
+  @BeforeEach
+  void reset() {
+    assumeTrue(LibdeflateMetrics.isEnabled(), "libdeflate_metrics is not set");
+    LibdeflateMetrics.reset();
+  }
+
+  @Test
+  void countsStagedCalls() throws Exception {
+    byte[] original = sample(50_000);
+    byte[] compressed = new byte[1_000];
+    try (LibdeflateCompressor compressor = new LibdeflateCompressor()) {
+      compressor.compress(original, compressed, CompressionType.ZLIB);
+      compressor.compress(
+          ByteBuffer.allocateDirect(100), ByteBuffer.allocateDirect(200), CompressionType.ZLIB);
+    }
+
+    // Calls on direct buffers are never staged.
+    long expected = Libdeflate.getHeapMode() == HeapMode.STAGED ? 1 : 0;
+    Counters compress = LibdeflateMetrics.get(Operation.COMPRESS, CompressionType.ZLIB);
+    assertEquals(expected, compress.getStagedCalls());
+  }
+
+  @Test
+  void countsTrialCompressions() {
+    // Random bytes have too much entropy to estimate without a trial compression.
+    byte[] random = new byte[10_000];
+    new java.util.Random(1).nextBytes(random);
+    try (LibdeflateCompressor compressor = new LibdeflateCompressor()) {
+      compressor.estimateRatio(random, 0, random.length);
+    }
+
+    Counters compress = LibdeflateMetrics.get(Operation.COMPRESS, CompressionType.DEFLATE);
+    assertEquals(1, compress.getCalls());
+    assertEquals(4096, compress.getBytesIn());
+  }
+
+  private static byte[] sample(int size) {
+    byte[] data = new byte[size];
+    for (int i = 0; i < size; i++) {
+      data[i] = (byte) ('a' + i % 7);
+    }
+    return data;
+  }
+
+  @Test
+  void countsCompressionAndDecompression() throws Exception {
+    byte[] original = sample(50_000);
+    byte[] compressed = new byte[1_000];
+    int size;
+    try (LibdeflateCompressor compressor = new LibdeflateCompressor();
+        LibdeflateDecompressor decompressor = new LibdeflateDecompressor()) {
+      size = compressor.compress(original, compressed, CompressionType.GZIP);
+      compressor.compress(
+          ByteBuffer.wrap(original), ByteBuffer.allocateDirect(1_000), CompressionType.GZIP);
+      assertEquals(0, compressor.compress(original, new byte[10], CompressionType.GZIP));
+
+      byte[] restored = new byte[original.length];
+      decompressor.decompress(
+          Arrays.copyOf(compressed, size), restored, CompressionType.GZIP, original.length);
+      assertArrayEquals(original, restored);
+      assertEquals(
+          -1,
+          decompressor.decompressUnknownSize(
+              ByteBuffer.wrap(compressed, 0, size), ByteBuffer.allocate(10), CompressionType.GZIP));
+      assertThrows(
+          DataFormatException.class,
+          () -> decompressor.decompress(new byte[100], restored, CompressionType.ZLIB));
+    }
+
+    Counters compress = LibdeflateMetrics.get(Operation.COMPRESS, CompressionType.GZIP);
+    assertEquals(3, compress.getCalls());
+    assertEquals(2L * original.length, compress.getBytesIn());
+    assertEquals(2L * size, compress.getBytesOut());
+    assertEquals(1, compress.getInsufficientSpace());
+    assertEquals(3, Arrays.stream(compress.getLatencyHistogram()).sum());
+    assertTrue(compress.getTotalNanos() > 0);
+
+    Counters decompress = LibdeflateMetrics.get(Operation.DECOMPRESS, CompressionType.GZIP);
+    assertEquals(2, decompress.getCalls());
+    assertEquals(size, decompress.getBytesIn());
+    assertEquals(original.length, decompress.getBytesOut());
+    assertEquals(1, decompress.getInsufficientSpace());
+    assertEquals(1, LibdeflateMetrics.get(Operation.DECOMPRESS, CompressionType.ZLIB).getBadData());
+    assertEquals(0, LibdeflateMetrics.get(Operation.COMPRESS, CompressionType.ZLIB).getCalls());
+  }
+
+  @Test
+  void countsChecksumsAndNotifiesListeners() {
+    List<String> events = new ArrayList<>();
+    LibdeflateMetricsListener listener =
+        (operation, type, bytesIn, bytesOut, nanos, outcome) ->
+            events.add(operation + " " + type + " " + bytesIn + " " + outcome);
+    LibdeflateMetrics.addListener(listener);
+    try {
+      LibdeflateCRC32 crc32 = new LibdeflateCRC32();
+      crc32.update(new byte[100]);
+      crc32.update(ByteBuffer.allocateDirect(28));
+      new LibdeflateAdler32().update(new byte[5], 1, 3);
+    } finally {
+      LibdeflateMetrics.removeListener(listener);
+    }
+    new LibdeflateCRC32().update(new byte[1]);
+
+    assertEquals(
+        Arrays.asList("CRC32 null 100 SUCCESS", "CRC32 null 28 SUCCESS", "ADLER32 null 3 SUCCESS"),
+        events);
+    assertEquals(3, LibdeflateMetrics.get(Operation.CRC32, null).getCalls());
+    assertEquals(129, LibdeflateMetrics.get(Operation.CRC32, null).getBytesIn());
+    assertEquals(3, LibdeflateMetrics.get(Operation.ADLER32, null).getBytesIn());
+  }
+
+  @Test
+  void bucketsLatencies() {
+    assertEquals(0, LibdeflateMetrics.bucket(0));
+    assertEquals(0, LibdeflateMetrics.bucket(1023));
+    assertEquals(1, LibdeflateMetrics.bucket(1024));
+    assertEquals(2, LibdeflateMetrics.bucket(4095));
+    assertEquals(LibdeflateMetrics.HISTOGRAM_BUCKETS - 1, LibdeflateMetrics.bucket(1L << 33));
+    assertEquals(LibdeflateMetrics.HISTOGRAM_BUCKETS - 1, LibdeflateMetrics.bucket(Long.MAX_VALUE));
+  }
+
+  @Test
+  void exposesMXBean() throws Exception {
+    ObjectName name = LibdeflateMetrics.registerMXBean();
+    try (LibdeflateCompressor compressor = new LibdeflateCompressor()) {
+      compressor.compress(new byte[1_000], new byte[1_000], CompressionType.ZLIB);
+    }
+
+    MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+    assertEquals(true, server.getAttribute(name, "Enabled"));
+    Object calls = server.getAttribute(name, "Calls");
+    assertTrue(calls.toString().contains("compress.zlib"), calls.toString());
+    long[] histogram =
+        (long[])
+            server.invoke(
+                name,
+                "getLatencyHistogram",
+                new Object[] {"compress.zlib"},
+                new String[] {String.class.getName()});
+    assertEquals(1, Arrays.stream(histogram).sum());
+
+    Map<String, Long> proxied =
+        JMX.newMXBeanProxy(server, name, LibdeflateMetricsMXBean.class).getCalls();
+    assertEquals(1L, proxied.get("compress.zlib"));
+    assertEquals(0L, proxied.get("crc32"));
+  }
+}
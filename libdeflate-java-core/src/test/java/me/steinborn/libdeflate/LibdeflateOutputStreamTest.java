@@ -0,0 +1,135 @@
+/*
+ * Copyright 2024 Andrew Steinborn
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package me.steinborn.libdeflate;
+
+import static me.steinborn.libdeflate.TestData.gunzip;
+import static me.steinborn.libdeflate.TestData.sample;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.zip.CRC32;
+import java.util.zip.Inflater;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.EnumSource;
+import org.junit.jupiter.params.provider.ValueSource;
+
+public class LibdeflateOutputStreamTest {
+  /** Inflates a sequence of zlib or raw DEFLATE segments, starting over after each one. */
+  private static byte[] inflateSegments(byte[] data, boolean nowrap) throws Exception {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    Inflater inflater = new Inflater(nowrap);
+    byte[] buf = new byte[8192];
+    int off = 0;
+    while (off < data.length) {
+      inflater.setInput(data, off, data.length - off);
+      while (!inflater.finished()) {
+        out.write(buf, 0, inflater.inflate(buf));
+      }
+      off = data.length - inflater.getRemaining();
+      inflater.reset();
+    }
+    inflater.end();
+    return out.toByteArray();
+  }
+
+  @ParameterizedTest
+  @ValueSource(ints = {1, 1000, 65536, LibdeflateOutputStream.DEFAULT_BLOCK_SIZE})
+  void gzipRoundTrip(int blockSize) throws Exception {
+    byte[] original = sample(300_000);
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    try (LibdeflateGzipOutputStream gzip =
+        new LibdeflateGzipOutputStream(out, 6, blockSize, false)) {
+      // Mix single bytes and array writes.
+      gzip.write(original[0]);
+      gzip.write(original, 1, 99_999);
+      gzip.write(original, 100_000, original.length - 100_000);
+
+      CRC32 crc = new CRC32();
+      gzip.finish();
+      crc.update(original, 0, original.length);
+      assertEquals(crc.getValue(), gzip.getCrc32());
+    }
+    assertArrayEquals(original, gunzip(out.toByteArray()));
+  }
+
+  @ParameterizedTest
+  @EnumSource(CompressionType.class)
+  void emptyStream(CompressionType type) throws Exception {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    new LibdeflateOutputStream(out, type).close();
+
+    byte[] compressed = out.toByteArray();
+    try (LibdeflateDecompressor decompressor = new LibdeflateDecompressor()) {
+      decompressor.decompress(compressed, new byte[0], type, 0);
+    }
+  }
+
+  @ParameterizedTest
+  @ValueSource(booleans = {true, false})
+  void zlibAndDeflateSegments(boolean nowrap) throws Exception {
+    byte[] original = sample(200_000);
+    CompressionType type = nowrap ? CompressionType.DEFLATE : CompressionType.ZLIB;
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    try (LibdeflateOutputStream stream = new LibdeflateOutputStream(out, type, 9, 30_000, false)) {
+      stream.write(original);
+    }
+    assertArrayEquals(original, inflateSegments(out.toByteArray(), nowrap));
+
+    // Output that fits in one block is a single ordinary stream.
+    byte[] small = sample(100_000);
+    out.reset();
+    try (LibdeflateOutputStream stream = new LibdeflateOutputStream(out, type)) {
+      stream.write(small);
+    }
+    byte[] single = new byte[small.length];
+    try (LibdeflateDecompressor decompressor = new LibdeflateDecompressor()) {
+      decompressor.decompress(out.toByteArray(), single, type, small.length);
+    }
+    assertArrayEquals(small, single);
+  }
+
+  @Test
+  void syncFlushEndsMember() throws Exception {
+    byte[] original = sample(5_000);
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    LibdeflateGzipOutputStream gzip = new LibdeflateGzipOutputStream(out, true);
+    gzip.write(original);
+    gzip.flush();
+    assertArrayEquals(original, gunzip(out.toByteArray()));
+
+    ByteArrayOutputStream lazy = new ByteArrayOutputStream();
+    LibdeflateGzipOutputStream buffered = new LibdeflateGzipOutputStream(lazy);
+    buffered.write(original);
+    buffered.flush();
+    assertEquals(0, lazy.size());
+    buffered.close();
+    assertArrayEquals(original, gunzip(lazy.toByteArray()));
+  }
+
+  @Test
+  void rejectsWritesAfterFinish() throws Exception {
+    LibdeflateGzipOutputStream gzip = new LibdeflateGzipOutputStream(new ByteArrayOutputStream());
+    gzip.finish();
+    assertThrows(IOException.class, () -> gzip.write(1));
+    gzip.close();
+    assertThrows(IOException.class, () -> gzip.write(new byte[10]));
+    gzip.close();
+  }
+}
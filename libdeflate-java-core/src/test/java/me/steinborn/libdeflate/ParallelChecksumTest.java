@@ -0,0 +1,136 @@
+/*
+ * Copyright 2024 Andrew Steinborn
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package me.steinborn.libdeflate;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.zip.Adler32;
+import java.util.zip.CRC32;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.DisabledOnOs;
+import org.junit.jupiter.api.condition.OS;
+import org.junit.jupiter.api.io.TempDir;
+
+public class ParallelChecksumTest {
+  private static ForkJoinPool pool;
+
+  @BeforeAll
+  static void createPool() {
+    pool = new ForkJoinPool(4);
+  }
+
+  @AfterAll
+  static void shutdownPool() {
+    pool.shutdown();
+  }
+
+  private static byte[] random(int size) {
+    byte[] data = new byte[size];
+    new Random(size).nextBytes(data);
+    return data;
+  }
+
+  private static long jdkCrc32(byte[] data, int off, int len) {
+    CRC32 crc32 = new CRC32();
+    crc32.update(data, off, len);
+    return crc32.getValue();
+  }
+
+  private static long jdkAdler32(byte[] data, int off, int len) {
+    Adler32 adler32 = new Adler32();
+    adler32.update(data, off, len);
+    return adler32.getValue();
+  }
+
+  @Test
+  void combineMatchesWholeChecksum() {
+    byte[] data = random(300_000);
+    Random random = new Random(1);
+    for (int i = 0; i < 200; i++) {
+      int split = i < 2 ? i * data.length : random.nextInt(data.length + 1);
+      int len2 = data.length - split;
+
+      assertEquals(
+          jdkCrc32(data, 0, data.length),
+          LibdeflateCRC32.combine(jdkCrc32(data, 0, split), jdkCrc32(data, split, len2), len2));
+      assertEquals(
+          jdkAdler32(data, 0, data.length),
+          LibdeflateAdler32.combine(
+              jdkAdler32(data, 0, split), jdkAdler32(data, split, len2), len2));
+    }
+  }
+
+  @Test
+  void checksumsBuffersInSegments() {
+    byte[] data = random(1_000_003);
+    ParallelChecksum checksum = new ParallelChecksum(pool, 65_536);
+
+    ByteBuffer heap = ByteBuffer.wrap(data);
+    heap.position(3);
+    assertEquals(jdkCrc32(data, 3, data.length - 3), checksum.crc32(heap));
+    assertEquals(data.length, heap.position());
+
+    ByteBuffer direct = ByteBuffer.allocateDirect(data.length);
+    direct.put(data).flip();
+    assertEquals(jdkAdler32(data, 0, data.length), checksum.adler32(direct));
+    assertEquals(0, direct.remaining());
+
+    assertEquals(0, checksum.crc32(ByteBuffer.allocate(0)));
+    assertEquals(1, checksum.adler32(ByteBuffer.allocate(0)));
+  }
+
+  @Test
+  void checksumsFiles(@TempDir Path dir) throws Exception {
+    byte[] data = random(3_000_000);
+    Path file = Files.write(dir.resolve("data"), data);
+    ParallelChecksum checksum = new ParallelChecksum(pool, 100_000);
+
+    assertEquals(jdkCrc32(data, 0, data.length), checksum.crc32(file));
+    assertEquals(jdkAdler32(data, 0, data.length), checksum.adler32(file));
+    assertEquals(0, new ParallelChecksum().crc32(Files.write(dir.resolve("empty"), new byte[0])));
+  }
+
+  @Test
+  @DisabledOnOs(OS.WINDOWS) // the file would not be sparse, and can't be deleted while mapped
+  void checksumsBuffersNearTheSizeLimit(@TempDir Path dir) throws Exception {
+    // A sparse file, so this only costs the time taken to checksum it.
+    Path file = dir.resolve("sparse");
+    try (FileChannel channel =
+        FileChannel.open(
+            file,
+            StandardOpenOption.CREATE_NEW,
+            StandardOpenOption.READ,
+            StandardOpenOption.WRITE)) {
+      channel.write(ByteBuffer.wrap(new byte[] {1}), Integer.MAX_VALUE - 1);
+      MappedByteBuffer mapping = channel.map(FileChannel.MapMode.READ_ONLY, 0, Integer.MAX_VALUE);
+
+      CRC32 expected = new CRC32();
+      expected.update(mapping.duplicate());
+      assertEquals(expected.getValue(), new ParallelChecksum(pool, 1 << 28).crc32(mapping));
+      assertEquals(Integer.MAX_VALUE, mapping.position());
+    }
+  }
+}
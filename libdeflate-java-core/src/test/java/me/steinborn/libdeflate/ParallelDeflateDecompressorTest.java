@@ -0,0 +1,162 @@
+/*
+ * Copyright 2024 Andrew Steinborn
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package me.steinborn.libdeflate;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.params.provider.Arguments.arguments;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+import java.util.zip.DataFormatException;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.Arguments;
+import org.junit.jupiter.params.provider.EnumSource;
+import org.junit.jupiter.params.provider.MethodSource;
+
+public class ParallelDeflateDecompressorTest {
+  private static final String[] WORDS = {
+    "chunk", "entity", "player", "position", "server", "request", "response", "velocity", "the"
+  };
+
+  private static ForkJoinPool pool;
+
+  @BeforeAll
+  static void createPool() {
+    pool = new ForkJoinPool(4);
+  }
+
+  @AfterAll
+  static void shutdownPool() {
+    pool.shutdown();
+  }
+
+  private static Stream<Arguments> typesAndLevels() {
+    return Arrays.stream(CompressionType.values())
+        .flatMap(type -> IntStream.of(1, 6, 12).mapToObj(level -> arguments(type, level)));
+  }
+
+  private static byte[] text(int size) {
+    Random random = new Random(size);
+    StringBuilder builder = new StringBuilder(size + 16);
+    while (builder.length() < size) {
+      if (random.nextInt(5) == 0) {
+        builder.append(random.nextInt(100_000));
+      } else {
+        builder.append(WORDS[random.nextInt(WORDS.length)]);
+      }
+      builder.append(random.nextInt(12) == 0 ? '\n' : ' ');
+    }
+    return builder.substring(0, size).getBytes(StandardCharsets.US_ASCII);
+  }
+
+  private static byte[] compress(byte[] data, CompressionType type, int level) {
+    try (LibdeflateCompressor compressor = new LibdeflateCompressor(level)) {
+      byte[] out = new byte[(int) compressor.getCompressBound(data.length, type)];
+      int produced = compressor.compress(data, out, type);
+      return Arrays.copyOf(out, produced);
+    }
+  }
+
+  @ParameterizedTest
+  @MethodSource("typesAndLevels")
+  void decodesSpeculatively(CompressionType type, int level) throws Exception {
+    byte[] original = text(2_000_000);
+    byte[] compressed = compress(original, type, level);
+
+    try (ParallelDeflateDecompressor decompressor =
+        new ParallelDeflateDecompressor(pool, compressed.length / 8)) {
+      byte[] speculative = decompressor.decompressSpeculatively(compressed, type);
+      assertNotNull(speculative);
+      assertArrayEquals(original, speculative);
+      assertArrayEquals(original, decompressor.decompress(compressed, type));
+    }
+  }
+
+  @ParameterizedTest
+  @EnumSource(CompressionType.class)
+  void fallsBackForStoredData(CompressionType type) throws Exception {
+    // Random data is stored, so there are no dynamic blocks to find and the stream is decoded as a
+    // single chunk.
+    byte[] original = new byte[500_000];
+    new Random(1).nextBytes(original);
+    byte[] compressed = compress(original, type, 6);
+
+    try (ParallelDeflateDecompressor decompressor = new ParallelDeflateDecompressor(pool, 50_000)) {
+      assertArrayEquals(original, decompressor.decompress(compressed, type));
+    }
+  }
+
+  @Test
+  void decodesSmallInputsSequentially() throws Exception {
+    byte[] original = text(1_000);
+    byte[] compressed = compress(original, CompressionType.GZIP, 6);
+
+    try (ParallelDeflateDecompressor decompressor = new ParallelDeflateDecompressor()) {
+      assertNull(decompressor.decompressSpeculatively(compressed, CompressionType.GZIP));
+      assertArrayEquals(original, decompressor.decompress(compressed, CompressionType.GZIP));
+    }
+  }
+
+  @Test
+  void rejectsCorruptData() {
+    byte[] compressed = compress(text(1_000_000), CompressionType.GZIP, 6);
+    compressed[compressed.length / 2] ^= 0x10;
+
+    try (ParallelDeflateDecompressor decompressor =
+        new ParallelDeflateDecompressor(pool, compressed.length / 8)) {
+      assertNull(decompressor.decompressSpeculatively(compressed, CompressionType.GZIP));
+      assertThrows(
+          DataFormatException.class,
+          () -> decompressor.decompress(compressed, CompressionType.GZIP));
+    }
+  }
+
+  @ParameterizedTest
+  @MethodSource("typesAndLevels")
+  void decoderMatchesLibdeflate(CompressionType type, int level) {
+    // Small inputs are compressed with the fixed code, larger ones with dynamic codes.
+    for (int size : new int[] {0, 1, 100, 100_000}) {
+      byte[] original = text(size);
+      byte[] compressed = compress(original, CompressionType.DEFLATE, level);
+
+      DeflateDecoder decoder = new DeflateDecoder(compressed, compressed.length);
+      decoder.reset(0, false);
+      int result;
+      do {
+        result = decoder.decodeBlock();
+      } while (result == DeflateDecoder.BLOCK_DONE);
+      assertEquals(DeflateDecoder.BLOCK_FINAL, result);
+
+      byte[] decoded = new byte[decoder.outputEnd()];
+      for (int i = 0; i < decoded.length; i++) {
+        decoded[i] = (byte) decoder.output()[i];
+      }
+      assertArrayEquals(original, decoded);
+      assertEquals(compressed.length, (decoder.bitPosition() + 7) / 8);
+    }
+  }
+}
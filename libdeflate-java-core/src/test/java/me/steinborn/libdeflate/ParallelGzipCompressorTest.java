@@ -0,0 +1,56 @@
+/*
+ * Copyright 2024 Andrew Steinborn
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package me.steinborn.libdeflate;
+
+import static me.steinborn.libdeflate.TestData.gunzip;
+import static me.steinborn.libdeflate.TestData.sample;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.concurrent.ForkJoinPool;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+public class ParallelGzipCompressorTest {
+  @ParameterizedTest
+  @ValueSource(ints = {0, 1, 4095, 4096, 4097, 100_000})
+  void byteArrayRoundTrip(int size) throws Exception {
+    byte[] original = sample(size);
+    ForkJoinPool pool = new ForkJoinPool(4);
+    try (ParallelGzipCompressor compressor = new ParallelGzipCompressor(9, 4096, pool)) {
+      assertArrayEquals(original, gunzip(compressor.compress(original)));
+    } finally {
+      pool.shutdown();
+    }
+  }
+
+  @ParameterizedTest
+  @ValueSource(ints = {0, 1, 4095, 4096, 4097, 100_000})
+  void streamRoundTrip(int size) throws Exception {
+    byte[] original = sample(size);
+    ForkJoinPool pool = new ForkJoinPool(2);
+    try (ParallelGzipCompressor compressor = new ParallelGzipCompressor(6, 4096, pool)) {
+      ByteArrayOutputStream out = new ByteArrayOutputStream();
+      long written = compressor.compress(new ByteArrayInputStream(original), out);
+      assertEquals(out.size(), written);
+      assertArrayEquals(original, gunzip(out.toByteArray()));
+    } finally {
+      pool.shutdown();
+    }
+  }
+}
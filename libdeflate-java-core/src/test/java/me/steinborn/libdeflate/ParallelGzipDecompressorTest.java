@@ -0,0 +1,152 @@
+/*
+ * Copyright 2024 Andrew Steinborn
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package me.steinborn.libdeflate;
+
+import static me.steinborn.libdeflate.TestData.sample;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.zip.DataFormatException;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.EnumSource;
+
+public class ParallelGzipDecompressorTest {
+  private static ForkJoinPool pool;
+
+  @BeforeAll
+  static void createPool() {
+    pool = new ForkJoinPool(4);
+  }
+
+  @AfterAll
+  static void shutdownPool() {
+    pool.shutdown();
+  }
+
+  private static byte[] gzip(byte[] data, int level) {
+    try (LibdeflateCompressor compressor = new LibdeflateCompressor(level)) {
+      byte[] out =
+          new byte
+              [(int)
+                  LibdeflateCompressor.getGenericCompressionBound(
+                      data.length, CompressionType.GZIP)];
+      int produced = compressor.compress(data, out, CompressionType.GZIP);
+      return Arrays.copyOf(out, produced);
+    }
+  }
+
+  @Test
+  void decompressesPigzStyleOutput() throws Exception {
+    byte[] original = sample(1_000_000);
+    byte[] compressed;
+    try (ParallelGzipCompressor compressor = new ParallelGzipCompressor(6, 10_000, pool)) {
+      compressed = compressor.compress(original);
+    }
+
+    GzipMemberScanner.Members members = GzipMemberScanner.scan(ByteBuffer.wrap(compressed));
+    assertEquals(100, members.count());
+    assertEquals(original.length, members.totalSize());
+
+    try (ParallelGzipDecompressor decompressor = new ParallelGzipDecompressor(pool)) {
+      assertArrayEquals(original, decompressor.decompress(compressed));
+    }
+  }
+
+  @ParameterizedTest
+  @EnumSource(ByteBufferMatrix.class)
+  void decompressesIntoByteBuffers(ByteBufferMatrix matrix) throws Exception {
+    byte[] original = sample(300_000);
+    byte[] compressed;
+    try (ParallelGzipCompressor compressor = new ParallelGzipCompressor(1, 7_000, pool)) {
+      compressed = compressor.compress(original);
+    }
+
+    ByteBuffer in = matrix.allocateSource(compressed.length);
+    in.put(compressed).flip();
+    try (ParallelGzipDecompressor decompressor = new ParallelGzipDecompressor(pool)) {
+      ByteBuffer small = matrix.allocateDestination(original.length - 1);
+      assertEquals(-1, decompressor.decompress(in, small));
+      assertEquals(0, in.position());
+      assertEquals(0, small.position());
+
+      ByteBuffer out = matrix.allocateDestination(original.length + 10);
+      assertEquals(original.length, decompressor.decompress(in, out));
+      assertEquals(0, in.remaining());
+      assertEquals(original.length, out.position());
+
+      out.flip();
+      byte[] decompressed = new byte[out.remaining()];
+      out.get(decompressed);
+      assertArrayEquals(original, decompressed);
+    }
+  }
+
+  @Test
+  void fallsBackOnFalseBoundaries() throws Exception {
+    // A stored (level 0) member containing another gzip member, preceded by what looks like the
+    // trailer of an empty member, looks to the scanner as if it had a boundary in the middle.
+    byte[] inner = gzip(sample(5_000), 6);
+    byte[] payload = sample(20_000);
+    Arrays.fill(payload, 6_992, 7_000, (byte) 0);
+    System.arraycopy(inner, 0, payload, 7_000, inner.length);
+
+    ByteArrayOutputStream stream = new ByteArrayOutputStream();
+    ByteArrayOutputStream expected = new ByteArrayOutputStream();
+    for (int i = 0; i < 3; i++) {
+      stream.write(gzip(payload, 0));
+      expected.write(payload);
+    }
+    byte[] compressed = stream.toByteArray();
+    GzipMemberScanner.Members members = GzipMemberScanner.scan(ByteBuffer.wrap(compressed));
+    assertEquals(6, members.count());
+
+    try (ParallelGzipDecompressor decompressor = new ParallelGzipDecompressor(pool)) {
+      assertArrayEquals(expected.toByteArray(), decompressor.decompress(compressed));
+    }
+  }
+
+  @Test
+  void singleMember() throws Exception {
+    byte[] original = sample(10_000);
+    try (ParallelGzipDecompressor decompressor = new ParallelGzipDecompressor(pool)) {
+      assertArrayEquals(original, decompressor.decompress(gzip(original, 6)));
+    }
+  }
+
+  @Test
+  void rejectsCorruptData() throws Exception {
+    byte[] compressed;
+    try (ParallelGzipCompressor compressor = new ParallelGzipCompressor(6, 10_000, pool)) {
+      compressed = compressor.compress(sample(100_000));
+    }
+    compressed[compressed.length / 2] ^= 0x55;
+    byte[] trailingGarbage = Arrays.copyOf(gzip(sample(100), 6), 200);
+
+    try (ParallelGzipDecompressor decompressor = new ParallelGzipDecompressor(pool)) {
+      assertThrows(DataFormatException.class, () -> decompressor.decompress(compressed));
+      assertThrows(DataFormatException.class, () -> decompressor.decompress(trailingGarbage));
+      assertThrows(DataFormatException.class, () -> decompressor.decompress(new byte[100]));
+    }
+  }
+}
@@ -0,0 +1,138 @@
+/*
+ * Copyright 2024 Andrew Steinborn
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package me.steinborn.libdeflate;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.zip.DataFormatException;
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+import org.junit.jupiter.api.Test;
+
+public class FlightRecorderEventsTest {
+  private static final String COMPRESS = "me.steinborn.libdeflate.Compress";
+  private static final String DECOMPRESS = "me.steinborn.libdeflate.Decompress";
+  private static final String CHECKSUM = "me.steinborn.libdeflate.Checksum";
+
+  private static final byte[] DATA =
+      "the quick brown fox jumps over the lazy dog. "
+          .repeat(200)
+          .getBytes(StandardCharsets.US_ASCII);
+
+  @Test
+  void isEnabled() {
+    assertTrue(FlightRecorderEvents.ENABLED);
+  }
+
+  @Test
+  void recordsCalls() throws Exception {
+    byte[] compressed = new byte[DATA.length];
+    byte[] restored = new byte[DATA.length];
+    int compressedSize;
+    List<RecordedEvent> events;
+    try (Recording recording = new Recording();
+        LibdeflateCompressor compressor = new LibdeflateCompressor(6);
+        LibdeflateDecompressor decompressor = new LibdeflateDecompressor()) {
+      recording.enable(COMPRESS).withThreshold(Duration.ZERO);
+      recording.enable(DECOMPRESS).withThreshold(Duration.ZERO);
+      recording.enable(CHECKSUM).withThreshold(Duration.ZERO);
+      recording.start();
+
+      compressedSize = compressor.compress(DATA, compressed, CompressionType.GZIP);
+      ByteBuffer source = ByteBuffer.allocateDirect(compressedSize);
+      source.put(compressed, 0, compressedSize).flip();
+      decompressor.decompress(source, ByteBuffer.wrap(restored), CompressionType.GZIP);
+      new LibdeflateCRC32().update(DATA, 0, DATA.length);
+
+      recording.stop();
+      events = read(recording);
+    }
+    assertArrayEquals(DATA, restored);
+
+    RecordedEvent compress = only(events, COMPRESS);
+    assertEquals("GZIP", compress.getString("type"));
+    assertEquals(6, compress.getInt("level"));
+    assertEquals(DATA.length, compress.getLong("inputSize"));
+    assertEquals(compressedSize, compress.getLong("outputSize"));
+    assertEquals("heap", compress.getString("inputBuffer"));
+    assertEquals("SUCCESS", compress.getString("outcome"));
+
+    RecordedEvent decompress = only(events, DECOMPRESS);
+    assertEquals("GZIP", decompress.getString("type"));
+    assertEquals(compressedSize, decompress.getLong("inputSize"));
+    assertEquals(DATA.length, decompress.getLong("outputSize"));
+    assertEquals("direct", decompress.getString("inputBuffer"));
+    assertEquals("SUCCESS", decompress.getString("outcome"));
+
+    RecordedEvent checksum = only(events, CHECKSUM);
+    assertEquals("CRC32", checksum.getString("algorithm"));
+    assertEquals(DATA.length, checksum.getLong("size"));
+    assertEquals("heap", checksum.getString("buffer"));
+  }
+
+  @Test
+  void recordsCorruptData() throws Exception {
+    byte[] garbage = new byte[64];
+    List<RecordedEvent> events;
+    try (Recording recording = new Recording();
+        LibdeflateDecompressor decompressor = new LibdeflateDecompressor()) {
+      recording.enable(DECOMPRESS).withThreshold(Duration.ZERO);
+      recording.start();
+      try {
+        decompressor.decompress(
+            ByteBuffer.wrap(garbage), ByteBuffer.allocate(64), CompressionType.GZIP);
+      } catch (DataFormatException expected) {
+        // the event is what this test is about
+      }
+      recording.stop();
+      events = read(recording);
+    }
+
+    RecordedEvent decompress = only(events, DECOMPRESS);
+    assertEquals("BAD_DATA", decompress.getString("outcome"));
+    assertEquals(garbage.length, decompress.getLong("inputSize"));
+    assertEquals(0, decompress.getLong("outputSize"));
+  }
+
+  private static List<RecordedEvent> read(Recording recording) throws Exception {
+    Path file = Files.createTempFile("libdeflate", ".jfr");
+    try {
+      recording.dump(file);
+      return RecordingFile.readAllEvents(file);
+    } finally {
+      Files.delete(file);
+    }
+  }
+
+  private static RecordedEvent only(List<RecordedEvent> events, String name) {
+    List<RecordedEvent> matching =
+        events.stream()
+            .filter(event -> event.getEventType().getName().equals(name))
+            .collect(Collectors.toList());
+    assertEquals(1, matching.size(), name + " events: " + matching);
+    return matching.get(0);
+  }
+}
@@ -0,0 +1,22 @@
+plugins {
+    `java-library`
+}
+
+// java.util.concurrent.Flow was added in Java 9, so this module can't be part of the Java 8 core.
+java {
+    toolchain {
+        languageVersion.set(JavaLanguageVersion.of(11))
+    }
+}
+
+dependencies {
+    api(project(":libdeflate-java-core"))
+
+    testImplementation("org.junit.jupiter:junit-jupiter-api:5.7.0")
+    testImplementation("org.junit.jupiter:junit-jupiter-params:5.7.0")
+    testRuntimeOnly("org.junit.jupiter:junit-jupiter-engine:5.7.0")
+}
+
+tasks.named<Test>("test") {
+    useJUnitPlatform()
+}
@@ -0,0 +1,257 @@
+/*
+ * Copyright 2024 Andrew Steinborn
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package me.steinborn.libdeflate;
+
+import java.nio.ByteBuffer;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Flow;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * A {@link Flow.Processor} that compresses each message it receives with an {@link
+ * AsyncLibdeflateCodec} and publishes the compressed messages in the order they arrived. Messages
+ * are compressed in parallel on the codec's executor, but at most {@code maxInFlight} of them are
+ * requested from upstream and not yet delivered downstream at any time, so a slow subscriber slows
+ * down the publisher instead of letting compressed messages pile up.
+ *
+ * <p>Each processor accepts a single subscription from upstream and a single subscriber. If
+ * compressing a message fails, or upstream signals an error, the error is passed on at once and any
+ * messages still in flight are dropped and their buffers given back to the codec with {@link
+ * AsyncLibdeflateCodec#release(ByteBuffer)}, as they are when the subscriber cancels. The codec is
+ * not closed by the processor.
+ *
+ * <p><strong>Thread-safety</strong>: this class is thread-safe, as required by {@link Flow}.
+ */
+public final class LibdeflateCompressionProcessor
+    implements Flow.Processor<ByteBuffer, ByteBuffer> {
+  private final AsyncLibdeflateCodec codec;
+  private final CompressionType type;
+  private final int maxInFlight;
+
+  /** Compressed messages, or messages still being compressed, in the order they arrived. */
+  private final Queue<CompletableFuture<ByteBuffer>> pending = new ConcurrentLinkedQueue<>();
+
+  private final AtomicReference<Flow.Subscriber<? super ByteBuffer>> downstream =
+      new AtomicReference<>();
+  private final AtomicReference<Flow.Subscription> upstream = new AtomicReference<>();
+  private final AtomicLong demand = new AtomicLong();
+  private final AtomicInteger wip = new AtomicInteger();
+  private volatile boolean upstreamDone = false;
+  private volatile Throwable error;
+  private volatile boolean cancelled = false;
+  private volatile boolean terminated = false;
+
+  /**
+   * Creates a processor.
+   *
+   * @param codec the codec to compress messages with
+   * @param type the compression container to use
+   * @param maxInFlight the largest number of messages being compressed or waiting to be delivered
+   * @throws IllegalArgumentException if {@code maxInFlight} is not positive
+   */
+  public LibdeflateCompressionProcessor(
+      AsyncLibdeflateCodec codec, CompressionType type, int maxInFlight) {
+    if (codec == null) {
+      throw new NullPointerException("codec");
+    }
+    if (type == null) {
+      throw new NullPointerException("type");
+    }
+    if (maxInFlight <= 0) {
+      throw new IllegalArgumentException("maxInFlight = " + maxInFlight);
+    }
+    this.codec = codec;
+    this.type = type;
+    this.maxInFlight = maxInFlight;
+  }
+
+  @Override
+  public void subscribe(Flow.Subscriber<? super ByteBuffer> subscriber) {
+    if (subscriber == null) {
+      throw new NullPointerException("subscriber");
+    }
+    if (!downstream.compareAndSet(null, subscriber)) {
+      subscriber.onSubscribe(
+          new Flow.Subscription() {
+            @Override
+            public void request(long n) {}
+
+            @Override
+            public void cancel() {}
+          });
+      subscriber.onError(new IllegalStateException("processor already has a subscriber"));
+      return;
+    }
+    subscriber.onSubscribe(new Downstream());
+    drain();
+  }
+
+  @Override
+  public void onSubscribe(Flow.Subscription subscription) {
+    if (cancelled || !upstream.compareAndSet(null, subscription)) {
+      subscription.cancel();
+      return;
+    }
+    subscription.request(maxInFlight);
+  }
+
+  @Override
+  public void onNext(ByteBuffer item) {
+    if (item == null) {
+      throw new NullPointerException("item");
+    }
+    if (upstreamDone || cancelled) {
+      return;
+    }
+    CompletableFuture<ByteBuffer> compressed;
+    try {
+      compressed = codec.compressAsync(item, type);
+    } catch (RuntimeException e) {
+      // The executor rejected the task, or the codec has been closed.
+      fail(e);
+      return;
+    }
+    pending.add(compressed);
+    compressed.whenComplete((result, failure) -> drain());
+  }
+
+  @Override
+  public void onError(Throwable throwable) {
+    error = throwable;
+    upstreamDone = true;
+    drain();
+  }
+
+  @Override
+  public void onComplete() {
+    upstreamDone = true;
+    drain();
+  }
+
+  private void fail(Throwable throwable) {
+    error = throwable;
+    cancelUpstream();
+    drain();
+  }
+
+  private void cancelUpstream() {
+    upstreamDone = true;
+    Flow.Subscription subscription = upstream.get();
+    if (subscription != null) {
+      subscription.cancel();
+    }
+  }
+
+  /**
+   * Delivers every compressed message at the head of the queue that downstream has asked for, and
+   * requests as many new messages from upstream. Only one thread drains at a time; a thread that
+   * finds another one draining leaves it to go round once more.
+   */
+  private void drain() {
+    if (wip.getAndIncrement() != 0) {
+      return;
+    }
+    int missed = 1;
+    do {
+      Flow.Subscriber<? super ByteBuffer> subscriber = downstream.get();
+      if (cancelled || terminated) {
+        discardPending();
+      } else if (subscriber != null) {
+        long delivered = deliver(subscriber);
+        Flow.Subscription subscription = upstream.get();
+        if (delivered > 0 && !upstreamDone && subscription != null) {
+          subscription.request(delivered);
+        }
+      }
+      missed = wip.addAndGet(-missed);
+    } while (missed != 0);
+  }
+
+  private long deliver(Flow.Subscriber<? super ByteBuffer> subscriber) {
+    long delivered = 0;
+    while (true) {
+      Throwable failure = error;
+      if (failure != null) {
+        terminate();
+        subscriber.onError(failure);
+        return delivered;
+      }
+      CompletableFuture<ByteBuffer> head = pending.peek();
+      if (head == null) {
+        if (upstreamDone) {
+          terminate();
+          subscriber.onComplete();
+        }
+        return delivered;
+      }
+      if (!head.isDone() || demand.get() == 0) {
+        return delivered;
+      }
+      ByteBuffer compressed;
+      try {
+        compressed = head.join();
+      } catch (CompletionException e) {
+        cancelUpstream();
+        terminate();
+        subscriber.onError(e.getCause());
+        return delivered;
+      }
+      pending.poll();
+      if (demand.get() != Long.MAX_VALUE) {
+        demand.decrementAndGet();
+      }
+      subscriber.onNext(compressed);
+      delivered++;
+    }
+  }
+
+  private void terminate() {
+    terminated = true;
+    discardPending();
+  }
+
+  /** Drops the messages that will never be delivered, releasing their buffers once compressed. */
+  private void discardPending() {
+    CompletableFuture<ByteBuffer> dropped;
+    while ((dropped = pending.poll()) != null) {
+      dropped.thenAccept(codec::release);
+    }
+  }
+
+  private final class Downstream implements Flow.Subscription {
+    @Override
+    public void request(long n) {
+      if (n <= 0) {
+        fail(new IllegalArgumentException("non-positive request: " + n));
+        return;
+      }
+      demand.getAndUpdate(current -> current + n < 0 ? Long.MAX_VALUE : current + n);
+      drain();
+    }
+
+    @Override
+    public void cancel() {
+      cancelled = true;
+      cancelUpstream();
+      drain();
+    }
+  }
+}
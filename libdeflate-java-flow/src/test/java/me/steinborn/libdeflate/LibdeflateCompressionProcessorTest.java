@@ -0,0 +1,241 @@
+/*
+ * Copyright 2024 Andrew Steinborn
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package me.steinborn.libdeflate;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Flow;
+import java.util.concurrent.SubmissionPublisher;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.DataFormatException;
+import org.junit.jupiter.api.Test;
+
+public class LibdeflateCompressionProcessorTest {
+  private static ByteBuffer message(int i) {
+    byte[] data = new byte[1000 + i * 100];
+    for (int j = 0; j < data.length; j++) {
+      data[j] = (byte) ('a' + (i + j) % 7);
+    }
+    ByteBuffer buffer = ByteBuffer.allocateDirect(data.length);
+    buffer.put(data).flip();
+    return buffer;
+  }
+
+  private static ByteBuffer decompress(ByteBuffer compressed) throws DataFormatException {
+    try (LibdeflateDecompressor decompressor = new LibdeflateDecompressor()) {
+      return decompressor.decompressToNew(compressed.duplicate(), CompressionType.ZLIB);
+    }
+  }
+
+  @Test
+  void publishesInOrder() throws Exception {
+    ExecutorService executor = Executors.newFixedThreadPool(4);
+    try (AsyncLibdeflateCodec codec = new AsyncLibdeflateCodec(6, executor)) {
+      LibdeflateCompressionProcessor processor =
+          new LibdeflateCompressionProcessor(codec, CompressionType.ZLIB, 8);
+      Collector collector = new Collector(Long.MAX_VALUE);
+      processor.subscribe(collector);
+      try (SubmissionPublisher<ByteBuffer> publisher = new SubmissionPublisher<>()) {
+        publisher.subscribe(processor);
+        for (int i = 0; i < 100; i++) {
+          publisher.submit(message(i));
+        }
+      }
+      collector.awaitTermination();
+
+      assertNull(collector.error);
+      assertEquals(100, collector.items.size());
+      for (int i = 0; i < 100; i++) {
+        assertEquals(message(i), decompress(collector.items.get(i)));
+      }
+    } finally {
+      executor.shutdown();
+    }
+  }
+
+  @Test
+  void requestsNoMoreThanMaxInFlight() {
+    try (AsyncLibdeflateCodec codec = new AsyncLibdeflateCodec(6, Runnable::run)) {
+      LibdeflateCompressionProcessor processor =
+          new LibdeflateCompressionProcessor(codec, CompressionType.ZLIB, 3);
+      Collector collector = new Collector(0);
+      processor.subscribe(collector);
+      Upstream upstream = new Upstream();
+      processor.onSubscribe(upstream);
+      assertEquals(3, upstream.requested);
+
+      for (int i = 0; i < 3; i++) {
+        processor.onNext(message(i));
+      }
+      assertEquals(3, upstream.requested);
+      assertTrue(collector.items.isEmpty());
+
+      // Each delivered message makes room for one more.
+      collector.subscription.request(2);
+      assertEquals(2, collector.items.size());
+      assertEquals(5, upstream.requested);
+
+      processor.onComplete();
+      assertFalse(collector.completed);
+      collector.subscription.request(1);
+      assertEquals(3, collector.items.size());
+      assertTrue(collector.completed);
+    }
+  }
+
+  @Test
+  void cancelReleasesPendingBuffers() {
+    try (AsyncLibdeflateCodec codec = new AsyncLibdeflateCodec(6, Runnable::run)) {
+      LibdeflateCompressionProcessor processor =
+          new LibdeflateCompressionProcessor(codec, CompressionType.ZLIB, 4);
+      Collector collector = new Collector(0);
+      processor.subscribe(collector);
+      Upstream upstream = new Upstream();
+      processor.onSubscribe(upstream);
+      for (int i = 0; i < 3; i++) {
+        processor.onNext(message(i));
+      }
+
+      int pooled = DirectBufferPool.SHARED.size();
+      collector.subscription.cancel();
+      assertTrue(upstream.cancelled);
+      assertEquals(pooled + 3, DirectBufferPool.SHARED.size());
+      assertTrue(collector.items.isEmpty());
+      assertFalse(collector.completed);
+      assertNull(collector.error);
+    }
+  }
+
+  @Test
+  void passesOnErrors() {
+    try (AsyncLibdeflateCodec codec = new AsyncLibdeflateCodec(6, Runnable::run)) {
+      LibdeflateCompressionProcessor processor =
+          new LibdeflateCompressionProcessor(codec, CompressionType.ZLIB, 4);
+      Collector collector = new Collector(Long.MAX_VALUE);
+      processor.subscribe(collector);
+      processor.onSubscribe(new Upstream());
+      processor.onNext(message(0));
+      IllegalStateException failure = new IllegalStateException("upstream failed");
+      processor.onError(failure);
+
+      assertEquals(1, collector.items.size());
+      assertEquals(failure, collector.error);
+    }
+
+    // A message that can't be compressed fails the stream and cancels upstream.
+    AsyncLibdeflateCodec closed = new AsyncLibdeflateCodec(6, Runnable::run);
+    closed.close();
+    LibdeflateCompressionProcessor processor =
+        new LibdeflateCompressionProcessor(closed, CompressionType.ZLIB, 4);
+    Collector collector = new Collector(Long.MAX_VALUE);
+    processor.subscribe(collector);
+    Upstream upstream = new Upstream();
+    processor.onSubscribe(upstream);
+    processor.onNext(message(0));
+    assertTrue(upstream.cancelled);
+    assertTrue(collector.error instanceof IllegalStateException, String.valueOf(collector.error));
+    assertFalse(collector.error instanceof CompletionException);
+  }
+
+  @Test
+  void rejectsSecondSubscriber() {
+    try (AsyncLibdeflateCodec codec = new AsyncLibdeflateCodec(6, Runnable::run)) {
+      LibdeflateCompressionProcessor processor =
+          new LibdeflateCompressionProcessor(codec, CompressionType.ZLIB, 4);
+      Collector first = new Collector(Long.MAX_VALUE);
+      Collector second = new Collector(Long.MAX_VALUE);
+      processor.subscribe(first);
+      processor.subscribe(second);
+      assertTrue(second.error instanceof IllegalStateException);
+
+      processor.onSubscribe(new Upstream());
+      processor.onNext(message(0));
+      processor.onComplete();
+      assertEquals(1, first.items.size());
+      assertTrue(first.completed);
+      assertTrue(second.items.isEmpty());
+    }
+  }
+
+  private static final class Upstream implements Flow.Subscription {
+    volatile long requested;
+    volatile boolean cancelled;
+
+    @Override
+    public void request(long n) {
+      requested += n;
+    }
+
+    @Override
+    public void cancel() {
+      cancelled = true;
+    }
+  }
+
+  private static final class Collector implements Flow.Subscriber<ByteBuffer> {
+    private final long initialRequest;
+    final List<ByteBuffer> items = new ArrayList<>();
+    Flow.Subscription subscription;
+    volatile Throwable error;
+    volatile boolean completed;
+
+    Collector(long initialRequest) {
+      this.initialRequest = initialRequest;
+    }
+
+    @Override
+    public void onSubscribe(Flow.Subscription subscription) {
+      this.subscription = subscription;
+      if (initialRequest > 0) {
+        subscription.request(initialRequest);
+      }
+    }
+
+    @Override
+    public synchronized void onNext(ByteBuffer item) {
+      items.add(item);
+    }
+
+    @Override
+    public synchronized void onError(Throwable throwable) {
+      error = throwable;
+      notifyAll();
+    }
+
+    @Override
+    public synchronized void onComplete() {
+      completed = true;
+      notifyAll();
+    }
+
+    synchronized void awaitTermination() throws InterruptedException {
+      long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(30);
+      while (!completed && error == null && System.nanoTime() < deadline) {
+        wait(1000);
+      }
+      assertTrue(completed || error != null, "stream did not terminate");
+    }
+  }
+}
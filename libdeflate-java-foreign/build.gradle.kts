@@ -0,0 +1,39 @@
+plugins {
+    `java-library`
+}
+
+java {
+    toolchain {
+        languageVersion.set(JavaLanguageVersion.of(22))
+    }
+}
+
+evaluationDependsOn(":libdeflate-java-core")
+
+// The MemorySegment entry points of ForeignBackend only exist in the Java 22 classes of the core
+// module, which are shipped under META-INF/versions/22. Projects depend on each other's class
+// directories rather than jars, so put those classes ahead of the Java 8 stub ourselves.
+val coreJava22: SourceSetOutput = project(":libdeflate-java-core").the<SourceSetContainer>()["java22"].output
+
+dependencies {
+    api(project(":libdeflate-java-core"))
+
+    testImplementation("org.junit.jupiter:junit-jupiter-api:5.7.0")
+    testImplementation("org.junit.jupiter:junit-jupiter-params:5.7.0")
+    testRuntimeOnly("org.junit.jupiter:junit-jupiter-engine:5.7.0")
+}
+
+tasks.named<JavaCompile>("compileJava") {
+    classpath = coreJava22 + classpath
+}
+
+tasks.named<JavaCompile>("compileTestJava") {
+    classpath = coreJava22 + classpath
+}
+
+tasks.named<Test>("test") {
+    classpath = coreJava22 + classpath
+    useJUnitPlatform()
+    jvmArgs("--enable-native-access=ALL-UNNAMED")
+    systemProperty("libdeflate_backend", "ffm")
+}
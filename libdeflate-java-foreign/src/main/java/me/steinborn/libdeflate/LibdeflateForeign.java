@@ -0,0 +1,158 @@
+/*
+ * Copyright 2024 Andrew Steinborn
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package me.steinborn.libdeflate;
+
+import java.lang.foreign.MemorySegment;
+import java.util.zip.DataFormatException;
+
+/**
+ * {@link MemorySegment} entry points for the libdeflate compressor, decompressor and checksums,
+ * available on Java 22 and above. Segments may be backed by native memory (for instance allocated
+ * from an {@link java.lang.foreign.Arena}) or by the heap. Native segments are passed to libdeflate
+ * directly, without JNI and without pinning anything; heap segments are pinned for the duration of
+ * the call, just like the {@code byte[]} APIs.
+ *
+ * <p>These methods behave exactly like their {@code byte[]} counterparts on {@link
+ * LibdeflateCompressor} and {@link LibdeflateDecompressor}, using the whole of each segment.
+ */
+public final class LibdeflateForeign {
+  static {
+    Libdeflate.ensureAvailable();
+  }
+
+  private LibdeflateForeign() {}
+
+  private static void ensureSupported() {
+    if (!ForeignBackend.isSupported()) {
+      throw new IllegalStateException(
+          "java.lang.foreign access to libdeflate is unavailable, is native access enabled?");
+    }
+  }
+
+  /**
+   * Compresses the entirety of {@code in} into {@code out}.
+   *
+   * @param compressor the compressor to use
+   * @param in the source segment to compress
+   * @param out the destination which will hold compressed data
+   * @param type the compression container to use
+   * @return a positive, non-zero integer with the size of the compressed output, or zero if the
+   *     given output segment was too small
+   */
+  public static long compress(
+      LibdeflateCompressor compressor, MemorySegment in, MemorySegment out, CompressionType type) {
+    ensureSupported();
+    compressor.ensureNotClosed();
+    return ForeignBackend.compress(
+        MemorySegment.ofAddress(compressor.ctx), in, out, type.getNativeType());
+  }
+
+  /**
+   * Decompresses {@code in} into {@code out}, assuming that the size of {@code out} is the size of
+   * the uncompressed data. The number of input bytes consumed can be retrieved with {@link
+   * LibdeflateDecompressor#readStreamBytes()}.
+   *
+   * @param decompressor the decompressor to use
+   * @param in the source segment with compressed data
+   * @param out the destination which will hold decompressed data
+   * @param type the compression container to use
+   * @throws DataFormatException if the provided data was corrupt, or the data decompressed
+   *     successfully but it is less than the size of the output segment
+   * @throws IndexOutOfBoundsException if {@code in} or {@code out} is larger than 2 GiB
+   */
+  public static void decompress(
+      LibdeflateDecompressor decompressor,
+      MemorySegment in,
+      MemorySegment out,
+      CompressionType type)
+      throws DataFormatException {
+    decompress0(decompressor, in, out, type, (int) Math.min(out.byteSize(), Integer.MAX_VALUE));
+  }
+
+  /**
+   * Decompresses {@code in} into {@code out}, where the size of the uncompressed data is not known.
+   * The number of input bytes consumed can be retrieved with {@link
+   * LibdeflateDecompressor#readStreamBytes()}.
+   *
+   * @param decompressor the decompressor to use
+   * @param in the source segment with compressed data
+   * @param out the destination which will hold decompressed data
+   * @param type the compression container to use
+   * @return a positive, non-zero integer with the size of the uncompressed output, or -1 if the
+   *     given output segment was too small
+   * @throws DataFormatException if the provided data was corrupt
+   * @throws IndexOutOfBoundsException if {@code in} or {@code out} is larger than 2 GiB
+   */
+  public static long decompressUnknownSize(
+      LibdeflateDecompressor decompressor,
+      MemorySegment in,
+      MemorySegment out,
+      CompressionType type)
+      throws DataFormatException {
+    return decompress0(decompressor, in, out, type, -1);
+  }
+
+  private static long decompress0(
+      LibdeflateDecompressor decompressor,
+      MemorySegment in,
+      MemorySegment out,
+      CompressionType type,
+      int knownSize)
+      throws DataFormatException {
+    ensureSupported();
+    decompressor.ensureNotClosed();
+    // The consumed and produced counts are packed into the two halves of a long.
+    if (in.byteSize() > Integer.MAX_VALUE) {
+      throw new IndexOutOfBoundsException("in.byteSize() = " + in.byteSize());
+    }
+    if (out.byteSize() > Integer.MAX_VALUE) {
+      throw new IndexOutOfBoundsException("out.byteSize() = " + out.byteSize());
+    }
+    long result =
+        ForeignBackend.decompress(
+            MemorySegment.ofAddress(decompressor.ctx), in, out, type.getNativeType(), knownSize);
+    if (result == -1) {
+      return -1;
+    }
+    decompressor.availInBytes = result >>> 32;
+    return result & 0xffffffffL;
+  }
+
+  /**
+   * Computes the CRC-32 of {@code data}, continuing from a previous CRC-32 value.
+   *
+   * @param crc32 the CRC-32 of the preceding data, or zero to start a new checksum
+   * @param data the data to checksum
+   * @return the updated CRC-32 value
+   */
+  public static long crc32(long crc32, MemorySegment data) {
+    ensureSupported();
+    return ForeignBackend.crc32((int) crc32, data) & 0xffffffffL;
+  }
+
+  /**
+   * Computes the Adler-32 of {@code data}, continuing from a previous Adler-32 value.
+   *
+   * @param adler32 the Adler-32 of the preceding data, or one to start a new checksum
+   * @param data the data to checksum
+   * @return the updated Adler-32 value
+   */
+  public static long adler32(long adler32, MemorySegment data) {
+    ensureSupported();
+    return ForeignBackend.adler32((int) adler32, data) & 0xffffffffL;
+  }
+}
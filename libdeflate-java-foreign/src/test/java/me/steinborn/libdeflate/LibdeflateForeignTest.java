@@ -0,0 +1,132 @@
+/*
+ * Copyright 2024 Andrew Steinborn
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package me.steinborn.libdeflate;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.zip.Adler32;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.EnumSource;
+
+public class LibdeflateForeignTest {
+  private static final byte[] DATA =
+      "Hello, world! Hello, world! Hello, world! Hello, world!"
+          .repeat(100)
+          .getBytes(StandardCharsets.UTF_8);
+
+  @ParameterizedTest
+  @EnumSource(CompressionType.class)
+  void roundTripsNativeSegments(CompressionType type) throws Exception {
+    try (Arena arena = Arena.ofConfined();
+        LibdeflateCompressor compressor = new LibdeflateCompressor();
+        LibdeflateDecompressor decompressor = new LibdeflateDecompressor()) {
+      MemorySegment in = arena.allocate(DATA.length).copyFrom(MemorySegment.ofArray(DATA));
+      MemorySegment compressed = arena.allocate(compressor.getCompressBound(DATA.length, type));
+      long size = LibdeflateForeign.compress(compressor, in, compressed, type);
+      assertTrue(size > 0);
+
+      MemorySegment out = arena.allocate(DATA.length);
+      LibdeflateForeign.decompress(decompressor, compressed.asSlice(0, size), out, type);
+      assertArrayEquals(DATA, out.toArray(ValueLayout.JAVA_BYTE));
+      assertEquals(size, decompressor.readStreamBytes());
+    }
+  }
+
+  @ParameterizedTest
+  @EnumSource(CompressionType.class)
+  void roundTripsHeapSegments(CompressionType type) throws Exception {
+    try (LibdeflateCompressor compressor = new LibdeflateCompressor();
+        LibdeflateDecompressor decompressor = new LibdeflateDecompressor()) {
+      byte[] compressed = new byte[(int) compressor.getCompressBound(DATA.length, type)];
+      long size =
+          LibdeflateForeign.compress(
+              compressor, MemorySegment.ofArray(DATA), MemorySegment.ofArray(compressed), type);
+      assertTrue(size > 0);
+
+      byte[] out = new byte[DATA.length * 2];
+      long produced =
+          LibdeflateForeign.decompressUnknownSize(
+              decompressor,
+              MemorySegment.ofArray(compressed).asSlice(0, size),
+              MemorySegment.ofArray(out),
+              type);
+      assertEquals(DATA.length, produced);
+      assertArrayEquals(DATA, Arrays.copyOf(out, DATA.length));
+    }
+  }
+
+  @Test
+  void rejectsCorruptData() {
+    try (LibdeflateDecompressor decompressor = new LibdeflateDecompressor()) {
+      MemorySegment corrupt = MemorySegment.ofArray(new byte[] {1, 2, 3, 4, 5, 6, 7, 8});
+      assertThrows(
+          DataFormatException.class,
+          () ->
+              LibdeflateForeign.decompress(
+                  decompressor,
+                  corrupt,
+                  MemorySegment.ofArray(new byte[16]),
+                  CompressionType.ZLIB));
+    }
+  }
+
+  @Test
+  void rejectsSegmentsLargerThan2GiB() {
+    // Never read: the sizes are rejected before libdeflate is called.
+    MemorySegment huge = MemorySegment.NULL.reinterpret(1L << 32);
+    MemorySegment small = MemorySegment.ofArray(new byte[16]);
+    try (LibdeflateDecompressor decompressor = new LibdeflateDecompressor()) {
+      assertThrows(
+          IndexOutOfBoundsException.class,
+          () ->
+              LibdeflateForeign.decompressUnknownSize(
+                  decompressor, huge, small, CompressionType.ZLIB));
+      assertThrows(
+          IndexOutOfBoundsException.class,
+          () ->
+              LibdeflateForeign.decompressUnknownSize(
+                  decompressor, small, huge, CompressionType.ZLIB));
+      assertThrows(
+          IndexOutOfBoundsException.class,
+          () -> LibdeflateForeign.decompress(decompressor, small, huge, CompressionType.ZLIB));
+    }
+  }
+
+  @Test
+  void checksumsMatchJavaUtilZip() {
+    CRC32 crc32 = new CRC32();
+    crc32.update(DATA);
+    Adler32 adler32 = new Adler32();
+    adler32.update(DATA);
+    try (Arena arena = Arena.ofConfined()) {
+      MemorySegment data = arena.allocate(DATA.length).copyFrom(MemorySegment.ofArray(DATA));
+      assertEquals(crc32.getValue(), LibdeflateForeign.crc32(0, data));
+      assertEquals(adler32.getValue(), LibdeflateForeign.adler32(1, data));
+    }
+    assertEquals(crc32.getValue(), LibdeflateForeign.crc32(0, MemorySegment.ofArray(DATA)));
+  }
+}
@@ -0,0 +1,29 @@
+plugins {
+    java
+    id("me.champeau.jmh") version "0.7.2"
+}
+
+dependencies {
+    jmhImplementation(project(":libdeflate-java-core"))
+}
+
+jmh {
+    jmhVersion.set("1.37")
+
+    // Narrow the (very large) default parameter grid from the command line, for example:
+    //   ./gradlew :libdeflate-java-jmh:jmh -PjmhIncludes=CompressBenchmark -PjmhParams='level=1|6|12,size=65536'
+    if (project.hasProperty("jmhIncludes")) {
+        includes.set(listOf(project.property("jmhIncludes").toString()))
+    }
+    if (project.hasProperty("jmhParams")) {
+        val params = project.property("jmhParams").toString().split(",").map { it.split("=", limit = 2) }
+        benchmarkParameters.set(params.associate { (name, value) ->
+            name to project.objects.listProperty(String::class.java).value(value.split("|"))
+        })
+    }
+
+    // gc.alloc.rate.norm is reported by the GC profiler.
+    profilers.add("gc")
+    resultFormat.set("JSON")
+    failOnError.set(true)
+}
@@ -0,0 +1,132 @@
+/*
+ * Copyright 2024 Andrew Steinborn
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package me.steinborn.libdeflate.benchmark;
+
+import java.nio.charset.StandardCharsets;
+import java.util.SplittableRandom;
+
+/**
+ * Generates the payloads used by the benchmarks. The corpus is derived entirely from a fixed seed,
+ * so every run (on any machine, with or without network access) benchmarks exactly the same bytes.
+ */
+public enum BenchmarkCorpus {
+  /**
+   * Log-like text built from a small vocabulary, interleaved with numbers. It compresses at roughly
+   * the ratios seen for JSON and protocol traffic.
+   */
+  TEXT {
+    @Override
+    void fill(byte[] out, SplittableRandom random) {
+      int pos = 0;
+      while (pos < out.length) {
+        byte[] token;
+        if (random.nextInt(5) == 0) {
+          token = Integer.toString(random.nextInt(100_000)).getBytes(StandardCharsets.US_ASCII);
+        } else {
+          token = WORDS[random.nextInt(WORDS.length)];
+        }
+        int len = Math.min(token.length, out.length - pos);
+        System.arraycopy(token, 0, out, pos, len);
+        pos += len;
+        if (pos < out.length) {
+          out[pos++] = random.nextInt(12) == 0 ? (byte) '\n' : (byte) ' ';
+        }
+      }
+    }
+  },
+  /** Uniformly random bytes, which are incompressible. */
+  RANDOM {
+    @Override
+    void fill(byte[] out, SplittableRandom random) {
+      int pos = 0;
+      while (pos < out.length) {
+        long bits = random.nextLong();
+        for (int i = 0; i < 8 && pos < out.length; i++, bits >>>= 8) {
+          out[pos++] = (byte) bits;
+        }
+      }
+    }
+  };
+
+  private static final long SEED = 0x6c696264656c6174L; // "libdelat"
+
+  private static final byte[][] WORDS;
+
+  static {
+    String[] words = {
+      "the",
+      "player",
+      "entity",
+      "chunk",
+      "position",
+      "velocity",
+      "connection",
+      "server",
+      "request",
+      "response",
+      "status",
+      "error",
+      "timeout",
+      "compressed",
+      "packet",
+      "handshake",
+      "login",
+      "world",
+      "block",
+      "update",
+      "tick",
+      "inventory",
+      "item",
+      "slot",
+      "{\"id\":",
+      "\"name\":",
+      "\"value\":",
+      "true",
+      "false",
+      "null",
+      "INFO",
+      "WARN",
+      "DEBUG",
+      "[main]",
+      "[netty-epoll-1]",
+      "me.steinborn.libdeflate",
+      "java.util.zip",
+      "deflate",
+      "gzip",
+      "zlib"
+    };
+    WORDS = new byte[words.length][];
+    for (int i = 0; i < words.length; i++) {
+      WORDS[i] = words[i].getBytes(StandardCharsets.US_ASCII);
+    }
+  }
+
+  abstract void fill(byte[] out, SplittableRandom random);
+
+  /**
+   * Generates {@code size} bytes of this corpus. Calling this method twice with the same size
+   * always yields identical contents.
+   *
+   * @param size the number of bytes to generate
+   * @return the generated payload
+   */
+  public byte[] generate(int size) {
+    byte[] out = new byte[size];
+    fill(out, new SplittableRandom(SEED ^ ordinal()));
+    return out;
+  }
+}
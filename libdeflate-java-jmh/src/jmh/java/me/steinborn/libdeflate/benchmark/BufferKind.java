@@ -0,0 +1,59 @@
+/*
+ * Copyright 2024 Andrew Steinborn
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package me.steinborn.libdeflate.benchmark;
+
+import java.nio.ByteBuffer;
+
+/**
+ * The four combinations of heap and direct source/destination buffers. This mirrors {@code
+ * ByteBufferMatrix} in the core tests, since each combination takes a different native path.
+ */
+public enum BufferKind {
+  BOTH_HEAP(false, false),
+  DIRECT_SOURCE(true, false),
+  DIRECT_DESTINATION(false, true),
+  BOTH_DIRECT(true, true);
+
+  private final boolean directSource;
+  private final boolean directDestination;
+
+  BufferKind(boolean directSource, boolean directDestination) {
+    this.directSource = directSource;
+    this.directDestination = directDestination;
+  }
+
+  public ByteBuffer allocateSource(int capacity) {
+    return directSource ? ByteBuffer.allocateDirect(capacity) : ByteBuffer.allocate(capacity);
+  }
+
+  public ByteBuffer allocateDestination(int capacity) {
+    return directDestination ? ByteBuffer.allocateDirect(capacity) : ByteBuffer.allocate(capacity);
+  }
+
+  /**
+   * Allocates a source buffer holding exactly {@code contents}, ready to be read.
+   *
+   * @param contents the contents of the buffer
+   * @return the new buffer
+   */
+  public ByteBuffer wrapSource(byte[] contents) {
+    ByteBuffer buf = allocateSource(contents.length);
+    buf.put(contents);
+    buf.flip();
+    return buf;
+  }
+}
@@ -0,0 +1,94 @@
+/*
+ * Copyright 2024 Andrew Steinborn
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package me.steinborn.libdeflate.benchmark;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+import me.steinborn.libdeflate.CompressionType;
+import me.steinborn.libdeflate.LibdeflateCompressor;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares the cost of {@link LibdeflateCompressor#estimateRatio(ByteBuffer)} with that of a full
+ * compression, and shows how much {@link LibdeflateCompressor#compressOrStore(ByteBuffer,
+ * ByteBuffer, CompressionType, double)} saves on incompressible payloads.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class CompressibilityBenchmark {
+  @Param({"6"})
+  public int level;
+
+  @Param({"16384", "262144", "4194304"})
+  public int size;
+
+  @Param({"TEXT", "RANDOM"})
+  public BenchmarkCorpus corpus;
+
+  private LibdeflateCompressor compressor;
+  private ByteBuffer source;
+  private ByteBuffer destination;
+
+  @Setup(Level.Trial)
+  public void setup() {
+    compressor = new LibdeflateCompressor(level);
+    source = BufferKind.BOTH_DIRECT.wrapSource(corpus.generate(size));
+    destination =
+        BufferKind.BOTH_DIRECT.allocateDestination(
+            (int) LibdeflateCompressor.getGenericCompressionBound(size, CompressionType.GZIP));
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() {
+    compressor.close();
+  }
+
+  @Benchmark
+  public double estimate() {
+    source.rewind();
+    return compressor.estimateRatio(source);
+  }
+
+  @Benchmark
+  public int compress() {
+    source.rewind();
+    destination.clear();
+    return compressor.compress(source, destination, CompressionType.GZIP);
+  }
+
+  @Benchmark
+  public int compressOrStore() {
+    source.rewind();
+    destination.clear();
+    return compressor.compressOrStore(source, destination, CompressionType.GZIP, 0.05);
+  }
+}
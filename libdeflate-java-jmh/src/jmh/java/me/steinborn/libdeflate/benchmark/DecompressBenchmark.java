@@ -0,0 +1,101 @@
+/*
+ * Copyright 2024 Andrew Steinborn
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package me.steinborn.libdeflate.benchmark;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.DataFormatException;
+import me.steinborn.libdeflate.CompressionType;
+import me.steinborn.libdeflate.LibdeflateCompressor;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures decompression throughput and per-call latency of libdeflate against {@code
+ * java.util.zip}. Both implementations decompress the same input, which is produced by libdeflate
+ * at the given level.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class DecompressBenchmark {
+  @Param({"LIBDEFLATE", "JDK"})
+  public Implementation implementation;
+
+  @Param({"DEFLATE", "ZLIB", "GZIP"})
+  public CompressionType type;
+
+  @Param({"0", "1", "2", "3", "4", "5", "6", "7", "8", "9", "10", "11", "12"})
+  public int level;
+
+  @Param({"64", "1024", "16384", "262144", "4194304", "67108864"})
+  public int size;
+
+  @Param({"BOTH_HEAP", "DIRECT_SOURCE", "DIRECT_DESTINATION", "BOTH_DIRECT"})
+  public BufferKind buffers;
+
+  @Param({"TEXT"})
+  public BenchmarkCorpus corpus;
+
+  private Implementation.Codec codec;
+  private ByteBuffer source;
+  private ByteBuffer destination;
+
+  @Setup(Level.Trial)
+  public void setup() {
+    codec = implementation.create(type, level);
+
+    byte[] uncompressed = corpus.generate(size);
+    ByteBuffer compressed =
+        ByteBuffer.allocate((int) LibdeflateCompressor.getGenericCompressionBound(size, type));
+    try (LibdeflateCompressor compressor = new LibdeflateCompressor(level)) {
+      compressor.compress(ByteBuffer.wrap(uncompressed), compressed, type);
+    }
+    compressed.flip();
+
+    byte[] compressedBytes = new byte[compressed.remaining()];
+    compressed.get(compressedBytes);
+    source = buffers.wrapSource(compressedBytes);
+    destination = buffers.allocateDestination(size);
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() {
+    codec.close();
+  }
+
+  @Benchmark
+  public int decompress() throws DataFormatException {
+    source.rewind();
+    destination.clear();
+    return codec.decompress(source, destination);
+  }
+}
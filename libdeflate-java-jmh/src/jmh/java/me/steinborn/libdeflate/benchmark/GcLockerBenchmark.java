@@ -0,0 +1,98 @@
+/*
+ * Copyright 2024 Andrew Steinborn
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package me.steinborn.libdeflate.benchmark;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+import me.steinborn.libdeflate.CompressionType;
+import me.steinborn.libdeflate.LibdeflateCompressor;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Shows how long-running compressions of heap arrays, which hold a JNI critical region for the
+ * whole call, stall the garbage collector for other threads. One thread compresses while another
+ * allocates; compare the sampled latency percentiles of {@code allocate} with heap buffers against
+ * those with direct buffers, which never enter a critical region. Passing {@code -jvmArgsAppend
+ * -Dlibdeflate_heap_mode=staged} to JMH stages the heap buffers through direct buffers instead.
+ */
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 2)
+@Fork(
+    value = 1,
+    jvmArgsAppend = {"-Xmn64m"})
+@State(Scope.Group)
+public class GcLockerBenchmark {
+  @Param({"BOTH_HEAP", "BOTH_DIRECT"})
+  public BufferKind buffers;
+
+  @Param({"1048576", "16777216"})
+  public int size;
+
+  @Param({"6", "12"})
+  public int level;
+
+  private LibdeflateCompressor compressor;
+  private ByteBuffer source;
+  private ByteBuffer destination;
+
+  @Setup(Level.Trial)
+  public void setup() {
+    compressor = new LibdeflateCompressor(level);
+    source = buffers.wrapSource(BenchmarkCorpus.TEXT.generate(size));
+    destination =
+        buffers.allocateDestination(
+            (int) LibdeflateCompressor.getGenericCompressionBound(size, CompressionType.DEFLATE));
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() {
+    compressor.close();
+  }
+
+  @Benchmark
+  @Group("contention")
+  @GroupThreads(1)
+  public int compress() {
+    source.rewind();
+    destination.clear();
+    return compressor.compress(source, destination, CompressionType.DEFLATE);
+  }
+
+  @Benchmark
+  @Group("contention")
+  @GroupThreads(1)
+  public byte[] allocate() {
+    // Large enough to fill the young generation quickly and force frequent collections.
+    return new byte[64 * 1024];
+  }
+}
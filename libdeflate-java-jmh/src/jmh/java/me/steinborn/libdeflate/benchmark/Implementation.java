@@ -0,0 +1,252 @@
+/*
+ * Copyright 2024 Andrew Steinborn
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package me.steinborn.libdeflate.benchmark;
+
+import java.nio.ByteBuffer;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+import me.steinborn.libdeflate.CompressionType;
+import me.steinborn.libdeflate.LibdeflateCompressor;
+import me.steinborn.libdeflate.LibdeflateDecompressor;
+
+/** The compression implementations being compared. */
+public enum Implementation {
+  LIBDEFLATE {
+    @Override
+    Codec create(CompressionType type, int level) {
+      return new LibdeflateCodec(type, level);
+    }
+  },
+  /**
+   * {@code java.util.zip}. Levels above 9 are clamped to 9, which is the highest level zlib
+   * supports. Before Java 11 {@link Deflater} and {@link Inflater} only accept byte arrays, so
+   * direct buffers are copied through a scratch array, exactly as callers on Java 8 must do.
+   */
+  JDK {
+    @Override
+    Codec create(CompressionType type, int level) {
+      return new JdkCodec(type, level);
+    }
+  };
+
+  abstract Codec create(CompressionType type, int level);
+
+  /** A compressor/decompressor pair for a single compression container and level. */
+  interface Codec extends AutoCloseable {
+    int compress(ByteBuffer in, ByteBuffer out);
+
+    int decompress(ByteBuffer in, ByteBuffer out) throws DataFormatException;
+
+    @Override
+    void close();
+  }
+
+  private static final class LibdeflateCodec implements Codec {
+    private final CompressionType type;
+    private final LibdeflateCompressor compressor;
+    private final LibdeflateDecompressor decompressor;
+
+    LibdeflateCodec(CompressionType type, int level) {
+      this.type = type;
+      this.compressor = new LibdeflateCompressor(level);
+      this.decompressor = new LibdeflateDecompressor();
+    }
+
+    @Override
+    public int compress(ByteBuffer in, ByteBuffer out) {
+      return compressor.compress(in, out, type);
+    }
+
+    @Override
+    public int decompress(ByteBuffer in, ByteBuffer out) throws DataFormatException {
+      int produced = out.remaining();
+      decompressor.decompress(in, out, type);
+      return produced;
+    }
+
+    @Override
+    public void close() {
+      compressor.close();
+      decompressor.close();
+    }
+  }
+
+  private static final class JdkCodec implements Codec {
+    // libdeflate writes a minimal 10-byte gzip header without any optional fields, so that is all
+    // we need to produce and skip here.
+    private static final byte[] GZIP_HEADER = {0x1f, (byte) 0x8b, 8, 0, 0, 0, 0, 0, 0, (byte) 0xff};
+    private static final int GZIP_TRAILER_SIZE = 8;
+
+    private final CompressionType type;
+    private final Deflater deflater;
+    private final Inflater inflater;
+    private final CRC32 crc32 = new CRC32();
+    private byte[] inScratch = new byte[0];
+    private byte[] outScratch = new byte[0];
+
+    JdkCodec(CompressionType type, int level) {
+      this.type = type;
+      boolean nowrap = type != CompressionType.ZLIB;
+      this.deflater = new Deflater(Math.min(level, Deflater.BEST_COMPRESSION), nowrap);
+      this.inflater = new Inflater(nowrap);
+    }
+
+    @Override
+    public int compress(ByteBuffer in, ByteBuffer out) {
+      int inLen = in.remaining();
+      byte[] inArray;
+      int inOff;
+      if (in.hasArray()) {
+        inArray = in.array();
+        inOff = in.arrayOffset() + in.position();
+      } else {
+        inArray = inScratch = ensureCapacity(inScratch, inLen);
+        inOff = 0;
+        in.duplicate().get(inArray, 0, inLen);
+      }
+
+      int outLen = out.remaining();
+      byte[] outArray;
+      int outOff;
+      if (out.hasArray()) {
+        outArray = out.array();
+        outOff = out.arrayOffset() + out.position();
+      } else {
+        outArray = outScratch = ensureCapacity(outScratch, outLen);
+        outOff = 0;
+      }
+
+      int produced = 0;
+      if (type == CompressionType.GZIP) {
+        System.arraycopy(GZIP_HEADER, 0, outArray, outOff, GZIP_HEADER.length);
+        produced += GZIP_HEADER.length;
+      }
+
+      deflater.reset();
+      deflater.setInput(inArray, inOff, inLen);
+      deflater.finish();
+      while (!deflater.finished() && produced < outLen) {
+        produced += deflater.deflate(outArray, outOff + produced, outLen - produced);
+      }
+      if (!deflater.finished()) {
+        return 0;
+      }
+
+      if (type == CompressionType.GZIP) {
+        if (outLen - produced < GZIP_TRAILER_SIZE) {
+          return 0;
+        }
+        crc32.reset();
+        crc32.update(inArray, inOff, inLen);
+        writeIntLE(outArray, outOff + produced, (int) crc32.getValue());
+        writeIntLE(outArray, outOff + produced + 4, inLen);
+        produced += GZIP_TRAILER_SIZE;
+      }
+
+      if (!out.hasArray()) {
+        out.put(outArray, 0, produced);
+      } else {
+        out.position(out.position() + produced);
+      }
+      in.position(in.limit());
+      return produced;
+    }
+
+    @Override
+    public int decompress(ByteBuffer in, ByteBuffer out) throws DataFormatException {
+      int inLen = in.remaining();
+      byte[] inArray;
+      int inOff;
+      if (in.hasArray()) {
+        inArray = in.array();
+        inOff = in.arrayOffset() + in.position();
+      } else {
+        inArray = inScratch = ensureCapacity(inScratch, inLen);
+        inOff = 0;
+        in.duplicate().get(inArray, 0, inLen);
+      }
+      if (type == CompressionType.GZIP) {
+        inOff += GZIP_HEADER.length;
+        inLen -= GZIP_HEADER.length + GZIP_TRAILER_SIZE;
+      }
+
+      int outLen = out.remaining();
+      byte[] outArray;
+      int outOff;
+      if (out.hasArray()) {
+        outArray = out.array();
+        outOff = out.arrayOffset() + out.position();
+      } else {
+        outArray = outScratch = ensureCapacity(outScratch, outLen);
+        outOff = 0;
+      }
+
+      inflater.reset();
+      inflater.setInput(inArray, inOff, inLen);
+      int produced = 0;
+      while (!inflater.finished() && produced < outLen) {
+        int n = inflater.inflate(outArray, outOff + produced, outLen - produced);
+        if (n == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+          throw new DataFormatException("truncated input");
+        }
+        produced += n;
+      }
+
+      if (type == CompressionType.GZIP) {
+        crc32.reset();
+        crc32.update(outArray, outOff, produced);
+        if ((int) crc32.getValue() != readIntLE(inArray, inOff + inLen)) {
+          throw new DataFormatException("gzip CRC32 mismatch");
+        }
+      }
+
+      if (!out.hasArray()) {
+        out.put(outArray, 0, produced);
+      } else {
+        out.position(out.position() + produced);
+      }
+      in.position(in.limit());
+      return produced;
+    }
+
+    @Override
+    public void close() {
+      deflater.end();
+      inflater.end();
+    }
+
+    private static byte[] ensureCapacity(byte[] array, int capacity) {
+      return array.length >= capacity ? array : new byte[capacity];
+    }
+
+    private static void writeIntLE(byte[] array, int off, int value) {
+      array[off] = (byte) value;
+      array[off + 1] = (byte) (value >>> 8);
+      array[off + 2] = (byte) (value >>> 16);
+      array[off + 3] = (byte) (value >>> 24);
+    }
+
+    private static int readIntLE(byte[] array, int off) {
+      return (array[off] & 0xff)
+          | (array[off + 1] & 0xff) << 8
+          | (array[off + 2] & 0xff) << 16
+          | (array[off + 3] & 0xff) << 24;
+    }
+  }
+}
@@ -0,0 +1,84 @@
+/*
+ * Copyright 2024 Andrew Steinborn
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package me.steinborn.libdeflate.benchmark;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+import me.steinborn.libdeflate.LibdeflateCRC32;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Times the JNI crossing on its own. A CRC-32 over zero bytes does no native work, so with {@code
+ * size=0} the heap benchmark measures a JNI transition plus {@code GetPrimitiveArrayCritical} and
+ * the direct benchmark measures a JNI transition plus {@code GetDirectBufferAddress}. Increasing
+ * {@code size} shows where the fixed cost stops mattering, and the {@code java.util.zip.CRC32}
+ * benchmark (an intrinsic on most JVMs) shows where crossing into native code starts paying off.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class JniCrossingBenchmark {
+  @Param({"0", "16", "64", "256", "1024", "16384"})
+  public int size;
+
+  private final LibdeflateCRC32 libdeflateCrc32 = new LibdeflateCRC32();
+  private final CRC32 jdkCrc32 = new CRC32();
+  private byte[] heap;
+  private ByteBuffer direct;
+
+  @Setup(Level.Trial)
+  public void setup() {
+    heap = BenchmarkCorpus.RANDOM.generate(size);
+    direct = ByteBuffer.allocateDirect(size);
+    direct.put(heap);
+    direct.flip();
+  }
+
+  @Benchmark
+  public long criticalArray() {
+    libdeflateCrc32.update(heap, 0, size);
+    return libdeflateCrc32.getValue();
+  }
+
+  @Benchmark
+  public long directBufferAddress() {
+    direct.rewind();
+    libdeflateCrc32.update(direct);
+    return libdeflateCrc32.getValue();
+  }
+
+  @Benchmark
+  public long jdkIntrinsic() {
+    jdkCrc32.update(heap, 0, size);
+    return jdkCrc32.getValue();
+  }
+}
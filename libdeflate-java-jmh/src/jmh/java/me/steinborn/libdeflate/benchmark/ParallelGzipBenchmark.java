@@ -0,0 +1,93 @@
+/*
+ * Copyright 2024 Andrew Steinborn
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package me.steinborn.libdeflate.benchmark;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import me.steinborn.libdeflate.CompressionType;
+import me.steinborn.libdeflate.LibdeflateCompressor;
+import me.steinborn.libdeflate.ParallelGzipCompressor;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares compressing a large payload to gzip with a single {@link LibdeflateCompressor} call
+ * against {@link ParallelGzipCompressor} on pools of increasing size. Ideally the time per
+ * operation halves every time the number of threads doubles, up to the number of cores.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ParallelGzipBenchmark {
+  @Param({"6", "9"})
+  public int level;
+
+  @Param({"67108864"})
+  public int size;
+
+  @Param({"1", "2", "4", "8"})
+  public int threads;
+
+  @Param({"1048576"})
+  public int chunkSize;
+
+  private byte[] source;
+  private byte[] destination;
+  private LibdeflateCompressor single;
+  private ForkJoinPool pool;
+  private ParallelGzipCompressor parallel;
+
+  @Setup(Level.Trial)
+  public void setup() {
+    source = BenchmarkCorpus.TEXT.generate(size);
+    destination =
+        new byte[(int) LibdeflateCompressor.getGenericCompressionBound(size, CompressionType.GZIP)];
+    single = new LibdeflateCompressor(level);
+    pool = new ForkJoinPool(threads);
+    parallel = new ParallelGzipCompressor(level, chunkSize, pool);
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() {
+    single.close();
+    parallel.close();
+    pool.shutdown();
+  }
+
+  @Benchmark
+  public int singleCall() {
+    return single.compress(source, destination, CompressionType.GZIP);
+  }
+
+  @Benchmark
+  public int parallel() {
+    return parallel.compress(source).length;
+  }
+}
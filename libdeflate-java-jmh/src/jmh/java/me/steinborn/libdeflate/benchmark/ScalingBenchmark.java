@@ -0,0 +1,195 @@
+/*
+ * Copyright 2024 Andrew Steinborn
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package me.steinborn.libdeflate.benchmark;
+
+import java.nio.ByteBuffer;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.DataFormatException;
+import me.steinborn.libdeflate.CompressionType;
+import me.steinborn.libdeflate.LibdeflateCRC32;
+import me.steinborn.libdeflate.LibdeflateCompressor;
+import me.steinborn.libdeflate.LibdeflateDecompressor;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Drives compression, decompression and CRC-32 from many threads at once. Use {@link ScalingRunner}
+ * to run this benchmark for an increasing number of threads and get the throughput per thread, or
+ * pass {@code -t} to JMH directly.
+ *
+ * <p>With {@link ContextMode#PER_THREAD} every thread owns its contexts, which is the ideal case.
+ * With {@link ContextMode#POOLED} contexts are borrowed from and returned to a shared lock-free
+ * queue around every call, which shows the cost of sharing contexts between threads.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ScalingBenchmark {
+  public enum ContextMode {
+    PER_THREAD,
+    POOLED
+  }
+
+  @State(Scope.Benchmark)
+  public static class Shared {
+    @Param({"PER_THREAD", "POOLED"})
+    public ContextMode contexts;
+
+    @Param({"GZIP"})
+    public CompressionType type;
+
+    @Param({"6"})
+    public int level;
+
+    @Param({"1024", "65536"})
+    public int size;
+
+    @Param({"BOTH_DIRECT"})
+    public BufferKind buffers;
+
+    final Queue<LibdeflateCompressor> compressors = new ConcurrentLinkedQueue<>();
+    final Queue<LibdeflateDecompressor> decompressors = new ConcurrentLinkedQueue<>();
+    byte[] uncompressed;
+    byte[] compressed;
+
+    @Setup(Level.Trial)
+    public void setup() {
+      uncompressed = BenchmarkCorpus.TEXT.generate(size);
+      ByteBuffer out =
+          ByteBuffer.allocate((int) LibdeflateCompressor.getGenericCompressionBound(size, type));
+      try (LibdeflateCompressor compressor = new LibdeflateCompressor(level)) {
+        compressor.compress(ByteBuffer.wrap(uncompressed), out, type);
+      }
+      out.flip();
+      compressed = new byte[out.remaining()];
+      out.get(compressed);
+    }
+
+    LibdeflateCompressor borrowCompressor() {
+      LibdeflateCompressor compressor = compressors.poll();
+      return compressor != null ? compressor : new LibdeflateCompressor(level);
+    }
+
+    LibdeflateDecompressor borrowDecompressor() {
+      LibdeflateDecompressor decompressor = decompressors.poll();
+      return decompressor != null ? decompressor : new LibdeflateDecompressor();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+      LibdeflateCompressor compressor;
+      while ((compressor = compressors.poll()) != null) {
+        compressor.close();
+      }
+      LibdeflateDecompressor decompressor;
+      while ((decompressor = decompressors.poll()) != null) {
+        decompressor.close();
+      }
+    }
+  }
+
+  @State(Scope.Thread)
+  public static class PerThread {
+    LibdeflateCompressor compressor;
+    LibdeflateDecompressor decompressor;
+    final LibdeflateCRC32 crc32 = new LibdeflateCRC32();
+    ByteBuffer uncompressed;
+    ByteBuffer compressed;
+    ByteBuffer compressDestination;
+    ByteBuffer decompressDestination;
+
+    @Setup(Level.Trial)
+    public void setup(Shared shared) {
+      if (shared.contexts == ContextMode.PER_THREAD) {
+        compressor = new LibdeflateCompressor(shared.level);
+        decompressor = new LibdeflateDecompressor();
+      }
+      uncompressed = shared.buffers.wrapSource(shared.uncompressed);
+      compressed = shared.buffers.wrapSource(shared.compressed);
+      compressDestination =
+          shared.buffers.allocateDestination(
+              (int) LibdeflateCompressor.getGenericCompressionBound(shared.size, shared.type));
+      decompressDestination = shared.buffers.allocateDestination(shared.size);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+      if (compressor != null) {
+        compressor.close();
+        decompressor.close();
+      }
+    }
+  }
+
+  @Benchmark
+  public int compress(Shared shared, PerThread state) {
+    state.uncompressed.rewind();
+    state.compressDestination.clear();
+    if (state.compressor != null) {
+      return state.compressor.compress(state.uncompressed, state.compressDestination, shared.type);
+    }
+
+    LibdeflateCompressor compressor = shared.borrowCompressor();
+    try {
+      return compressor.compress(state.uncompressed, state.compressDestination, shared.type);
+    } finally {
+      shared.compressors.offer(compressor);
+    }
+  }
+
+  @Benchmark
+  public int decompress(Shared shared, PerThread state) throws DataFormatException {
+    state.compressed.rewind();
+    state.decompressDestination.clear();
+    if (state.decompressor != null) {
+      state.decompressor.decompress(state.compressed, state.decompressDestination, shared.type);
+      return state.decompressDestination.position();
+    }
+
+    LibdeflateDecompressor decompressor = shared.borrowDecompressor();
+    try {
+      decompressor.decompress(state.compressed, state.decompressDestination, shared.type);
+      return state.decompressDestination.position();
+    } finally {
+      shared.decompressors.offer(decompressor);
+    }
+  }
+
+  @Benchmark
+  public long crc32(PerThread state) {
+    // Checksums are stateless on the native side, so there are no contexts to share here.
+    state.uncompressed.rewind();
+    state.crc32.reset();
+    state.crc32.update(state.uncompressed);
+    return state.crc32.getValue();
+  }
+}
@@ -0,0 +1,116 @@
+/*
+ * Copyright 2024 Andrew Steinborn
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package me.steinborn.libdeflate.benchmark;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import org.openjdk.jmh.results.RunResult;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs {@link ScalingBenchmark} with 1, 2, 4, ... threads up to the number of available processors
+ * (or up to the value of the {@code libdeflate_max_threads} system property) and prints the
+ * throughput per thread for each step. Perfect scaling keeps the per-thread throughput constant.
+ *
+ * <p>Any arguments are passed through to JMH, so the usual options (such as {@code -p size=1024} or
+ * {@code -f 3}) can be used to change the run.
+ */
+public final class ScalingRunner {
+  private ScalingRunner() {}
+
+  public static void main(String[] args) throws RunnerException, CommandLineOptionException {
+    int maxThreads =
+        Integer.getInteger("libdeflate_max_threads", Runtime.getRuntime().availableProcessors());
+    CommandLineOptions commandLine = new CommandLineOptions(args);
+
+    List<Integer> threadCounts = new ArrayList<>();
+    for (int threads = 1; threads < maxThreads; threads *= 2) {
+      threadCounts.add(threads);
+    }
+    threadCounts.add(maxThreads);
+
+    // benchmark + params -> (threads -> ops/s)
+    Map<String, Map<Integer, Double>> results = new LinkedHashMap<>();
+    for (int threads : threadCounts) {
+      ChainedOptionsBuilder options =
+          new OptionsBuilder()
+              .parent(commandLine)
+              .include(ScalingBenchmark.class.getName())
+              .threads(threads)
+              .shouldDoGC(true);
+      Collection<RunResult> runResults = new Runner(options.build()).run();
+      for (RunResult result : runResults) {
+        String key =
+            result.getParams().getBenchmark().replace(ScalingBenchmark.class.getName() + ".", "")
+                + " "
+                + describeParams(result);
+        results
+            .computeIfAbsent(key, k -> new LinkedHashMap<>())
+            .put(threads, result.getPrimaryResult().getScore());
+      }
+    }
+
+    int width = "Benchmark".length();
+    for (String key : results.keySet()) {
+      width = Math.max(width, key.length());
+    }
+
+    System.out.println();
+    System.out.printf(
+        Locale.ROOT,
+        "%-" + width + "s %8s %16s %16s %10s%n",
+        "Benchmark",
+        "Threads",
+        "ops/s",
+        "ops/s/thread",
+        "Scaling");
+    for (Map.Entry<String, Map<Integer, Double>> entry : results.entrySet()) {
+      Double single = entry.getValue().get(1);
+      for (Map.Entry<Integer, Double> step : entry.getValue().entrySet()) {
+        double perThread = step.getValue() / step.getKey();
+        System.out.printf(
+            Locale.ROOT,
+            "%-" + width + "s %8d %16.1f %16.1f %9.0f%%%n",
+            entry.getKey(),
+            step.getKey(),
+            step.getValue(),
+            perThread,
+            single == null ? Double.NaN : 100 * perThread / single);
+      }
+    }
+  }
+
+  private static String describeParams(RunResult result) {
+    StringBuilder builder = new StringBuilder();
+    for (String param : result.getParams().getParamsKeys()) {
+      if (builder.length() > 0) {
+        builder.append(',');
+      }
+      builder.append(param).append('=').append(result.getParams().getParam(param));
+    }
+    return builder.toString();
+  }
+}
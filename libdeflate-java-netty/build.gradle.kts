@@ -0,0 +1,21 @@
+plugins {
+    `java-library`
+}
+
+val nettyVersion = "4.1.100.Final"
+
+dependencies {
+    api(project(":libdeflate-java-core"))
+    // Applications bring their own Netty; we only need the buffer and codec APIs to compile against.
+    compileOnly("io.netty:netty-codec:$nettyVersion")
+
+    testImplementation("io.netty:netty-codec:$nettyVersion")
+    testImplementation(testFixtures(project(":libdeflate-java-core")))
+    testImplementation("org.junit.jupiter:junit-jupiter-api:5.7.0")
+    testImplementation("org.junit.jupiter:junit-jupiter-params:5.7.0")
+    testRuntimeOnly("org.junit.jupiter:junit-jupiter-engine:5.7.0")
+}
+
+tasks.named<Test>("test") {
+    useJUnitPlatform()
+}
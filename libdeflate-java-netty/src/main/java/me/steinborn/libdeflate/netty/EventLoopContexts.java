@@ -0,0 +1,104 @@
+/*
+ * Copyright 2024 Andrew Steinborn
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package me.steinborn.libdeflate.netty;
+
+import io.netty.util.concurrent.FastThreadLocal;
+import me.steinborn.libdeflate.LibdeflateCompressor;
+import me.steinborn.libdeflate.LibdeflateDecompressor;
+
+/**
+ * Hands out one libdeflate compressor per compression level and one decompressor to each thread.
+ * Since a channel is only ever served by its event loop, this gives every event loop its own
+ * contexts, shared by all of its channels, without any locking.
+ *
+ * <p>The contexts of a thread are freed when Netty removes its thread-locals, which happens when an
+ * event loop thread terminates. Contexts used by other threads are only freed when {@link
+ * #release()} is called on that thread.
+ *
+ * <p><strong>Thread-safety</strong>: this class is thread-safe. The contexts it hands out must only
+ * be used by the thread that obtained them.
+ */
+public final class EventLoopContexts {
+  private static final int LEVELS = 13;
+
+  private static final FastThreadLocal<Contexts> CONTEXTS =
+      new FastThreadLocal<Contexts>() {
+        @Override
+        protected Contexts initialValue() {
+          return new Contexts();
+        }
+
+        @Override
+        protected void onRemoval(Contexts contexts) {
+          contexts.close();
+        }
+      };
+
+  private EventLoopContexts() {}
+
+  /**
+   * Returns the compressor for the given level belonging to the current thread, creating it if
+   * needed.
+   *
+   * @param level the compression level, from 0 to 12
+   * @return the compressor
+   * @throws IllegalArgumentException if the level is not within range
+   */
+  public static LibdeflateCompressor compressor(int level) {
+    level = LibdeflateCompressor.normalizeLevel(level);
+    Contexts contexts = CONTEXTS.get();
+    LibdeflateCompressor compressor = contexts.compressors[level];
+    if (compressor == null) {
+      compressor = new LibdeflateCompressor(level);
+      contexts.compressors[level] = compressor;
+    }
+    return compressor;
+  }
+
+  /**
+   * Returns the decompressor belonging to the current thread, creating it if needed.
+   *
+   * @return the decompressor
+   */
+  public static LibdeflateDecompressor decompressor() {
+    Contexts contexts = CONTEXTS.get();
+    if (contexts.decompressor == null) {
+      contexts.decompressor = new LibdeflateDecompressor();
+    }
+    return contexts.decompressor;
+  }
+
+  /** Frees the contexts belonging to the current thread. */
+  public static void release() {
+    CONTEXTS.remove();
+  }
+
+  private static final class Contexts {
+    final LibdeflateCompressor[] compressors = new LibdeflateCompressor[LEVELS];
+    LibdeflateDecompressor decompressor;
+
+    void close() {
+      for (LibdeflateCompressor compressor : compressors) {
+        if (compressor != null) {
+          compressor.close();
+        }
+      }
+      if (decompressor != null) {
+        decompressor.close();
+      }
+    }
+  }
+}
@@ -0,0 +1,286 @@
+/*
+ * Copyright 2024 Andrew Steinborn
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package me.steinborn.libdeflate.netty;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.CompositeByteBuf;
+import java.nio.ByteBuffer;
+import java.util.zip.DataFormatException;
+import me.steinborn.libdeflate.CompressionType;
+import me.steinborn.libdeflate.LibdeflateCompressor;
+import me.steinborn.libdeflate.LibdeflateDecompressor;
+
+/**
+ * Compresses and decompresses Netty {@link ByteBuf}s with libdeflate.
+ *
+ * <p>Buffers backed by a single region of memory, whether direct or heap, are handed to libdeflate
+ * in place through their NIO view, without copying. Only a composite buffer whose readable bytes
+ * span several components is first gathered into a single direct buffer, since libdeflate needs its
+ * input in one piece.
+ *
+ * <p>The readable bytes of the input are consumed, and the output is written at the writer index of
+ * the destination, as with {@link ByteBuf#writeBytes(ByteBuf)}.
+ */
+public final class LibdeflateByteBufs {
+  private LibdeflateByteBufs() {}
+
+  /**
+   * Compresses the readable bytes of {@code in} into a new direct buffer allocated from {@code
+   * alloc}, sized by {@link LibdeflateCompressor#getCompressBound(long, CompressionType)}.
+   *
+   * @param compressor the compressor to use
+   * @param in the data to compress
+   * @param alloc the allocator to allocate the output from
+   * @param type the compression container to use
+   * @return a buffer holding the compressed data, which the caller must release
+   */
+  public static ByteBuf compress(
+      LibdeflateCompressor compressor, ByteBuf in, ByteBufAllocator alloc, CompressionType type) {
+    ByteBuf out = alloc.directBuffer(compressBound(compressor, in, type));
+    try {
+      compress(compressor, in, out, type);
+      return out;
+    } catch (Throwable t) {
+      out.release();
+      throw t;
+    }
+  }
+
+  /**
+   * Compresses the readable bytes of {@code in} into the writable bytes of {@code out}. The output
+   * buffer is not expanded; call {@link ByteBuf#ensureWritable(int)} with {@link
+   * #compressBound(LibdeflateCompressor, ByteBuf, CompressionType)} beforehand to be sure that the
+   * data fits.
+   *
+   * @param compressor the compressor to use
+   * @param in the data to compress
+   * @param out the buffer to write the compressed data to
+   * @param type the compression container to use
+   * @return a positive, non-zero integer with the size of the compressed output, or zero if the
+   *     output buffer was too small, in which case neither buffer is changed
+   */
+  public static int compress(
+      LibdeflateCompressor compressor, ByteBuf in, ByteBuf out, CompressionType type) {
+    int length = in.readableBytes();
+    ByteBuf gathered = null;
+    ByteBuf scratch = null;
+    try {
+      ByteBuffer source = readableView(in);
+      if (source == null) {
+        gathered = gather(in, out.alloc());
+        source = readableView(gathered);
+      }
+
+      ByteBuffer target = writableView(out, out.writableBytes());
+      if (target == null) {
+        scratch = out.alloc().directBuffer(out.writableBytes());
+        target = writableView(scratch, scratch.writableBytes());
+      }
+
+      int produced = compressor.compress(source, target, type);
+      if (produced != 0) {
+        if (scratch != null) {
+          out.writeBytes(scratch, 0, produced);
+        } else {
+          out.writerIndex(out.writerIndex() + produced);
+        }
+        in.skipBytes(length);
+      }
+      return produced;
+    } finally {
+      if (gathered != null) {
+        gathered.release();
+      }
+      if (scratch != null) {
+        scratch.release();
+      }
+    }
+  }
+
+  /**
+   * Returns the largest possible size of the compressed form of the readable bytes of {@code in}.
+   *
+   * @param compressor the compressor to use
+   * @param in the data to compress
+   * @param type the compression container to use
+   * @return the upper bound
+   */
+  public static int compressBound(
+      LibdeflateCompressor compressor, ByteBuf in, CompressionType type) {
+    return (int) Math.min(Integer.MAX_VALUE, compressor.getCompressBound(in.readableBytes(), type));
+  }
+
+  /**
+   * Decompresses the readable bytes of {@code in}, whose uncompressed size is known, into {@code
+   * out}, expanding it if needed. Only as many bytes of {@code in} are consumed as make up the
+   * compressed data.
+   *
+   * @param decompressor the decompressor to use
+   * @param in the data to decompress
+   * @param out the buffer to write the decompressed data to
+   * @param type the compression container in use
+   * @param uncompressedSize the exact size of the decompressed data
+   * @throws DataFormatException if the data is corrupt or does not decompress to exactly {@code
+   *     uncompressedSize} bytes
+   */
+  public static void decompress(
+      LibdeflateDecompressor decompressor,
+      ByteBuf in,
+      ByteBuf out,
+      CompressionType type,
+      int uncompressedSize)
+      throws DataFormatException {
+    out.ensureWritable(uncompressedSize);
+    ByteBuf gathered = null;
+    ByteBuf scratch = null;
+    try {
+      ByteBuffer source = readableView(in);
+      if (source == null) {
+        gathered = gather(in, out.alloc());
+        source = readableView(gathered);
+      }
+
+      ByteBuffer target = writableView(out, uncompressedSize);
+      if (target == null) {
+        scratch = out.alloc().directBuffer(uncompressedSize);
+        target = writableView(scratch, uncompressedSize);
+      }
+
+      int start = source.position();
+      decompressor.decompress(source, target, type, uncompressedSize);
+      if (scratch != null) {
+        out.writeBytes(scratch, 0, uncompressedSize);
+      } else {
+        out.writerIndex(out.writerIndex() + uncompressedSize);
+      }
+      in.skipBytes(source.position() - start);
+    } finally {
+      if (gathered != null) {
+        gathered.release();
+      }
+      if (scratch != null) {
+        scratch.release();
+      }
+    }
+  }
+
+  /**
+   * Decompresses the readable bytes of {@code in}, whose uncompressed size is not known, into a new
+   * direct buffer allocated from {@code alloc}. Gzip data is sized from the uncompressed size in
+   * its trailer; otherwise the output starts at four times the size of the input and is doubled,
+   * starting the decompression over, until the data fits.
+   *
+   * @param decompressor the decompressor to use
+   * @param in the data to decompress
+   * @param alloc the allocator to allocate the output from
+   * @param type the compression container in use
+   * @param maxSize the largest decompressed size to accept
+   * @return a buffer holding the decompressed data, which the caller must release
+   * @throws DataFormatException if the data is corrupt or decompresses to more than {@code maxSize}
+   *     bytes
+   */
+  public static ByteBuf decompress(
+      LibdeflateDecompressor decompressor,
+      ByteBuf in,
+      ByteBufAllocator alloc,
+      CompressionType type,
+      int maxSize)
+      throws DataFormatException {
+    int length = in.readableBytes();
+    int limit = (int) Math.min(maxSize, LibdeflateDecompressor.getDecompressionBound(length));
+    long guess = length * 4L;
+    if (type == CompressionType.GZIP && length >= 18) {
+      guess = in.getUnsignedIntLE(in.writerIndex() - 4);
+    }
+    int size = (int) Math.min(Math.max(guess, 64), limit);
+
+    ByteBuf gathered = null;
+    ByteBuf out = alloc.directBuffer(size);
+    boolean success = false;
+    try {
+      ByteBuffer source = readableView(in);
+      if (source == null) {
+        gathered = gather(in, alloc);
+        source = readableView(gathered);
+      }
+
+      while (true) {
+        int start = source.position();
+        long result = decompressor.decompressUnknownSize(source, writableView(out, size), type);
+        if (result != -1) {
+          out.writerIndex((int) result);
+          in.skipBytes(source.position() - start);
+          success = true;
+          return out;
+        }
+        if (size == limit) {
+          throw new DataFormatException("data decompresses to more than " + limit + " bytes");
+        }
+        size = (int) Math.min(size * 2L, limit);
+        out.capacity(size);
+      }
+    } finally {
+      if (gathered != null) {
+        gathered.release();
+      }
+      if (!success) {
+        out.release();
+      }
+    }
+  }
+
+  /**
+   * Returns an NIO view of the readable bytes of {@code buf} that libdeflate can read directly, or
+   * {@code null} if there is none.
+   */
+  private static ByteBuffer readableView(ByteBuf buf) {
+    if (buf.nioBufferCount() != 1) {
+      return null;
+    }
+    // A composite buffer can only expose its internal buffer if it has exactly one component.
+    ByteBuffer view =
+        buf instanceof CompositeByteBuf
+            ? buf.nioBuffer(buf.readerIndex(), buf.readableBytes())
+            : buf.internalNioBuffer(buf.readerIndex(), buf.readableBytes());
+    return usable(view) ? view : null;
+  }
+
+  /**
+   * Returns an NIO view of the next {@code length} writable bytes of {@code buf} that libdeflate
+   * can write to directly, or {@code null} if there is none.
+   */
+  private static ByteBuffer writableView(ByteBuf buf, int length) {
+    if (buf instanceof CompositeByteBuf || buf.nioBufferCount() != 1) {
+      return null;
+    }
+    ByteBuffer view = buf.internalNioBuffer(buf.writerIndex(), length);
+    return usable(view) ? view : null;
+  }
+
+  /** Read-only heap buffers don't expose their array, which libdeflate needs. */
+  private static boolean usable(ByteBuffer view) {
+    return view.isDirect() || view.hasArray();
+  }
+
+  private static ByteBuf gather(ByteBuf in, ByteBufAllocator alloc) {
+    ByteBuf gathered = alloc.directBuffer(in.readableBytes());
+    for (ByteBuffer component : in.nioBuffers()) {
+      gathered.writeBytes(component);
+    }
+    return gathered;
+  }
+}
@@ -0,0 +1,92 @@
+/*
+ * Copyright 2024 Andrew Steinborn
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package me.steinborn.libdeflate.netty;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.ChannelHandler;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.handler.codec.MessageToMessageDecoder;
+import io.netty.handler.codec.compression.DecompressionException;
+import java.util.List;
+import java.util.zip.DataFormatException;
+import me.steinborn.libdeflate.CompressionType;
+
+/**
+ * Decompresses each inbound {@link ByteBuf}, which must hold exactly one complete gzip, zlib or raw
+ * DEFLATE stream, such as those written by {@link LibdeflateEncoder}. Messages are usually split
+ * apart by a framing decoder such as {@link io.netty.handler.codec.LengthFieldBasedFrameDecoder}
+ * placed before this decoder.
+ *
+ * <p>The output is a direct buffer from the channel's allocator. For gzip streams it is sized from
+ * the uncompressed size in the trailer, otherwise it is grown until the data fits, up to a maximum
+ * size that guards against decompression bombs.
+ *
+ * <p>Decompressors are taken from {@link EventLoopContexts}, so each event loop uses one
+ * decompressor for all of its channels.
+ *
+ * <p><strong>Thread-safety</strong>: this handler is stateless and may be shared between channels.
+ */
+@ChannelHandler.Sharable
+public class LibdeflateDecoder extends MessageToMessageDecoder<ByteBuf> {
+  /** The default limit on the decompressed size of a message, 8 MiB. */
+  public static final int DEFAULT_MAX_SIZE = 8 * 1024 * 1024;
+
+  private final CompressionType type;
+  private final int maxSize;
+
+  /**
+   * Creates a decoder that accepts messages of up to {@link #DEFAULT_MAX_SIZE} bytes once
+   * decompressed.
+   *
+   * @param type the compression container in use
+   */
+  public LibdeflateDecoder(CompressionType type) {
+    this(type, DEFAULT_MAX_SIZE);
+  }
+
+  /**
+   * Creates a decoder.
+   *
+   * @param type the compression container in use
+   * @param maxSize the largest decompressed size of a message to accept
+   * @throws IllegalArgumentException if {@code maxSize} is negative
+   */
+  public LibdeflateDecoder(CompressionType type, int maxSize) {
+    if (maxSize < 0) {
+      throw new IllegalArgumentException("maxSize = " + maxSize);
+    }
+    this.type = type;
+    this.maxSize = maxSize;
+  }
+
+  @Override
+  protected void decode(ChannelHandlerContext ctx, ByteBuf msg, List<Object> out) {
+    ByteBuf decompressed;
+    try {
+      decompressed =
+          LibdeflateByteBufs.decompress(
+              EventLoopContexts.decompressor(), msg, ctx.alloc(), type, maxSize);
+    } catch (DataFormatException e) {
+      throw new DecompressionException(e);
+    }
+    if (msg.isReadable()) {
+      decompressed.release();
+      throw new DecompressionException(
+          msg.readableBytes() + " bytes of trailing data after the compressed stream");
+    }
+    out.add(decompressed);
+  }
+}
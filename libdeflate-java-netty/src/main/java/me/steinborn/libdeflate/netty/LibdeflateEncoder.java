@@ -0,0 +1,79 @@
+/*
+ * Copyright 2024 Andrew Steinborn
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package me.steinborn.libdeflate.netty;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.ChannelHandler;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.handler.codec.EncoderException;
+import io.netty.handler.codec.MessageToByteEncoder;
+import me.steinborn.libdeflate.CompressionType;
+import me.steinborn.libdeflate.LibdeflateCompressor;
+
+/**
+ * Compresses each outbound {@link ByteBuf} on its own, producing one complete gzip, zlib or raw
+ * DEFLATE stream per message. The output buffer is a direct buffer from the channel's allocator,
+ * sized by the compression bound, so the data is compressed in one call without copying.
+ *
+ * <p>Since the compressed messages are not delimited, this encoder is usually followed by a framing
+ * encoder such as {@link io.netty.handler.codec.LengthFieldPrepender}, and paired with a {@link
+ * LibdeflateDecoder} on the other end.
+ *
+ * <p>Compressors are taken from {@link EventLoopContexts}, so each event loop uses one compressor
+ * for all of its channels.
+ *
+ * <p><strong>Thread-safety</strong>: this handler is stateless and may be shared between channels.
+ */
+@ChannelHandler.Sharable
+public class LibdeflateEncoder extends MessageToByteEncoder<ByteBuf> {
+  private final CompressionType type;
+  private final int level;
+
+  /**
+   * Creates an encoder that compresses at the default level.
+   *
+   * @param type the compression container to use
+   */
+  public LibdeflateEncoder(CompressionType type) {
+    this(type, 6);
+  }
+
+  /**
+   * Creates an encoder.
+   *
+   * @param type the compression container to use
+   * @param level the compression level to use, from 0 to 12
+   * @throws IllegalArgumentException if the level is not within range
+   */
+  public LibdeflateEncoder(CompressionType type, int level) {
+    this.type = type;
+    this.level = LibdeflateCompressor.normalizeLevel(level);
+  }
+
+  @Override
+  protected ByteBuf allocateBuffer(ChannelHandlerContext ctx, ByteBuf msg, boolean preferDirect) {
+    LibdeflateCompressor compressor = EventLoopContexts.compressor(level);
+    return ctx.alloc().directBuffer(LibdeflateByteBufs.compressBound(compressor, msg, type));
+  }
+
+  @Override
+  protected void encode(ChannelHandlerContext ctx, ByteBuf msg, ByteBuf out) {
+    if (LibdeflateByteBufs.compress(EventLoopContexts.compressor(level), msg, out, type) == 0) {
+      // The output was sized by compressBound, so this only happens if the bound was wrong.
+      throw new EncoderException("compressed data exceeded its bound");
+    }
+  }
+}
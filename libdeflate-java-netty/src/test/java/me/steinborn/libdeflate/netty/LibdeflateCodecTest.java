@@ -0,0 +1,181 @@
+/*
+ * Copyright 2024 Andrew Steinborn
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package me.steinborn.libdeflate.netty;
+
+import static me.steinborn.libdeflate.TestData.sample;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.ByteBufUtil;
+import io.netty.buffer.CompositeByteBuf;
+import io.netty.buffer.PooledByteBufAllocator;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.handler.codec.EncoderException;
+import io.netty.handler.codec.compression.DecompressionException;
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+import me.steinborn.libdeflate.CompressionType;
+import me.steinborn.libdeflate.LibdeflateCompressor;
+import me.steinborn.libdeflate.LibdeflateDecompressor;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.EnumSource;
+
+public class LibdeflateCodecTest {
+  private static final ByteBufAllocator ALLOC = PooledByteBufAllocator.DEFAULT;
+
+  /** Splits the data over several components of a composite buffer, some heap and some direct. */
+  private static CompositeByteBuf composite(byte[] data, int pieces) {
+    CompositeByteBuf composite = ALLOC.compositeBuffer(pieces);
+    int step = data.length / pieces + 1;
+    for (int i = 0, off = 0; off < data.length; i++, off += step) {
+      int len = Math.min(step, data.length - off);
+      ByteBuf part = i % 2 == 0 ? ALLOC.heapBuffer(len) : ALLOC.directBuffer(len);
+      composite.addComponent(true, part.writeBytes(data, off, len));
+    }
+    return composite;
+  }
+
+  private static byte[] drain(ByteBuf buf) {
+    byte[] bytes = ByteBufUtil.getBytes(buf);
+    buf.release();
+    return bytes;
+  }
+
+  @ParameterizedTest
+  @EnumSource(CompressionType.class)
+  void roundTripsThroughPipeline(CompressionType type) {
+    EmbeddedChannel channel =
+        new EmbeddedChannel(new LibdeflateEncoder(type, 9), new LibdeflateDecoder(type));
+    byte[][] messages = {sample(100_000), new byte[0], sample(3), sample(50_000)};
+
+    for (byte[] message : messages) {
+      assertTrue(channel.writeOutbound(Unpooled.wrappedBuffer(message)));
+    }
+    assertTrue(channel.writeOutbound(composite(messages[0], 5)));
+    for (int i = 0; i < messages.length + 1; i++) {
+      ByteBuf compressed = channel.readOutbound();
+      assertTrue(compressed.isDirect());
+      assertTrue(channel.writeInbound(compressed));
+    }
+    for (int i = 0; i < messages.length + 1; i++) {
+      ByteBuf decompressed = channel.readInbound();
+      assertArrayEquals(messages[i % messages.length], drain(decompressed));
+    }
+    assertFalse(channel.finish());
+  }
+
+  @ParameterizedTest
+  @EnumSource(CompressionType.class)
+  void compressesBetweenBuffers(CompressionType type) throws Exception {
+    byte[] original = sample(200_000);
+    LibdeflateCompressor compressor = EventLoopContexts.compressor(6);
+    LibdeflateDecompressor decompressor = EventLoopContexts.decompressor();
+
+    ByteBuf[] sources = {
+      Unpooled.wrappedBuffer(original),
+      Unpooled.wrappedBuffer(original).asReadOnly(),
+      ALLOC.directBuffer().writeBytes(original),
+      composite(original, 1),
+      composite(original, 7)
+    };
+    for (ByteBuf source : sources) {
+      ByteBuf compressed = LibdeflateByteBufs.compress(compressor, source, ALLOC, type);
+      assertFalse(source.isReadable());
+      source.release();
+
+      // Decompress into heap, direct and composite destinations.
+      ByteBuf copy = compressed.copy();
+      ByteBuf heap = Unpooled.buffer(1);
+      LibdeflateByteBufs.decompress(decompressor, copy, heap, type, original.length);
+      assertFalse(copy.isReadable());
+      copy.release();
+      assertArrayEquals(original, drain(heap));
+
+      CompositeByteBuf target = ALLOC.compositeBuffer();
+      target.addComponent(true, Unpooled.wrappedBuffer(new byte[] {1, 2}));
+      LibdeflateByteBufs.decompress(
+          decompressor, compressed.duplicate(), target, type, original.length);
+      byte[] prefixed = drain(target);
+      assertArrayEquals(original, Arrays.copyOfRange(prefixed, 2, prefixed.length));
+
+      ByteBuf direct =
+          LibdeflateByteBufs.decompress(decompressor, compressed, ALLOC, type, 1 << 20);
+      assertArrayEquals(original, drain(direct));
+    }
+  }
+
+  @Test
+  void compressReportsFullOutput() {
+    ByteBuf source = Unpooled.wrappedBuffer(sample(10_000));
+    ByteBuf small = Unpooled.buffer(10, 10);
+    assertEquals(
+        0,
+        LibdeflateByteBufs.compress(
+            EventLoopContexts.compressor(6), source, small, CompressionType.ZLIB));
+    assertEquals(10_000, source.readableBytes());
+    assertEquals(0, small.writerIndex());
+  }
+
+  @Test
+  void encoderFailsWhenOutputIsTooSmall() {
+    ByteBuf source = Unpooled.wrappedBuffer(sample(10_000));
+    ByteBuf small = Unpooled.buffer(10, 10);
+    assertThrows(
+        EncoderException.class,
+        () -> new LibdeflateEncoder(CompressionType.ZLIB).encode(null, source, small));
+    assertEquals(0, small.writerIndex());
+  }
+
+  @Test
+  void rejectsBadMessages() {
+    EmbeddedChannel channel =
+        new EmbeddedChannel(
+            new LibdeflateEncoder(CompressionType.ZLIB),
+            new LibdeflateDecoder(CompressionType.ZLIB, 1000));
+    channel.writeOutbound(Unpooled.wrappedBuffer(new byte[100_000]));
+    ByteBuf bomb = channel.readOutbound();
+    assertThrows(DecompressionException.class, () -> channel.writeInbound(bomb));
+
+    channel.writeOutbound(Unpooled.wrappedBuffer(sample(500)));
+    ByteBuf trailing = channel.<ByteBuf>readOutbound().writeByte(0);
+    assertThrows(DecompressionException.class, () -> channel.writeInbound(trailing));
+
+    assertThrows(
+        DecompressionException.class,
+        () -> channel.writeInbound(Unpooled.wrappedBuffer(sample(100))));
+    assertFalse(channel.finish());
+
+    ByteBuf corrupt = Unpooled.wrappedBuffer(sample(100));
+    assertThrows(
+        DataFormatException.class,
+        () ->
+            LibdeflateByteBufs.decompress(
+                EventLoopContexts.decompressor(),
+                corrupt,
+                Unpooled.buffer(),
+                CompressionType.DEFLATE,
+                1000));
+    assertThrows(
+        IllegalArgumentException.class, () -> new LibdeflateEncoder(CompressionType.GZIP, 13));
+  }
+}
@@ -1,2 +1,11 @@
+plugins {
+    // Lets Gradle download the JDK 22 toolchain used to build the java.lang.foreign backend.
+    id("org.gradle.toolchains.foojay-resolver-convention") version "0.8.0"
+}
+
 rootProject.name = "libdeflate-java"
-include("libdeflate-java-core")
\ No newline at end of file
+include("libdeflate-java-core")
+include("libdeflate-java-netty")
+include("libdeflate-java-foreign")
+include("libdeflate-java-flow")
+include("libdeflate-java-jmh")